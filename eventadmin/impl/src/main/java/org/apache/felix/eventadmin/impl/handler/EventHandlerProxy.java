@@ -18,6 +18,7 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -345,6 +346,21 @@ public class EventHandlerProxy {
      * @return {@code true} if the event can be delivered
      */
     public boolean canDeliver(final Event event)
+    {
+        return this.canDeliver(event, PermissionsUtil.createSubscribePermission(event.getTopic()));
+    }
+
+    /**
+     * Check if this handler is allowed to receive the event
+     * - denied
+     * - check filter
+     * - check permission
+     * @param event The event
+     * @param subscribePermission The permission to subscribe to the topic of
+     *        the event or {@code null} if permissions are not supported
+     * @return {@code true} if the event can be delivered
+     */
+    public boolean canDeliver(final Event event, final Permission subscribePermission)
     {
         if ( this.denied.get() )
         {
@@ -365,8 +381,7 @@ public class EventHandlerProxy {
         }
 
         // permission check
-        final Object p = PermissionsUtil.createSubscribePermission(event.getTopic());
-        if (p != null && !bundle.hasPermission(p) )
+        if (subscribePermission != null && !bundle.hasPermission(subscribePermission) )
         {
             return false;
         }
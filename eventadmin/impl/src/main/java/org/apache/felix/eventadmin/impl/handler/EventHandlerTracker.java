@@ -18,14 +18,21 @@
  */
 package org.apache.felix.eventadmin.impl.handler;
 
+import java.security.Permission;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.felix.eventadmin.impl.security.PermissionsUtil;
 import org.apache.felix.eventadmin.impl.util.Matchers;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceReference;
@@ -40,19 +47,26 @@ import org.osgi.util.tracker.ServiceTracker;
  */
 public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandlerProxy> {
 
+    /** The maximum number of topics for which the handlers are cached,
+     * the cache is started afresh when it is full.
+     */
+    private static final int MAX_CACHED_TOPICS = 1024;
+
     /** The proxies in this list match all events. */
 	private final List<EventHandlerProxy> matchingAllEvents;
 
-    /** This is a map for exact topic matches. The key is the topic,
-     * the value is a list of proxies.
+    /** The root of the topic trie holding the proxies for exact topic
+     * matches and for wildcard topics. It is changed while holding the
+     * lock of this tracker and read without locking.
      */
-    private final Map<String, List<EventHandlerProxy>> matchingTopic;
-
-	/** This is a map for wildcard topics. The key is the prefix of the topic,
-	 * the value is a list of proxies
-	 */
-	private final Map<String, List<EventHandlerProxy>> matchingPrefixTopic;
+    private final TopicNode topicTrie;
 
+    /** The handlers per topic, replaced by an empty cache whenever a handler
+     * is added or removed. Handlers collected from the trie are only put into
+     * the cache which was current before the trie was read, so handlers
+     * collected before a change never end up in the cache of a later state.
+     */
+    private final AtomicReference<Map<String, TopicHandlers>> handlersCache;
 
 	/** The context for the proxies. */
 	private HandlerContext handlerContext;
@@ -62,8 +76,8 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 
 		// we start with empty collections
 		this.matchingAllEvents = new CopyOnWriteArrayList<>();
-		this.matchingTopic = new ConcurrentHashMap<>();
-		this.matchingPrefixTopic = new ConcurrentHashMap<>();
+		this.topicTrie = new TopicNode();
+		this.handlersCache = new AtomicReference<Map<String, TopicHandlers>>(new ConcurrentHashMap<String, TopicHandlers>());
 	}
 
     /**
@@ -108,32 +122,6 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
         proxy.dispose();
 	}
 
-	private void updateMap(final Map<String, List<EventHandlerProxy>> proxyListMap, final String key, final EventHandlerProxy proxy, final boolean add) {
-        List<EventHandlerProxy> proxies = proxyListMap.get(key);
-        if (proxies == null)
-        {
-            if ( !add )
-            {
-                return;
-            }
-            proxies = new CopyOnWriteArrayList<>();
-            proxyListMap.put(key, proxies);
-        }
-
-        if ( add )
-        {
-            proxies.add(proxy);
-        }
-        else
-        {
-            proxies.remove(proxy);
-            if ( proxies.size() == 0 )
-            {
-                proxyListMap.remove(key);
-            }
-        }
-	}
-
 	/**
 	 * Check the topics of the event handler and put it into the
 	 * corresponding collections.
@@ -153,15 +141,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
     			{
                     // prefix topic: we remove the /*
     				final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, true);
+                    this.topicTrie.getOrCreate(prefix).addPrefix(proxy);
     			}
     			else
     			{
     			    // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, true);
+                    this.topicTrie.getOrCreate(topic).addExact(proxy);
     			}
     		}
 		}
+		this.handlersCache.set(new ConcurrentHashMap<String, TopicHandlers>());
 	}
 
     /**
@@ -181,15 +170,16 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
                 {
                     // prefix topic: we remove the /*
                     final String prefix = topic.substring(0, topic.length() - 2);
-                    this.updateMap(this.matchingPrefixTopic, prefix, proxy, false);
+                    this.topicTrie.remove(prefix, 0, proxy, true);
                 }
                 else
                 {
                     // exact match
-                    this.updateMap(this.matchingTopic, topic, proxy, false);
+                    this.topicTrie.remove(topic, 0, proxy, false);
                 }
             }
         }
+        this.handlersCache.set(new ConcurrentHashMap<String, TopicHandlers>());
 	}
 
 	/**
@@ -201,28 +191,87 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
 	public Collection<EventHandlerProxy> getHandlers(final Event event) {
 	    final String topic = event.getTopic();
 
-		final Set<EventHandlerProxy> handlers = new HashSet<>();
-
-		// Add all handlers matching everything
-        this.checkHandlerAndAdd(handlers, this.matchingAllEvents, event);
+	    final Map<String, TopicHandlers> cache = this.handlersCache.get();
+	    TopicHandlers topicHandlers = cache.get(topic);
+	    if ( topicHandlers == null )
+	    {
+	        topicHandlers = this.createHandlers(cache, topic);
+	    }
 
-		// Now check for prefix matches
-		if ( !this.matchingPrefixTopic.isEmpty() )
-		{
-		    int pos = topic.lastIndexOf('/');
-			while (pos != -1)
-			{
-			    final String prefix = topic.substring(0, pos);
-		        this.checkHandlerAndAdd(handlers, this.matchingPrefixTopic.get(prefix), event);
-
-				pos = prefix.lastIndexOf('/');
-			}
-		}
+	    // usually all handlers can receive the event and the cached
+	    // collection is returned
+	    final EventHandlerProxy[] proxies = topicHandlers.proxies;
+	    for(int i = 0; i < proxies.length; i++)
+	    {
+	        if ( !proxies[i].canDeliver(event, topicHandlers.subscribePermission) )
+	        {
+	            final List<EventHandlerProxy> handlers = new ArrayList<>(proxies.length - 1);
+	            for(int j = 0; j < i; j++)
+	            {
+	                handlers.add(proxies[j]);
+	            }
+	            for(int j = i + 1; j < proxies.length; j++)
+	            {
+	                if ( proxies[j].canDeliver(event, topicHandlers.subscribePermission) )
+	                {
+	                    handlers.add(proxies[j]);
+	                }
+	            }
+	            return handlers;
+	        }
+	    }
+		return topicHandlers.handlers;
+	}
 
-		// Add the handlers for matching topic names
-		this.checkHandlerAndAdd(handlers, this.matchingTopic.get(topic), event);
+	/**
+	 * Collect the handlers registered for the topic from the topic trie
+	 * and put them into the given cache, which is started afresh if it is
+	 * full. This does not lock, concurrent lookups of the same topic might
+	 * collect the handlers more than once.
+	 */
+	private TopicHandlers createHandlers(final Map<String, TopicHandlers> cache, final String topic) {
+	    final Set<EventHandlerProxy> handlers = new LinkedHashSet<>(this.matchingAllEvents);
+
+	    // walk down the trie, the prefix handlers of each level below the
+	    // topic and the exact handlers of the topic match
+	    TopicNode node = this.topicTrie;
+	    int start = 0;
+	    while ( node != null )
+	    {
+	        final int pos = topic.indexOf('/', start);
+	        if ( pos == -1 )
+	        {
+	            node = node.getChild(topic.substring(start));
+	            final List<EventHandlerProxy> exact = node == null ? null : node.exact;
+	            if ( exact != null )
+	            {
+	                handlers.addAll(exact);
+	            }
+	            break;
+	        }
+	        node = node.getChild(topic.substring(start, pos));
+	        final List<EventHandlerProxy> prefix = node == null ? null : node.prefix;
+	        if ( prefix != null )
+	        {
+	            handlers.addAll(prefix);
+	        }
+	        start = pos + 1;
+	    }
 
-		return handlers;
+	    final TopicHandlers topicHandlers = new TopicHandlers(handlers.toArray(new EventHandlerProxy[handlers.size()]),
+	            PermissionsUtil.createSubscribePermission(topic));
+	    if ( cache.size() < MAX_CACHED_TOPICS )
+	    {
+	        cache.put(topic, topicHandlers);
+	    }
+	    else
+	    {
+	        // only start afresh if no handler was added or removed meanwhile
+	        final Map<String, TopicHandlers> newCache = new ConcurrentHashMap<>();
+	        newCache.put(topic, topicHandlers);
+	        this.handlersCache.compareAndSet(cache, newCache);
+	    }
+	    return topicHandlers;
 	}
 
 	   /**
@@ -239,43 +288,184 @@ public class EventHandlerTracker extends ServiceTracker<EventHandler, EventHandl
             }
         }
 
-        for(final List<EventHandlerProxy> l : this.matchingPrefixTopic.values()) {
-            for(final EventHandlerProxy p :l) {
-                if ( p.isDenied() ) {
-                    handlers.add(p);
+        this.topicTrie.collectDenied(handlers);
+
+        return handlers;
+    }
+
+    /**
+     * The handlers for a topic and the permission to subscribe to it.
+     */
+    private static final class TopicHandlers
+    {
+        /** The handlers registered for the topic. */
+        public final EventHandlerProxy[] proxies;
+
+        /** The handlers as an unmodifiable collection. */
+        public final Collection<EventHandlerProxy> handlers;
+
+        /** The permission to subscribe to the topic or {@code null}. */
+        public final Permission subscribePermission;
+
+        public TopicHandlers(final EventHandlerProxy[] proxies, final Permission subscribePermission)
+        {
+            this.proxies = proxies;
+            this.handlers = Collections.unmodifiableList(Arrays.asList(proxies));
+            this.subscribePermission = subscribePermission;
+        }
+    }
+
+    /**
+     * A node of the topic trie. Each node represents a level of a topic
+     * and holds the handlers for the topic ending at this level as well as
+     * the handlers for all topics below this level. Nodes are changed by
+     * one thread at a time and can be read concurrently.
+     */
+    private static final class TopicNode
+    {
+        /** The nodes of the next level, keyed by the topic token. */
+        private volatile Map<String, TopicNode> children;
+
+        /** The handlers for the exact topic of this node. */
+        volatile List<EventHandlerProxy> exact;
+
+        /** The handlers for all topics below this node. */
+        volatile List<EventHandlerProxy> prefix;
+
+        TopicNode getChild(final String token)
+        {
+            final Map<String, TopicNode> nodes = this.children;
+            return nodes == null ? null : nodes.get(token);
+        }
+
+        TopicNode getOrCreate(final String topic)
+        {
+            TopicNode node = this;
+            int start = 0;
+            while ( true )
+            {
+                final int pos = topic.indexOf('/', start);
+                final String token = pos == -1 ? topic.substring(start) : topic.substring(start, pos);
+                if ( node.children == null )
+                {
+                    node.children = new ConcurrentHashMap<>();
+                }
+                TopicNode child = node.children.get(token);
+                if ( child == null )
+                {
+                    child = new TopicNode();
+                    node.children.put(token, child);
+                }
+                node = child;
+                if ( pos == -1 )
+                {
+                    return node;
+                }
+                start = pos + 1;
+            }
+        }
+
+        void addExact(final EventHandlerProxy proxy)
+        {
+            if ( this.exact == null )
+            {
+                this.exact = new CopyOnWriteArrayList<>();
+            }
+            this.exact.add(proxy);
+        }
+
+        void addPrefix(final EventHandlerProxy proxy)
+        {
+            if ( this.prefix == null )
+            {
+                this.prefix = new CopyOnWriteArrayList<>();
+            }
+            this.prefix.add(proxy);
+        }
+
+        /**
+         * Remove the handler from the node of the topic starting at the
+         * given index and remove nodes which are no longer used.
+         * @return {@code true} if this node is no longer used
+         */
+        boolean remove(final String topic, final int start, final EventHandlerProxy proxy, final boolean isPrefix)
+        {
+            final int pos = topic.indexOf('/', start);
+            final String token = pos == -1 ? topic.substring(start) : topic.substring(start, pos);
+            final TopicNode child = this.getChild(token);
+            if ( child != null )
+            {
+                final boolean unused;
+                if ( pos == -1 )
+                {
+                    if ( isPrefix )
+                    {
+                        child.prefix = removeFrom(child.prefix, proxy);
+                    }
+                    else
+                    {
+                        child.exact = removeFrom(child.exact, proxy);
+                    }
+                    unused = child.isEmpty();
+                }
+                else
+                {
+                    unused = child.remove(topic, pos + 1, proxy, isPrefix);
+                }
+                if ( unused )
+                {
+                    this.children.remove(token);
+                    if ( this.children.isEmpty() )
+                    {
+                        this.children = null;
+                    }
                 }
             }
+            return this.isEmpty();
         }
-        for(final List<EventHandlerProxy> l : this.matchingTopic.values()) {
-            for(final EventHandlerProxy p :l) {
-                if ( p.isDenied() ) {
-                    handlers.add(p);
+
+        void collectDenied(final Set<EventHandlerProxy> handlers)
+        {
+            collectDenied(this.exact, handlers);
+            collectDenied(this.prefix, handlers);
+            final Map<String, TopicNode> nodes = this.children;
+            if ( nodes != null )
+            {
+                for(final TopicNode child : nodes.values())
+                {
+                    child.collectDenied(handlers);
                 }
             }
         }
 
-        return handlers;
-    }
+        private boolean isEmpty()
+        {
+            return this.exact == null && this.prefix == null && this.children == null;
+        }
 
-	/**
-	 * Checks each handler from the proxy list if it can deliver the event
-	 * If the event can be delivered, the proxy is added to the handlers.
-	 */
-	private void checkHandlerAndAdd( final Set<EventHandlerProxy> handlers,
-	        final List<EventHandlerProxy> proxies,
-	        final Event event)
-	{
-	    if ( proxies != null )
-	    {
-            for(final EventHandlerProxy p : proxies)
+        private static List<EventHandlerProxy> removeFrom(final List<EventHandlerProxy> proxies, final EventHandlerProxy proxy)
+        {
+            if ( proxies == null )
             {
-                if ( p.canDeliver(event) )
+                return null;
+            }
+            proxies.remove(proxy);
+            return proxies.isEmpty() ? null : proxies;
+        }
+
+        private static void collectDenied(final List<EventHandlerProxy> proxies, final Set<EventHandlerProxy> handlers)
+        {
+            if ( proxies != null )
+            {
+                for(final EventHandlerProxy p : proxies)
                 {
-                    handlers.add(p);
+                    if ( p.isDenied() ) {
+                        handlers.add(p);
+                    }
                 }
             }
-	    }
-	}
+        }
+    }
 
     /**
      * The context object passed to the proxies.
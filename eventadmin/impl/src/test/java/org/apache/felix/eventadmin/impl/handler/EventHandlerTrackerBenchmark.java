@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+
+/**
+ * Looks up the handlers of an event with 500 handlers registered for
+ * exact topics, 100 for wildcard topics, 10 for all events and 10 with a
+ * filter. Complements the delivery throughput measured by the
+ * {@code PerformanceTestIT} integration test. Run with
+ * {@code java -cp <test classpath> org.apache.felix.eventadmin.impl.handler.EventHandlerTrackerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventHandlerTrackerBenchmark
+{
+    private EventHandlerTracker tracker;
+
+    private Bundle bundle;
+
+    private Event exactEvent;
+
+    private Event wildcardEvent;
+
+    private Event filteredEvent;
+
+    private Event unmatchedEvent;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        final Mockery mockery = new Mockery();
+        mockery.setThreadingPolicy(new Synchroniser());
+        this.tracker = HandlerStubs.createTracker(mockery);
+        this.bundle = HandlerStubs.createBundle();
+        for ( int i = 0; i < 500; i++ )
+        {
+            this.add("org/apache/felix/topic" + i + "/Event", null);
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            this.add("org/apache/felix/topic" + i + "/*", null);
+        }
+        for ( int i = 0; i < 10; i++ )
+        {
+            this.add("*", null);
+            this.add("org/apache/felix/filtered/Event", "(id=" + i + ")");
+        }
+
+        final Map<String, Object> props = Collections.<String, Object>singletonMap("id", "1");
+        this.exactEvent = new Event("org/apache/felix/topic200/Event", props);
+        this.wildcardEvent = new Event("org/apache/felix/topic50/Event", props);
+        this.filteredEvent = new Event("org/apache/felix/filtered/Event", props);
+        this.unmatchedEvent = new Event("com/acme/Event", props);
+    }
+
+    private void add(final String topic, final String filter)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(EventConstants.EVENT_TOPIC, topic);
+        if ( filter != null )
+        {
+            props.put(EventConstants.EVENT_FILTER, filter);
+        }
+        this.tracker.addingService(HandlerStubs.createReference(this.bundle, props));
+    }
+
+    @Benchmark
+    public Collection<EventHandlerProxy> exactTopic()
+    {
+        return this.tracker.getHandlers(this.exactEvent);
+    }
+
+    @Benchmark
+    public Collection<EventHandlerProxy> wildcardTopic()
+    {
+        return this.tracker.getHandlers(this.wildcardEvent);
+    }
+
+    @Benchmark
+    public Collection<EventHandlerProxy> filteredTopic()
+    {
+        return this.tracker.getHandlers(this.filteredEvent);
+    }
+
+    @Benchmark
+    public Collection<EventHandlerProxy> unmatchedTopic()
+    {
+        return this.tracker.getHandlers(this.unmatchedEvent);
+    }
+
+    public static void main(final String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder().include(EventHandlerTrackerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
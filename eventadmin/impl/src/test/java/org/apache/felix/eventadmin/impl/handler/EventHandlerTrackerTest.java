@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+
+public class EventHandlerTrackerTest {
+
+    @Rule
+    public final JUnitRuleMockery context = new JUnitRuleMockery()
+    {{
+        setThreadingPolicy(new Synchroniser());
+    }};
+
+    private EventHandlerTracker tracker;
+
+    private Bundle bundle;
+
+    private final Map<EventHandlerProxy, ServiceReference<EventHandler>> references = new HashMap<>();
+
+    @Before public void setUp() throws Exception
+    {
+        this.tracker = HandlerStubs.createTracker(this.context);
+        this.bundle = HandlerStubs.createBundle();
+    }
+
+    private EventHandlerProxy add(final Object topics, final String filter)
+    {
+        final Map<String, Object> props = new HashMap<>();
+        props.put(EventConstants.EVENT_TOPIC, topics);
+        if ( filter != null )
+        {
+            props.put(EventConstants.EVENT_FILTER, filter);
+        }
+        final ServiceReference<EventHandler> reference = HandlerStubs.createReference(this.bundle, props);
+        final EventHandlerProxy proxy = this.tracker.addingService(reference);
+        this.references.put(proxy, reference);
+        return proxy;
+    }
+
+    private void remove(final EventHandlerProxy proxy)
+    {
+        this.tracker.removedService(this.references.remove(proxy), proxy);
+    }
+
+    private Collection<EventHandlerProxy> handlers(final String topic, final Map<String, Object> props)
+    {
+        return this.tracker.getHandlers(new Event(topic, props));
+    }
+
+    private Collection<EventHandlerProxy> handlers(final String topic)
+    {
+        return this.handlers(topic, Collections.<String, Object>emptyMap());
+    }
+
+    private static Collection<EventHandlerProxy> set(final EventHandlerProxy... proxies)
+    {
+        final Collection<EventHandlerProxy> result = new HashSet<>();
+        Collections.addAll(result, proxies);
+        return result;
+    }
+
+    @Test public void testTopicMatching()
+    {
+        final EventHandlerProxy all = this.add("*", null);
+        final EventHandlerProxy exact = this.add("org/apache/felix/Event", null);
+        final EventHandlerProxy prefix = this.add("org/apache/*", null);
+        final EventHandlerProxy deepPrefix = this.add(new String[] {"org/apache/felix/*", "com/Event"}, null);
+
+        assertEquals(set(all, exact, prefix, deepPrefix), new HashSet<>(this.handlers("org/apache/felix/Event")));
+        assertEquals(set(all, prefix, deepPrefix), new HashSet<>(this.handlers("org/apache/felix/Other")));
+        assertEquals(set(all, prefix), new HashSet<>(this.handlers("org/apache/felix")));
+        assertEquals(set(all), new HashSet<>(this.handlers("org/apache")));
+        assertEquals(set(all, deepPrefix), new HashSet<>(this.handlers("com/Event")));
+        assertEquals(set(all), new HashSet<>(this.handlers("com/Event/Sub")));
+        assertEquals(set(all), new HashSet<>(this.handlers("net/Event")));
+    }
+
+    @Test public void testHandlerOnlyOnceForOverlappingTopics()
+    {
+        final EventHandlerProxy proxy = this.add(new String[] {"org/*", "org/apache/*", "org/apache/Event"}, null);
+
+        final Collection<EventHandlerProxy> handlers = this.handlers("org/apache/Event");
+        assertEquals(1, handlers.size());
+        assertSame(proxy, handlers.iterator().next());
+    }
+
+    @Test public void testCachedHandlersUpdated()
+    {
+        final EventHandlerProxy first = this.add("org/apache/Event", null);
+        assertEquals(set(first), new HashSet<>(this.handlers("org/apache/Event")));
+        assertSame(this.handlers("org/apache/Event"), this.handlers("org/apache/Event"));
+
+        final EventHandlerProxy second = this.add("org/*", null);
+        assertEquals(set(first, second), new HashSet<>(this.handlers("org/apache/Event")));
+
+        this.remove(first);
+        assertEquals(set(second), new HashSet<>(this.handlers("org/apache/Event")));
+
+        this.remove(second);
+        assertTrue(this.handlers("org/apache/Event").isEmpty());
+    }
+
+    @Test public void testFilter()
+    {
+        final EventHandlerProxy unfiltered = this.add("org/apache/Event", null);
+        final EventHandlerProxy filtered = this.add("org/apache/Event", "(a=b)");
+
+        assertEquals(set(unfiltered), new HashSet<>(this.handlers("org/apache/Event")));
+        assertEquals(set(unfiltered, filtered),
+                new HashSet<>(this.handlers("org/apache/Event", Collections.<String, Object>singletonMap("a", "b"))));
+    }
+
+    @Test public void testManyTopics()
+    {
+        final EventHandlerProxy prefix = this.add("org/apache/*", null);
+        for(int i = 0; i < 3000; i++)
+        {
+            assertEquals(set(prefix), new HashSet<>(this.handlers("org/apache/Event" + i)));
+        }
+
+        // topics looked up before and after the cache was full see new handlers
+        final EventHandlerProxy early = this.add("org/apache/Event10", null);
+        final EventHandlerProxy late = this.add("org/apache/Event2500", null);
+        assertEquals(set(prefix, early), new HashSet<>(this.handlers("org/apache/Event10")));
+        assertEquals(set(prefix, late), new HashSet<>(this.handlers("org/apache/Event2500")));
+        for(int i = 3000; i < 6000; i++)
+        {
+            assertEquals(set(prefix), new HashSet<>(this.handlers("org/apache/Event" + i)));
+        }
+
+        this.remove(late);
+        assertEquals(set(prefix), new HashSet<>(this.handlers("org/apache/Event2500")));
+        assertEquals(set(prefix, early), new HashSet<>(this.handlers("org/apache/Event10")));
+    }
+
+    @Test public void testLookupDoesNotLock() throws Exception
+    {
+        final EventHandlerProxy prefix = this.add("org/apache/*", null);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            synchronized ( this.tracker )
+            {
+                final Future<Collection<EventHandlerProxy>> handlers = executor.submit(new Callable<Collection<EventHandlerProxy>>()
+                {
+                    @Override
+                    public Collection<EventHandlerProxy> call()
+                    {
+                        Collection<EventHandlerProxy> result = null;
+                        for(int i = 0; i < 2000; i++)
+                        {
+                            result = handlers("org/apache/Event" + i);
+                        }
+                        return result;
+                    }
+                });
+                assertEquals(set(prefix), new HashSet<>(handlers.get(10, TimeUnit.SECONDS)));
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
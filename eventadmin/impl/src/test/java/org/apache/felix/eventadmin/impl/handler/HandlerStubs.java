@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.felix.eventadmin.impl.handler;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.service.event.EventHandler;
+
+/**
+ * Minimal framework objects for exercising the handler tracker without
+ * a running framework. The bundle context is a mock, the bundle and the
+ * service reference are plain objects as they are used on every lookup.
+ */
+final class HandlerStubs
+{
+    private HandlerStubs()
+    {
+        // no instances
+    }
+
+    /**
+     * Create a tracker using a bundle context which creates filters.
+     * @param mockery The mockery creating the bundle context
+     */
+    static EventHandlerTracker createTracker(final Mockery mockery) throws InvalidSyntaxException
+    {
+        final BundleContext context = mockery.mock(BundleContext.class);
+        mockery.checking(new Expectations()
+        {{
+            allowing(context).createFilter(with(any(String.class)));
+            will(new CustomAction("create filter")
+            {
+                @Override
+                public Object invoke(final Invocation invocation) throws Throwable
+                {
+                    return FrameworkUtil.createFilter((String) invocation.getParameter(0));
+                }
+            });
+        }});
+        final EventHandlerTracker tracker = new EventHandlerTracker(context);
+        tracker.update(null, false);
+        return tracker;
+    }
+
+    /**
+     * Create a bundle having all permissions.
+     */
+    static Bundle createBundle()
+    {
+        return new HandlerBundle();
+    }
+
+    /**
+     * Create a reference to an event handler of the bundle.
+     * @param bundle The bundle registering the event handler
+     * @param properties The service properties
+     */
+    static ServiceReference<EventHandler> createReference(final Bundle bundle, final Map<String, Object> properties)
+    {
+        return new HandlerReference(bundle, properties);
+    }
+
+    private static final class HandlerReference implements ServiceReference<EventHandler>
+    {
+        private final Bundle bundle;
+
+        private final Map<String, Object> properties;
+
+        HandlerReference(final Bundle bundle, final Map<String, Object> properties)
+        {
+            this.bundle = bundle;
+            this.properties = Collections.unmodifiableMap(properties);
+        }
+
+        @Override
+        public Object getProperty(final String key)
+        {
+            return this.properties.get(key);
+        }
+
+        @Override
+        public String[] getPropertyKeys()
+        {
+            return this.properties.keySet().toArray(new String[this.properties.size()]);
+        }
+
+        @Override
+        public Bundle getBundle()
+        {
+            return this.bundle;
+        }
+
+        @Override
+        public Bundle[] getUsingBundles()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean isAssignableTo(final Bundle bundle, final String className)
+        {
+            return true;
+        }
+
+        @Override
+        public int compareTo(final Object reference)
+        {
+            return Integer.compare(System.identityHashCode(this), System.identityHashCode(reference));
+        }
+    }
+
+    private static final class HandlerBundle implements Bundle
+    {
+        @Override
+        public int getState()
+        {
+            return Bundle.ACTIVE;
+        }
+
+        @Override
+        public void start(final int options)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void start()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void stop(final int options)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void stop()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update(final InputStream input)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void update()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void uninstall()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Dictionary<String, String> getHeaders()
+        {
+            return new Hashtable<>();
+        }
+
+        @Override
+        public long getBundleId()
+        {
+            return 1;
+        }
+
+        @Override
+        public String getLocation()
+        {
+            return "handler";
+        }
+
+        @Override
+        public ServiceReference<?>[] getRegisteredServices()
+        {
+            return null;
+        }
+
+        @Override
+        public ServiceReference<?>[] getServicesInUse()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean hasPermission(final Object permission)
+        {
+            return true;
+        }
+
+        @Override
+        public URL getResource(final String name)
+        {
+            return null;
+        }
+
+        @Override
+        public Dictionary<String, String> getHeaders(final String locale)
+        {
+            return this.getHeaders();
+        }
+
+        @Override
+        public String getSymbolicName()
+        {
+            return "handler";
+        }
+
+        @Override
+        public Class<?> loadClass(final String name) throws ClassNotFoundException
+        {
+            throw new ClassNotFoundException(name);
+        }
+
+        @Override
+        public Enumeration<URL> getResources(final String name)
+        {
+            return null;
+        }
+
+        @Override
+        public Enumeration<String> getEntryPaths(final String path)
+        {
+            return null;
+        }
+
+        @Override
+        public URL getEntry(final String path)
+        {
+            return null;
+        }
+
+        @Override
+        public long getLastModified()
+        {
+            return 0;
+        }
+
+        @Override
+        public Enumeration<URL> findEntries(final String path, final String filePattern, final boolean recurse)
+        {
+            return null;
+        }
+
+        @Override
+        public BundleContext getBundleContext()
+        {
+            return null;
+        }
+
+        @Override
+        public Map<X509Certificate, List<X509Certificate>> getSignerCertificates(final int signersType)
+        {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public Version getVersion()
+        {
+            return Version.emptyVersion;
+        }
+
+        @Override
+        public <A> A adapt(final Class<A> type)
+        {
+            return null;
+        }
+
+        @Override
+        public File getDataFile(final String filename)
+        {
+            return null;
+        }
+
+        @Override
+        public int compareTo(final Bundle bundle)
+        {
+            return Long.compare(this.getBundleId(), bundle.getBundleId());
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.InputStream;
+import java.util.List;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkListener;
+
+/**
+ * Installs and updates a set of bundles in one operation. Adapting the system
+ * bundle to this interface returns a new, empty batch:
+ * <pre>
+ * BundleBatch batch = framework.adapt(BundleBatch.class);
+ * batch.install(location, in).update(bundle, null);
+ * List&lt;Bundle&gt; bundles = batch.commit();
+ * </pre>
+ * <p>
+ * Installing or updating bundles one at a time refreshes every updated bundle
+ * and its dependents separately and resolves each bundle when it is started.
+ * Committing a batch first applies all installs and updates, then fires their
+ * bundle events together, refreshes all updated bundles and their dependents
+ * once, resolves all affected bundles in a single resolve operation and
+ * finally restarts the bundles that were active before.
+ * </p>
+ * <p>
+ * The operations are applied in the order they were added. If one of them
+ * fails, the remaining operations are skipped, the ones already applied are
+ * refreshed and resolved as usual and the failure is thrown from
+ * {@link #commit(FrameworkListener...)}. A batch can only be committed once.
+ * </p>
+ * <p>
+ * This interface is part of the framework implementation package, which the
+ * system bundle does not export. It is therefore only available to code that
+ * embeds the framework and loads it from its own class path, like a launcher,
+ * and not to bundles running inside the framework.
+ * </p>
+**/
+public interface BundleBatch
+{
+    /**
+     * Adds the installation of a bundle to this batch.
+     * @param location the location of the bundle.
+     * @param input the content of the bundle, or <tt>null</tt> to read it
+     *        from the location.
+     * @return this batch.
+    **/
+    BundleBatch install(String location, InputStream input);
+
+    /**
+     * Adds the update of a bundle to this batch.
+     * @param bundle the bundle to update.
+     * @param input the new content of the bundle, or <tt>null</tt> to read
+     *        it from its update location.
+     * @return this batch.
+    **/
+    BundleBatch update(Bundle bundle, InputStream input);
+
+    /**
+     * Applies all operations of this batch.
+     * @param listeners notified when the updated bundles have been refreshed.
+     * @return the installed and updated bundles in the order of the operations.
+     * @throws BundleException if an operation failed.
+     * @throws IllegalStateException if the batch was already committed.
+    **/
+    List<Bundle> commit(FrameworkListener... listeners) throws BundleException;
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.FrameworkListener;
+
+class BundleBatchImpl implements BundleBatch
+{
+    private final Felix m_felix;
+    private final List<Operation> m_operations = new ArrayList<Operation>();
+    // Bundle events of the applied operations, fired after all operations.
+    private final List<Bundle> m_bundles = new ArrayList<Bundle>();
+    private final List<BundleEvent> m_events = new ArrayList<BundleEvent>();
+    // Updated bundles that were active and must be restarted after refresh.
+    private final Set<Bundle> m_restart = new LinkedHashSet<Bundle>();
+    private boolean m_committed = false;
+
+    BundleBatchImpl(Felix felix)
+    {
+        m_felix = felix;
+    }
+
+    public synchronized BundleBatch install(String location, InputStream input)
+    {
+        if (location == null)
+        {
+            throw new IllegalArgumentException("Location must not be null.");
+        }
+        checkNotCommitted();
+        m_operations.add(new Operation(location, null, input));
+        return this;
+    }
+
+    public synchronized BundleBatch update(Bundle bundle, InputStream input)
+    {
+        if (!(bundle instanceof BundleImpl) || (bundle == m_felix)
+            || (((BundleImpl) bundle).getFramework() != m_felix))
+        {
+            throw new IllegalArgumentException(
+                "Only bundles of this framework can be updated: " + bundle);
+        }
+        checkNotCommitted();
+        m_operations.add(new Operation(null, (BundleImpl) bundle, input));
+        return this;
+    }
+
+    public List<Bundle> commit(FrameworkListener... listeners) throws BundleException
+    {
+        synchronized (this)
+        {
+            checkNotCommitted();
+            m_committed = true;
+        }
+        return m_felix.commitBundleBatch(this, listeners);
+    }
+
+    List<Operation> getOperations()
+    {
+        return m_operations;
+    }
+
+    void addBundle(Bundle bundle)
+    {
+        m_bundles.add(bundle);
+    }
+
+    List<Bundle> getBundles()
+    {
+        return m_bundles;
+    }
+
+    void addEvent(BundleEvent event)
+    {
+        m_events.add(event);
+    }
+
+    List<BundleEvent> getEvents()
+    {
+        return m_events;
+    }
+
+    void addRestart(Bundle bundle)
+    {
+        m_restart.add(bundle);
+    }
+
+    Set<Bundle> getRestart()
+    {
+        return m_restart;
+    }
+
+    private void checkNotCommitted()
+    {
+        if (m_committed)
+        {
+            throw new IllegalStateException("The bundle batch was already committed.");
+        }
+    }
+
+    /**
+     * An install of a location or an update of a bundle, together with the
+     * input stream of the new content, which may be <tt>null</tt>.
+    **/
+    static class Operation
+    {
+        private final String m_location;
+        private final BundleImpl m_bundle;
+        private final InputStream m_input;
+
+        Operation(String location, BundleImpl bundle, InputStream input)
+        {
+            m_location = location;
+            m_bundle = bundle;
+            m_input = input;
+        }
+
+        /**
+         * Returns the location to install or <tt>null</tt> for an update.
+        **/
+        String getLocation()
+        {
+            return m_location;
+        }
+
+        /**
+         * Returns the bundle to update or <tt>null</tt> for an install.
+        **/
+        BundleImpl getBundle()
+        {
+            return m_bundle;
+        }
+
+        InputStream getInput()
+        {
+            return m_input;
+        }
+    }
+}
@@ -94,6 +94,39 @@ class BundleRevisionDependencies
         return m_dependentsMap.get(provider);
     }
 
+    public synchronized List<BundleWire> getDependentWires(BundleRevision provider)
+    {
+        List<BundleWire> result = new ArrayList<BundleWire>();
+        Map<BundleCapability, Set<BundleWire>> caps = m_dependentsMap.get(provider);
+        if (caps != null)
+        {
+            for (Set<BundleWire> wires : caps.values())
+            {
+                result.addAll(wires);
+            }
+        }
+        return result;
+    }
+
+    public synchronized void replaceDependent(BundleWire oldWire, BundleWire newWire)
+    {
+        Map<BundleCapability, Set<BundleWire>> caps =
+            m_dependentsMap.get(oldWire.getProvider());
+        if (caps != null)
+        {
+            Set<BundleWire> dependents = caps.get(oldWire.getCapability());
+            if ((dependents != null) && dependents.remove(oldWire) && dependents.isEmpty())
+            {
+                caps.remove(oldWire.getCapability());
+                if (caps.isEmpty())
+                {
+                    m_dependentsMap.remove(oldWire.getProvider());
+                }
+            }
+        }
+        addDependent(newWire);
+    }
+
     public synchronized boolean hasDependents(BundleRevision revision)
     {
         // We have to special case fragments, since their dependencies
@@ -30,6 +30,7 @@ import java.util.Map;
 
 import org.apache.felix.framework.cache.Content;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.ImmutableStringMap;
 import org.apache.felix.framework.util.MultiReleaseContent;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.Util;
@@ -109,7 +110,9 @@ public class BundleRevisionImpl implements BundleRevision, Resource
     {
         m_bundle = bundle;
         m_id = id;
-        m_headerMap = headerMap;
+        // Headers never change after this point, so keep them in a compact
+        // immutable map.
+        m_headerMap = ImmutableStringMap.copyOf(headerMap);
         m_content = content;
 
         ManifestParser mp = new ManifestParser(
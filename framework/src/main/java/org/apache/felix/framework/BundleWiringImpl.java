@@ -76,6 +76,7 @@ import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.felix.framework.util.MyConcurrentHashMap;
 
 public class BundleWiringImpl implements BundleWiring
@@ -174,6 +175,28 @@ public class BundleWiringImpl implements BundleWiring
 
     private volatile ConcurrentHashMap<String, ClassLoader> m_accessorLookupCache;
 
+    // Default maximum number of entries of the lookup caches.
+    private static final int DEFAULT_LOOKUP_CACHE_SIZE = 256;
+
+    // Where classes and resources of a package are searched first.
+    private enum PackageSource
+    {
+        BOOT, IMPORTED, LOCAL
+    }
+
+    // Maximum number of entries of each lookup cache, zero disables them.
+    private final int m_lookupCacheSize;
+    // Package source table and negative caches of classes and resources
+    // that could not be found without a dynamic import. These are replaced
+    // when dynamic wires are added.
+    private volatile ConcurrentHashMap<String, PackageSource> m_pkgSources =
+        new ConcurrentHashMap<String, PackageSource>();
+    private volatile ConcurrentHashMap<String, Boolean> m_notFoundClasses =
+        new ConcurrentHashMap<String, Boolean>();
+    private volatile ConcurrentHashMap<String, Boolean> m_notFoundResources =
+        new ConcurrentHashMap<String, Boolean>();
+    private final LookupStatistics m_lookupStats = new LookupStatistics();
+
     BundleWiringImpl(
         Logger logger, Map configMap, StatefulResolver resolver,
         BundleRevisionImpl revision, List<BundleRevision> fragments,
@@ -471,6 +494,21 @@ public class BundleWiringImpl implements BundleWiring
 
         m_useLocalURLs =
             m_configMap.get(FelixConstants.USE_LOCALURLS_PROP) != null;
+
+        int lookupCacheSize = DEFAULT_LOOKUP_CACHE_SIZE;
+        String cfg = (String) m_configMap.get(FelixConstants.WIRING_LOOKUP_CACHE_SIZE_PROP);
+        if (cfg != null)
+        {
+            try
+            {
+                lookupCacheSize = Math.max(0, Integer.parseInt(cfg.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                // Use default.
+            }
+        }
+        m_lookupCacheSize = lookupCacheSize;
     }
 
     private static List<List<String>> parsePkgFilters(BundleCapability cap, String filtername)
@@ -510,6 +548,7 @@ public class BundleWiringImpl implements BundleWiring
         m_classLoader = null;
         m_isDisposed = true;
         m_accessorLookupCache = null;
+        clearLookupCaches();
     }
 
     // TODO: OSGi R4.3 - This really shouldn't be public, but it is needed by the
@@ -670,6 +709,22 @@ public class BundleWiringImpl implements BundleWiring
         return null;
     }
 
+    /**
+     * Replaces a wire to a capability that does not contribute to the class
+     * space of this wiring, such as a generic capability, with a wire to an
+     * equal capability of another revision.
+    **/
+    synchronized void replaceWire(BundleWire oldWire, BundleWire newWire)
+    {
+        List<BundleWire> wires = new ArrayList<BundleWire>(m_wires);
+        int idx = wires.indexOf(oldWire);
+        if (idx >= 0)
+        {
+            wires.set(idx, newWire);
+            m_wires = Util.newImmutableList(wires);
+        }
+    }
+
     public synchronized void addDynamicWire(BundleWire wire)
     {
         // Make new wires list.
@@ -691,6 +746,29 @@ public class BundleWiringImpl implements BundleWiring
         // both values updates at the same time, but it seems unlikely
         // to cause any issues.
         m_wires = Util.newImmutableList(wires);
+
+        // The new wire may change the source of a package and make
+        // classes or resources available that were not found before.
+        // The caches are replaced after the imported package map, so
+        // that readers of the new caches also see the new imports.
+        clearLookupCaches();
+    }
+
+    private void clearLookupCaches()
+    {
+        m_pkgSources = new ConcurrentHashMap<String, PackageSource>();
+        m_notFoundClasses = new ConcurrentHashMap<String, Boolean>();
+        m_notFoundResources = new ConcurrentHashMap<String, Boolean>();
+    }
+
+    /**
+     * Returns the statistics of the package source table and negative
+     * lookup caches used when loading classes and resources by delegation.
+     * @return the lookup statistics of this wiring.
+    **/
+    public LookupStatistics getLookupStatistics()
+    {
+        return m_lookupStats;
     }
 
     @Override
@@ -1449,9 +1527,20 @@ public class BundleWiringImpl implements BundleWiring
                     }
                 }
 
+                // If the class or resource was not found before, then only
+                // implicit boot delegation remains, which depends on the
+                // caller and cannot be cached.
+                if (!accessor && isNotFound(name, isClass))
+                {
+                    result = tryImplicitBootDelegation(name, isClass);
+                    return notFound(result, name, isClass);
+                }
+
+                PackageSource source = getPackageSource(pkgName);
+
                 // Delegate any packages listed in the boot delegation
                 // property to the parent class loader.
-                if (shouldBootDelegate(pkgName))
+                if (source == PackageSource.BOOT)
                 {
                     try
                     {
@@ -1524,10 +1613,14 @@ public class BundleWiringImpl implements BundleWiring
                     CNFE_CLASS_LOADER.loadClass(name);
                 }
 
-                // Look in the revision's imports. Note that the search may
-                // be aborted if this method throws an exception, otherwise
-                // it continues if a null is returned.
-                result = searchImports(pkgName, name, isClass);
+                // Look in the revision's imports, unless the package is known
+                // to be local. Note that the search may be aborted if this
+                // method throws an exception, otherwise it continues if a
+                // null is returned.
+                if (source != PackageSource.LOCAL)
+                {
+                    result = searchImports(pkgName, name, isClass);
+                }
 
                 // If not found, try the revision's own class path.
                 if (result == null)
@@ -1585,6 +1678,12 @@ public class BundleWiringImpl implements BundleWiring
             return null;
         }
 
+        return notFound(result, name, isClass);
+    }
+
+    private Object notFound(Object result, String name, boolean isClass)
+        throws ClassNotFoundException, ResourceNotFoundException
+    {
         if (result == null)
         {
             if (isClass)
@@ -1602,6 +1701,66 @@ public class BundleWiringImpl implements BundleWiring
         return result;
     }
 
+    private PackageSource getPackageSource(String pkgName)
+    {
+        // Read the table before the imported packages, since dynamic
+        // wires replace the table after updating the imported packages.
+        ConcurrentHashMap<String, PackageSource> pkgSources = m_pkgSources;
+        PackageSource source = pkgSources.get(pkgName);
+        if (source != null)
+        {
+            m_lookupStats.m_sourceHits.incrementAndGet();
+            return source;
+        }
+        m_lookupStats.m_sourceMisses.incrementAndGet();
+
+        if (shouldBootDelegate(pkgName))
+        {
+            source = PackageSource.BOOT;
+        }
+        else if (hasPackageSource(pkgName))
+        {
+            source = PackageSource.IMPORTED;
+        }
+        else
+        {
+            source = PackageSource.LOCAL;
+        }
+        putBounded(pkgSources, pkgName, source);
+        return source;
+    }
+
+    private boolean isNotFound(String name, boolean isClass)
+    {
+        if ((isClass ? m_notFoundClasses : m_notFoundResources).containsKey(name))
+        {
+            m_lookupStats.m_notFoundHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private void rememberNotFound(String name, boolean isClass)
+    {
+        m_lookupStats.m_notFoundMisses.incrementAndGet();
+        putBounded(isClass ? m_notFoundClasses : m_notFoundResources,
+            name, Boolean.TRUE);
+    }
+
+    private <V> void putBounded(ConcurrentHashMap<String, V> cache, String key, V value)
+    {
+        if (m_lookupCacheSize > 0)
+        {
+            // Start over instead of tracking usage, a full cache most
+            // likely holds entries of an earlier phase of the bundle.
+            if (cache.size() >= m_lookupCacheSize)
+            {
+                cache.clear();
+            }
+            cache.put(key, value);
+        }
+    }
+
     private Object searchImports(String pkgName, String name, boolean isClass)
             throws ClassNotFoundException, ResourceNotFoundException
     {
@@ -1692,6 +1851,14 @@ public class BundleWiringImpl implements BundleWiring
                             : (Object) ((BundleWiringImpl) provider.getWiring()).getResourceByDelegation(name);
         }
 
+        // Without a matching dynamic import the lookup only depends on this
+        // wiring, so the miss is remembered. A dynamically imported package
+        // may be provided once any bundle resolves or a hook changes.
+        if (!m_resolver.isAllowedDynamicImport(m_revision, pkgName))
+        {
+            rememberNotFound(name, isClass);
+        }
+
         return tryImplicitBootDelegation(name, isClass);
     }
 
@@ -1912,6 +2079,41 @@ public class BundleWiringImpl implements BundleWiring
         }
     }
 
+    /**
+     * Lookup statistics of a single wiring.
+    **/
+    public static class LookupStatistics
+    {
+        private final AtomicLong m_sourceHits = new AtomicLong();
+        private final AtomicLong m_sourceMisses = new AtomicLong();
+        private final AtomicLong m_notFoundHits = new AtomicLong();
+        private final AtomicLong m_notFoundMisses = new AtomicLong();
+
+        /** @return the number of package sources found in the table. */
+        public long getSourceHits()
+        {
+            return m_sourceHits.get();
+        }
+
+        /** @return the number of package sources that had to be computed. */
+        public long getSourceMisses()
+        {
+            return m_sourceMisses.get();
+        }
+
+        /** @return the number of lookups answered by the negative caches. */
+        public long getNotFoundHits()
+        {
+            return m_notFoundHits.get();
+        }
+
+        /** @return the number of failed lookups that searched all sources. */
+        public long getNotFoundMisses()
+        {
+            return m_notFoundMisses.get();
+        }
+    }
+
     public static class BundleClassLoader extends SecureClassLoader implements BundleReference
     {
         static final boolean m_isParallel;
@@ -2034,6 +2236,9 @@ public class BundleWiringImpl implements BundleWiring
 
                 String actual = name.replace('.', '/') + ".class";
 
+                FrameworkInstrumentation instrumentation = m_logger.getInstrumentation();
+                long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
+
                 byte[] bytes = null;
 
                 // Check the bundle class path.
@@ -2102,6 +2307,12 @@ public class BundleWiringImpl implements BundleWiring
                         throw e;
                     }
 
+                    if (instrumentation.isEnabled())
+                    {
+                        instrumentation.record(FrameworkInstrumentation.CLASS_LOAD,
+                            m_wiring.m_revision, start, System.nanoTime() - start);
+                    }
+
                     // Perform deferred activation without holding the class loader lock,
                     // if the class we are returning is the instigating class.
                     List deferredList = (List) m_deferredActivation.get();
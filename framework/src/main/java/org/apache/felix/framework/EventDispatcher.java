@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -32,14 +33,31 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.Set;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
+import org.apache.felix.framework.capabilityset.CapabilitySet;
+import org.apache.felix.framework.capabilityset.SimpleFilter;
 import org.apache.felix.framework.util.*;
 import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
+import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
@@ -65,6 +83,9 @@ public class EventDispatcher
         m_syncBndlListeners = Collections.EMPTY_MAP;
     private Map<BundleContext, List<ListenerInfo>>
         m_svcListeners = Collections.EMPTY_MAP;
+    // Dispatch table derived from m_svcListeners; it is replaced whenever
+    // the service listeners change and is read without locking.
+    private volatile ServiceListenerTable m_svcTable = ServiceListenerTable.EMPTY;
 
     // A single thread is used to deliver events for all dispatchers.
     private static Thread m_thread = null;
@@ -79,14 +100,72 @@ public class EventDispatcher
 
     private static final SecureAction m_secureAction = new SecureAction();
 
+    // Maximum number of requests a context queue delivers before it yields
+    // its pool thread to other queued contexts.
+    private static final int MAX_REQUESTS_PER_RUN = 64;
+
+    // When parallelism is greater than zero, asynchronous events are not
+    // delivered by the shared thread above, but are queued per listener
+    // context and delivered by a pool owned by this dispatcher.
+    private final int m_parallelism;
+    private final boolean m_virtualThreads;
+    private volatile ExecutorService m_executor = null;
+    private volatile boolean m_accepting = false;
+    private final Map<BundleContext, ContextQueue> m_contextQueues =
+        new ConcurrentHashMap<BundleContext, ContextQueue>();
+    private final AtomicInteger m_pending = new AtomicInteger();
+    private volatile FrameworkInstrumentation m_instrumentation = FrameworkInstrumentation.NOOP;
+
     public EventDispatcher(Logger logger, ServiceRegistry registry)
+    {
+        this(logger, registry, 0, false);
+    }
+
+    /**
+     * Creates an event dispatcher. If the specified parallelism is greater
+     * than zero, asynchronous events are delivered by a pool of at most that
+     * many threads, with one ordered queue per listener context, so a slow
+     * listener only delays events for its own bundle context. Otherwise all
+     * asynchronous events are delivered by a single thread that is shared by
+     * all framework instances.
+     *
+     * @param logger the framework logger.
+     * @param registry the service registry.
+     * @param parallelism the maximum number of delivery threads, or zero to
+     *        use the shared delivery thread.
+     * @param virtualThreads whether to deliver on virtual threads when the
+     *        JVM supports them; only used if parallelism is greater than zero.
+    **/
+    public EventDispatcher(
+        Logger logger, ServiceRegistry registry, int parallelism, boolean virtualThreads)
     {
         m_logger = logger;
         m_registry = registry;
+        m_parallelism = parallelism;
+        m_virtualThreads = virtualThreads;
+    }
+
+    void setInstrumentation(FrameworkInstrumentation instrumentation)
+    {
+        m_instrumentation = instrumentation;
     }
 
     public void startDispatching()
     {
+        if (m_parallelism > 0)
+        {
+            synchronized (m_contextQueues)
+            {
+                if (m_executor == null)
+                {
+                    m_contextQueues.clear();
+                    m_executor = createExecutor();
+                }
+                m_accepting = true;
+            }
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Start event dispatching thread if necessary.
@@ -126,6 +205,43 @@ public class EventDispatcher
 
     public void stopDispatching()
     {
+        if (m_parallelism > 0)
+        {
+            ExecutorService executor;
+            synchronized (m_contextQueues)
+            {
+                if (!m_accepting)
+                {
+                    return;
+                }
+                m_accepting = false;
+
+                // Like the shared thread, deliver all queued events before
+                // shutting down.
+                boolean interrupted = false;
+                while (m_pending.get() > 0)
+                {
+                    try
+                    {
+                        m_contextQueues.wait();
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted)
+                {
+                    Thread.currentThread().interrupt();
+                }
+
+                executor = m_executor;
+                m_executor = null;
+            }
+            executor.shutdown();
+            return;
+        }
+
         synchronized (m_threadLock)
         {
             // Return if already dead or stopping.
@@ -153,6 +269,7 @@ public class EventDispatcher
         // Use separate lock for shutdown to prevent any chance of nested lock deadlock
         synchronized (m_threadLock)
         {
+            boolean interrupted = false;
             while (m_thread != null)
             {
                 try
@@ -161,8 +278,13 @@ public class EventDispatcher
                 }
                 catch (InterruptedException ex)
                 {
+                    interrupted = true;
                 }
             }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 
@@ -260,7 +382,7 @@ public class EventDispatcher
             }
             else if (clazz == ServiceListener.class)
             {
-                m_svcListeners = listeners;
+                setServiceListeners(listeners);
             }
         }
         return null;
@@ -358,7 +480,7 @@ public class EventDispatcher
             }
             else if (clazz == ServiceListener.class)
             {
-                m_svcListeners = listeners;
+                setServiceListeners(listeners);
             }
         }
 
@@ -387,8 +509,12 @@ public class EventDispatcher
             m_syncBndlListeners = removeListenerInfos(m_syncBndlListeners, bc);
 
             // Remove all service listeners associated with the specified bundle.
-            m_svcListeners = removeListenerInfos(m_svcListeners, bc);
+            setServiceListeners(removeListenerInfos(m_svcListeners, bc));
         }
+
+        // Already queued events for the context are still delivered, since
+        // the queue itself remains scheduled until it is drained.
+        m_contextQueues.remove(bc);
     }
 
     public Filter updateListener(BundleContext bc, Class clazz, EventListener l, Filter filter)
@@ -427,7 +553,7 @@ public class EventDispatcher
                             filter,
                             info.getSecurityContext(),
                             info.isRemoved());
-                        m_svcListeners = updateListenerInfo(m_svcListeners, i, newInfo);
+                        setServiceListeners(updateListenerInfo(m_svcListeners, i, newInfo));
                         return oldFilter;
                     }
                 }
@@ -437,6 +563,12 @@ public class EventDispatcher
         return null;
     }
 
+    private void setServiceListeners(Map<BundleContext, List<ListenerInfo>> listeners)
+    {
+        m_svcListeners = listeners;
+        m_svcTable = new ServiceListenerTable(listeners);
+    }
+
     /**
      * Returns all existing service listener information into a collection of
      * ListenerHook.ListenerInfo objects. This is used the first time a listener
@@ -532,6 +664,16 @@ public class EventDispatcher
     public void fireServiceEvent(
         final ServiceEvent event, final Dictionary oldProps, final Felix felix)
     {
+        // Without service event hooks, deliver to the candidate listeners
+        // of the precomputed dispatch table.
+        HookRegistry hookRegistry = m_registry.getHookRegistry();
+        if (hookRegistry.getHooks(org.osgi.framework.hooks.service.EventHook.class).isEmpty()
+            && hookRegistry.getHooks(org.osgi.framework.hooks.service.EventListenerHook.class).isEmpty())
+        {
+            m_svcTable.fire(this, event, oldProps);
+            return;
+        }
+
         // Take a snapshot of the listener array.
         Map<BundleContext, List<ListenerInfo>> listeners = null;
         synchronized (this)
@@ -770,6 +912,12 @@ public class EventDispatcher
         Map<BundleContext, List<ListenerInfo>> listeners,
         EventObject event)
     {
+        if (dispatcher.m_parallelism > 0)
+        {
+            dispatcher.queueEventPerContext(type, listeners, event);
+            return;
+        }
+
         //TODO: should possibly check this within thread lock, seems to be ok though without
         // If dispatch thread is stopped, then ignore dispatch request.
         if (m_stopping || m_thread == null)
@@ -796,6 +944,7 @@ public class EventDispatcher
         req.m_type = type;
         req.m_listeners = listeners;
         req.m_event = event;
+        req.m_queued = System.nanoTime();
 
         // Lock the request list.
         synchronized (m_requestList)
@@ -807,6 +956,120 @@ public class EventDispatcher
         }
     }
 
+    private void queueEventPerContext(
+        int type, Map<BundleContext, List<ListenerInfo>> listeners, EventObject event)
+    {
+        // If dispatching is stopped, then ignore dispatch request.
+        if (!m_accepting)
+        {
+            return;
+        }
+
+        long now = System.nanoTime();
+        for (Entry<BundleContext, List<ListenerInfo>> entry : listeners.entrySet())
+        {
+            ContextQueue queue = m_contextQueues.get(entry.getKey());
+            if (queue == null)
+            {
+                queue = new ContextQueue(this);
+                ContextQueue existing = m_contextQueues.putIfAbsent(entry.getKey(), queue);
+                if (existing != null)
+                {
+                    queue = existing;
+                }
+            }
+
+            Request req = new Request();
+            req.m_dispatcher = this;
+            req.m_type = type;
+            req.m_listeners = Collections.singletonMap(entry.getKey(), entry.getValue());
+            req.m_event = event;
+            req.m_queued = now;
+            queue.offer(req);
+        }
+    }
+
+    private void requestDelivered()
+    {
+        if (m_pending.decrementAndGet() == 0)
+        {
+            synchronized (m_contextQueues)
+            {
+                m_contextQueues.notifyAll();
+            }
+        }
+    }
+
+    private ExecutorService createExecutor()
+    {
+        if (m_virtualThreads)
+        {
+            try
+            {
+                Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) m.invoke(null);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG,
+                    "EventDispatcher: Virtual threads not available, using a thread pool.");
+            }
+        }
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            m_parallelism, m_parallelism,
+            60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory()
+            {
+                final AtomicInteger counter = new AtomicInteger();
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r, "FelixDispatchQueue-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Returns the number of asynchronous event requests that are queued but
+     * not yet delivered. When the shared delivery thread is used, the count
+     * includes requests of all framework instances.
+     * @return the number of pending asynchronous event requests.
+    **/
+    public int getQueueDepth()
+    {
+        if (m_parallelism > 0)
+        {
+            return m_pending.get();
+        }
+        synchronized (m_requestList)
+        {
+            return m_requestList.size();
+        }
+    }
+
+    /**
+     * Returns asynchronous delivery statistics per listener context. Statistics
+     * are only collected when events are delivered per context, otherwise the
+     * returned map is empty.
+     * @return a snapshot of the delivery statistics keyed by bundle context.
+    **/
+    public Map<BundleContext, DeliveryStatistics> getDeliveryStatistics()
+    {
+        Map<BundleContext, DeliveryStatistics> stats =
+            new HashMap<BundleContext, DeliveryStatistics>();
+        for (Entry<BundleContext, ContextQueue> entry : m_contextQueues.entrySet())
+        {
+            stats.put(entry.getKey(), entry.getValue().m_stats);
+        }
+        return stats;
+    }
+
     private static void fireEventImmediately(
         EventDispatcher dispatcher, int type,
         Map<BundleContext, List<ListenerInfo>> listeners,
@@ -837,7 +1100,7 @@ public class EventDispatcher
                         else if (type == Request.SERVICE_EVENT)
                         {
                             invokeServiceListenerCallback(
-                                bundle, l, filter, acc, event, oldProps);
+                                bundle, l, filter, null, acc, event, oldProps);
                         }
                     }
                     catch (Throwable th)
@@ -919,8 +1182,8 @@ public class EventDispatcher
     }
 
     private static void invokeServiceListenerCallback(
-        Bundle bundle, final EventListener l, Filter filter, Object acc,
-        final EventObject event, final Dictionary oldProps)
+        Bundle bundle, final EventListener l, Filter filter, SimpleFilter sf,
+        Object acc, final EventObject event, final Dictionary oldProps)
     {
         // Service events should be delivered to STARTING,
         // STOPPING, and ACTIVE bundles.
@@ -966,7 +1229,9 @@ public class EventDispatcher
             else
             {
                 matched = (filter == null)
-                        || filter.match(((ServiceEvent) event).getServiceReference());
+                        || (((sf != null) && (ref instanceof ServiceReferenceImpl))
+                            ? CapabilitySet.matches((ServiceReferenceImpl) ref, sf)
+                            : filter.match(ref));
             }
 
             if (matched)
@@ -1139,6 +1404,13 @@ public class EventDispatcher
                 req = m_requestList.remove(0);
             }
 
+            FrameworkInstrumentation instrumentation = req.m_dispatcher.m_instrumentation;
+            if (instrumentation.isEnabled())
+            {
+                instrumentation.record(FrameworkInstrumentation.EVENT_QUEUE_DELAY,
+                    null, req.m_queued, System.nanoTime() - req.m_queued);
+            }
+
             // Deliver event outside of synchronized block
             // so that we don't block other requests from being
             // queued during event processing.
@@ -1171,5 +1443,359 @@ public class EventDispatcher
         public int m_type = -1;
         public Map<BundleContext, List<ListenerInfo>> m_listeners = null;
         public EventObject m_event = null;
+        public long m_queued = 0;
+    }
+
+    /**
+     * Ordered queue of asynchronous requests for a single listener context.
+     * At most one pool thread drains a queue at any time, which keeps events
+     * in order for the context while other contexts are served concurrently.
+    **/
+    private static class ContextQueue implements Runnable
+    {
+        private final EventDispatcher m_dispatcher;
+        private final Queue<Request> m_requests = new ConcurrentLinkedQueue<Request>();
+        private final AtomicBoolean m_scheduled = new AtomicBoolean(false);
+        private final DeliveryStatistics m_stats = new DeliveryStatistics();
+
+        ContextQueue(EventDispatcher dispatcher)
+        {
+            m_dispatcher = dispatcher;
+        }
+
+        void offer(Request req)
+        {
+            m_dispatcher.m_pending.incrementAndGet();
+            m_stats.m_queueDepth.incrementAndGet();
+            m_requests.add(req);
+            schedule();
+        }
+
+        private void schedule()
+        {
+            if (m_scheduled.compareAndSet(false, true))
+            {
+                ExecutorService executor = m_dispatcher.m_executor;
+                try
+                {
+                    if (executor == null)
+                    {
+                        throw new RejectedExecutionException();
+                    }
+                    executor.execute(this);
+                }
+                catch (RejectedExecutionException ex)
+                {
+                    // Dispatching is stopped, so drop queued requests.
+                    m_scheduled.set(false);
+                    while (m_requests.poll() != null)
+                    {
+                        m_stats.m_queueDepth.decrementAndGet();
+                        m_dispatcher.requestDelivered();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            Request req;
+            int count = 0;
+            while ((count++ < MAX_REQUESTS_PER_RUN)
+                && ((req = m_requests.poll()) != null))
+            {
+                long start = System.nanoTime();
+                FrameworkInstrumentation instrumentation = m_dispatcher.m_instrumentation;
+                if (instrumentation.isEnabled())
+                {
+                    instrumentation.record(FrameworkInstrumentation.EVENT_QUEUE_DELAY,
+                        null, req.m_queued, start - req.m_queued);
+                }
+                // NOTE: We don't catch any exceptions here, because
+                // the invoked method shields us from exceptions by
+                // catching Throwables when it invokes callbacks.
+                fireEventImmediately(
+                    req.m_dispatcher, req.m_type, req.m_listeners,
+                    req.m_event, null);
+                m_stats.record(start - req.m_queued, System.nanoTime() - start);
+                m_dispatcher.requestDelivered();
+            }
+
+            m_scheduled.set(false);
+            // Requests may have been added after the last poll, or we yielded
+            // because of the run limit; in both cases reschedule.
+            if (!m_requests.isEmpty())
+            {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Asynchronous delivery statistics of a single listener context.
+    **/
+    public static class DeliveryStatistics
+    {
+        private final AtomicInteger m_queueDepth = new AtomicInteger();
+        private final AtomicLong m_delivered = new AtomicLong();
+        private final AtomicLong m_totalWaitNanos = new AtomicLong();
+        private final AtomicLong m_totalDeliveryNanos = new AtomicLong();
+        private final AtomicLong m_maxDeliveryNanos = new AtomicLong();
+
+        void record(long waitNanos, long deliveryNanos)
+        {
+            m_queueDepth.decrementAndGet();
+            m_delivered.incrementAndGet();
+            m_totalWaitNanos.addAndGet(waitNanos);
+            m_totalDeliveryNanos.addAndGet(deliveryNanos);
+            long max = m_maxDeliveryNanos.get();
+            while ((deliveryNanos > max)
+                && !m_maxDeliveryNanos.compareAndSet(max, deliveryNanos))
+            {
+                max = m_maxDeliveryNanos.get();
+            }
+        }
+
+        /** @return the number of requests queued but not yet delivered. */
+        public int getQueueDepth()
+        {
+            return m_queueDepth.get();
+        }
+
+        /** @return the number of delivered requests. */
+        public long getDeliveredCount()
+        {
+            return m_delivered.get();
+        }
+
+        /** @return the total time requests waited in the queue. */
+        public long getTotalWaitNanos()
+        {
+            return m_totalWaitNanos.get();
+        }
+
+        /** @return the total time spent in listener callbacks. */
+        public long getTotalDeliveryNanos()
+        {
+            return m_totalDeliveryNanos.get();
+        }
+
+        /** @return the longest time spent delivering a single request. */
+        public long getMaxDeliveryNanos()
+        {
+            return m_maxDeliveryNanos.get();
+        }
+    }
+
+    /**
+     * Immutable dispatch table of service listeners. Listeners whose filter
+     * requires a specific objectClass are indexed by that class name, all
+     * other listeners are candidates for every service event. Every entry
+     * records its position in the order in which the listeners were added,
+     * so that events are delivered in that order across the buckets. The
+     * parsed filter of a listener is reused for matching.
+    **/
+    private static class ServiceListenerTable
+    {
+        static final ServiceListenerTable EMPTY =
+            new ServiceListenerTable(Collections.<BundleContext, List<ListenerInfo>>emptyMap());
+
+        private final ServiceListenerEntry[] m_unindexed;
+        private final Map<String, ServiceListenerEntry[]> m_byObjectClass;
+
+        ServiceListenerTable(Map<BundleContext, List<ListenerInfo>> listeners)
+        {
+            List<ServiceListenerEntry> unindexed = new ArrayList<ServiceListenerEntry>();
+            Map<String, List<ServiceListenerEntry>> byObjectClass =
+                new HashMap<String, List<ServiceListenerEntry>>();
+            int order = 0;
+            for (List<ListenerInfo> infos : listeners.values())
+            {
+                for (ListenerInfo info : infos)
+                {
+                    ServiceListenerEntry entry = new ServiceListenerEntry(info, order++);
+                    String objectClass = (entry.m_filter == null)
+                        || (info.getListener() instanceof UnfilteredServiceListener)
+                        ? null : getObjectClass(entry.m_filter);
+                    if (objectClass == null)
+                    {
+                        unindexed.add(entry);
+                    }
+                    else
+                    {
+                        List<ServiceListenerEntry> entries = byObjectClass.get(objectClass);
+                        if (entries == null)
+                        {
+                            entries = new ArrayList<ServiceListenerEntry>();
+                            byObjectClass.put(objectClass, entries);
+                        }
+                        entries.add(entry);
+                    }
+                }
+            }
+
+            m_unindexed = unindexed.toArray(new ServiceListenerEntry[unindexed.size()]);
+            m_byObjectClass = new HashMap<String, ServiceListenerEntry[]>(byObjectClass.size());
+            for (Entry<String, List<ServiceListenerEntry>> entry : byObjectClass.entrySet())
+            {
+                m_byObjectClass.put(entry.getKey(),
+                    entry.getValue().toArray(new ServiceListenerEntry[entry.getValue().size()]));
+            }
+        }
+
+        /**
+         * Returns the objectClass a service must have to match the filter,
+         * or null if there is no such single class.
+        **/
+        private static String getObjectClass(SimpleFilter sf)
+        {
+            if ((sf.getOperation() == SimpleFilter.EQ)
+                && Constants.OBJECTCLASS.equalsIgnoreCase(sf.getName())
+                && (sf.getValue() instanceof String))
+            {
+                return (String) sf.getValue();
+            }
+            else if (sf.getOperation() == SimpleFilter.AND)
+            {
+                for (Object o : (List) sf.getValue())
+                {
+                    String objectClass = getObjectClass((SimpleFilter) o);
+                    if (objectClass != null)
+                    {
+                        return objectClass;
+                    }
+                }
+            }
+            return null;
+        }
+
+        void fire(EventDispatcher dispatcher, ServiceEvent event, Dictionary<?, ?> oldProps)
+        {
+            if (m_byObjectClass.isEmpty())
+            {
+                fire(dispatcher, m_unindexed, event, oldProps);
+                return;
+            }
+
+            // The objectClass of a registration cannot change, so a
+            // MODIFIED_ENDMATCH candidate is always in one of these buckets.
+            List<ServiceListenerEntry[]> buckets = null;
+            String[] objectClasses = (String[])
+                event.getServiceReference().getProperty(Constants.OBJECTCLASS);
+            for (int i = 0; (objectClasses != null) && (i < objectClasses.length); i++)
+            {
+                ServiceListenerEntry[] entries = m_byObjectClass.get(objectClasses[i]);
+                if ((entries != null) && !isDuplicate(objectClasses, i))
+                {
+                    if (buckets == null)
+                    {
+                        buckets = new ArrayList<ServiceListenerEntry[]>(2);
+                        buckets.add(m_unindexed);
+                    }
+                    buckets.add(entries);
+                }
+            }
+            fire(dispatcher, (buckets == null) ? m_unindexed : merge(buckets), event, oldProps);
+        }
+
+        /**
+         * Merges the given buckets, each sorted by the order in which the
+         * listeners were added, into one array sorted the same way.
+        **/
+        private static ServiceListenerEntry[] merge(List<ServiceListenerEntry[]> buckets)
+        {
+            int size = 0;
+            for (ServiceListenerEntry[] bucket : buckets)
+            {
+                size += bucket.length;
+            }
+            ServiceListenerEntry[] merged = new ServiceListenerEntry[size];
+            int[] positions = new int[buckets.size()];
+            for (int i = 0; i < size; i++)
+            {
+                int next = -1;
+                for (int b = 0; b < positions.length; b++)
+                {
+                    ServiceListenerEntry[] bucket = buckets.get(b);
+                    if ((positions[b] < bucket.length) && ((next == -1)
+                        || (bucket[positions[b]].m_order
+                            < buckets.get(next)[positions[next]].m_order)))
+                    {
+                        next = b;
+                    }
+                }
+                merged[i] = buckets.get(next)[positions[next]++];
+            }
+            return merged;
+        }
+
+        private static boolean isDuplicate(String[] objectClasses, int idx)
+        {
+            for (int i = 0; i < idx; i++)
+            {
+                if (objectClasses[i].equals(objectClasses[idx]))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static void fire(
+            EventDispatcher dispatcher, ServiceListenerEntry[] entries,
+            ServiceEvent event, Dictionary<?, ?> oldProps)
+        {
+            for (ServiceListenerEntry entry : entries)
+            {
+                ListenerInfo info = entry.m_info;
+                Bundle bundle = info.getBundle();
+                try
+                {
+                    invokeServiceListenerCallback(
+                        bundle, info.getListener(), info.getParsedFilter(),
+                        entry.m_filter, info.getSecurityContext(), event, oldProps);
+                }
+                catch (Throwable th)
+                {
+                    dispatcher.m_logger.log(bundle,
+                        Logger.LOG_ERROR,
+                        "EventDispatcher: Error during dispatch.", th);
+                    dispatcher.fireFrameworkEvent(
+                        new FrameworkEvent(FrameworkEvent.ERROR, bundle, th));
+                }
+            }
+        }
+    }
+
+    private static class ServiceListenerEntry
+    {
+        final ListenerInfo m_info;
+        final SimpleFilter m_filter;
+        final int m_order;
+
+        ServiceListenerEntry(ListenerInfo info, int order)
+        {
+            m_info = info;
+            m_order = order;
+            Filter filter = info.getParsedFilter();
+            SimpleFilter sf = null;
+            if (filter instanceof FilterImpl)
+            {
+                sf = ((FilterImpl) filter).getSimpleFilter();
+            }
+            else if (filter != null)
+            {
+                try
+                {
+                    sf = FilterImpl.parseShared(filter.toString());
+                }
+                catch (Exception ex)
+                {
+                    // Fall back to matching with the listener's filter.
+                }
+            }
+            m_filter = sf;
+        }
     }
 }
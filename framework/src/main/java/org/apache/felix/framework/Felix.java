@@ -35,6 +35,7 @@ import org.apache.felix.framework.util.ThreadGate;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.manifestparser.NativeLibraryClause;
 import org.apache.felix.framework.wiring.BundleRequirementImpl;
+import org.apache.felix.framework.wiring.BundleWireImpl;
 import org.osgi.framework.AdminPermission;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
@@ -82,6 +83,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLStreamHandler;
@@ -107,6 +109,13 @@ import java.util.TreeMap;
 import org.apache.felix.framework.util.MyTreeMap;
 import java.util.TreeSet;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -181,6 +190,15 @@ public class Felix extends BundleImpl implements Framework
     // Keep track of bundles currently being processed by start level thread.
     private final SortedSet<StartLevelTuple> m_startLevelBundles =
         new TreeSet<StartLevelTuple>();
+    // Maximum number of bundles of a start level started concurrently.
+    private final int m_startLevelParallelism;
+    // Marks threads starting bundles on behalf of the start level thread.
+    private final ThreadLocal<Boolean> m_startLevelWorker = new ThreadLocal<Boolean>();
+    // Whether refreshing an updated bundle keeps dependents that are
+    // only wired to capabilities that did not change.
+    private final boolean m_minimalRefresh;
+    // Receives timings of internal operations, does nothing by default.
+    private final FrameworkInstrumentation m_instrumentation;
 
     // Local bundle cache.
     private BundleCache m_cache = null;
@@ -403,6 +421,24 @@ public class Felix extends BundleImpl implements Framework
             // Ignore and just use the default logging level.
         }
 
+        // Create the instrumentation, which is either passed in or the
+        // built-in profiler if instrumentation is simply enabled.
+        Object instrumentation = m_configMutableMap.get(FelixConstants.INSTRUMENTATION_PROP);
+        if (instrumentation instanceof FrameworkInstrumentation)
+        {
+            m_instrumentation = (FrameworkInstrumentation) instrumentation;
+        }
+        else if ((instrumentation != null)
+            && Boolean.parseBoolean(instrumentation.toString().trim()))
+        {
+            m_instrumentation = new StartupProfiler();
+        }
+        else
+        {
+            m_instrumentation = FrameworkInstrumentation.NOOP;
+        }
+        m_logger.setInstrumentation(m_instrumentation);
+
         // Initialize framework properties.
         initializeFrameworkProperties();
 
@@ -461,8 +497,46 @@ public class Felix extends BundleImpl implements Framework
             throw new RuntimeException("Exception creating system bundle revision", ex);
         }
 
-        // Create event dispatcher.
-        m_dispatcher = new EventDispatcher(m_logger, m_registry);
+        // Create event dispatcher; by default asynchronous events are
+        // delivered on a single thread, unless a parallelism is configured.
+        int dispatchParallelism = 0;
+        s = getProperty(FelixConstants.EVENT_DISPATCHER_PARALLELISM);
+        if (s != null)
+        {
+            try
+            {
+                dispatchParallelism = Integer.parseInt(s.trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid " + FelixConstants.EVENT_DISPATCHER_PARALLELISM + ": " + s);
+            }
+        }
+        m_dispatcher = new EventDispatcher(m_logger, m_registry, dispatchParallelism,
+            "true".equalsIgnoreCase(getProperty(FelixConstants.EVENT_DISPATCHER_VIRTUAL_THREADS)));
+        m_dispatcher.setInstrumentation(m_instrumentation);
+
+        // By default the bundles of a start level are started one at a time,
+        // unless a parallelism is configured.
+        int startLevelParallelism = 1;
+        s = getProperty(FelixConstants.STARTLEVEL_PARALLELISM_PROP);
+        if (s != null)
+        {
+            try
+            {
+                startLevelParallelism = Math.max(1, Integer.parseInt(s.trim()));
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid " + FelixConstants.STARTLEVEL_PARALLELISM_PROP + ": " + s);
+            }
+        }
+        m_startLevelParallelism = startLevelParallelism;
+
+        m_minimalRefresh = "true".equalsIgnoreCase(
+            getProperty(FelixConstants.REFRESH_MINIMAL_PROP));
 
         // Create framework wiring object.
         m_fwkWiring = new FrameworkWiringImpl(this, m_registry);
@@ -477,6 +551,11 @@ public class Felix extends BundleImpl implements Framework
         return m_logger;
     }
 
+    FrameworkInstrumentation getInstrumentation()
+    {
+        return m_instrumentation;
+    }
+
     Map<String, Object> getConfig()
     {
         return m_configMap;
@@ -561,6 +640,10 @@ public class Felix extends BundleImpl implements Framework
         {
             return (A) m_fwkStartLevel;
         }
+        else if (type == BundleBatch.class)
+        {
+            return type.cast(new BundleBatchImpl(this));
+        }
         return super.adapt(type);
     }
 
@@ -797,7 +880,13 @@ public class Felix extends BundleImpl implements Framework
                 // First get cached bundle identifiers.
                 try
                 {
+                    long start = System.nanoTime();
                     archives = m_cache.getArchives(m_connectFramework);
+                    if (m_instrumentation.isEnabled())
+                    {
+                        m_instrumentation.record(FrameworkInstrumentation.CACHE_RELOAD,
+                            null, start, System.nanoTime() - start);
+                    }
                 }
                 catch (Exception ex)
                 {
@@ -811,6 +900,11 @@ public class Felix extends BundleImpl implements Framework
 
                 boolean javaVersionChanged = handleJavaVersionChange();
 
+                // Parse the manifests of the cached bundles concurrently if
+                // configured, the bundles are still installed in order below.
+                List<Future<BundleImpl>> reloaded =
+                    createReloadedBundles(archives, javaVersionChanged);
+
                 // Now load all cached bundles.
                 for (int i = 0; (archives != null) && (i < archives.length); i++)
                 {
@@ -834,7 +928,14 @@ public class Felix extends BundleImpl implements Framework
                         else
                         {
                             // Install the cached bundle.
-                            reloadBundle(archives[i], javaVersionChanged);
+                            if ((reloaded != null) && (reloaded.get(i) != null))
+                            {
+                                addReloadedBundle(getReloadedBundle(reloaded.get(i)));
+                            }
+                            else
+                            {
+                                reloadBundle(archives[i], javaVersionChanged);
+                            }
                         }
                     }
                     catch (Exception ex)
@@ -863,6 +964,10 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
                 }
 
+                // Restore the wiring of the last run if the reloaded
+                // bundles are the same as when it was stored.
+                loadResolutionCache();
+
 
                 if (m_connectFramework != null)
                 {
@@ -1146,6 +1251,39 @@ public class Felix extends BundleImpl implements Framework
 
         // Send a framework event to indicate the framework has started.
         fireFrameworkEvent(FrameworkEvent.STARTED, this, null);
+
+        writeStartupTrace();
+    }
+
+    /**
+     * Writes the trace of the built-in profiler to the file configured by
+     * <tt>felix.instrumentation.trace</tt>, if any.
+    **/
+    private void writeStartupTrace()
+    {
+        String traceFile = (String) m_configMap.get(FelixConstants.INSTRUMENTATION_TRACE_PROP);
+        if ((traceFile == null) || !(m_instrumentation instanceof StartupProfiler))
+        {
+            return;
+        }
+        try
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(
+                m_secureAction.getOutputStream(new File(traceFile)), "UTF-8"));
+            try
+            {
+                ((StartupProfiler) m_instrumentation).writeTrace(writer);
+            }
+            finally
+            {
+                writer.close();
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(Logger.LOG_WARNING, "Unable to write startup trace to " + traceFile, ex);
+        }
+        m_logger.log(Logger.LOG_INFO, m_instrumentation.toString());
     }
 
     @Override
@@ -1485,6 +1623,14 @@ public class Felix extends BundleImpl implements Framework
             int high = (isLowering) ? m_activeStartLevel : m_targetStartLevel;
             m_activeStartLevel = (isLowering) ? high : low;
 
+            // Start the bundles of each start level concurrently, if enabled.
+            // Stopping bundles when lowering the start level is always done
+            // one at a time in reverse order.
+            if (!isLowering && bundlesRemaining && (m_startLevelParallelism > 1))
+            {
+                bundlesRemaining = startBundlesConcurrently(low, high);
+            }
+
             // Process bundles and stop or start them accordingly.
             while (bundlesRemaining)
             {
@@ -1515,90 +1661,10 @@ public class Felix extends BundleImpl implements Framework
                 // Ignore the system bundle, since its start() and
                 // stop() methods get called explicitly in Felix.start()
                 // and Felix.stop(), respectively.
-                if (tuple.m_bundle.getBundleId() != 0)
+                if ((tuple.m_bundle.getBundleId() != 0)
+                    && !processStartLevelTuple(tuple, isLowering))
                 {
-                    // Lock the current bundle.
-                    try
-                    {
-                        acquireBundleLock(tuple.m_bundle,
-                            Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
-                            | Bundle.STARTING | Bundle.STOPPING);
-                    }
-                    catch (IllegalStateException ex)
-                    {
-                        // Ignore if the bundle has been uninstalled.
-                        if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
-                        {
-                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
-                            m_logger.log(tuple.m_bundle,
-                                Logger.LOG_ERROR,
-                                "Error locking " + tuple.m_bundle._getLocation(), ex);
-                        }
-                        else
-                        {
-                            synchronized (m_startLevelBundles)
-                            {
-                                m_startLevelBundles.remove(tuple);
-                                bundlesRemaining = !m_startLevelBundles.isEmpty();
-                            }
-                        }
-                        continue;
-                    }
-
-                    try
-                    {
-                        // Start the bundle if necessary.
-                        // Note that we only attempt to start the bundle if
-                        // its start level is equal to the active start level,
-                        // which means we assume lower bundles are in the state
-                        // they should be in (i.e., we won't attempt to restart
-                        // them if they previously failed to start).
-                        if (!isLowering
-                            && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-// TODO: LAZY - Not sure if this is the best way...
-                                int options = Bundle.START_TRANSIENT;
-                                options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
-                                    ? options | Bundle.START_ACTIVATION_POLICY
-                                    : options;
-                                startBundle(tuple.m_bundle, options);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error starting " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                        // Stop the bundle if necessary.
-                        else if (isLowering
-                            && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
-                                || (tuple.m_bundle.getState() == Bundle.STARTING))
-                                && (tuple.m_level == m_activeStartLevel)))
-                        {
-                            try
-                            {
-                                stopBundle(tuple.m_bundle, false);
-                            }
-                            catch (Throwable th)
-                            {
-                                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
-                                m_logger.log(tuple.m_bundle,
-                                    Logger.LOG_ERROR,
-                                    "Error stopping " + tuple.m_bundle._getLocation(), th);
-                            }
-                        }
-                    }
-                    finally
-                    {
-                        // Always release bundle lock.
-                        releaseBundleLock(tuple.m_bundle);
-                    }
+                    continue;
                 }
 
                 synchronized (m_startLevelBundles)
@@ -1635,6 +1701,280 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Starts or stops a single bundle of the start level bundle queue, if
+     * its persistent state and start level require it.
+     * @param tuple the bundle and the start level it was queued with.
+     * @param isLowering whether the active start level is being lowered.
+     * @return <code>false</code> if the bundle could not be locked and must
+     *         remain queued, <code>true</code> otherwise.
+    **/
+    private boolean processStartLevelTuple(StartLevelTuple tuple, boolean isLowering)
+    {
+        // Lock the current bundle.
+        try
+        {
+            acquireBundleLock(tuple.m_bundle,
+                Bundle.INSTALLED | Bundle.RESOLVED | Bundle.ACTIVE
+                | Bundle.STARTING | Bundle.STOPPING);
+        }
+        catch (IllegalStateException ex)
+        {
+            // Ignore if the bundle has been uninstalled.
+            if (tuple.m_bundle.getState() != Bundle.UNINSTALLED)
+            {
+                fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex);
+                m_logger.log(tuple.m_bundle,
+                    Logger.LOG_ERROR,
+                    "Error locking " + tuple.m_bundle._getLocation(), ex);
+                return false;
+            }
+            return true;
+        }
+
+        try
+        {
+            // Start the bundle if necessary.
+            // Note that we only attempt to start the bundle if
+            // its start level is equal to the active start level,
+            // which means we assume lower bundles are in the state
+            // they should be in (i.e., we won't attempt to restart
+            // them if they previously failed to start).
+            if (!isLowering
+                && (((tuple.m_bundle.getPersistentState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getPersistentState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+// TODO: LAZY - Not sure if this is the best way...
+                    int options = Bundle.START_TRANSIENT;
+                    options = (tuple.m_bundle.getPersistentState() == Bundle.STARTING)
+                        ? options | Bundle.START_ACTIVATION_POLICY
+                        : options;
+                    startBundle(tuple.m_bundle, options);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error starting " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+            // Stop the bundle if necessary.
+            else if (isLowering
+                && (((tuple.m_bundle.getState() == Bundle.ACTIVE)
+                    || (tuple.m_bundle.getState() == Bundle.STARTING))
+                    && (tuple.m_level == m_activeStartLevel)))
+            {
+                try
+                {
+                    stopBundle(tuple.m_bundle, false);
+                }
+                catch (Throwable th)
+                {
+                    fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, th);
+                    m_logger.log(tuple.m_bundle,
+                        Logger.LOG_ERROR,
+                        "Error stopping " + tuple.m_bundle._getLocation(), th);
+                }
+            }
+        }
+        finally
+        {
+            // Always release bundle lock.
+            releaseBundleLock(tuple.m_bundle);
+        }
+
+        return true;
+    }
+
+    /**
+     * Starts the queued bundles of each start level between the given
+     * levels concurrently, using at most the configured start level
+     * parallelism. All bundles of a start level are processed before
+     * moving on to the next level, so bundles may still rely on bundles
+     * of lower start levels having been started. Each bundle is locked
+     * by the thread starting it. Once done, the time spent starting the
+     * slowest bundle of each level, i.e., the critical path of the start
+     * level change, is logged.
+     * @param low the lowest start level to process.
+     * @param high the highest start level to process.
+     * @return <code>true</code> if bundles outside the range remain queued.
+    **/
+    private boolean startBundlesConcurrently(int low, int high)
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            m_startLevelParallelism, new ThreadFactory()
+            {
+                private int m_count = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(r,
+                        FrameworkStartLevelImpl.THREAD_NAME + "-Worker-" + (++m_count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        long startTime = System.nanoTime();
+        long criticalPath = 0;
+        StringBuilder report = new StringBuilder();
+        boolean bundlesRemaining = true;
+        try
+        {
+            while (bundlesRemaining)
+            {
+                // Take a snapshot of the bundles of the lowest queued level.
+                List<StartLevelTuple> tuples = new ArrayList<StartLevelTuple>();
+                int level;
+                synchronized (m_startLevelBundles)
+                {
+                    // Bundles below the range are assumed to be in the
+                    // state they should be in already, so just drop them.
+                    while (!m_startLevelBundles.isEmpty()
+                        && (m_startLevelBundles.first().m_level < low))
+                    {
+                        m_startLevelBundles.remove(m_startLevelBundles.first());
+                    }
+                    if (m_startLevelBundles.isEmpty())
+                    {
+                        bundlesRemaining = false;
+                        break;
+                    }
+                    level = m_startLevelBundles.first().m_level;
+                    if (level > high)
+                    {
+                        break;
+                    }
+                    for (StartLevelTuple tuple : m_startLevelBundles)
+                    {
+                        if (tuple.m_level != level)
+                        {
+                            break;
+                        }
+                        tuples.add(tuple);
+                    }
+                    m_activeStartLevel = level;
+                }
+
+                List<Future<Long>> futures = new ArrayList<Future<Long>>(tuples.size());
+                for (final StartLevelTuple tuple : tuples)
+                {
+                    futures.add((tuple.m_bundle.getBundleId() == 0) ? null
+                        : executor.submit(new Callable<Long>()
+                        {
+                            @Override
+                            public Long call()
+                            {
+                                // Starts of the worker must not be queued,
+                                // just like those of the start level thread.
+                                m_startLevelWorker.set(Boolean.TRUE);
+                                try
+                                {
+                                    long start = System.nanoTime();
+                                    return processStartLevelTuple(tuple, false)
+                                        ? System.nanoTime() - start : -1L;
+                                }
+                                finally
+                                {
+                                    m_startLevelWorker.remove();
+                                }
+                            }
+                        }));
+                }
+
+                // Wait for all bundles of the level before the next level.
+                long levelTime = 0;
+                BundleImpl slowest = null;
+                List<StartLevelTuple> processed = new ArrayList<StartLevelTuple>(tuples.size());
+                for (int i = 0; i < tuples.size(); i++)
+                {
+                    StartLevelTuple tuple = tuples.get(i);
+                    long time = 0;
+                    if (futures.get(i) != null)
+                    {
+                        try
+                        {
+                            time = getUninterruptibly(futures.get(i));
+                        }
+                        catch (ExecutionException ex)
+                        {
+                            fireFrameworkEvent(FrameworkEvent.ERROR, tuple.m_bundle, ex.getCause());
+                            m_logger.log(tuple.m_bundle,
+                                Logger.LOG_ERROR,
+                                "Error starting " + tuple.m_bundle._getLocation(), ex.getCause());
+                        }
+                    }
+                    if (time >= 0)
+                    {
+                        processed.add(tuple);
+                    }
+                    if (time > levelTime)
+                    {
+                        levelTime = time;
+                        slowest = tuple.m_bundle;
+                    }
+                }
+                if (slowest != null)
+                {
+                    criticalPath += levelTime;
+                    report.append("\n  Start level ").append(level).append(": ")
+                        .append(tuples.size()).append(" bundles, slowest ")
+                        .append(slowest).append(" (")
+                        .append(TimeUnit.NANOSECONDS.toMillis(levelTime)).append(" ms)");
+                }
+
+                synchronized (m_startLevelBundles)
+                {
+                    m_startLevelBundles.removeAll(processed);
+                    bundlesRemaining = !m_startLevelBundles.isEmpty();
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        m_logger.log(Logger.LOG_INFO,
+            "Started bundles of start levels " + low + " to " + high + " in "
+            + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+            + " ms with a critical path of "
+            + TimeUnit.NANOSECONDS.toMillis(criticalPath) + " ms." + report);
+
+        return bundlesRemaining;
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException
+    {
+        boolean interrupted = false;
+        try
+        {
+            while (true)
+            {
+                try
+                {
+                    return future.get();
+                }
+                catch (InterruptedException ex)
+                {
+                    interrupted = true;
+                }
+            }
+        }
+        finally
+        {
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
     /**
      * Returns the start level into which newly installed bundles will
      * be placed by default; this method implements functionality for
@@ -2217,9 +2557,10 @@ public class Felix extends BundleImpl implements Framework
             // so queue this bundle to the start level bundle queue for the start
             // level thread and return, except for transient starts which are
             // queued but processed synchronously.
-            // Note: Don't queue starts from the start level thread, otherwise
-            // we'd never get anything started.
-            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME))
+            // Note: Don't queue starts from the start level thread or its
+            // workers, otherwise we'd never get anything started.
+            if (!Thread.currentThread().getName().equals(FrameworkStartLevelImpl.THREAD_NAME)
+                && (m_startLevelWorker.get() == null))
             {
                 synchronized (m_startLevelBundles)
                 {
@@ -2428,8 +2769,14 @@ public class Felix extends BundleImpl implements Framework
                 // Activate the bundle if it has an activator.
                 if (bundle.getActivator() != null)
                 {
+                    long start = m_instrumentation.isEnabled() ? System.nanoTime() : 0;
                     m_secureAction.startActivator(
                         bundle.getActivator(), bundle._getBundleContext());
+                    if (m_instrumentation.isEnabled())
+                    {
+                        m_instrumentation.record(FrameworkInstrumentation.ACTIVATOR_START,
+                            bundle, start, System.nanoTime() - start);
+                    }
                 }
 
                 setBundleStateAndNotify(bundle, Bundle.ACTIVE);
@@ -2502,6 +2849,18 @@ public class Felix extends BundleImpl implements Framework
 
     void updateBundle(BundleImpl bundle, InputStream is)
         throws BundleException
+    {
+        updateBundle(bundle, is, null);
+    }
+
+    /**
+     * Updates a bundle. If the update is part of a batch, the bundle events
+     * are added to the batch instead of being fired, the bundle is neither
+     * refreshed nor restarted, but added to the batch for restart if it was
+     * active, since the batch refreshes and restarts all bundles at once.
+    **/
+    private void updateBundle(BundleImpl bundle, InputStream is, BundleBatchImpl batch)
+        throws BundleException
     {
         // Acquire bundle lock.
         try
@@ -2644,12 +3003,21 @@ public class Felix extends BundleImpl implements Framework
                     m_extensionManager.startExtensionBundle(this, (BundleImpl) extension);
                 }
 
-                fireBundleEvent(BundleEvent.UNRESOLVED, bundle);
-
-                fireBundleEvent(BundleEvent.UPDATED, bundle);
-
-                // Acquire global lock to check if we should auto-refresh.
-                boolean locked = acquireGlobalLock();
+                if (batch != null)
+                {
+                    batch.addEvent(new BundleEvent(BundleEvent.UNRESOLVED, bundle));
+                    batch.addEvent(new BundleEvent(BundleEvent.UPDATED, bundle));
+                }
+                else
+                {
+                    fireBundleEvent(BundleEvent.UNRESOLVED, bundle);
+
+                    fireBundleEvent(BundleEvent.UPDATED, bundle);
+                }
+
+                // Acquire global lock to check if we should auto-refresh,
+                // unless the batch refreshes the bundle.
+                boolean locked = (batch == null) && acquireGlobalLock();
                 // If we did not get the global lock, then do not try to
                 // auto-refresh.
                 if (locked)
@@ -2693,6 +3061,10 @@ public class Felix extends BundleImpl implements Framework
             }
             // Otherwise, restart the bundle if it was previously active,
             // but do not change its persistent state.
+            else if ((oldState == Bundle.ACTIVE) && (batch != null))
+            {
+                batch.addRestart(bundle);
+            }
             else if (oldState == Bundle.ACTIVE)
             {
                 startBundle(bundle, Bundle.START_TRANSIENT);
@@ -3133,8 +3505,109 @@ public class Felix extends BundleImpl implements Framework
     private Bundle reloadBundle(BundleArchive ba, boolean updateMulti)
         throws BundleException
     {
-        BundleImpl bundle = null;
+        try
+        {
+            // Acquire the global lock to create the bundle,
+            // since this impacts the global state.
+            boolean locked = acquireGlobalLock();
+            if (!locked)
+            {
+                throw new BundleException(
+                    "Unable to acquire the global lock to install the bundle.");
+            }
+            try
+            {
+                return addReloadedBundle(createReloadedBundle(ba, updateMulti));
+            }
+            finally
+            {
+                // Always release the global lock.
+                releaseGlobalLock();
+            }
+        }
+        catch (Throwable ex)
+        {
+            throw toBundleException(ex);
+        }
+    }
+
+    /**
+     * Creates the bundle objects of the given cached archives concurrently,
+     * if the bundle cache is configured to reload bundles in parallel. This
+     * parses the manifests and creates the capabilities and requirements of
+     * the bundle revisions, but does not install the bundles, which is done
+     * by {@link #addReloadedBundle(BundleImpl)} in the order of the archives.
+     * @param archives the cached archives.
+     * @param updateMulti whether multi-release bundles must be marked modified.
+     * @return the pending bundle for each archive, <code>null</code> for
+     *         uninstalled archives, or <code>null</code> if the bundles must
+     *         be reloaded sequentially.
+    **/
+    private List<Future<BundleImpl>> createReloadedBundles(
+        BundleArchive[] archives, final boolean updateMulti)
+    {
+        ExecutorService executor = ((archives != null) && (archives.length > 1))
+            ? m_cache.newReloadExecutor() : null;
+        if (executor == null)
+        {
+            return null;
+        }
+        try
+        {
+            List<Future<BundleImpl>> futures = new ArrayList<Future<BundleImpl>>(archives.length);
+            for (final BundleArchive ba : archives)
+            {
+                try
+                {
+                    if (ba.getPersistentState() == Bundle.UNINSTALLED)
+                    {
+                        futures.add(null);
+                        continue;
+                    }
+                }
+                catch (Exception ex)
+                {
+                    // Reported when the archive is installed.
+                    futures.add(null);
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<BundleImpl>()
+                {
+                    @Override
+                    public BundleImpl call() throws Exception
+                    {
+                        // The framework is still initializing, so there are no
+                        // concurrent installs and no global lock is needed to
+                        // create the bundle.
+                        return createReloadedBundle(ba, updateMulti);
+                    }
+                }));
+            }
+            return futures;
+        }
+        finally
+        {
+            // Already submitted tasks still run to completion.
+            executor.shutdown();
+        }
+    }
+
+    private BundleImpl getReloadedBundle(Future<BundleImpl> future)
+        throws BundleException
+    {
+        try
+        {
+            return getUninterruptibly(future);
+        }
+        catch (ExecutionException ex)
+        {
+            throw toBundleException(ex.getCause());
+        }
+    }
 
+    private BundleImpl createReloadedBundle(BundleArchive ba, boolean updateMulti)
+        throws Exception
+    {
         // Try to purge old revisions before installing;
         // this is done just in case a "refresh" didn't
         // occur last session...this would only be due to
@@ -3153,9 +3626,31 @@ public class Felix extends BundleImpl implements Framework
                 "Could not purge bundle.", ex);
         }
 
+        BundleImpl bundle = new BundleImpl(this, null, ba);
+
+        if (updateMulti)
+        {
+            try
+            {
+                if ("true".equals(bundle.adapt(BundleRevisionImpl.class).getHeaders().get("Multi-Release")))
+                {
+                    ba.setLastModified(System.currentTimeMillis());
+                }
+            }
+            catch (Exception ex)
+            {
+                getLogger().log(this, Logger.LOG_WARNING, "Unable to update multi-release bundle last modified", ex);
+            }
+        }
+
+        return bundle;
+    }
+
+    private Bundle addReloadedBundle(BundleImpl bundle) throws BundleException
+    {
         try
         {
-            // Acquire the global lock to create the bundle,
+            // Acquire the global lock to install the bundle,
             // since this impacts the global state.
             boolean locked = acquireGlobalLock();
             if (!locked)
@@ -3165,23 +3660,6 @@ public class Felix extends BundleImpl implements Framework
             }
             try
             {
-                bundle = new BundleImpl(this, null, ba);
-
-                if (updateMulti)
-                {
-                    try
-                    {
-                        if ("true".equals(bundle.adapt(BundleRevisionImpl.class).getHeaders().get("Multi-Release")))
-                        {
-                            ba.setLastModified(System.currentTimeMillis());
-                        }
-                    }
-                    catch (Exception ex)
-                    {
-                        getLogger().log(this, Logger.LOG_WARNING, "Unable to update multi-release bundle last modified", ex);
-                    }
-                }
-
                 // Extensions are handled as a special case.
                 if (bundle.isExtension())
                 {
@@ -3206,26 +3684,42 @@ public class Felix extends BundleImpl implements Framework
         }
         catch (Throwable ex)
         {
-            if (ex instanceof BundleException)
-            {
-                throw (BundleException) ex;
-            }
-            else if (ex instanceof AccessControlException)
-            {
-                throw (AccessControlException) ex;
-            }
-            else
-            {
-                throw new BundleException("Could not create bundle object.", ex);
-            }
+            throw toBundleException(ex);
         }
 
         return bundle;
     }
 
+    private static BundleException toBundleException(Throwable ex)
+    {
+        if (ex instanceof BundleException)
+        {
+            return (BundleException) ex;
+        }
+        else if (ex instanceof AccessControlException)
+        {
+            throw (AccessControlException) ex;
+        }
+        else
+        {
+            return new BundleException("Could not create bundle object.", ex);
+        }
+    }
+
     Bundle installBundle(
         Bundle origin, String location, InputStream is)
         throws BundleException
+    {
+        return installBundle(origin, location, is, null);
+    }
+
+    /**
+     * Installs a bundle. If the install is part of a batch, the bundle event
+     * is added to the batch instead of being fired.
+    **/
+    private Bundle installBundle(
+        Bundle origin, String location, InputStream is, BundleBatchImpl batch)
+        throws BundleException
     {
         BundleArchive ba = null;
         BundleImpl existing, bundle = null;
@@ -3439,6 +3933,10 @@ public class Felix extends BundleImpl implements Framework
                 }
             }
         }
+        else if (batch != null)
+        {
+            batch.addEvent(new BundleEvent(BundleEvent.INSTALLED, bundle, origin));
+        }
         else
         {
             // Fire bundle event.
@@ -3859,7 +4357,7 @@ public class Felix extends BundleImpl implements Framework
         {
             try
             {
-                filter = SimpleFilter.parse(expr);
+                filter = FilterImpl.parseShared(expr);
             }
             catch (Exception ex)
             {
@@ -3930,6 +4428,54 @@ public class Felix extends BundleImpl implements Framework
         return null;
     }
 
+    /**
+     * Retrieves the best {@link ServiceReference} for the calling bundle and
+     * service class name according to service ranking and service id. Without
+     * service find hooks and a security manager this is the first reference of
+     * the registry's ranked table that is assignable to the calling bundle,
+     * otherwise all references are filtered as for
+     * {@link #getAllowedServiceReferences(BundleImpl, String, String, boolean)}.
+     * @param bundle Calling Bundle
+     * @param className Service Classname or <code>null</code> for all
+     * @return The best ServiceReference or <code>null</code>
+     * @throws InvalidSyntaxException
+     */
+    ServiceReference<?> getServiceReference(BundleImpl bundle, String className)
+        throws InvalidSyntaxException
+    {
+        if ((className != null) && (System.getSecurityManager() == null)
+            && getHookRegistry().getHooks(
+                org.osgi.framework.hooks.service.FindHook.class).isEmpty())
+        {
+            for (ServiceReference<?> ref : m_registry.getRankedServiceReferences(className))
+            {
+                if (Util.isServiceAssignable(bundle, ref))
+                {
+                    return ref;
+                }
+            }
+            return null;
+        }
+
+        ServiceReference<?>[] refs = getAllowedServiceReferences(bundle, className, null, true);
+        if (refs == null)
+        {
+            return null;
+        }
+
+        // Loop through all service references and return
+        // the "best" one according to its rank and ID.
+        ServiceReference<?> bestRef = refs[0];
+        for (int i = 1; i < refs.length; i++)
+        {
+            if (bestRef.compareTo(refs[i]) < 0)
+            {
+                bestRef = refs[i];
+            }
+        }
+        return bestRef;
+    }
+
     /**
      * Retrieves Array of {@link ServiceReference} objects based on calling bundle, service class name,
      * optional filter expression, and optionally filters further on the version.
@@ -4402,7 +4948,105 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Applies the operations of a bundle batch. All installs and updates are
+     * applied first, then their bundle events are fired and finally the
+     * updated bundles are refreshed, resolved together with the installed
+     * bundles and restarted in a single refresh.
+    **/
+    List<Bundle> commitBundleBatch(BundleBatchImpl batch, FrameworkListener[] listeners)
+        throws BundleException
+    {
+        Object sm = System.getSecurityManager();
+
+        if (sm != null)
+        {
+            ((SecurityManager) sm).checkPermission(
+                new AdminPermission(this, AdminPermission.RESOLVE));
+        }
+
+        // Apply the operations in order, but stop at the first failure.
+        List<Bundle> updated = new ArrayList<Bundle>();
+        Throwable rethrow = null;
+        for (BundleBatchImpl.Operation op : batch.getOperations())
+        {
+            InputStream is = op.getInput();
+            if (rethrow != null)
+            {
+                // Close the input streams of skipped operations.
+                try
+                {
+                    if (is != null) is.close();
+                }
+                catch (IOException ex)
+                {
+                    m_logger.log(Logger.LOG_ERROR, "Unable to close input stream.", ex);
+                }
+                continue;
+            }
+
+            try
+            {
+                if (op.getBundle() == null)
+                {
+                    batch.addBundle(installBundle(this, op.getLocation(), is, batch));
+                }
+                else
+                {
+                    BundleImpl bundle = op.getBundle();
+                    if (sm != null)
+                    {
+                        ((SecurityManager) sm).checkPermission(
+                            new AdminPermission(bundle, AdminPermission.LIFECYCLE));
+                    }
+                    updateBundle(bundle, is, batch);
+                    batch.addBundle(bundle);
+                    updated.add(bundle);
+                }
+            }
+            catch (Throwable ex)
+            {
+                rethrow = ex;
+            }
+        }
+
+        // Fire the events of all applied operations together.
+        for (BundleEvent event : batch.getEvents())
+        {
+            m_dispatcher.fireBundleEvent(event, this);
+        }
+
+        // Refresh the updated bundles and their dependents, resolve them
+        // together with the installed bundles and restart them once.
+        refreshPackages(updated, batch, listeners);
+
+        if (rethrow instanceof AccessControlException)
+        {
+            throw (AccessControlException) rethrow;
+        }
+        else if (rethrow instanceof RuntimeException)
+        {
+            throw (RuntimeException) rethrow;
+        }
+        else if (rethrow instanceof BundleException)
+        {
+            throw (BundleException) rethrow;
+        }
+        else if (rethrow != null)
+        {
+            throw new BundleException("Bundle batch failed.", rethrow);
+        }
+
+        return batch.getBundles();
+    }
+
     void refreshPackages(Collection<Bundle> targets, FrameworkListener[] listeners)
+    {
+        refreshPackages(targets, null, listeners);
+    }
+
+    private void refreshPackages(
+        Collection<Bundle> targets, BundleBatchImpl batch, FrameworkListener[] listeners)
     {
         // Acquire global lock.
         boolean locked = acquireGlobalLock();
@@ -4452,7 +5096,15 @@ public class Felix extends BundleImpl implements Framework
 
         // If there are targets, then find all dependencies for each one.
         Set<Bundle> bundles = null;
-        if (newTargets != null)
+        Map<BundleWire, BundleRevision> rewire = null;
+        if ((newTargets != null) && m_minimalRefresh)
+        {
+            // Only refresh the dependents whose class space changes and
+            // rewire the others to the new revisions after the refresh.
+            rewire = new HashMap<BundleWire, BundleRevision>();
+            bundles = populateMinimalDependentGraph(newTargets, rewire);
+        }
+        else if (newTargets != null)
         {
             // Create map of bundles that import the packages
             // from the target bundles.
@@ -4518,8 +5170,10 @@ public class Felix extends BundleImpl implements Framework
                         // TODO: FRAMEWORK - Is this correct?
                         forgetUninstalledBundle((BundleImpl) b);
 
-                        // Create refresh helper for bundle.
-                        helpers.add(new RefreshHelper(b));
+                        // Create refresh helper for bundle, which also restarts
+                        // bundles of a batch that were stopped by their update.
+                        helpers.add(new RefreshHelper(b,
+                            (batch != null) && batch.getRestart().contains(b)));
                     }
 
                     // Stop all refreshing bundles.
@@ -4540,6 +5194,47 @@ public class Felix extends BundleImpl implements Framework
                         }
                     }
 
+                    // Move the kept dependents to the new revisions, or refresh
+                    // them after all if a new revision does not resolve.
+                    if ((rewire != null) && !rewire.isEmpty())
+                    {
+                        Set<Bundle> failed = new HashSet<Bundle>();
+                        for (Bundle b : rewireDependents(rewire))
+                        {
+                            if (!bundles.contains(b))
+                            {
+                                failed.add(b);
+                                populateDependentGraph(b, failed);
+                            }
+                        }
+                        failed.removeAll(bundles);
+                        List<RefreshHelper> fallback = new ArrayList<RefreshHelper>(failed.size());
+                        for (Bundle b : failed)
+                        {
+                            forgetUninstalledBundle((BundleImpl) b);
+                            fallback.add(new RefreshHelper(b, false));
+                        }
+                        for (RefreshHelper helper : fallback)
+                        {
+                            helper.stop();
+                        }
+                        for (RefreshHelper helper : fallback)
+                        {
+                            helper.refreshOrRemove();
+                        }
+                        bundles.addAll(failed);
+                        helpers.addAll(fallback);
+                    }
+
+                    // Resolve all refreshed bundles and the bundles of a batch
+                    // at once, so restarting them does not resolve one by one.
+                    if (batch != null)
+                    {
+                        Set<Bundle> resolve = new LinkedHashSet<Bundle>(bundles);
+                        resolve.addAll(batch.getBundles());
+                        resolveBundles(resolve);
+                    }
+
                     // Restart all refreshed bundles that were previously running.
                     for (RefreshHelper helper : helpers)
                     {
@@ -4643,6 +5338,157 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * Determines the bundles to refresh for the specified targets like
+     * {@link #populateDependentGraph(Bundle, Set)}, except that a dependent of
+     * a refreshed bundle is not refreshed if all of its wires to the bundle are
+     * to capabilities outside of the class space, such as generic capabilities
+     * without a <tt>uses</tt> directive, and the current revision of the bundle
+     * declares equal capabilities. A <tt>uses</tt> directive ties a capability
+     * to packages of the provider, whose consistency would have to be checked
+     * by resolving the dependent again. These
+     * wires are added to the specified map together with the current revision
+     * they can be moved to once it is resolved again. Like
+     * {@link #populateDependentGraph(Bundle, Set)}, this method must be called
+     * with the global lock held, since it walks the current wiring.
+    **/
+    private Set<Bundle> populateMinimalDependentGraph(
+        Collection<Bundle> targets, Map<BundleWire, BundleRevision> rewire)
+    {
+        Set<Bundle> set = new HashSet<Bundle>();
+        List<Bundle> queue = new ArrayList<Bundle>();
+        for (Bundle target : targets)
+        {
+            if ((target != null) && set.add(target))
+            {
+                queue.add(target);
+            }
+        }
+
+        Map<BundleWire, BundleRevision> candidates = new HashMap<BundleWire, BundleRevision>();
+        while (!queue.isEmpty())
+        {
+            Bundle provider = queue.remove(queue.size() - 1);
+            BundleRevision current = provider.adapt(BundleRevision.class);
+            List<BundleRevision> revisions = provider.adapt(BundleRevisions.class).getRevisions();
+
+            // The dependents of an uninstalled bundle or a fragment can not
+            // be moved to a new revision.
+            boolean rewirable = (provider.getState() != Bundle.UNINSTALLED)
+                && (current != null);
+            for (BundleRevision revision : revisions)
+            {
+                rewirable = rewirable && !Util.isFragment(revision);
+            }
+
+            if (!rewirable)
+            {
+                for (Bundle b : m_dependencies.getDependentBundles(provider))
+                {
+                    if (set.add(b))
+                    {
+                        queue.add(b);
+                    }
+                }
+                continue;
+            }
+
+            for (BundleRevision revision : revisions)
+            {
+                for (BundleWire wire : m_dependencies.getDependentWires(revision))
+                {
+                    if (!wire.getCapability().getNamespace().startsWith("osgi.wiring.")
+                        && !hasUsesDirective(wire.getCapability())
+                        && (findEqualCapability(current.getDeclaredCapabilities(
+                            wire.getCapability().getNamespace()), wire.getCapability()) != null))
+                    {
+                        candidates.put(wire, current);
+                    }
+                    else if (set.add(wire.getRequirer().getBundle()))
+                    {
+                        queue.add(wire.getRequirer().getBundle());
+                    }
+                }
+            }
+        }
+
+        // Only the wires of dependents that are not refreshed anyway need
+        // to be moved.
+        for (Map.Entry<BundleWire, BundleRevision> entry : candidates.entrySet())
+        {
+            if (!set.contains(entry.getKey().getRequirer().getBundle()))
+            {
+                rewire.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Resolves the new revisions of the specified wires and moves the wires to
+     * the equal capabilities of these revisions.
+     * @return the requiring bundles of the wires that could not be moved.
+    **/
+    private Set<Bundle> rewireDependents(Map<BundleWire, BundleRevision> rewire)
+    {
+        Set<Bundle> providers = new HashSet<Bundle>();
+        for (BundleRevision revision : rewire.values())
+        {
+            providers.add(revision.getBundle());
+        }
+        resolveBundles(providers);
+
+        Set<Bundle> failed = new HashSet<Bundle>();
+        for (Map.Entry<BundleWire, BundleRevision> entry : rewire.entrySet())
+        {
+            BundleWire wire = entry.getKey();
+            BundleRevision revision = entry.getValue();
+            BundleWiringImpl requirerWiring = (BundleWiringImpl) wire.getRequirer().getWiring();
+            BundleCapability cap = (revision.getWiring() != null)
+                ? findEqualCapability(revision.getWiring().getCapabilities(
+                    wire.getCapability().getNamespace()), wire.getCapability())
+                : null;
+            if ((requirerWiring != null) && (cap != null))
+            {
+                BundleWire newWire = new BundleWireImpl(
+                    wire.getRequirer(), wire.getRequirement(), revision, cap);
+                requirerWiring.replaceWire(wire, newWire);
+                m_dependencies.replaceDependent(wire, newWire);
+            }
+            else
+            {
+                m_logger.log(wire.getRequirer().getBundle(), Logger.LOG_DEBUG,
+                    "Unable to rewire " + wire + " to " + revision + ", refreshing.");
+                failed.add(wire.getRequirer().getBundle());
+            }
+        }
+        return failed;
+    }
+
+    private static boolean hasUsesDirective(BundleCapability cap)
+    {
+        String uses = cap.getDirectives().get(Constants.USES_DIRECTIVE);
+        return (uses != null) && (uses.trim().length() > 0);
+    }
+
+    private static BundleCapability findEqualCapability(
+        List<BundleCapability> caps, BundleCapability cap)
+    {
+        if (caps != null)
+        {
+            for (BundleCapability c : caps)
+            {
+                if (c.getNamespace().equals(cap.getNamespace())
+                    && c.getAttributes().equals(cap.getAttributes())
+                    && c.getDirectives().equals(cap.getDirectives()))
+                {
+                    return c;
+                }
+            }
+        }
+        return null;
+    }
+
     // Calls to this method must have the global lock.
     private Set<Bundle> populateDependentGraph(Bundle exporter, Set<Bundle> set)
     {
@@ -5098,6 +5944,93 @@ public class Felix extends BundleImpl implements Framework
         }
     }
 
+    /**
+     * The resolution cache is only used if it is enabled by configuration,
+     * since storing it writes to the bundle cache while the framework stops.
+    **/
+    private boolean isResolutionCacheEnabled()
+    {
+        return "true".equalsIgnoreCase(_getProperty(FelixConstants.RESOLVER_CACHE));
+    }
+
+    private List<BundleRevision> getCurrentRevisions()
+    {
+        Bundle[] bundles = getBundles();
+        List<BundleRevision> revisions = new ArrayList<BundleRevision>(bundles.length);
+        for (Bundle bundle : bundles)
+        {
+            BundleRevision revision = bundle.adapt(BundleRevision.class);
+            if (revision != null)
+            {
+                revisions.add(revision);
+            }
+        }
+        return revisions;
+    }
+
+    /**
+     * Restores the wiring stored by the last run of the framework, if the
+     * bundles reloaded from the cache are still the same.
+    **/
+    private void loadResolutionCache()
+    {
+        if (!isResolutionCacheEnabled())
+        {
+            return;
+        }
+        try
+        {
+            ResolutionCache cache = ResolutionCache.load(
+                m_cache.getSystemBundleDataFile("resolution.cache"),
+                getCurrentRevisions());
+            if (cache != null)
+            {
+                m_logger.log(
+                    Logger.LOG_DEBUG,
+                    "Restored wiring of " + cache.size() + " revisions from the bundle cache.");
+            }
+            m_resolver.setResolutionCache(cache);
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to restore wiring from persistent storage.",
+                ex);
+        }
+    }
+
+    /**
+     * Stores the wiring of all resolved bundles so that it can be restored
+     * on the next run of the framework.
+    **/
+    private void storeResolutionCache()
+    {
+        m_resolver.setResolutionCache(null);
+        if (!isResolutionCacheEnabled())
+        {
+            return;
+        }
+        try
+        {
+            List<BundleRevision> revisions = getCurrentRevisions();
+            ResolutionCache cache = ResolutionCache.fromWiring(revisions);
+            if (cache.size() > 0)
+            {
+                cache.store(
+                    m_cache.getSystemBundleDataFile("resolution.cache"),
+                    revisions);
+            }
+        }
+        catch (Exception ex)
+        {
+            m_logger.log(
+                Logger.LOG_WARNING,
+                "Unable to save wiring to persistent storage.",
+                ex);
+        }
+    }
+
     public boolean hasConnectFramework()
     {
         return m_connectFramework != null;
@@ -5151,6 +6084,12 @@ public class Felix extends BundleImpl implements Framework
             acquireBundleLock(Felix.this, Bundle.STOPPING);
             releaseBundleLock(Felix.this);
 
+            // Store the wiring of the resolved bundles for the next run.
+            // Stopping bundles does not change the wiring, so do it before
+            // anything else; wires to revisions that are still pending
+            // removal are not stored.
+            storeResolutionCache();
+
             // Use the start level service to set the start level to zero
             // in order to stop all bundles in the framework. Since framework
             // shutdown happens on its own thread, we can wait for the start
@@ -5280,10 +6219,12 @@ public class Felix extends BundleImpl implements Framework
     {
         private BundleImpl m_bundle = null;
         private int m_oldState = Bundle.INSTALLED;
+        private final boolean m_restart;
 
-        public RefreshHelper(Bundle bundle)
+        public RefreshHelper(Bundle bundle, boolean restart)
         {
             m_bundle = (BundleImpl) bundle;
+            m_restart = restart;
         }
 
         public void stop()
@@ -5341,7 +6282,7 @@ public class Felix extends BundleImpl implements Framework
 
         public void restart()
         {
-            if ((m_bundle != null) && (m_oldState == Bundle.ACTIVE))
+            if ((m_bundle != null) && ((m_oldState == Bundle.ACTIVE) || m_restart))
             {
                 try
                 {
@@ -26,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.framework.ServiceRegistrationImpl.ServiceReferenceImpl;
 import org.apache.felix.framework.capabilityset.CapabilitySet;
 import org.apache.felix.framework.capabilityset.SimpleFilter;
@@ -38,13 +39,20 @@ import org.osgi.framework.wiring.BundleRevision;
 
 public class FilterImpl implements Filter
 {
+    // Maximum number of parsed filters shared by filter string.
+    private static final int MAX_SHARED_FILTERS = 1024;
+    // Parsed filters shared between filters with the same filter string,
+    // so that operands coerced while matching are reused by all of them.
+    private static final ConcurrentHashMap<String, SimpleFilter> m_sharedFilters =
+        new ConcurrentHashMap<String, SimpleFilter>();
+
     private final SimpleFilter m_filter;
 
     public FilterImpl(String filterStr) throws InvalidSyntaxException
     {
         try
         {
-            m_filter = SimpleFilter.parse(filterStr);
+            m_filter = parseShared(filterStr);
         }
         catch (Throwable th)
         {
@@ -52,6 +60,40 @@ public class FilterImpl implements Filter
         }
     }
 
+    /**
+     * Parses a filter string or returns the already parsed filter for the
+     * same string. Parsed filters are immutable, except for the operands
+     * cached per attribute type while matching, so they can be shared.
+     * @param filterStr the filter string to parse.
+     * @return the parsed filter.
+     * @throws IllegalArgumentException if the filter string is invalid.
+    **/
+    static SimpleFilter parseShared(String filterStr)
+    {
+        SimpleFilter sf = m_sharedFilters.get(filterStr);
+        if (sf == null)
+        {
+            sf = SimpleFilter.parse(filterStr);
+            // Start over instead of tracking usage once the limit is
+            // reached, since most filters are created at startup.
+            if (m_sharedFilters.size() >= MAX_SHARED_FILTERS)
+            {
+                m_sharedFilters.clear();
+            }
+            m_sharedFilters.put(filterStr, sf);
+        }
+        return sf;
+    }
+
+    /**
+     * Returns the parsed filter of this filter.
+     * @return the parsed filter.
+    **/
+    SimpleFilter getSimpleFilter()
+    {
+        return m_filter;
+    }
+
     public boolean match(ServiceReference sr)
     {
         if (sr instanceof ServiceReferenceImpl)
@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+/**
+ * Receives timings and counts of internal framework operations, such as
+ * reloading the bundle cache, resolving, starting bundle activators, loading
+ * classes and delivering events. An instance can be passed to the framework
+ * in the <tt>felix.instrumentation</tt> configuration property, otherwise
+ * {@link #NOOP} is used and nothing is measured.
+ * <p>
+ * Some operations are recorded on hot paths, such as class loading, so
+ * implementations must be thread safe and fast. The framework only takes
+ * timestamps for an operation if {@link #isEnabled()} returns <tt>true</tt>.
+ * </p>
+ * @see StartupProfiler
+**/
+public interface FrameworkInstrumentation
+{
+    /** Reloading the cached bundles when the framework initializes. */
+    String CACHE_RELOAD = "cache.reload";
+    /** A resolve operation of the framework resolver. */
+    String RESOLVE = "resolver.resolve";
+    /** A resource rejected by a resolve attempt for a uses constraint violation. */
+    String RESOLVE_USES_VIOLATIONS = "resolver.uses.violations";
+    /** Calling the start method of a bundle activator, the subject is the bundle. */
+    String ACTIVATOR_START = "bundle.activator.start";
+    /** Defining a class of a bundle, the subject is the bundle revision. */
+    String CLASS_LOAD = "wiring.class.load";
+    /** The time an asynchronous event waited in the dispatch queue. */
+    String EVENT_QUEUE_DELAY = "event.queue.delay";
+
+    /**
+     * Instrumentation that records nothing.
+    **/
+    FrameworkInstrumentation NOOP = new FrameworkInstrumentation()
+    {
+        @Override
+        public boolean isEnabled()
+        {
+            return false;
+        }
+
+        @Override
+        public void record(String name, Object subject, long startNanos, long durationNanos)
+        {
+        }
+
+        @Override
+        public void count(String name, Object subject, long value)
+        {
+        }
+    };
+
+    /**
+     * Returns whether operations should be measured at all.
+     * @return <tt>true</tt> if operations are measured.
+    **/
+    boolean isEnabled();
+
+    /**
+     * Records the duration of an operation.
+     * @param name the name of the operation, one of the constants above.
+     * @param subject the bundle or revision the operation applies to, or
+     *        <tt>null</tt> for framework wide operations.
+     * @param startNanos the {@link System#nanoTime()} at which the operation
+     *        started.
+     * @param durationNanos the duration of the operation in nanoseconds.
+    **/
+    void record(String name, Object subject, long startNanos, long durationNanos);
+
+    /**
+     * Adds a value to a counter.
+     * @param name the name of the counter, one of the constants above.
+     * @param subject the bundle or revision the value applies to, or
+     *        <tt>null</tt>.
+     * @param value the value to add.
+    **/
+    void count(String name, Object subject, long value);
+}
@@ -20,9 +20,11 @@ package org.apache.felix.framework;
 
 import java.lang.reflect.Method;
 
+import org.apache.felix.resolver.ResolutionError;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.ServiceReference;
+import org.osgi.resource.Resource;
 
 /**
  * <p>
@@ -40,6 +42,7 @@ import org.osgi.framework.ServiceReference;
 public class Logger extends org.apache.felix.resolver.Logger
 {
     private Object[] m_logger;
+    private volatile FrameworkInstrumentation m_instrumentation = FrameworkInstrumentation.NOOP;
 
     public Logger()
     {
@@ -69,6 +72,24 @@ public class Logger extends org.apache.felix.resolver.Logger
         }
     }
 
+    // The logger is available to all framework components, so it also
+    // carries the instrumentation to the ones without a framework reference.
+    void setInstrumentation(FrameworkInstrumentation instrumentation)
+    {
+        m_instrumentation = instrumentation;
+    }
+
+    FrameworkInstrumentation getInstrumentation()
+    {
+        return m_instrumentation;
+    }
+
+    @Override
+    public void logUsesConstraintViolation(Resource resource, ResolutionError error)
+    {
+        m_instrumentation.count(FrameworkInstrumentation.RESOLVE_USES_VIOLATIONS, resource, 1);
+    }
+
     public final void log(ServiceReference sr, int level, String msg)
     {
         _log(null, sr, level, msg, null);
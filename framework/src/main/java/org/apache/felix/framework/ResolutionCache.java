@@ -0,0 +1,441 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.Util;
+import org.apache.felix.framework.wiring.BundleWireImpl;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * Persists the wiring of resolved revisions across framework restarts.
+ * The wiring is stored per bundle as a list of wires, where requirements
+ * and capabilities are referenced by the bundle identifier of their
+ * declaring revision and their index in its declared requirements or
+ * capabilities. The stored wiring is tagged with a key hashed from the
+ * manifests of all installed revisions and the capabilities of the system
+ * bundle, so it is only reused when the exact same set of revisions is
+ * reloaded from the bundle cache; in that case the indices identify the
+ * same requirements and capabilities again and the wires can be handed to
+ * the resolver state instead of resolving the revisions from scratch.
+**/
+class ResolutionCache
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private static final Comparator<BundleRevision> BUNDLE_ID_COMPARATOR =
+        new Comparator<BundleRevision>()
+        {
+            public int compare(BundleRevision r1, BundleRevision r2)
+            {
+                long id1 = r1.getBundle().getBundleId();
+                long id2 = r2.getBundle().getBundleId();
+                return (id1 < id2) ? -1 : ((id1 == id2) ? 0 : 1);
+            }
+        };
+
+    // Stored wires for each unresolved revision, as well as the fragments
+    // that were attached to each host, which must be resolved along with it.
+    private final Map<BundleRevision, List<BundleWire>> m_wires;
+    private final Map<BundleRevision, List<BundleRevision>> m_fragments;
+
+    private ResolutionCache(Map<BundleRevision, List<BundleWire>> wires)
+    {
+        m_wires = wires;
+        m_fragments = new HashMap<BundleRevision, List<BundleRevision>>();
+        for (Entry<BundleRevision, List<BundleWire>> entry : wires.entrySet())
+        {
+            if (Util.isFragment(entry.getKey()))
+            {
+                for (BundleWire wire : entry.getValue())
+                {
+                    List<BundleRevision> fragments = m_fragments.get(wire.getProvider());
+                    if (fragments == null)
+                    {
+                        fragments = new ArrayList<BundleRevision>();
+                        m_fragments.put(wire.getProvider(), fragments);
+                    }
+                    fragments.add(entry.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of revisions for which wires are cached.
+     * @return the number of cached revisions.
+    **/
+    int size()
+    {
+        return m_wires.size();
+    }
+
+    /**
+     * Returns the wire map needed to resolve the given revisions, in the
+     * form returned by the resolver, or <tt>null</tt> if the cache does not
+     * contain the wiring of the revisions or of any unresolved revision
+     * they transitively depend on.
+     * @param revisions the revisions to resolve.
+     * @return the wire map for all revisions being resolved or <tt>null</tt>.
+    **/
+    Map<Resource, List<Wire>> getWireMap(Collection<BundleRevision> revisions)
+    {
+        Map<Resource, List<Wire>> wireMap = new HashMap<Resource, List<Wire>>();
+        List<BundleRevision> stack = new ArrayList<BundleRevision>(revisions);
+        while (!stack.isEmpty())
+        {
+            BundleRevision revision = stack.remove(stack.size() - 1);
+            if ((revision.getWiring() != null) || wireMap.containsKey(revision))
+            {
+                continue;
+            }
+
+            List<BundleWire> wires = m_wires.get(revision);
+            if (wires == null)
+            {
+                return null;
+            }
+            wireMap.put(revision, Collections.<Wire>unmodifiableList(wires));
+
+            for (BundleWire wire : wires)
+            {
+                stack.add(wire.getProvider());
+            }
+
+            List<BundleRevision> fragments = m_fragments.get(revision);
+            if (fragments != null)
+            {
+                for (BundleRevision fragment : fragments)
+                {
+                    // Fragments cannot dynamically attach to a new host,
+                    // so an already resolved fragment means the cached
+                    // wiring no longer describes the current state.
+                    if (fragment.getWiring() != null)
+                    {
+                        return null;
+                    }
+                    stack.add(fragment);
+                }
+            }
+        }
+        return (wireMap.isEmpty()) ? null : wireMap;
+    }
+
+    /**
+     * Loads the cached wiring from the specified file, if it was stored for
+     * exactly the given revisions.
+     * @param file the file to load from.
+     * @param revisions the current revisions of all installed bundles,
+     *        including the system bundle.
+     * @return the loaded cache or <tt>null</tt> if the file does not exist
+     *         or was stored for a different set of revisions.
+     * @throws Exception if the file cannot be read.
+    **/
+    static ResolutionCache load(File file, Collection<BundleRevision> revisions)
+        throws Exception
+    {
+        if (!Felix.m_secureAction.fileExists(file))
+        {
+            return null;
+        }
+
+        Map<Long, BundleRevision> revisionsById = new HashMap<Long, BundleRevision>();
+        for (BundleRevision revision : revisions)
+        {
+            revisionsById.put(revision.getBundle().getBundleId(), revision);
+        }
+
+        InputStream is = null;
+        try
+        {
+            is = Felix.m_secureAction.getInputStream(file);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+            if ((in.readInt() != FORMAT_VERSION)
+                || !in.readUTF().equals(computeKey(revisions)))
+            {
+                return null;
+            }
+
+            Map<BundleRevision, List<BundleWire>> wires =
+                new HashMap<BundleRevision, List<BundleWire>>();
+            for (int entryCount = in.readInt(); entryCount > 0; entryCount--)
+            {
+                BundleRevision requirer = getRevision(revisionsById, in.readLong());
+                int wireCount = in.readInt();
+                List<BundleWire> revisionWires = new ArrayList<BundleWire>(wireCount);
+                for (int i = 0; i < wireCount; i++)
+                {
+                    BundleRequirement req = getRevision(revisionsById, in.readLong())
+                        .getDeclaredRequirements(null).get(in.readInt());
+                    BundleRevision provider = getRevision(revisionsById, in.readLong());
+                    BundleCapability cap = getRevision(revisionsById, in.readLong())
+                        .getDeclaredCapabilities(null).get(in.readInt());
+                    revisionWires.add(new BundleWireImpl(requirer, req, provider, cap));
+                }
+                wires.put(requirer, revisionWires);
+            }
+            return new ResolutionCache(wires);
+        }
+        catch (IndexOutOfBoundsException ex)
+        {
+            throw new IOException("Resolution cache does not match the installed revisions.");
+        }
+        finally
+        {
+            if (is != null) is.close();
+        }
+    }
+
+    /**
+     * Creates a cache from the current wiring of all resolved revisions.
+     * Dynamic wires and wiring that refers to revisions which are not the
+     * current revision of their bundle are left out, since they would not
+     * survive a restart.
+     * @param revisions the current revisions of all installed bundles,
+     *        including the system bundle.
+     * @return the cache of the current wiring.
+    **/
+    static ResolutionCache fromWiring(Collection<BundleRevision> revisions)
+    {
+        Map<BundleRevision, List<BundleWire>> wires =
+            new HashMap<BundleRevision, List<BundleWire>>();
+        for (BundleRevision revision : revisions)
+        {
+            // The system bundle and its extensions are resolved on init.
+            BundleWiring wiring = revision.getWiring();
+            if ((revision.getBundle().getBundleId() == 0) || (wiring == null)
+                || ((BundleImpl) revision.getBundle()).isExtension())
+            {
+                continue;
+            }
+
+            List<BundleWire> revisionWires = new ArrayList<BundleWire>();
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                String resolution = wire.getRequirement().getDirectives()
+                    .get(Constants.RESOLUTION_DIRECTIVE);
+                if (!FelixConstants.RESOLUTION_DYNAMIC.equals(resolution))
+                {
+                    revisionWires.add(wire);
+                }
+            }
+            if (isStorable(revision, revisionWires))
+            {
+                wires.put(revision, revisionWires);
+            }
+        }
+        return new ResolutionCache(wires);
+    }
+
+    /**
+     * Stores the cached wiring to the specified file, tagged with the key
+     * of the given revisions.
+     * @param file the file to store to.
+     * @param revisions the current revisions of all installed bundles,
+     *        including the system bundle.
+     * @throws Exception if the file cannot be written.
+    **/
+    void store(File file, Collection<BundleRevision> revisions)
+        throws Exception
+    {
+        Map<BundleRevision, List<BundleWire>> entries =
+            new TreeMap<BundleRevision, List<BundleWire>>(BUNDLE_ID_COMPARATOR);
+        entries.putAll(m_wires);
+
+        OutputStream os = null;
+        try
+        {
+            os = Felix.m_secureAction.getOutputStream(file);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(computeKey(revisions));
+            out.writeInt(entries.size());
+            for (Entry<BundleRevision, List<BundleWire>> entry : entries.entrySet())
+            {
+                out.writeLong(entry.getKey().getBundle().getBundleId());
+                out.writeInt(entry.getValue().size());
+                for (BundleWire wire : entry.getValue())
+                {
+                    BundleRevision reqOwner = wire.getRequirement().getRevision();
+                    BundleRevision capOwner = wire.getCapability().getRevision();
+                    out.writeLong(reqOwner.getBundle().getBundleId());
+                    out.writeInt(indexOf(reqOwner.getDeclaredRequirements(null), wire.getRequirement()));
+                    out.writeLong(wire.getProvider().getBundle().getBundleId());
+                    out.writeLong(capOwner.getBundle().getBundleId());
+                    out.writeInt(indexOf(capOwner.getDeclaredCapabilities(null), wire.getCapability()));
+                }
+            }
+            out.flush();
+        }
+        finally
+        {
+            if (os != null) os.close();
+        }
+    }
+
+    // A revision's wires can only be restored if every revision they refer
+    // to is reloaded as is and the wired requirements and capabilities are
+    // declared ones.
+    private static boolean isStorable(BundleRevision revision, List<BundleWire> wires)
+    {
+        if (!isCurrent(revision))
+        {
+            return false;
+        }
+        for (BundleWire wire : wires)
+        {
+            BundleRevision reqOwner = wire.getRequirement().getRevision();
+            BundleRevision capOwner = wire.getCapability().getRevision();
+            if ((wire.getRequirer() != revision)
+                || !isCurrent(wire.getProvider())
+                || !isCurrent(reqOwner)
+                || !isCurrent(capOwner)
+                || (indexOf(reqOwner.getDeclaredRequirements(null), wire.getRequirement()) < 0)
+                || (indexOf(capOwner.getDeclaredCapabilities(null), wire.getCapability()) < 0))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCurrent(BundleRevision revision)
+    {
+        return (revision != null)
+            && (revision.getBundle().adapt(BundleRevision.class) == revision);
+    }
+
+    private static int indexOf(List<?> list, Object o)
+    {
+        for (int i = 0; i < list.size(); i++)
+        {
+            if (list.get(i) == o)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static BundleRevision getRevision(Map<Long, BundleRevision> revisionsById, long id)
+        throws IOException
+    {
+        BundleRevision revision = revisionsById.get(id);
+        if (revision == null)
+        {
+            throw new IOException("Resolution cache refers to unknown bundle " + id);
+        }
+        return revision;
+    }
+
+    /**
+     * Computes the key identifying a set of installed revisions, which is
+     * a hash over the manifest headers of each revision and the declared
+     * capabilities of the system bundle.
+     * @param revisions the current revisions of all installed bundles.
+     * @return the key as a hex string.
+     * @throws Exception if the hash cannot be computed.
+    **/
+    static String computeKey(Collection<BundleRevision> revisions) throws Exception
+    {
+        List<BundleRevision> sorted = new ArrayList<BundleRevision>(revisions);
+        Collections.sort(sorted, BUNDLE_ID_COMPARATOR);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        StringBuilder sb = new StringBuilder();
+        for (BundleRevision revision : sorted)
+        {
+            sb.setLength(0);
+            sb.append(revision.getBundle().getBundleId()).append('\n');
+            if (revision instanceof BundleRevisionImpl)
+            {
+                Map<String, Object> headers = new TreeMap<String, Object>(
+                    String.CASE_INSENSITIVE_ORDER);
+                headers.putAll(((BundleRevisionImpl) revision).getHeaders());
+                for (Entry<String, Object> header : headers.entrySet())
+                {
+                    sb.append(header.getKey()).append(": ")
+                        .append(header.getValue()).append('\n');
+                }
+            }
+            if (revision.getBundle().getBundleId() == 0)
+            {
+                for (BundleCapability cap : revision.getDeclaredCapabilities(null))
+                {
+                    sb.append(cap.getNamespace());
+                    appendSorted(sb, cap.getDirectives());
+                    appendSorted(sb, cap.getAttributes());
+                    sb.append('\n');
+                }
+            }
+            digest.update(sb.toString().getBytes("UTF-8"));
+        }
+
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+        {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16))
+                .append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    // Appends the entries of the map in key order, rendering array values
+    // by their elements so the result does not depend on object identity.
+    // The framework UUID changes on every init and is therefore skipped.
+    private static void appendSorted(StringBuilder sb, Map<String, ?> map)
+    {
+        Map<String, Object> sorted = new TreeMap<String, Object>(map);
+        sorted.remove(Constants.FRAMEWORK_UUID);
+        for (Entry<String, Object> entry : sorted.entrySet())
+        {
+            Object value = entry.getValue();
+            sb.append(';').append(entry.getKey()).append('=')
+                .append((value instanceof Object[])
+                    ? Arrays.asList((Object[]) value) : value);
+        }
+    }
+}
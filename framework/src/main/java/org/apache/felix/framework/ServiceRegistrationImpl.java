@@ -32,7 +32,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.felix.framework.util.MapToDictionary;
-import org.apache.felix.framework.util.StringMap;
+import org.apache.felix.framework.util.ImmutableStringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.wiring.BundleCapabilityImpl;
 import org.osgi.framework.Bundle;
@@ -63,7 +63,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
     // Service factory interface.
     private volatile ServiceFactory m_factory;
     // Associated property dictionary.
-    private volatile Map<String, Object> m_propMap = new StringMap();
+    private volatile Map<String, Object> m_propMap = ImmutableStringMap.EMPTY;
     // Re-usable service reference.
     private final ServiceReferenceImpl m_ref;
     // Flag indicating that we are unregistering.
@@ -302,8 +302,9 @@ class ServiceRegistrationImpl implements ServiceRegistration
 
     private void initializeProperties(Dictionary<String, Object> dict)
     {
-        // Create a case-insensitive map for the properties.
-        Map<String, Object> props = new StringMap();
+        // Collect the properties into a compact case-insensitive map.
+        ImmutableStringMap.Builder props = new ImmutableStringMap.Builder(
+            (dict != null) ? dict.size() + 4 : 4);
 
         if (dict != null)
         {
@@ -339,7 +340,7 @@ class ServiceRegistrationImpl implements ServiceRegistration
         }
 
         // Update the service property map.
-        m_propMap = props;
+        m_propMap = props.build();
     }
 
     private Object getFactoryUnchecked(Bundle bundle)
@@ -19,8 +19,10 @@
 package org.apache.felix.framework;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Dictionary;
 import java.util.Iterator;
 import java.util.List;
@@ -56,6 +58,22 @@ public class ServiceRegistry
     // Capability set for all service registrations.
     private final CapabilitySet m_regCapSet = new CapabilitySet(Collections.singletonList(Constants.OBJECTCLASS), false);
 
+    // Maps each service class name to the references registered under it,
+    // sorted so that the best reference according to service ranking and
+    // service id comes first. The arrays are replaced on each update, so
+    // readers never need to lock.
+    private final ConcurrentMap<String, ServiceReference<?>[]> m_rankedRegs = new ConcurrentHashMap<String, ServiceReference<?>[]>();
+
+    // Orders service references from the best to the worst.
+    private static final Comparator<ServiceReference<?>> BEST_FIRST = new Comparator<ServiceReference<?>>()
+    {
+        @Override
+        public int compare(ServiceReference<?> ref1, ServiceReference<?> ref2)
+        {
+            return ref2.compareTo(ref1);
+        }
+    };
+
     // Maps bundle to an array of usage counts.
     private final ConcurrentMap<Bundle, UsageCount[]> m_inUseMap = new ConcurrentHashMap<Bundle, UsageCount[]>();
 
@@ -137,6 +155,7 @@ public class ServiceRegistry
             regs.add(reg);
         }
         m_regCapSet.addCapability((BundleCapabilityImpl) reg.getReference());
+        addRankedReference(classNames, reg.getReference());
 
         return reg;
     }
@@ -164,6 +183,7 @@ public class ServiceRegistry
             }
         }
         m_regCapSet.removeCapability((BundleCapabilityImpl) reg.getReference());
+        removeRankedReference(reg.getReference());
 
         // Notify callback objects about unregistering service.
         if (m_callbacks != null)
@@ -252,27 +272,121 @@ public class ServiceRegistry
 
     public Collection<Capability> getServiceReferences(final String className, SimpleFilter filter)
     {
-        if ((className == null) && (filter == null))
+        if (className != null)
+        {
+            // Only look at the services registered under the class name,
+            // which also returns the matches in ranking order.
+            final ServiceReference<?>[] refs = getRankedServiceReferences(className);
+            final List<Capability> matches = new ArrayList<Capability>(refs.length);
+            for (final ServiceReference<?> ref : refs)
+            {
+                if ((filter == null) || CapabilitySet.matches((Capability) ref, filter))
+                {
+                    matches.add((Capability) ref);
+                }
+            }
+            return matches;
+        }
+        else if (filter == null)
         {
             // Return all services.
             filter = new SimpleFilter(null, null, SimpleFilter.MATCH_ALL);
         }
-        else if ((className != null) && (filter == null))
+        // else just use the specified filter.
+
+        return m_regCapSet.match(filter, false);
+    }
+
+    /**
+     * Returns the references of the services registered under the given
+     * class name, sorted from the best to the worst according to service
+     * ranking and service id. The first element is therefore the reference
+     * <tt>BundleContext.getServiceReference()</tt> returns, if it is visible
+     * to the caller.
+     * @param className the service class name.
+     * @return the sorted references, which must not be modified.
+     */
+    public ServiceReference<?>[] getRankedServiceReferences(final String className)
+    {
+        final ServiceReference<?>[] refs = m_rankedRegs.get(className);
+        return (refs != null) ? refs : new ServiceReference<?>[0];
+    }
+
+    private void addRankedReference(final String[] classNames, final ServiceReference<?> ref)
+    {
+        synchronized (m_rankedRegs)
         {
-            // Return services matching the class name.
-            filter = new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ);
+            for (final String className : classNames)
+            {
+                final ServiceReference<?>[] refs = m_rankedRegs.get(className);
+                if (refs == null)
+                {
+                    m_rankedRegs.put(className, new ServiceReference<?>[] { ref });
+                    continue;
+                }
+                // Insert at the sorted position, since the arrays are always
+                // kept in order.
+                int idx = Arrays.binarySearch(refs, ref, BEST_FIRST);
+                idx = (idx < 0) ? -(idx + 1) : idx;
+                final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length + 1];
+                System.arraycopy(refs, 0, newRefs, 0, idx);
+                newRefs[idx] = ref;
+                System.arraycopy(refs, idx, newRefs, idx + 1, refs.length - idx);
+                m_rankedRegs.put(className, newRefs);
+            }
         }
-        else if ((className != null) && (filter != null))
+    }
+
+    private void removeRankedReference(final ServiceReference<?> ref)
+    {
+        final String[] classNames = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+        synchronized (m_rankedRegs)
         {
-            // Return services matching the class name and filter.
-            final List<SimpleFilter> filters = new ArrayList<SimpleFilter>(2);
-            filters.add(new SimpleFilter(Constants.OBJECTCLASS, className, SimpleFilter.EQ));
-            filters.add(filter);
-            filter = new SimpleFilter(null, filters, SimpleFilter.AND);
+            for (final String className : classNames)
+            {
+                final ServiceReference<?>[] refs = m_rankedRegs.get(className);
+                final int idx = (refs != null) ? Arrays.asList(refs).indexOf(ref) : -1;
+                if (idx < 0)
+                {
+                    continue;
+                }
+                if (refs.length == 1)
+                {
+                    m_rankedRegs.remove(className);
+                }
+                else
+                {
+                    final ServiceReference<?>[] newRefs = new ServiceReference<?>[refs.length - 1];
+                    System.arraycopy(refs, 0, newRefs, 0, idx);
+                    System.arraycopy(refs, idx + 1, newRefs, idx, refs.length - idx - 1);
+                    m_rankedRegs.put(className, newRefs);
+                }
+            }
         }
-        // else just use the specified filter.
+    }
 
-        return m_regCapSet.match(filter, false);
+    private void updateRankedReference(final ServiceReference<?> ref, final Object oldRanking)
+    {
+        final Object ranking = ref.getProperty(Constants.SERVICE_RANKING);
+        if ((ranking == oldRanking) || ((ranking != null) && ranking.equals(oldRanking)))
+        {
+            return;
+        }
+        final String[] classNames = (String[]) ref.getProperty(Constants.OBJECTCLASS);
+        synchronized (m_rankedRegs)
+        {
+            for (final String className : classNames)
+            {
+                final ServiceReference<?>[] refs = m_rankedRegs.get(className);
+                if (refs != null)
+                {
+                    // Sort a copy, since readers may use the current array.
+                    final ServiceReference<?>[] newRefs = refs.clone();
+                    Arrays.sort(newRefs, BEST_FIRST);
+                    m_rankedRegs.put(className, newRefs);
+                }
+            }
+        }
     }
 
     public ServiceReference<?>[] getServicesInUse(final Bundle bundle)
@@ -323,6 +437,18 @@ public class ServiceRegistry
                     null);
         }
 
+        // Fast path: if the bundle already holds the service, the cached
+        // service object can be handed out by bumping the usage count without
+        // calling out to the registration, so no thread marking is needed.
+        if (!isServiceObjects)
+        {
+            svcObj = getCachedService(bundle, ref, reg);
+            if (svcObj != null)
+            {
+                return (S) svcObj;
+            }
+        }
+
         try
         {
             reg.markCurrentThread();
@@ -430,6 +556,92 @@ public class ServiceRegistry
         return (S) svcObj;
     }
 
+    /**
+     * Returns the service object already cached for the given bundle and
+     * reference, incrementing its usage count, or {@code null} if there is
+     * no cached object in use and the regular lookup has to be performed.
+     * This only reads the copy-on-write usage array and performs a single
+     * compare-and-set on the usage count, so it neither allocates nor
+     * touches the thread marker of the registration.
+     * @param bundle The bundle using the service.
+     * @param ref The Service Reference.
+     * @param reg The registration of the service reference.
+     * @return The cached service object or {@code null}.
+    **/
+    private Object getCachedService(
+        Bundle bundle, ServiceReference<?> ref, ServiceRegistrationImpl reg)
+    {
+        UsageCount usage = findUsageCount(bundle, ref);
+        if ((usage == null) || !incrementIfPositive(usage.m_count))
+        {
+            return null;
+        }
+
+        // The holder is only complete once its latch was counted down, which
+        // is when the service object is set; anything else (including a
+        // concurrent unregistration) is left to the regular lookup.
+        ServiceHolder holder = usage.m_svcHolderRef.get();
+        Object svcObj = (holder != null) ? holder.m_service : null;
+        if ((svcObj != null) && reg.isValid())
+        {
+            return svcObj;
+        }
+        usage.m_count.decrementAndGet();
+        return null;
+    }
+
+    // Find the existing non-prototype usage count of the bundle for the
+    // reference without creating one.
+    private UsageCount findUsageCount(Bundle bundle, ServiceReference<?> ref)
+    {
+        UsageCount[] usages = m_inUseMap.get(bundle);
+        for (int i = 0; (usages != null) && (i < usages.length); i++)
+        {
+            if (!usages[i].m_prototype && usages[i].m_ref.equals(ref))
+            {
+                return usages[i];
+            }
+        }
+        return null;
+    }
+
+    // Increment the Atomic Long by 1, but only if it is already positive.
+    // Returns false without changing the value otherwise.
+    private boolean incrementIfPositive(AtomicLong al)
+    {
+        while (true)
+        {
+            long oldVal = al.get();
+            if (oldVal <= 0L)
+            {
+                return false;
+            }
+            checkCountOverflow(oldVal + 1L);
+            if (al.compareAndSet(oldVal, oldVal + 1L))
+            {
+                return true;
+            }
+        }
+    }
+
+    // Decrement the Atomic Long by 1, but only if the result stays positive.
+    // Returns false without changing the value otherwise.
+    private boolean decrementIfAboveOne(AtomicLong al)
+    {
+        while (true)
+        {
+            long oldVal = al.get();
+            if (oldVal <= 1L)
+            {
+                return false;
+            }
+            if (al.compareAndSet(oldVal, oldVal - 1L))
+            {
+                return true;
+            }
+        }
+    }
+
     // Increment the Atomic Long by 1, and ensure the result is at least 1.
     // This method uses a loop, optimistic algorithm to do this in a threadsafe
     // way without locks.
@@ -469,6 +681,17 @@ public class ServiceRegistry
                     "ServiceFactory.ungetService() resulted in a cycle.");
         }
 
+        // Fast path: releasing a service the bundle still uses afterwards
+        // only decrements the usage count and never calls out.
+        if ((svcObj == null) && reg.isValid())
+        {
+            UsageCount usage = findUsageCount(bundle, ref);
+            if ((usage != null) && decrementIfAboveOne(usage.m_count))
+            {
+                return true;
+            }
+        }
+
         try
         {
             // Mark the current thread to avoid cycles
@@ -619,6 +842,7 @@ public class ServiceRegistry
     void servicePropertiesModified(ServiceRegistration<?> reg, Dictionary<?,?> oldProps)
     {
         this.hookRegistry.updateHooks(reg.getReference());
+        updateRankedReference(reg.getReference(), oldProps.get(Constants.SERVICE_RANKING));
         if (m_callbacks != null)
         {
             m_callbacks.serviceChanged(
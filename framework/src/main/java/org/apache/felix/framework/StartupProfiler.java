@@ -0,0 +1,330 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Built-in {@link FrameworkInstrumentation} that keeps a histogram per
+ * operation, a total per counter and a timeline of the recorded operations.
+ * The timeline can be written as a JSON trace in the trace event format,
+ * which trace viewers such as <tt>chrome://tracing</tt> or Perfetto display
+ * per thread, so the bundles that delay startup are easy to spot. The
+ * framework creates a profiler if the <tt>felix.instrumentation</tt>
+ * configuration property is <tt>true</tt>, and writes its trace to the file
+ * named by <tt>felix.instrumentation.trace</tt> when it has started.
+**/
+public class StartupProfiler implements FrameworkInstrumentation
+{
+    /** The default maximum number of operations kept in the timeline. */
+    public static final int DEFAULT_MAX_EVENTS = 100000;
+
+    private final long m_origin = System.nanoTime();
+    private final int m_maxEvents;
+    private final ConcurrentMap<String, Histogram> m_histograms = new ConcurrentHashMap<String, Histogram>();
+    private final ConcurrentMap<String, LongAdder> m_counters = new ConcurrentHashMap<String, LongAdder>();
+    private final Queue<Event> m_events = new ConcurrentLinkedQueue<Event>();
+    private final AtomicInteger m_eventCount = new AtomicInteger();
+
+    public StartupProfiler()
+    {
+        this(DEFAULT_MAX_EVENTS);
+    }
+
+    /**
+     * Creates a profiler.
+     * @param maxEvents the maximum number of operations kept in the
+     *        timeline; later operations are only added to the histograms.
+    **/
+    public StartupProfiler(int maxEvents)
+    {
+        m_maxEvents = maxEvents;
+    }
+
+    @Override
+    public boolean isEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void record(String name, Object subject, long startNanos, long durationNanos)
+    {
+        Histogram histogram = m_histograms.get(name);
+        if (histogram == null)
+        {
+            histogram = new Histogram();
+            Histogram existing = m_histograms.putIfAbsent(name, histogram);
+            histogram = (existing != null) ? existing : histogram;
+        }
+        histogram.add(durationNanos);
+
+        if (m_eventCount.incrementAndGet() <= m_maxEvents)
+        {
+            Thread thread = Thread.currentThread();
+            m_events.add(new Event(name, (subject != null) ? subject.toString() : null,
+                Math.max(0, startNanos - m_origin), Math.max(0, durationNanos), thread.getId(), thread.getName()));
+        }
+    }
+
+    @Override
+    public void count(String name, Object subject, long value)
+    {
+        LongAdder counter = m_counters.get(name);
+        if (counter == null)
+        {
+            counter = new LongAdder();
+            LongAdder existing = m_counters.putIfAbsent(name, counter);
+            counter = (existing != null) ? existing : counter;
+        }
+        counter.add(value);
+    }
+
+    /**
+     * Returns the histogram of an operation.
+     * @param name the name of the operation.
+     * @return the histogram or <tt>null</tt> if the operation was never
+     *         recorded.
+    **/
+    public Histogram getHistogram(String name)
+    {
+        return m_histograms.get(name);
+    }
+
+    /**
+     * Returns the total of a counter.
+     * @param name the name of the counter.
+     * @return the total, which is zero if the counter was never updated.
+    **/
+    public long getCount(String name)
+    {
+        LongAdder counter = m_counters.get(name);
+        return (counter != null) ? counter.sum() : 0;
+    }
+
+    /**
+     * Writes the timeline as a JSON trace in the trace event format, with
+     * one complete event per recorded operation and the counter totals as
+     * additional data.
+     * @param writer the writer to write the trace to.
+     * @throws IOException if the trace cannot be written.
+    **/
+    public void writeTrace(Writer writer) throws IOException
+    {
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        Map<Long, String> threads = new TreeMap<Long, String>();
+        for (Event event : m_events)
+        {
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write("{\"name\":");
+            writeString(writer, (event.m_subject != null) ? event.m_subject : event.m_name);
+            writer.write(",\"cat\":");
+            writeString(writer, event.m_name);
+            writer.write(",\"ph\":\"X\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(event.m_threadId));
+            writer.write(",\"ts\":");
+            writer.write(toMicros(event.m_start));
+            writer.write(",\"dur\":");
+            writer.write(toMicros(event.m_duration));
+            writer.write('}');
+            threads.put(event.m_threadId, event.m_threadName);
+        }
+        for (Map.Entry<Long, String> thread : threads.entrySet())
+        {
+            writer.write(first ? "\n" : ",\n");
+            first = false;
+            writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":");
+            writer.write(Long.toString(thread.getKey()));
+            writer.write(",\"args\":{\"name\":");
+            writeString(writer, thread.getValue());
+            writer.write("}}");
+        }
+        writer.write("\n],\"otherData\":{");
+        first = true;
+        for (Map.Entry<String, LongAdder> counter : new TreeMap<String, LongAdder>(m_counters).entrySet())
+        {
+            writer.write(first ? "" : ",");
+            first = false;
+            writeString(writer, counter.getKey());
+            writer.write(':');
+            writer.write(Long.toString(counter.getValue().sum()));
+        }
+        writer.write("}}\n");
+        writer.flush();
+    }
+
+    private static String toMicros(long nanos)
+    {
+        return Long.toString(nanos / 1000) + '.' + Long.toString(1000 + (nanos % 1000)).substring(1);
+    }
+
+    private static void writeString(Writer writer, String s) throws IOException
+    {
+        writer.write('"');
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if ((c == '"') || (c == '\\'))
+            {
+                writer.write('\\');
+                writer.write(c);
+            }
+            else if (c < 0x20)
+            {
+                writer.write(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Returns a summary of the histograms and counters, one line each.
+    **/
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder("StartupProfiler:");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(m_histograms).entrySet())
+        {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<String, LongAdder>(m_counters).entrySet())
+        {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue().sum());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Histogram of durations with power of two buckets, so recording a
+     * duration neither allocates nor locks.
+    **/
+    public static class Histogram
+    {
+        private final AtomicLongArray m_buckets = new AtomicLongArray(64);
+        private final LongAdder m_count = new LongAdder();
+        private final LongAdder m_total = new LongAdder();
+        private final AtomicLong m_max = new AtomicLong();
+
+        void add(long nanos)
+        {
+            nanos = Math.max(0, nanos);
+            m_buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) - ((nanos == 0) ? 0 : 1));
+            m_count.increment();
+            m_total.add(nanos);
+            long max = m_max.get();
+            while ((nanos > max) && !m_max.compareAndSet(max, nanos))
+            {
+                max = m_max.get();
+            }
+        }
+
+        /** @return the number of recorded durations. */
+        public long getCount()
+        {
+            return m_count.sum();
+        }
+
+        /** @return the sum of the recorded durations in nanoseconds. */
+        public long getTotalNanos()
+        {
+            return m_total.sum();
+        }
+
+        /** @return the longest recorded duration in nanoseconds. */
+        public long getMaxNanos()
+        {
+            return m_max.get();
+        }
+
+        /**
+         * Returns an upper bound of a percentile of the recorded durations,
+         * which is accurate to a factor of two.
+         * @param percentile the percentile between 0 and 100.
+         * @return the upper bound in nanoseconds.
+        **/
+        public long getPercentileNanos(double percentile)
+        {
+            long count = 0;
+            for (int i = 0; i < m_buckets.length(); i++)
+            {
+                count += m_buckets.get(i);
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < m_buckets.length(); i++)
+            {
+                seen += m_buckets.get(i);
+                if ((seen >= rank) && (seen > 0))
+                {
+                    return Math.min((i >= 62) ? Long.MAX_VALUE : (1L << (i + 1)) - 1, getMaxNanos());
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString()
+        {
+            return getCount() + " recorded, total "
+                + TimeUnit.NANOSECONDS.toMillis(getTotalNanos()) + " ms, p50 "
+                + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50)) + " us, p99 "
+                + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99)) + " us, max "
+                + TimeUnit.NANOSECONDS.toMicros(getMaxNanos()) + " us";
+        }
+    }
+
+    private static class Event
+    {
+        final String m_name;
+        final String m_subject;
+        final long m_start;
+        final long m_duration;
+        final long m_threadId;
+        final String m_threadName;
+
+        Event(String name, String subject, long start, long duration, long threadId, String threadName)
+        {
+            m_name = name;
+            m_subject = subject;
+            m_start = start;
+            m_duration = duration;
+            m_threadId = threadId;
+            m_threadName = threadName;
+        }
+    }
+}
@@ -18,6 +18,7 @@
  */
 package org.apache.felix.framework;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -33,6 +34,10 @@ import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -93,6 +98,8 @@ class StatefulResolver
     // Selected singleton bundle revisions.
     private final Set<BundleRevision> m_selectedSingletons;
     private volatile ServiceRegistration<?> m_serviceRegistration;
+    // Wiring restored from the bundle cache, valid until revisions change.
+    private ResolutionCache m_resolutionCache;
 
     StatefulResolver(Felix felix, ServiceRegistry registry)
     {
@@ -108,17 +115,22 @@ class StatefulResolver
         m_singletons = new HashMap<String, List<BundleRevision>>();
         m_selectedSingletons = new HashSet<BundleRevision>();
 
+        // Index the name of bundles, packages and hosts, and keep the
+        // providers of each name sorted by version for range requirements.
         List<String> indices = new ArrayList<String>();
         indices.add(BundleRevision.BUNDLE_NAMESPACE);
-        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE, new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.BUNDLE_NAMESPACE,
+            new CapabilitySet(indices, Constants.BUNDLE_VERSION_ATTRIBUTE, true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.PACKAGE_NAMESPACE);
-        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE, new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.PACKAGE_NAMESPACE,
+            new CapabilitySet(indices, Constants.VERSION_ATTRIBUTE, true));
 
         indices = new ArrayList<String>();
         indices.add(BundleRevision.HOST_NAMESPACE);
-        m_capSets.put(BundleRevision.HOST_NAMESPACE,  new CapabilitySet(indices, true));
+        m_capSets.put(BundleRevision.HOST_NAMESPACE,
+            new CapabilitySet(indices, Constants.BUNDLE_VERSION_ATTRIBUTE, true));
     }
 
     private Executor getExecutor()
@@ -146,6 +158,48 @@ class StatefulResolver
                 }
             };
         }
+
+        return new ResolverExecutor(parallelism,
+            m_felix.getProperty(FelixConstants.RESOLVER_EXECUTOR));
+    }
+
+    private ExecutorService createExecutorService(int parallelism, String type)
+    {
+        // The resolver runs pending tasks itself while waiting for them, so
+        // a work-stealing pool or virtual threads can be used instead of the
+        // default thread pool.
+        if ("virtual".equalsIgnoreCase(type))
+        {
+            try
+            {
+                Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) m.invoke(null);
+            }
+            catch (Exception ex)
+            {
+                m_logger.log(Logger.LOG_DEBUG,
+                    "Resolver: Virtual threads not available, using a fork/join pool.");
+                type = "forkjoin";
+            }
+        }
+        if ("forkjoin".equalsIgnoreCase(type))
+        {
+            return new ForkJoinPool(parallelism,
+                new ForkJoinPool.ForkJoinWorkerThreadFactory()
+                {
+                    final AtomicInteger counter = new AtomicInteger();
+                    @Override
+                    public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+                    {
+                        ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                        thread.setName("FelixResolver-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                null, true);
+        }
         else
         {
             ThreadPoolExecutor executor = new ThreadPoolExecutor(
@@ -184,14 +238,27 @@ class StatefulResolver
             reg.unregister();
             m_serviceRegistration = null;
         }
+        // The resolver outlives a stop of the framework, so only release
+        // the threads; they are created again by the next resolve.
+        if (m_executor instanceof ResolverExecutor)
+        {
+            ((ResolverExecutor) m_executor).shutdown();
+        }
     }
 
     synchronized void addRevision(BundleRevision br)
     {
+        // Any new revision invalidates the cached resolution, since it
+        // may provide better candidates than the ones that were wired.
+        if (!m_revisions.contains(br))
+        {
+            m_resolutionCache = null;
+        }
+
         // Always attempt to remove the revision, since
         // this method can be used for re-indexing a revision
         // after it has been resolved.
-        removeRevision(br);
+        removeRevisionInternal(br);
 
         m_revisions.add(br);
 
@@ -218,6 +285,14 @@ class StatefulResolver
     }
 
     synchronized void removeRevision(BundleRevision br)
+    {
+        if (removeRevisionInternal(br))
+        {
+            m_resolutionCache = null;
+        }
+    }
+
+    private boolean removeRevisionInternal(BundleRevision br)
     {
         if (m_revisions.remove(br))
         {
@@ -235,7 +310,53 @@ class StatefulResolver
                     m_singletons.remove(br.getSymbolicName());
                 }
             }
+            return true;
         }
+        return false;
+    }
+
+    /**
+     * Sets the wiring restored from the bundle cache, which is used to
+     * resolve revisions instead of the resolver as long as no revisions
+     * are added or removed.
+     * @param cache the restored wiring or <tt>null</tt> to clear it.
+    **/
+    synchronized void setResolutionCache(ResolutionCache cache)
+    {
+        m_resolutionCache = cache;
+    }
+
+    // Returns the cached wire map for the given revisions if all of them
+    // and the unresolved revisions they depend on have cached wiring.
+    private synchronized Map<Resource, List<Wire>> getCachedWireMap(
+        ResolverHookRecord record,
+        Set<BundleRevision> mandatory,
+        Set<BundleRevision> optional)
+    {
+        // Resolver hooks and security checks may reject cached wires.
+        if ((m_resolutionCache == null)
+            || !record.getResolverHookRefs().isEmpty()
+            || (System.getSecurityManager() != null))
+        {
+            return null;
+        }
+
+        Set<BundleRevision> revisions = new HashSet<BundleRevision>(mandatory);
+        revisions.addAll(optional);
+        Map<Resource, List<Wire>> wireMap = m_resolutionCache.getWireMap(revisions);
+        if (wireMap != null)
+        {
+            for (Resource resource : wireMap.keySet())
+            {
+                BundleRevision br = (BundleRevision) resource;
+                if (((BundleImpl) br.getBundle()).isExtension()
+                    || (Util.isSingleton(br) && !isSelectedSingleton(br)))
+                {
+                    return null;
+                }
+            }
+        }
+        return wireMap;
     }
 
     boolean isEffective(Requirement req)
@@ -486,15 +607,27 @@ class StatefulResolver
             ResolutionException rethrow = null;
             try
             {
-                // Resolve the revision.
-                wireMap = m_resolver.resolve(
-                    new ResolveContextImpl(
-                        this,
-                        getWirings(),
-                        record,
-                        mandatory,
-                        optional,
-                        getFragments()));
+                // Reuse the wiring from the last run if nothing changed,
+                // otherwise resolve the revision.
+                wireMap = getCachedWireMap(record, mandatory, optional);
+                if (wireMap == null)
+                {
+                    FrameworkInstrumentation instrumentation = m_felix.getInstrumentation();
+                    long start = instrumentation.isEnabled() ? System.nanoTime() : 0;
+                    wireMap = m_resolver.resolve(
+                        new ResolveContextImpl(
+                            this,
+                            getWirings(),
+                            record,
+                            mandatory,
+                            optional,
+                            getFragments()));
+                    if (instrumentation.isEnabled())
+                    {
+                        instrumentation.record(FrameworkInstrumentation.RESOLVE,
+                            null, start, System.nanoTime() - start);
+                    }
+                }
             }
             catch (ResolutionException ex)
             {
@@ -1697,6 +1830,43 @@ class StatefulResolver
         singletons.put(br.getSymbolicName(), revisions);
     }
 
+    /**
+     * Executor handed to the resolver, which creates its threads on first
+     * use and releases them again when the framework stops.
+     */
+    private class ResolverExecutor implements Executor
+    {
+        private final int m_parallelism;
+        private final String m_type;
+        private ExecutorService m_delegate;
+
+        ResolverExecutor(int parallelism, String type)
+        {
+            m_parallelism = parallelism;
+            m_type = type;
+        }
+
+        @Override
+        public synchronized void execute(Runnable command)
+        {
+            if (m_delegate == null)
+            {
+                m_delegate = createExecutorService(m_parallelism, m_type);
+            }
+            m_delegate.execute(command);
+        }
+
+        synchronized void shutdown()
+        {
+            if (m_delegate != null)
+            {
+                // Tasks of a resolve still in progress are completed.
+                m_delegate.shutdown();
+                m_delegate = null;
+            }
+        }
+    }
+
     static class ResolverHookRecord
     {
         final Map<ServiceReference<ResolverHookFactory>, ResolverHook> m_resolveHookMap;
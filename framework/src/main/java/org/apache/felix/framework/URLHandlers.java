@@ -18,6 +18,9 @@
  */
 package org.apache.felix.framework;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.net.ContentHandler;
 import java.net.ContentHandlerFactory;
@@ -25,11 +28,14 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
 import java.net.URLStreamHandlerFactory;
+import java.util.Iterator;
 import java.util.List;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
 import org.apache.felix.framework.util.MyConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 import static org.apache.felix.framework.util.Util.putIfAbsentAndReturn;
 
@@ -111,8 +117,39 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
     private static final ConcurrentHashMap<String, URLStreamHandler> m_builtIn = new ConcurrentHashMap<String, URLStreamHandler>();
     private static final boolean m_loaded;
 
+    // On Java 9 and later, the first bundle class on the call stack is found
+    // with a stack walker, which stops at that class instead of copying the
+    // whole class context like SecurityManagerEx does.
+    private static final MethodHandle m_stackWalk;
+    private static final MethodHandle m_getDeclaringClass;
+
     static
     {
+        MethodHandle stackWalk = null;
+        MethodHandle getDeclaringClass = null;
+        try
+        {
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> optionClass = Class.forName("java.lang.StackWalker$Option");
+            Object walker = walkerClass.getMethod("getInstance", optionClass).invoke(
+                null, optionClass.getField("RETAIN_CLASS_REFERENCE").get(null));
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            stackWalk = lookup.findVirtual(walkerClass, "walk",
+                MethodType.methodType(Object.class, Function.class)).bindTo(walker);
+            getDeclaringClass = lookup.findVirtual(
+                Class.forName("java.lang.StackWalker$StackFrame"), "getDeclaringClass",
+                MethodType.methodType(Class.class)).asType(
+                    MethodType.methodType(Class.class, Object.class));
+        }
+        catch (Throwable ex)
+        {
+            // Not available, the class context is used instead.
+            stackWalk = null;
+            getDeclaringClass = null;
+        }
+        m_stackWalk = stackWalk;
+        m_getDeclaringClass = getDeclaringClass;
+
         String pkgs = new SecureAction().getSystemProperty(STREAM_HANDLER_PACKAGE_PROP, "");
         m_streamPkgs = (pkgs.equals(""))
             ? DEFAULT_STREAM_HANDLER_PACKAGE
@@ -759,34 +796,16 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
             }
         }
 
-        // get the current class call stack.
-        Class[] stack = m_sm.getClassContext();
-        // Find the first class that is loaded from a bundle.
-        Class targetClass = null;
-        ClassLoader targetClassLoader = null;
-        for (int i = 0; i < stack.length; i++)
-        {
-            ClassLoader classLoader = m_secureAction.getClassLoader(stack[i]);
-			if (classLoader != null)
-            {
-                String name = classLoader.getClass().getName();
-                if (name.startsWith("org.apache.felix.framework.ModuleImpl$ModuleClassLoader")
-                    || name.equals("org.apache.felix.framework.searchpolicy.ContentClassLoader")
-                    || name.startsWith("org.apache.felix.framework.BundleWiringImpl$BundleClassLoader"))
-                {
-                    targetClass = stack[i];
-                    targetClassLoader = classLoader;
-                    break;
-                }
-            }
-        }
+        // Find the first class on the call stack that is loaded from a bundle.
+        Class<?> targetClass = findBundleClass();
 
         // If we found a class loaded from a bundle, then iterate
         // over the framework instances and see which framework owns
         // the bundle that loaded the class.
         if (targetClass != null)
         {
-            ClassLoader index = m_secureAction.getClassLoader(targetClassLoader.getClass());
+            ClassLoader index = m_secureAction.getClassLoader(
+                m_secureAction.getClassLoader(targetClass).getClass());
 
             List frameworks = (List) m_classloaderToFrameworkLists.get(index);
 
@@ -822,6 +841,67 @@ class URLHandlers implements URLStreamHandlerFactory, ContentHandlerFactory
         return null;
     }
 
+    private static Class<?> findBundleClass()
+    {
+        if (m_stackWalk != null)
+        {
+            try
+            {
+                return (Class<?>) m_stackWalk.invoke(new Function<Stream<Object>, Class<?>>()
+                {
+                    @Override
+                    public Class<?> apply(Stream<Object> frames)
+                    {
+                        for (Iterator<Object> it = frames.iterator(); it.hasNext();)
+                        {
+                            Class<?> clazz;
+                            try
+                            {
+                                clazz = (Class<?>) m_getDeclaringClass.invokeExact(it.next());
+                            }
+                            catch (Throwable ex)
+                            {
+                                throw new IllegalStateException(ex);
+                            }
+                            if (isBundleClassLoader(m_secureAction.getClassLoader(clazz)))
+                            {
+                                return clazz;
+                            }
+                        }
+                        return null;
+                    }
+                });
+            }
+            catch (Throwable ex)
+            {
+                // Fall back to the class context.
+            }
+        }
+
+        // get the current class call stack.
+        Class<?>[] stack = m_sm.getClassContext();
+        for (int i = 0; i < stack.length; i++)
+        {
+            if (isBundleClassLoader(m_secureAction.getClassLoader(stack[i])))
+            {
+                return stack[i];
+            }
+        }
+        return null;
+    }
+
+    private static boolean isBundleClassLoader(ClassLoader classLoader)
+    {
+        if (classLoader != null)
+        {
+            String name = classLoader.getClass().getName();
+            return name.startsWith("org.apache.felix.framework.ModuleImpl$ModuleClassLoader")
+                || name.equals("org.apache.felix.framework.searchpolicy.ContentClassLoader")
+                || name.startsWith("org.apache.felix.framework.BundleWiringImpl$BundleClassLoader");
+        }
+        return false;
+    }
+
     public static Object getFrameworkFromContext(String uuid)
     {
         if (uuid != null)
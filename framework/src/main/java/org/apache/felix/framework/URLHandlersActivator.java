@@ -21,6 +21,7 @@ package org.apache.felix.framework;
 import java.net.ContentHandler;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.felix.framework.util.FelixConstants;
 import org.osgi.framework.BundleActivator;
@@ -39,8 +40,13 @@ import org.osgi.service.url.URLStreamHandlerService;
 **/
 class URLHandlersActivator implements BundleActivator
 {
+    // Marks protocols and mime types without a handler service in the caches.
+    private static final Object NO_SERVICE = new Object();
+
     private final Map m_configMap;
     private final Felix m_framework;
+    private volatile HandlerCache m_streamHandlers = new HandlerCache(null);
+    private volatile HandlerCache m_contentHandlers = new HandlerCache(null);
 
     public URLHandlersActivator(Map configMap, Felix framework)
     {
@@ -78,16 +84,40 @@ class URLHandlersActivator implements BundleActivator
 
     protected Object getStreamHandlerService(String protocol)
     {
-        return get(
-            m_framework.getHookRegistry().getHooks(URLStreamHandlerService.class),
-            "url.handler.protocol", protocol);
+        Set<ServiceReference<URLStreamHandlerService>> hooks =
+            m_framework.getHookRegistry().getHooks(URLStreamHandlerService.class);
+        HandlerCache cache = m_streamHandlers;
+        if (cache.m_hooks != hooks)
+        {
+            cache = new HandlerCache(hooks);
+            m_streamHandlers = cache;
+        }
+        Object service = cache.m_services.get(protocol);
+        if (service == null)
+        {
+            service = get(hooks, "url.handler.protocol", protocol);
+            cache.m_services.put(protocol, (service != null) ? service : NO_SERVICE);
+        }
+        return (service != NO_SERVICE) ? service : null;
     }
 
     protected Object getContentHandlerService(String mimeType)
     {
-        return get(
-            m_framework.getHookRegistry().getHooks(ContentHandler.class),
-            "url.content.mimetype", mimeType);
+        Set<ServiceReference<ContentHandler>> hooks =
+            m_framework.getHookRegistry().getHooks(ContentHandler.class);
+        HandlerCache cache = m_contentHandlers;
+        if (cache.m_hooks != hooks)
+        {
+            cache = new HandlerCache(hooks);
+            m_contentHandlers = cache;
+        }
+        Object service = cache.m_services.get(mimeType);
+        if (service == null)
+        {
+            service = get(hooks, "url.content.mimetype", mimeType);
+            cache.m_services.put(mimeType, (service != null) ? service : NO_SERVICE);
+        }
+        return (service != NO_SERVICE) ? service : null;
     }
 
     private <S> S get(Set<ServiceReference<S>> hooks, String key, String value)
@@ -119,4 +149,23 @@ class URLHandlersActivator implements BundleActivator
 
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * The handler services found for each protocol or mime type, which are
+     * valid as long as the hook registry returns the same set of handler
+     * service references. The registry replaces the set whenever a handler
+     * service is registered, modified or unregistered, before the service
+     * event is fired, so the cache never outlives a service change.
+    **/
+    private static class HandlerCache
+    {
+        final Set<?> m_hooks;
+        final ConcurrentHashMap<String, Object> m_services =
+            new ConcurrentHashMap<String, Object>();
+
+        HandlerCache(Set<?> hooks)
+        {
+            m_hooks = hooks;
+        }
+    }
+}
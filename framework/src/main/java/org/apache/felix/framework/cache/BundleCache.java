@@ -19,6 +19,7 @@
 package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.ClassDataCache;
 import org.apache.felix.framework.util.SecureAction;
 import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.osgi.framework.Constants;
@@ -31,9 +32,16 @@ import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * <p>
@@ -75,6 +83,30 @@ import java.util.Map;
  *       string provides control over the size of the internal buffer of the
  *       disk cache for performance reasons.
  *   </li>
+ *   <li><tt>felix.cache.mapped</tt> - Enables or disables memory mapping of
+ *       bundle JAR files, which are then read without opening a ZIP file and
+ *       are not subject to <tt>felix.cache.filelimit</tt>. Only copies
+ *       owned by the cache are mapped, never bundles installed by reference.
+ *       This is disabled by default, since mapped files cannot be deleted on
+ *       some platforms before the mapping is garbage collected.
+ *   </li>
+ *   <li><tt>felix.cache.reload.parallelism</tt> - The number of threads used
+ *       to reload the cached bundles when the framework starts, which reads
+ *       their archives and parses their manifests concurrently. The default
+ *       value is one, which reloads the bundles one after another.
+ *   </li>
+ *   <li><tt>felix.cache.classdata</tt> - Enables or disables the class data
+ *       cache, which keeps an inflated copy of every class file loaded from a
+ *       bundle JAR file in the <tt>classdata</tt> directory of the cache.
+ *       Identical class files of updated or refreshed revisions of a bundle,
+ *       and of all bundles when the framework is restarted, are then read
+ *       from this copy instead of being decompressed again. This is disabled
+ *       by default.
+ *   </li>
+ *   <li><tt>felix.cache.classdata.limit</tt> - The maximum size in bytes of
+ *       the class data cache, which is enforced when the framework starts
+ *       by removing the oldest copies. The default value is 67108864.
+ *   </li>
  * <p>
  * For specific information on how to configure the Felix framework, refer
  * to the Felix framework usage documentation.
@@ -87,6 +119,10 @@ public class BundleCache
     public static final String CACHE_ROOTDIR_PROP = "felix.cache.rootdir";
     public static final String CACHE_LOCKING_PROP = "felix.cache.locking";
     public static final String CACHE_FILELIMIT_PROP = "felix.cache.filelimit";
+    public static final String CACHE_MAPPED_PROP = "felix.cache.mapped";
+    public static final String CACHE_RELOAD_PARALLELISM_PROP = "felix.cache.reload.parallelism";
+    public static final String CACHE_CLASSDATA_PROP = "felix.cache.classdata";
+    public static final String CACHE_CLASSDATA_LIMIT_PROP = "felix.cache.classdata.limit";
     private static final ThreadLocal m_defaultBuffer = new ThreadLocal();
     private static volatile int DEFAULT_BUFFER = 1024 * 64;
 
@@ -94,6 +130,8 @@ public class BundleCache
     private static transient final String CACHE_ROOTDIR_DEFAULT = ".";
     private static transient final String CACHE_LOCK_NAME = "cache.lock";
     static transient final String BUNDLE_DIR_PREFIX = "bundle";
+    private static transient final String CLASSDATA_DIR_NAME = "classdata";
+    private static transient final long CLASSDATA_LIMIT_DEFAULT = 64 * 1024 * 1024;
 
     private static final SecureAction m_secureAction = new SecureAction();
 
@@ -121,10 +159,15 @@ public class BundleCache
                 limit = 0;
             }
         }
-        m_zipFactory = new WeakZipFileFactory(limit);
-
         // Create the cache directory, if it does not exist.
         File cacheDir = determineCacheDir(m_configMap);
+
+        Object classData = m_configMap.get(CACHE_CLASSDATA_PROP);
+        ClassDataCache classDataCache =
+            ((classData != null) && Boolean.parseBoolean(classData.toString()))
+                ? new ClassDataCache(m_logger, new File(cacheDir, CLASSDATA_DIR_NAME))
+                : null;
+        m_zipFactory = new WeakZipFileFactory(limit, classDataCache);
         if (!getSecureAction().fileExists(cacheDir))
         {
             if (!getSecureAction().mkdirs(cacheDir))
@@ -173,6 +216,26 @@ public class BundleCache
         {
             m_lock = null;
         }
+
+        // Remove the class data of uninstalled bundles and trim the class
+        // data cache to its limit before any class data is read.
+        if (classDataCache != null)
+        {
+            long classDataLimit = CLASSDATA_LIMIT_DEFAULT;
+            Object classDataLimitStr = m_configMap.get(CACHE_CLASSDATA_LIMIT_PROP);
+            if (classDataLimitStr != null)
+            {
+                try
+                {
+                    classDataLimit = Long.parseLong(classDataLimitStr.toString().trim());
+                }
+                catch (NumberFormatException ex)
+                {
+                    classDataLimit = CLASSDATA_LIMIT_DEFAULT;
+                }
+            }
+            classDataCache.prune(classDataLimit);
+        }
     }
 
     // Parse the main attributes of the manifest of the given jarfile.
@@ -314,7 +377,7 @@ public class BundleCache
             // and skip the :<blank> that follows it.
             if ((key == null) && (bytes[i] == ':'))
             {
-                key = new String(bytes, last, (current - last), "UTF-8");
+                key = new String(bytes, last, (current - last), StandardCharsets.UTF_8);
                 if ((i + 1 < size) && (bytes[i + 1] == ' '))
                 {
                     last = current + 1;
@@ -335,7 +398,7 @@ public class BundleCache
                 }
                 // Otherwise, parse the value and add it to the map (we throw an
                 // exception if we don't have a key or the key already exist.
-                String value = new String(bytes, last, (current - last), "UTF-8");
+                String value = new String(bytes, last, (current - last), StandardCharsets.UTF_8);
 
                 if (key == null)
                 {
@@ -393,7 +456,7 @@ public class BundleCache
         deleteDirectoryTree(cacheDir);
     }
 
-    public BundleArchive[] getArchives(ModuleConnector connectFactory)
+    public BundleArchive[] getArchives(final ModuleConnector connectFactory)
         throws Exception
     {
         // Get buffer size value.
@@ -412,7 +475,7 @@ public class BundleCache
 
         // Create the existing bundle archives in the directory, if any exist.
         File cacheDir = determineCacheDir(m_configMap);
-        List archiveList = new ArrayList();
+        final List<File> archiveDirs = new ArrayList<File>();
         File[] children = getSecureAction().listDirectory(cacheDir);
         for (int i = 0; (children != null) && (i < children.length); i++)
         {
@@ -420,26 +483,116 @@ public class BundleCache
             // is the system bundle directory.
             if (children[i].getName().startsWith(BUNDLE_DIR_PREFIX) &&
                 !children[i].getName().equals(BUNDLE_DIR_PREFIX + Long.toString(0)))
+            {
+                archiveDirs.add(children[i]);
+            }
+        }
+
+        List<BundleArchive> archiveList = new ArrayList<BundleArchive>();
+        ExecutorService executor = (archiveDirs.size() > 1) ? newReloadExecutor() : null;
+        if (executor == null)
+        {
+            for (File archiveDir : archiveDirs)
             {
                 // Recreate the bundle archive.
                 try
                 {
                     archiveList.add(
                         new BundleArchive(
-                            m_logger, m_configMap, m_zipFactory, connectFactory, children[i]));
+                            m_logger, m_configMap, m_zipFactory, connectFactory, archiveDir));
                 }
                 catch (Exception ex)
                 {
-                    // Log exception and remove bundle archive directory.
-                    m_logger.log(Logger.LOG_ERROR,
-                        "Error reloading cached bundle, removing it: " + children[i], ex);
-                    deleteDirectoryTree(children[i]);
+                    removeArchive(archiveDir, ex);
                 }
             }
         }
+        else
+        {
+            try
+            {
+                // Recreate the bundle archives concurrently, but keep them
+                // in the order of their directories.
+                List<Future<BundleArchive>> futures =
+                    new ArrayList<Future<BundleArchive>>(archiveDirs.size());
+                for (final File archiveDir : archiveDirs)
+                {
+                    futures.add(executor.submit(new Callable<BundleArchive>()
+                    {
+                        @Override
+                        public BundleArchive call() throws Exception
+                        {
+                            return new BundleArchive(
+                                m_logger, m_configMap, m_zipFactory, connectFactory, archiveDir);
+                        }
+                    }));
+                }
+                for (int i = 0; i < futures.size(); i++)
+                {
+                    try
+                    {
+                        archiveList.add(futures.get(i).get());
+                    }
+                    catch (ExecutionException ex)
+                    {
+                        removeArchive(archiveDirs.get(i), ex.getCause());
+                    }
+                }
+            }
+            finally
+            {
+                executor.shutdown();
+            }
+        }
+
+        return archiveList.toArray(new BundleArchive[archiveList.size()]);
+    }
+
+    private void removeArchive(File archiveDir, Throwable ex)
+    {
+        // Log exception and remove bundle archive directory.
+        m_logger.log(Logger.LOG_ERROR,
+            "Error reloading cached bundle, removing it: " + archiveDir, ex);
+        deleteDirectoryTree(archiveDir);
+    }
 
-        return (BundleArchive[])
-            archiveList.toArray(new BundleArchive[archiveList.size()]);
+    /**
+     * Creates an executor for reloading the cached bundles concurrently,
+     * using the number of threads configured by
+     * <tt>felix.cache.reload.parallelism</tt>.
+     * @return the executor, which the caller must shut down, or
+     *         <tt>null</tt> if bundles are reloaded sequentially.
+    **/
+    public ExecutorService newReloadExecutor()
+    {
+        int parallelism = 1;
+        Object value = m_configMap.get(CACHE_RELOAD_PARALLELISM_PROP);
+        if (value != null)
+        {
+            try
+            {
+                parallelism = Integer.parseInt(value.toString().trim());
+            }
+            catch (NumberFormatException ex)
+            {
+                m_logger.log(Logger.LOG_WARNING,
+                    "Invalid " + CACHE_RELOAD_PARALLELISM_PROP + ": " + value);
+            }
+        }
+        if (parallelism <= 1)
+        {
+            return null;
+        }
+        return Executors.newFixedThreadPool(parallelism, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "FelixCacheReload");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     public BundleArchive create(long id, int startLevel, String location, InputStream is, ModuleConnector connectFactory)
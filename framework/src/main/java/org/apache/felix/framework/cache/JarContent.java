@@ -19,7 +19,9 @@
 package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.ClassDataCache;
 import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.MappedZipFile;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
 import org.apache.felix.framework.util.WeakZipFileFactory.WeakZipFile;
@@ -48,11 +50,20 @@ public class JarContent implements Content
     private final File m_rootDir;
     private final File m_file;
     private final WeakZipFile m_zipFile;
+    // Used instead of the zip file if the JAR file is memory mapped.
+    private final MappedZipFile m_mappedFile;
     private final boolean m_isZipFileOwner;
     private Map m_nativeLibMap;
 
     public JarContent(Logger logger, Map configMap, WeakZipFileFactory zipFactory,
         Object revisionLock, File rootDir, File file, WeakZipFile zipFile)
+    {
+        this(logger, configMap, zipFactory, revisionLock, rootDir, file, zipFile, null);
+    }
+
+    JarContent(Logger logger, Map<?, ?> configMap, WeakZipFileFactory zipFactory,
+        Object revisionLock, File rootDir, File file, WeakZipFile zipFile,
+        MappedZipFile mappedFile)
     {
         m_logger = logger;
         m_configMap = configMap;
@@ -60,11 +71,16 @@ public class JarContent implements Content
         m_revisionLock = revisionLock;
         m_rootDir = rootDir;
         m_file = file;
-        if (zipFile == null)
+        m_isZipFileOwner = (zipFile == null) && (mappedFile == null);
+        if (m_isZipFileOwner)
+        {
+            mappedFile = openMappedZipFile(m_logger, m_configMap, m_rootDir, m_file);
+        }
+        if (m_isZipFileOwner && (mappedFile == null))
         {
             try
             {
-                m_zipFile = m_zipFactory.create(m_file);
+                zipFile = m_zipFactory.create(m_file);
             }
             catch (IOException ex)
             {
@@ -72,11 +88,53 @@ public class JarContent implements Content
                     "Unable to open JAR file, probably deleted: " + ex.getMessage());
             }
         }
-        else
+        m_zipFile = zipFile;
+        m_mappedFile = mappedFile;
+    }
+
+    /**
+     * Memory maps the specified JAR file if this is enabled by the
+     * <tt>felix.cache.mapped</tt> configuration property. Only files
+     * inside the specified cache directory are mapped, since files
+     * installed by reference may be replaced or deleted while mapped.
+     * @return the mapped JAR file or <tt>null</tt> if mapping is disabled
+     *         or not possible for this file.
+    **/
+    static MappedZipFile openMappedZipFile(
+        Logger logger, Map<?, ?> configMap, File rootDir, File file)
+    {
+        Object mapped = (configMap != null)
+            ? configMap.get(BundleCache.CACHE_MAPPED_PROP) : null;
+        if ((mapped == null) || !Boolean.parseBoolean(mapped.toString())
+            || !isCacheOwned(rootDir, file))
+        {
+            return null;
+        }
+        try
+        {
+            return new MappedZipFile(file);
+        }
+        catch (Exception ex)
+        {
+            logger.log(
+                Logger.LOG_DEBUG,
+                "JarContent: Unable to map JAR file " + file + ", opening it instead.", ex);
+            return null;
+        }
+    }
+
+    private static boolean isCacheOwned(File rootDir, File file)
+    {
+        File root = rootDir.getAbsoluteFile();
+        for (File parent = file.getAbsoluteFile().getParentFile();
+            parent != null; parent = parent.getParentFile())
         {
-            m_zipFile = zipFile;
+            if (parent.equals(root))
+            {
+                return true;
+            }
         }
-        m_isZipFileOwner = (zipFile == null);
+        return false;
     }
 
     protected void finalize()
@@ -88,7 +146,11 @@ public class JarContent implements Content
     {
         try
         {
-            if (m_isZipFileOwner)
+            if (m_isZipFileOwner && (m_mappedFile != null))
+            {
+                m_mappedFile.close();
+            }
+            else if (m_isZipFileOwner)
             {
                 m_zipFile.close();
             }
@@ -105,7 +167,7 @@ public class JarContent implements Content
     {
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             return ze != null;
         }
         catch (Exception ex)
@@ -119,7 +181,7 @@ public class JarContent implements Content
     {
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             return ze != null && ze.isDirectory();
         }
         catch (Exception ex)
@@ -131,7 +193,8 @@ public class JarContent implements Content
     public Enumeration<String> getEntries()
     {
         // Wrap entries enumeration to filter non-matching entries.
-        Enumeration<String> e = m_zipFile.names();
+        Enumeration<String> e = (m_mappedFile != null)
+            ? m_mappedFile.names() : m_zipFile.names();
 
         // Spec says to return null if there are no entries.
         return (e.hasMoreElements()) ? e : null;
@@ -142,14 +205,29 @@ public class JarContent implements Content
         // Get the embedded resource.
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             if (ze == null)
             {
                 return null;
             }
 
-            return BundleCache.read(m_zipFile.getInputStream(ze), ze.getSize());
+            // Serve class files inflated before, e.g. by an earlier revision
+            // or launch, from the class data cache, if it is enabled.
+            ClassDataCache classData = (m_zipFactory != null)
+                ? m_zipFactory.getClassDataCache() : null;
+            if ((classData != null) && (m_rootDir != null)
+                && classData.isCacheable(name, ze))
+            {
+                byte[] bytes = classData.get(m_rootDir, name, ze);
+                if (bytes == null)
+                {
+                    bytes = readEntry(ze);
+                    classData.put(m_rootDir, name, ze, bytes);
+                }
+                return bytes;
+            }
 
+            return readEntry(ze);
         }
         catch (Exception ex)
         {
@@ -168,12 +246,12 @@ public class JarContent implements Content
 
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(name);
+            ZipEntry ze = getEntry(name);
             if (ze == null)
             {
                 return null;
             }
-            is = m_zipFile.getInputStream(ze);
+            is = getInputStream(ze);
             if (is == null)
             {
                 return null;
@@ -211,7 +289,7 @@ public class JarContent implements Content
     {
         try
         {
-            ZipEntry ze = m_zipFile.getEntry(urlPath);
+            ZipEntry ze = getEntry(urlPath);
             return ze.getTime();
         }
         catch (Exception ex)
@@ -227,7 +305,7 @@ public class JarContent implements Content
         if (entryName.equals(FelixConstants.CLASS_PATH_DOT))
         {
             return new JarContent(m_logger, m_configMap, m_zipFactory, m_revisionLock,
-                m_rootDir, m_file, m_zipFile);
+                m_rootDir, m_file, m_zipFile, m_mappedFile);
         }
 
         // Remove any leading slash.
@@ -251,7 +329,7 @@ public class JarContent implements Content
         // Determine if the entry is an emdedded JAR file or
         // directory in the bundle JAR file. Ignore any entries
         // that do not exist per the spec.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
+        ZipEntry ze = getEntry(entryName);
 
         if ((ze != null) && ze.isDirectory())
         {
@@ -282,7 +360,7 @@ public class JarContent implements Content
                             }
 
                             // Extract embedded JAR into its directory.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), extractJar);
+                            BundleCache.copyStreamToFile(getInputStream(ze), extractJar);
                         }
                     }
                 }
@@ -326,7 +404,7 @@ public class JarContent implements Content
 
         // The entry name must refer to a file type, since it is
         // a native library, not a directory.
-        ZipEntry ze = m_zipFile.getEntry(entryName);
+        ZipEntry ze = getEntry(entryName);
         if ((ze != null) && !ze.isDirectory())
         {
             // Extracting the embedded native library file impacts all other
@@ -363,7 +441,7 @@ public class JarContent implements Content
                         try
                         {
                             // Create the file.
-                            BundleCache.copyStreamToFile(m_zipFile.getInputStream(ze), libFile);
+                            BundleCache.copyStreamToFile(getInputStream(ze), libFile);
 
                             // Perform exec permission command on extracted library
                             // if one is configured.
@@ -418,6 +496,28 @@ public class JarContent implements Content
         return "JAR " + m_file.getPath();
     }
 
+    private ZipEntry getEntry(String name)
+    {
+        return (m_mappedFile != null)
+            ? m_mappedFile.getEntry(name) : m_zipFile.getEntry(name);
+    }
+
+    private byte[] readEntry(ZipEntry ze) throws Exception
+    {
+        if (m_mappedFile != null)
+        {
+            return m_mappedFile.getBytes(ze);
+        }
+
+        return BundleCache.read(m_zipFile.getInputStream(ze), ze.getSize());
+    }
+
+    private InputStream getInputStream(ZipEntry ze) throws IOException
+    {
+        return (m_mappedFile != null)
+            ? m_mappedFile.getInputStream(ze) : m_zipFile.getInputStream(ze);
+    }
+
     public File getFile()
     {
         return m_file;
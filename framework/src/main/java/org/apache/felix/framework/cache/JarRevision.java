@@ -19,6 +19,7 @@
 package org.apache.felix.framework.cache;
 
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.MappedZipFile;
 import org.apache.felix.framework.util.StringMap;
 import org.apache.felix.framework.util.Util;
 import org.apache.felix.framework.util.WeakZipFileFactory;
@@ -51,6 +52,7 @@ class JarRevision extends BundleArchiveRevision
     private final WeakZipFileFactory m_zipFactory;
     private final File m_bundleFile;
     private final WeakZipFile m_zipFile;
+    private final MappedZipFile m_mappedFile;
 
     public JarRevision(
         Logger logger, Map configMap, WeakZipFileFactory zipFactory,
@@ -75,16 +77,21 @@ class JarRevision extends BundleArchiveRevision
         // Save and process the bundle JAR.
         initialize(byReference, is);
 
-        // Open shared copy of the JAR file.
+        // Map or open shared copy of the JAR file.
+        m_mappedFile = JarContent.openMappedZipFile(
+            logger, configMap, getRevisionRootDir(), m_bundleFile);
         WeakZipFile zipFile = null;
         try
         {
-            // Open bundle JAR file.
-            zipFile = m_zipFactory.create(m_bundleFile);
-            // Error if no jar file.
-            if (zipFile == null)
+            if (m_mappedFile == null)
             {
-                throw new IOException("No JAR file found.");
+                // Open bundle JAR file.
+                zipFile = m_zipFactory.create(m_bundleFile);
+                // Error if no jar file.
+                if (zipFile == null)
+                {
+                    throw new IOException("No JAR file found.");
+                }
             }
             m_zipFile = zipFile;
         }
@@ -98,9 +105,20 @@ class JarRevision extends BundleArchiveRevision
     public Map<String, Object> getManifestHeader() throws Exception
     {
         // Read and parse headers into a case insensitive map of manifest attributes and return it.
-        ZipEntry manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
+        ZipEntry manifestEntry;
+        InputStream is = null;
+        if (m_mappedFile != null)
+        {
+            manifestEntry = m_mappedFile.getEntry("META-INF/MANIFEST.MF");
+            is = (manifestEntry != null) ? m_mappedFile.getInputStream(manifestEntry) : null;
+        }
+        else
+        {
+            manifestEntry = m_zipFile.getEntry("META-INF/MANIFEST.MF");
+            is = (manifestEntry != null) ? m_zipFile.getInputStream(manifestEntry) : null;
+        }
 
-        Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), m_zipFile.getInputStream(manifestEntry), manifestEntry.getSize()) : null;
+        Map<String, Object> manifest = manifestEntry != null ? BundleCache.getMainAttributes(new StringMap(), is, manifestEntry.getSize()) : null;
 
         return manifest;
     }
@@ -108,12 +126,19 @@ class JarRevision extends BundleArchiveRevision
     public Content getContent() throws Exception
     {
         return new JarContent(getLogger(), getConfig(), m_zipFactory,
-            this, getRevisionRootDir(), m_bundleFile, m_zipFile);
+            this, getRevisionRootDir(), m_bundleFile, m_zipFile, m_mappedFile);
     }
 
     protected void close() throws Exception
     {
-        m_zipFile.close();
+        if (m_mappedFile != null)
+        {
+            m_mappedFile.close();
+        }
+        else
+        {
+            m_zipFile.close();
+        }
     }
 
     //
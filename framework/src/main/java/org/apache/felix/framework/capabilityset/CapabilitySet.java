@@ -29,6 +29,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentHashMap;
@@ -46,6 +47,10 @@ import org.osgi.resource.Capability;
 public class CapabilitySet
 {
     private final SortedMap<String, Map<Object, Set<BundleCapability>>> m_indices; // Should also be concurrent!
+    // Optional secondary indices, sorted by the version valued range
+    // attribute, for every value of every index above.
+    private final String m_rangeProp;
+    private final SortedMap<String, ConcurrentMap<Object, RangeIndex>> m_rangeIndices;
     private final Set<Capability> m_capSet = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
     private final static SecureAction m_secureAction = new SecureAction();
 
@@ -79,15 +84,44 @@ public class CapabilitySet
     }
 
     public CapabilitySet(final List<String> indexProps, final boolean caseSensitive)
+    {
+        this(indexProps, null, caseSensitive);
+    }
+
+    /**
+     * Creates a capability set that indexes capabilities on the given
+     * attributes. If a range attribute is specified, the capabilities
+     * under each indexed value are additionally kept sorted by the version
+     * value of that attribute, so that filters such as
+     * {@code (&(osgi.wiring.package=x)(version>=1.2)(!(version>=2)))}
+     * only need to look at the capabilities within the version range.
+     *
+     * @param indexProps the attributes to index.
+     * @param rangeProp the version valued attribute to sort indexed
+     *        capabilities by, or {@code null}.
+     * @param caseSensitive whether attribute names are case sensitive.
+    **/
+    public CapabilitySet(
+        final List<String> indexProps, final String rangeProp, final boolean caseSensitive)
     {
         m_indices = (caseSensitive)
             ? new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>()
             : new ConcurrentSkipListMap<String, Map<Object, Set<BundleCapability>>>(
                 StringComparator.COMPARATOR);
+        m_rangeIndices = (caseSensitive)
+            ? new ConcurrentSkipListMap<String, ConcurrentMap<Object, RangeIndex>>()
+            : new ConcurrentSkipListMap<String, ConcurrentMap<Object, RangeIndex>>(
+                StringComparator.COMPARATOR);
+        m_rangeProp = rangeProp;
         for (int i = 0; (indexProps != null) && (i < indexProps.size()); i++)
         {
             m_indices.put(
                 indexProps.get(i), new ConcurrentHashMap<Object, Set<BundleCapability>>());
+            if (rangeProp != null)
+            {
+                m_rangeIndices.put(
+                    indexProps.get(i), new ConcurrentHashMap<Object, RangeIndex>());
+            }
         }
     }
 
@@ -108,31 +142,43 @@ public class CapabilitySet
 
                 ConcurrentMap<Object, Set<BundleCapability>> index =
                         (ConcurrentMap<Object, Set<BundleCapability>>) entry.getValue();
+                ConcurrentMap<Object, RangeIndex> rangeIndex = m_rangeIndices.get(entry.getKey());
 
                 if (value instanceof Collection)
                 {
                     Collection c = (Collection) value;
                     for (Object o : c)
                     {
-                        indexCapability(index, cap, o);
+                        indexCapability(index, rangeIndex, cap, o);
                     }
                 }
                 else
                 {
-                    indexCapability(index, cap, value);
+                    indexCapability(index, rangeIndex, cap, value);
                 }
             }
         }
     }
 
     private void indexCapability(
-        ConcurrentMap<Object, Set<BundleCapability>> index, BundleCapability cap, Object capValue)
+        ConcurrentMap<Object, Set<BundleCapability>> index,
+        ConcurrentMap<Object, RangeIndex> rangeIndex,
+        BundleCapability cap, Object capValue)
     {
         Set<BundleCapability> caps = Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
         Set<BundleCapability> prevval = index.putIfAbsent(capValue, caps);
         if (prevval != null)
             caps = prevval;
         caps.add(cap);
+
+        if (rangeIndex != null)
+        {
+            RangeIndex range = new RangeIndex();
+            RangeIndex prevrange = rangeIndex.putIfAbsent(capValue, range);
+            if (prevrange != null)
+                range = prevrange;
+            range.add(cap, cap.getAttributes().get(m_rangeProp));
+        }
     }
 
     public void removeCapability(final BundleCapability cap)
@@ -150,18 +196,19 @@ public class CapabilitySet
                     }
 
                     Map<Object, Set<BundleCapability>> index = entry.getValue();
+                    Map<Object, RangeIndex> rangeIndex = m_rangeIndices.get(entry.getKey());
 
                     if (value instanceof Collection)
                     {
                         Collection c = (Collection) value;
                         for (Object o : c)
                         {
-                            deindexCapability(index, cap, o);
+                            deindexCapability(index, rangeIndex, cap, o);
                         }
                     }
                     else
                     {
-                        deindexCapability(index, cap, value);
+                        deindexCapability(index, rangeIndex, cap, value);
                     }
                 }
             }
@@ -169,7 +216,8 @@ public class CapabilitySet
     }
 
     private void deindexCapability(
-        Map<Object, Set<BundleCapability>> index, BundleCapability cap, Object value)
+        Map<Object, Set<BundleCapability>> index, Map<Object, RangeIndex> rangeIndex,
+        BundleCapability cap, Object value)
     {
         Set<BundleCapability> caps = index.get(value);
         if (caps != null)
@@ -180,6 +228,19 @@ public class CapabilitySet
                 index.remove(value);
             }
         }
+
+        if (rangeIndex != null)
+        {
+            RangeIndex range = rangeIndex.get(value);
+            if (range != null)
+            {
+                range.remove(cap, cap.getAttributes().get(m_rangeProp));
+                if (range.isEmpty())
+                {
+                    rangeIndex.remove(value);
+                }
+            }
+        }
     }
 
     public Set<Capability> match(final SimpleFilter sf, final boolean obeyMandatory)
@@ -200,15 +261,23 @@ public class CapabilitySet
         }
         else if (sf.getOperation() == SimpleFilter.AND)
         {
-            // Evaluate each subfilter against the remaining capabilities.
-            // For AND we calculate the intersection of each subfilter.
-            // We can short-circuit the AND operation if there are no
-            // remaining capabilities.
             final List<SimpleFilter> sfs = (List<SimpleFilter>) sf.getValue();
-            for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+            Set<Capability> indexed = matchIndexed(caps, sf, sfs);
+            if (indexed != null)
+            {
+                matches = indexed;
+            }
+            else
             {
-                matches = match(caps, sfs.get(i));
-                caps = matches;
+                // Evaluate each subfilter against the remaining capabilities.
+                // For AND we calculate the intersection of each subfilter.
+                // We can short-circuit the AND operation if there are no
+                // remaining capabilities.
+                for (int i = 0; (caps.size() > 0) && (i < sfs.size()); i++)
+                {
+                    matches = match(caps, sfs.get(i));
+                    caps = matches;
+                }
             }
         }
         else if (sf.getOperation() == SimpleFilter.OR)
@@ -255,7 +324,7 @@ public class CapabilitySet
                     Object lhs = cap.getAttributes().get(sf.getName());
                     if (lhs != null)
                     {
-                        if (compare(lhs, sf.getValue(), sf.getOperation()))
+                        if (compare(lhs, sf))
                         {
                             matches.add(cap);
                         }
@@ -267,6 +336,127 @@ public class CapabilitySet
         return matches;
     }
 
+    /**
+     * Evaluates an AND filter by probing the cheapest applicable index for
+     * candidates and matching only those against the whole filter. The cost
+     * of an equality operand on an indexed attribute is the number of
+     * capabilities indexed under its value; if the range attribute is also
+     * constrained, only the indexed capabilities within the version bounds
+     * are considered.
+     * @return the matching capabilities, or null if no index applies.
+    **/
+    private Set<Capability> matchIndexed(
+        Set<Capability> caps, SimpleFilter sf, List<SimpleFilter> sfs)
+    {
+        String bestProp = null;
+        Object bestValue = null;
+        Set<BundleCapability> bestCaps = null;
+        for (SimpleFilter sub : sfs)
+        {
+            if (sub.getOperation() == SimpleFilter.EQ)
+            {
+                Map<Object, Set<BundleCapability>> index = m_indices.get(sub.getName());
+                if (index != null)
+                {
+                    Set<BundleCapability> indexedCaps = index.get(sub.getValue());
+                    if (indexedCaps == null)
+                    {
+                        // Nothing can match the intersection.
+                        return Collections.newSetFromMap(
+                            new ConcurrentHashMap<Capability, Boolean>());
+                    }
+                    if ((bestCaps == null) || (indexedCaps.size() < bestCaps.size()))
+                    {
+                        bestProp = sub.getName();
+                        bestValue = sub.getValue();
+                        bestCaps = indexedCaps;
+                    }
+                }
+            }
+        }
+
+        if (bestCaps == null)
+        {
+            return null;
+        }
+
+        Collection<BundleCapability> candidates = bestCaps;
+        Map<Object, RangeIndex> rangeIndex = m_rangeIndices.get(bestProp);
+        if (rangeIndex != null)
+        {
+            Version[] bounds = getRangeBounds(sfs);
+            RangeIndex range = rangeIndex.get(bestValue);
+            if ((bounds != null) && (range != null))
+            {
+                candidates = range.getCandidates(bounds[0], bounds[1]);
+            }
+        }
+
+        Set<Capability> matches = Collections.newSetFromMap(new ConcurrentHashMap<Capability, Boolean>());
+        for (BundleCapability cap : candidates)
+        {
+            if (((caps == m_capSet) || caps.contains(cap)) && matchesInternal(cap, sf))
+            {
+                matches.add(cap);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Computes inclusive version bounds for the range attribute from the
+     * operands of an AND filter. The bounds may be wider than the filter,
+     * since all candidates are matched against the filter afterwards.
+     * @return the lower and upper bound, either may be null, or null if the
+     *         range attribute is not constrained.
+    **/
+    private Version[] getRangeBounds(List<SimpleFilter> sfs)
+    {
+        Version lower = null;
+        Version upper = null;
+        for (SimpleFilter sub : sfs)
+        {
+            int op = sub.getOperation();
+            boolean not = false;
+            if ((op == SimpleFilter.NOT) && (((List) sub.getValue()).size() == 1))
+            {
+                sub = (SimpleFilter) ((List) sub.getValue()).get(0);
+                op = sub.getOperation();
+                not = true;
+            }
+            if ((sub.getName() == null)
+                || (m_indices.comparator() == null
+                    ? !m_rangeProp.equals(sub.getName())
+                    : !m_rangeProp.equalsIgnoreCase(sub.getName())))
+            {
+                continue;
+            }
+
+            Version v;
+            try
+            {
+                v = Version.parseVersion(((String) sub.getValue()).trim());
+            }
+            catch (Exception ex)
+            {
+                continue;
+            }
+
+            // A negated range operator bounds the other side.
+            if (((op == SimpleFilter.GTE) && !not) || ((op == SimpleFilter.LTE) && not)
+                || ((op == SimpleFilter.EQ) && !not))
+            {
+                lower = ((lower == null) || (v.compareTo(lower) > 0)) ? v : lower;
+            }
+            if (((op == SimpleFilter.LTE) && !not) || ((op == SimpleFilter.GTE) && not)
+                || ((op == SimpleFilter.EQ) && !not))
+            {
+                upper = ((upper == null) || (v.compareTo(upper) < 0)) ? v : upper;
+            }
+        }
+        return ((lower == null) && (upper == null)) ? null : new Version[] { lower, upper };
+    }
+
     public static boolean matches(Capability cap, SimpleFilter sf)
     {
         return matchesInternal(cap, sf) && matchMandatory(cap, sf);
@@ -319,7 +509,7 @@ public class CapabilitySet
             Object lhs = cap.getAttributes().get(sf.getName());
             if (lhs != null)
             {
-                matched = compare(lhs, sf.getValue(), sf.getOperation());
+                matched = compare(lhs, sf);
             }
         }
 
@@ -342,6 +532,12 @@ public class CapabilitySet
 
     private static boolean matchMandatory(Capability cap, SimpleFilter sf)
     {
+        // Most capabilities, e.g., all services, have no mandatory
+        // attributes, so avoid iterating their attributes.
+        if (!((BundleCapabilityImpl) cap).hasMandatoryAttributes())
+        {
+            return true;
+        }
         Map<String, Object> attrs = cap.getAttributes();
         for (Entry<String, Object> entry : attrs.entrySet())
         {
@@ -379,13 +575,16 @@ public class CapabilitySet
     private static final Class<?>[] STRING_CLASS = new Class[] { String.class };
     private static final String VALUE_OF_METHOD_NAME = "valueOf";
 
-    private static boolean compare(Object lhs, Object rhsUnknown, int op)
+    private static boolean compare(Object lhs, SimpleFilter sf)
     {
         if (lhs == null)
         {
             return false;
         }
 
+        int op = sf.getOperation();
+        Object rhsUnknown = sf.getValue();
+
         // If this is a PRESENT operation, then just return true immediately
         // since we wouldn't be here if the attribute wasn't present.
         if (op == SimpleFilter.PRESENT)
@@ -397,15 +596,7 @@ public class CapabilitySet
         //Version is comparable so we need to check this first
         if(lhs instanceof Version && op == SimpleFilter.EQ)
         {
-            Object rhs = null;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
-            {
-                //Do nothing will check later if rhs is null
-            }
+            Object rhs = coerce(lhs, sf);
 
             if(rhs != null && rhs instanceof VersionRange)
             {
@@ -430,11 +621,8 @@ public class CapabilitySet
             }
             else
             {
-                try
-                {
-                    rhs = coerceType(lhs, (String) rhsUnknown);
-                }
-                catch (Exception ex)
+                rhs = coerce(lhs, sf);
+                if (rhs == null)
                 {
                     return false;
                 }
@@ -481,12 +669,8 @@ public class CapabilitySet
         // Booleans do not implement comparable, so special case them.
         else if (lhs instanceof Boolean)
         {
-            Object rhs;
-            try
-            {
-                rhs = coerceType(lhs, (String) rhsUnknown);
-            }
-            catch (Exception ex)
+            Object rhs = coerce(lhs, sf);
+            if (rhs == null)
             {
                 return false;
             }
@@ -518,7 +702,7 @@ public class CapabilitySet
         {
             for (Iterator iter = ((Collection) lhs).iterator(); iter.hasNext(); )
             {
-                if (compare(iter.next(), rhsUnknown, op))
+                if (compare(iter.next(), sf))
                 {
                     return true;
                 }
@@ -535,16 +719,62 @@ public class CapabilitySet
 
         // Since we cannot identify the LHS type, then we can only perform
         // equality comparison.
-        try
+        Object rhs = coerce(lhs, sf);
+        return (rhs != null) && lhs.equals(rhs);
+    }
+
+    /**
+     * Coerces the operand of a filter to the type of the attribute value
+     * it is compared to. For types of the JDK and the framework, the coerced
+     * operand is cached in the filter per type, so the reflective conversion
+     * is only done once per filter and type. Operands of types defined by
+     * bundles are not cached, since parsed filters are shared and would
+     * otherwise keep the class loaders of these bundles reachable.
+     * @param lhs the attribute value.
+     * @param sf the filter holding the operand.
+     * @return the coerced operand or <code>null</code> if the operand
+     *         cannot be converted to the type of the attribute value.
+    **/
+    private static Object coerce(Object lhs, SimpleFilter sf)
+    {
+        // If the LHS expects a string, then we can just return
+        // the RHS since it is a string.
+        if (lhs instanceof String)
         {
-            return lhs.equals(coerceType(lhs, (String) rhsUnknown));
+            return sf.getValue();
         }
-        catch (Exception ex)
+
+        Class<?> type = lhs.getClass();
+        boolean cacheable = isFrameworkType(type);
+        Object rhs = cacheable ? sf.getCoercedValue(type) : null;
+        if (rhs == null)
         {
-            return false;
+            try
+            {
+                rhs = coerceType(lhs, (String) sf.getValue());
+            }
+            catch (Exception ex)
+            {
+                rhs = COERCION_FAILED;
+            }
+            if (cacheable)
+            {
+                sf.setCoercedValue(type, rhs);
+            }
         }
+        return (rhs == COERCION_FAILED) ? null : rhs;
     }
 
+    private static boolean isFrameworkType(Class<?> type)
+    {
+        ClassLoader loader = m_secureAction.getClassLoader(type);
+        return (loader == null)
+            || (loader == m_secureAction.getClassLoader(CapabilitySet.class));
+    }
+
+    // Marks operands that cannot be coerced to a type.
+    private static final Object COERCION_FAILED = new Object();
+
     private static boolean compareApproximate(Object lhs, Object rhs)
     {
         if (rhs instanceof String)
@@ -660,4 +890,87 @@ public class CapabilitySet
         }
         return list;
     }
+
+    /**
+     * Capabilities indexed under one attribute value, sorted by the version
+     * of the range attribute. Capabilities without a single version value
+     * cannot be sorted and are always returned as candidates.
+    **/
+    private static class RangeIndex
+    {
+        private final ConcurrentSkipListMap<Version, Set<BundleCapability>> m_sorted =
+            new ConcurrentSkipListMap<Version, Set<BundleCapability>>();
+        private final Set<BundleCapability> m_unsorted =
+            Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+
+        void add(BundleCapability cap, Object version)
+        {
+            if (version instanceof Version)
+            {
+                Set<BundleCapability> caps =
+                    Collections.newSetFromMap(new ConcurrentHashMap<BundleCapability, Boolean>());
+                Set<BundleCapability> prevval = m_sorted.putIfAbsent((Version) version, caps);
+                if (prevval != null)
+                    caps = prevval;
+                caps.add(cap);
+            }
+            else
+            {
+                m_unsorted.add(cap);
+            }
+        }
+
+        void remove(BundleCapability cap, Object version)
+        {
+            if (version instanceof Version)
+            {
+                Set<BundleCapability> caps = m_sorted.get(version);
+                if (caps != null)
+                {
+                    caps.remove(cap);
+                    if (caps.isEmpty())
+                    {
+                        m_sorted.remove(version);
+                    }
+                }
+            }
+            else
+            {
+                m_unsorted.remove(cap);
+            }
+        }
+
+        boolean isEmpty()
+        {
+            return m_sorted.isEmpty() && m_unsorted.isEmpty();
+        }
+
+        Collection<BundleCapability> getCandidates(Version lower, Version upper)
+        {
+            NavigableMap<Version, Set<BundleCapability>> range = m_sorted;
+            if ((lower != null) && (upper != null))
+            {
+                if (lower.compareTo(upper) > 0)
+                {
+                    return new ArrayList<BundleCapability>(m_unsorted);
+                }
+                range = m_sorted.subMap(lower, true, upper, true);
+            }
+            else if (lower != null)
+            {
+                range = m_sorted.tailMap(lower, true);
+            }
+            else if (upper != null)
+            {
+                range = m_sorted.headMap(upper, true);
+            }
+
+            List<BundleCapability> candidates = new ArrayList<BundleCapability>(m_unsorted);
+            for (Set<BundleCapability> caps : range.values())
+            {
+                candidates.addAll(caps);
+            }
+            return candidates;
+        }
+    }
 }
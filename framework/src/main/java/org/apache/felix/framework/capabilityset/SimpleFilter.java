@@ -21,6 +21,7 @@ package org.apache.felix.framework.capabilityset;
 import org.osgi.framework.VersionRange;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -42,6 +43,14 @@ public class SimpleFilter
     private final String m_name;
     private final Object m_value;
     private final int m_op;
+    // Operand coerced to the types of the attribute values it was compared
+    // to, stored as alternating type and value entries. The array is
+    // copy-on-write, since parsed filters may be shared between threads.
+    private volatile Object[] m_coerced = NO_COERCED_VALUES;
+
+    private static final Object[] NO_COERCED_VALUES = new Object[0];
+    // Maximum number of types for which coerced operands are kept.
+    private static final int MAX_COERCED_TYPES = 8;
 
     public SimpleFilter(String attr, Object value, int op)
     {
@@ -82,6 +91,33 @@ public class SimpleFilter
         return m_op;
     }
 
+    Object getCoercedValue(Class<?> type)
+    {
+        Object[] coerced = m_coerced;
+        for (int i = 0; i < coerced.length; i += 2)
+        {
+            if (coerced[i] == type)
+            {
+                return coerced[i + 1];
+            }
+        }
+        return null;
+    }
+
+    void setCoercedValue(Class<?> type, Object value)
+    {
+        // Concurrent updates may lose an entry, which only means that
+        // the operand is coerced again.
+        Object[] coerced = m_coerced;
+        if (coerced.length < 2 * MAX_COERCED_TYPES)
+        {
+            Object[] copy = Arrays.copyOf(coerced, coerced.length + 2);
+            copy[coerced.length] = type;
+            copy[coerced.length + 1] = value;
+            m_coerced = copy;
+        }
+    }
+
     public String toString()
     {
         String s = null;
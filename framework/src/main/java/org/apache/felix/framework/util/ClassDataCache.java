@@ -0,0 +1,335 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.apache.felix.framework.Logger;
+
+/**
+ * This class implements an on-disk cache of inflated class files. Entries
+ * are stored in a directory of the bundle cache, with one subdirectory per
+ * bundle archive, and are keyed by the name of the class file together with
+ * the CRC-32, size and compressed size that the ZIP directory records for
+ * it, which are known without inflating it. Identical class files of the
+ * revisions of a bundle, such as those of an updated or refreshed bundle or
+ * of the next framework launch, thus share one uncompressed copy and are
+ * read without decompression, while a changed class file gets a new key.
+ * The CRC-32 and size of a cached copy are checked before it is served,
+ * which guards against partially written copies. Since the CRC-32 is not
+ * a cryptographic checksum, copies are never shared between bundles.
+ * <p>
+ * The copies of uninstalled bundles are removed and the cache is trimmed to
+ * its size limit, oldest copies first, when it is pruned on startup.
+ * </p>
+ */
+public class ClassDataCache
+{
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Logger m_logger;
+    private final File m_dir;
+    private final File m_cacheDir;
+
+    /**
+     * Constructs a class data cache that stores its entries in the given
+     * directory of the bundle cache, which is created on demand.
+     * @param logger the logger used to report write failures.
+     * @param dir the directory of the cache.
+     */
+    public ClassDataCache(Logger logger, File dir)
+    {
+        m_logger = logger;
+        m_dir = dir.getAbsoluteFile();
+        m_cacheDir = m_dir.getParentFile();
+    }
+
+    /**
+     * Returns whether the given ZIP entry may be served from this cache, which
+     * is the case for deflated class files with a known CRC-32 and size.
+     * @param name the name of the entry.
+     * @param ze the entry.
+     * @return <tt>true</tt> if the entry is cacheable.
+     */
+    public boolean isCacheable(String name, ZipEntry ze)
+    {
+        return (ze.getMethod() == ZipEntry.DEFLATED)
+            && (ze.getCrc() != -1) && (ze.getSize() >= 0)
+            && (ze.getSize() <= Integer.MAX_VALUE)
+            && name.endsWith(".class");
+    }
+
+    /**
+     * Returns the cached bytes of the given ZIP entry.
+     * @param rootDir the root directory of the content containing the entry,
+     *        which identifies the bundle archive.
+     * @param name the name of the entry.
+     * @param ze a cacheable entry.
+     * @return the bytes or <tt>null</tt> if they are not cached.
+     */
+    public byte[] get(File rootDir, String name, ZipEntry ze)
+    {
+        File file = getFile(rootDir, name, ze);
+        if ((file == null) || !m_secureAction.fileExists(file))
+        {
+            return null;
+        }
+        InputStream is = null;
+        try
+        {
+            is = m_secureAction.getInputStream(file);
+            byte[] bytes = new byte[(int) ze.getSize()];
+            int off = 0;
+            while (off < bytes.length)
+            {
+                int count = is.read(bytes, off, bytes.length - off);
+                if (count < 0)
+                {
+                    return null;
+                }
+                off += count;
+            }
+            if (is.read() >= 0)
+            {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length);
+            return (crc.getValue() == ze.getCrc()) ? bytes : null;
+        }
+        catch (IOException ex)
+        {
+            return null;
+        }
+        finally
+        {
+            closeQuietly(is);
+        }
+    }
+
+    /**
+     * Stores the inflated bytes of the given ZIP entry. The bytes are written
+     * to a temporary file that is then renamed, so concurrent readers never
+     * see a partial entry.
+     * @param rootDir the root directory of the content containing the entry,
+     *        which identifies the bundle archive.
+     * @param name the name of the entry.
+     * @param ze a cacheable entry.
+     * @param bytes the inflated bytes of the entry.
+     */
+    public void put(File rootDir, String name, ZipEntry ze, byte[] bytes)
+    {
+        File file = getFile(rootDir, name, ze);
+        if (file == null)
+        {
+            return;
+        }
+        File dir = file.getParentFile();
+        OutputStream os = null;
+        File tmp = null;
+        try
+        {
+            if (!m_secureAction.fileExists(dir))
+            {
+                m_secureAction.mkdirs(dir);
+            }
+            tmp = m_secureAction.createTempFile(file.getName(), TMP_SUFFIX, dir);
+            os = m_secureAction.getOutputStream(tmp);
+            os.write(bytes);
+            os.close();
+            os = null;
+            if (!m_secureAction.renameFile(tmp, file))
+            {
+                m_secureAction.deleteFile(tmp);
+            }
+        }
+        catch (Exception ex)
+        {
+            closeQuietly(os);
+            if (tmp != null)
+            {
+                m_secureAction.deleteFile(tmp);
+            }
+            m_logger.log(Logger.LOG_DEBUG,
+                "ClassDataCache: Unable to cache class data in " + dir, ex);
+        }
+    }
+
+    /**
+     * Removes the copies of bundle archives that no longer exist and
+     * leftover temporary files, and then removes the oldest copies until
+     * the total size of the cache is within the given limit. This must
+     * only be called while the bundle cache is not in use.
+     * @param limit the maximum total size of the copies in bytes.
+     */
+    public void prune(long limit)
+    {
+        File[] scopes = m_secureAction.listDirectory(m_dir);
+        if (scopes == null)
+        {
+            return;
+        }
+        List<File> files = new ArrayList<File>();
+        for (File scope : scopes)
+        {
+            if (m_secureAction.fileExists(new File(m_cacheDir, scope.getName())))
+            {
+                collectFiles(scope, files);
+            }
+            else
+            {
+                deleteTree(scope);
+            }
+        }
+
+        final Map<File, Long> modified = new HashMap<File, Long>();
+        for (File file : files)
+        {
+            modified.put(file, m_secureAction.getLastModified(file));
+        }
+        Collections.sort(files, new Comparator<File>()
+        {
+            public int compare(File f1, File f2)
+            {
+                return modified.get(f2).compareTo(modified.get(f1));
+            }
+        });
+        long size = 0;
+        for (File file : files)
+        {
+            size += file.length();
+            if (size > limit)
+            {
+                m_secureAction.deleteFile(file);
+            }
+        }
+    }
+
+    private void collectFiles(File dir, List<File> files)
+    {
+        File[] children = m_secureAction.listDirectory(dir);
+        if (children == null)
+        {
+            return;
+        }
+        for (File child : children)
+        {
+            if (m_secureAction.isFileDirectory(child))
+            {
+                collectFiles(child, files);
+            }
+            else if (child.getName().endsWith(TMP_SUFFIX))
+            {
+                m_secureAction.deleteFile(child);
+            }
+            else
+            {
+                files.add(child);
+            }
+        }
+    }
+
+    private void deleteTree(File file)
+    {
+        File[] children = m_secureAction.listDirectory(file);
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                deleteTree(child);
+            }
+        }
+        m_secureAction.deleteFile(file);
+    }
+
+    private File getFile(File rootDir, String name, ZipEntry ze)
+    {
+        // The scope is the bundle archive directory containing the content.
+        String scope = null;
+        for (File dir = rootDir.getAbsoluteFile(); dir != null; dir = dir.getParentFile())
+        {
+            if (m_cacheDir.equals(dir.getParentFile()))
+            {
+                scope = dir.getName();
+                break;
+            }
+        }
+        if (scope == null)
+        {
+            return null;
+        }
+
+        MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(ex);
+        }
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update((Long.toHexString(ze.getCrc()) + ':' + ze.getSize()
+            + ':' + ze.getCompressedSize()).getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest();
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++)
+        {
+            key[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            key[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        String keyStr = new String(key);
+        return new File(new File(new File(m_dir, scope), keyStr.substring(0, 2)), keyStr);
+    }
+
+    private static void closeQuietly(Closeable c)
+    {
+        if (c != null)
+        {
+            try
+            {
+                c.close();
+            }
+            catch (IOException ex)
+            {
+                // Ignore.
+            }
+        }
+    }
+}
@@ -47,14 +47,23 @@ public interface FelixConstants extends org.osgi.framework.Constants
     String LOG_LOGGER_PROP = "felix.log.logger";
     String SYSTEMBUNDLE_ACTIVATORS_PROP = "felix.systembundle.activators";
     String BUNDLE_STARTLEVEL_PROP = "felix.startlevel.bundle";
+    String STARTLEVEL_PARALLELISM_PROP = "felix.startlevel.parallelism";
+    String INSTRUMENTATION_PROP = "felix.instrumentation";
+    String INSTRUMENTATION_TRACE_PROP = "felix.instrumentation.trace";
+    String REFRESH_MINIMAL_PROP = "felix.refresh.minimal";
     String SERVICE_URLHANDLERS_PROP = "felix.service.urlhandlers";
     String IMPLICIT_BOOT_DELEGATION_PROP = "felix.bootdelegation.implicit";
     String BOOT_CLASSLOADERS_PROP = "felix.bootdelegation.classloaders";
     String USE_LOCALURLS_PROP = "felix.jarurls";
+    String WIRING_LOOKUP_CACHE_SIZE_PROP = "felix.wiring.lookup.cache.size";
     String NATIVE_OS_NAME_ALIAS_PREFIX = "felix.native.osname.alias";
     String NATIVE_PROC_NAME_ALIAS_PREFIX = "felix.native.processor.alias";
     String USE_CACHEDURLS_PROPS = "felix.bundlecodesource.usecachedurls";
     String RESOLVER_PARALLELISM = "felix.resolver.parallelism";
+    String RESOLVER_EXECUTOR = "felix.resolver.executor";
+    String RESOLVER_CACHE = "felix.resolver.cache";
+    String EVENT_DISPATCHER_PARALLELISM = "felix.eventdispatcher.parallelism";
+    String EVENT_DISPATCHER_VIRTUAL_THREADS = "felix.eventdispatcher.virtualthreads";
     String USE_PROPERTY_SUBSTITUTION_IN_SYSTEMPACKAGES = "felix.systempackages.substitution";
 
     // Missing OSGi constant for resolution directive.
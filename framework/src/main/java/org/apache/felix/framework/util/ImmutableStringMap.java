@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.osgi.framework.Constants;
+
+/**
+ * Immutable map for string-based keys that compares keys case-insensitively
+ * like {@link StringMap}, but stores its entries in flat arrays instead of
+ * tree nodes. Small maps first look for the exact key using the cached
+ * string hash codes, other lookups use an open-addressed table indexed by a
+ * hash of the case-folded key.
+ * Common service property keys are interned, so maps do not keep their own
+ * copies of them. Entries are iterated in the order they were added. Use a
+ * {@link Builder} or {@link #copyOf(Map)} to create instances.
+**/
+public final class ImmutableStringMap extends AbstractMap<String, Object>
+{
+    public static final ImmutableStringMap EMPTY = new Builder(0).build();
+
+    private static final String[] COMMON_KEYS = {
+        Constants.OBJECTCLASS, Constants.SERVICE_ID, Constants.SERVICE_RANKING,
+        Constants.SERVICE_BUNDLEID, Constants.SERVICE_SCOPE, Constants.SERVICE_PID,
+        Constants.SERVICE_DESCRIPTION, Constants.SERVICE_VENDOR
+    };
+    private static final int[] COMMON_KEY_HASHES = new int[COMMON_KEYS.length];
+
+    static
+    {
+        for (int i = 0; i < COMMON_KEYS.length; i++)
+        {
+            COMMON_KEY_HASHES[i] = hash(COMMON_KEYS[i]);
+        }
+    }
+
+    private static final int LINEAR_SCAN_LIMIT = 16;
+
+    private final String[] m_keys;
+    private final Object[] m_values;
+    // The hash codes of the keys.
+    private final int[] m_hashes;
+    // Open-addressed table of entry indexes plus one, zero marks a free slot.
+    private final int[] m_table;
+
+    private ImmutableStringMap(String[] keys, Object[] values, int[] foldedHashes)
+    {
+        m_keys = keys;
+        m_values = values;
+        m_hashes = new int[keys.length];
+        // Keep the load factor at or below one half.
+        int capacity = 2;
+        while (capacity < 2 * keys.length)
+        {
+            capacity <<= 1;
+        }
+        m_table = new int[capacity];
+        for (int i = 0; i < keys.length; i++)
+        {
+            m_hashes[i] = keys[i].hashCode();
+            int slot = foldedHashes[i] & (capacity - 1);
+            while (m_table[slot] != 0)
+            {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            m_table[slot] = i + 1;
+        }
+    }
+
+    /**
+     * Creates an immutable copy of the given map. Keys are converted to
+     * strings and later keys replace earlier keys that only differ in case.
+     * @param map the map to copy, may be <code>null</code>.
+     * @return the immutable copy or <code>null</code> if the map is
+     *         <code>null</code>.
+    **/
+    public static ImmutableStringMap copyOf(Map<?, ?> map)
+    {
+        if ((map == null) || (map instanceof ImmutableStringMap))
+        {
+            return (ImmutableStringMap) map;
+        }
+        Builder builder = new Builder(map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet())
+        {
+            builder.put(entry.getKey().toString(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size()
+    {
+        return m_keys.length;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return m_keys.length == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return (key instanceof String) && (indexOf((String) key) >= 0);
+    }
+
+    @Override
+    public Object get(Object key)
+    {
+        if (key instanceof String)
+        {
+            int idx = indexOf((String) key);
+            if (idx >= 0)
+            {
+                return m_values[idx];
+            }
+        }
+        return null;
+    }
+
+    private int indexOf(String key)
+    {
+        // Most lookups use the exact key, which small maps find by
+        // comparing the cached hash codes of the keys.
+        if (m_keys.length <= LINEAR_SCAN_LIMIT)
+        {
+            int hash = key.hashCode();
+            for (int i = 0; i < m_keys.length; i++)
+            {
+                if ((m_hashes[i] == hash) && m_keys[i].equals(key))
+                {
+                    return i;
+                }
+            }
+        }
+        int mask = m_table.length - 1;
+        for (int slot = hash(key) & mask; m_table[slot] != 0; slot = (slot + 1) & mask)
+        {
+            int idx = m_table[slot] - 1;
+            if (equalsKey(m_keys[idx], key))
+            {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet()
+    {
+        return new AbstractSet<Entry<String, Object>>()
+        {
+            @Override
+            public Iterator<Entry<String, Object>> iterator()
+            {
+                return new Iterator<Entry<String, Object>>()
+                {
+                    private int m_idx = 0;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return m_idx < m_keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next()
+                    {
+                        if (m_idx >= m_keys.length)
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, Object> entry = new SimpleImmutableEntry<String, Object>(
+                            m_keys[m_idx], m_values[m_idx]);
+                        m_idx++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return m_keys.length;
+            }
+        };
+    }
+
+    private static boolean equalsKey(String s1, String s2)
+    {
+        return (s1 == s2) || StringComparator.COMPARATOR.compare(s1, s2) == 0;
+    }
+
+    /**
+     * Hashes a string case-insensitively, consistent with the equality of
+     * {@link StringComparator}.
+    **/
+    private static int hash(String s)
+    {
+        int hash = 0;
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c <= 128)
+            {
+                c = ((c >= 'A') && (c <= 'Z')) ? (char) (c + 'a' - 'A') : c;
+            }
+            else
+            {
+                c = Character.toLowerCase(Character.toUpperCase(c));
+            }
+            hash = 31 * hash + c;
+        }
+        // Spread the bits, since the table uses the lowest bits only.
+        return hash ^ (hash >>> 16);
+    }
+
+    private static String intern(String key, int hash)
+    {
+        for (int i = 0; i < COMMON_KEYS.length; i++)
+        {
+            if ((COMMON_KEY_HASHES[i] == hash) && COMMON_KEYS[i].equals(key))
+            {
+                return COMMON_KEYS[i];
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Collects the entries of an {@link ImmutableStringMap}. Keys are
+     * compared case-insensitively, so putting a key that only differs in
+     * case from an existing key replaces that entry.
+    **/
+    public static final class Builder
+    {
+        private String[] m_keys;
+        private Object[] m_values;
+        private int[] m_hashes;
+        private int m_size;
+
+        public Builder()
+        {
+            this(8);
+        }
+
+        public Builder(int expectedSize)
+        {
+            m_keys = new String[expectedSize];
+            m_values = new Object[expectedSize];
+            m_hashes = new int[expectedSize];
+        }
+
+        /**
+         * Returns the value of the given key or <code>null</code>.
+         * @param key the key to look up.
+         * @return the value of the key or <code>null</code>.
+        **/
+        public Object get(String key)
+        {
+            int idx = indexOf(key, hash(key));
+            return (idx >= 0) ? m_values[idx] : null;
+        }
+
+        /**
+         * Adds an entry or replaces the value of an existing key.
+         * @param key the key, must not be <code>null</code>.
+         * @param value the value.
+         * @return the previous value of the key or <code>null</code>.
+        **/
+        public Object put(String key, Object value)
+        {
+            if (key == null)
+            {
+                throw new NullPointerException("Key must not be null.");
+            }
+            int hash = hash(key);
+            int idx = indexOf(key, hash);
+            if (idx >= 0)
+            {
+                Object old = m_values[idx];
+                m_values[idx] = value;
+                return old;
+            }
+            if (m_size == m_keys.length)
+            {
+                int capacity = Math.max(8, 2 * m_size);
+                m_keys = Arrays.copyOf(m_keys, capacity);
+                m_values = Arrays.copyOf(m_values, capacity);
+                m_hashes = Arrays.copyOf(m_hashes, capacity);
+            }
+            m_keys[m_size] = intern(key, hash);
+            m_values[m_size] = value;
+            m_hashes[m_size] = hash;
+            m_size++;
+            return null;
+        }
+
+        private int indexOf(String key, int hash)
+        {
+            for (int i = 0; i < m_size; i++)
+            {
+                if ((m_hashes[i] == hash) && equalsKey(m_keys[i], key))
+                {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Creates the map. The builder can still be used afterwards, since
+         * the map holds its own copy of the entries.
+         * @return the immutable map.
+        **/
+        public ImmutableStringMap build()
+        {
+            return new ImmutableStringMap(
+                Arrays.copyOf(m_keys, m_size),
+                Arrays.copyOf(m_values, m_size),
+                m_hashes);
+        }
+    }
+}
@@ -0,0 +1,612 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.GregorianCalendar;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * This class implements a read-only zip file that memory maps the file
+ * instead of opening it through a ZipFile. The central directory is indexed
+ * by a sorted table of name hashes and entry offsets, which is kept off the
+ * heap and replaces the per entry objects of a ZipFile. Stored entries are
+ * served as slices of the mapping and deflated entries are inflated into a
+ * single array. Zip64 archives are not supported.
+ * <p>
+ * The mapping is only released once it is no longer referenced, so the
+ * file must not be modified while it is mapped and may not be deletable
+ * on some platforms until then. Only map files that are owned by the
+ * bundle cache.
+ * </p>
+ */
+public class MappedZipFile
+{
+    private static final SecureAction m_secureAction = new SecureAction();
+
+    private static final int LOCSIG = 0x04034b50;
+    private static final int CENSIG = 0x02014b50;
+    private static final int ENDSIG = 0x06054b50;
+    private static final int LOCHDR = 30;
+    private static final int CENHDR = 46;
+    private static final int ENDHDR = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private final File m_file;
+    private final ByteBuffer m_buffer;
+    private final long m_base;
+    private final int m_cenStart;
+    private final int m_cenEnd;
+    private final int m_count;
+    private final LongBuffer m_index;
+    private volatile boolean m_closed;
+
+    /**
+     * Maps the specified zip file and indexes its central directory.
+     * @param file the target zip file.
+     * @throws IOException if the file could not be mapped or is not a zip
+     *         file that can be read by this class.
+     */
+    public MappedZipFile(File file) throws IOException
+    {
+        m_file = file;
+        m_buffer = m_secureAction.mapFile(file).order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = findEnd(m_buffer);
+        long cenSize = getInt(end + 12);
+        long cenOffset = getInt(end + 16);
+        if ((getShort(end + 10) == 0xFFFF) || (cenSize == 0xFFFFFFFFL)
+            || (cenOffset == 0xFFFFFFFFL))
+        {
+            throw new ZipException("Zip64 archives are not supported: " + file);
+        }
+        m_cenStart = (int) (end - cenSize);
+        m_cenEnd = end;
+        m_base = m_cenStart - cenOffset;
+        if ((m_cenStart < 0) || (m_base < 0))
+        {
+            throw new ZipException("Invalid central directory: " + file);
+        }
+
+        // Build the index from the hash of each entry name and the offset of
+        // its central directory header, so that it can be sorted as a plain
+        // array of longs.
+        long[] keys = new long[Math.max(getShort(end + 10), 16)];
+        int count = 0;
+        for (int cen = m_cenStart; cen < m_cenEnd; cen = nextEntry(cen))
+        {
+            if ((cen + CENHDR > m_cenEnd) || (m_buffer.getInt(cen) != CENSIG))
+            {
+                throw new ZipException("Invalid central directory: " + file);
+            }
+            if (count == keys.length)
+            {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count++] = ((long) hash(m_buffer, cen + CENHDR, getShort(cen + 28)) << 32)
+                | (cen & 0xFFFFFFFFL);
+        }
+        Arrays.sort(keys, 0, count);
+        m_count = count;
+        m_index = ByteBuffer.allocateDirect(count * 8).asLongBuffer();
+        m_index.put(keys, 0, count);
+    }
+
+    /**
+     * Returns the number of entries in the zip file.
+     * @return the number of entries.
+     */
+    public int size()
+    {
+        return m_count;
+    }
+
+    /**
+     * Returns the specified entry from the zip file. Like a weak zip file,
+     * this also finds directory entries when the name has no trailing slash.
+     * @param name the name of the entry to return.
+     * @return the zip entry associated with the specified name or null
+     *         if it does not exist.
+     */
+    public ZipEntry getEntry(String name)
+    {
+        ensureOpen();
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int cen = findEntry(bytes);
+        if ((cen < 0) || ((getInt(cen + 24) == 0) && !isDirectory(cen)))
+        {
+            byte[] dir = Arrays.copyOf(bytes, bytes.length + 1);
+            dir[bytes.length] = '/';
+            int dirCen = findEntry(dir);
+            cen = (dirCen < 0) ? cen : dirCen;
+        }
+        return (cen < 0) ? null : new MappedZipEntry(getName(cen), cen);
+    }
+
+    /**
+     * Returns the names of all entries in the order of the central directory.
+     * @return an enumeration of entry names.
+     */
+    public Enumeration<String> names()
+    {
+        ensureOpen();
+
+        return new Enumeration<String>()
+        {
+            private int m_cen = m_cenStart;
+
+            public boolean hasMoreElements()
+            {
+                return m_cen < m_cenEnd;
+            }
+
+            public String nextElement()
+            {
+                if (m_cen >= m_cenEnd)
+                {
+                    throw new NoSuchElementException();
+                }
+                String name = getName(m_cen);
+                m_cen = nextEntry(m_cen);
+                return name;
+            }
+        };
+    }
+
+    /**
+     * Returns an input stream for the specified zip entry. The stream of a
+     * stored entry reads directly from the mapping.
+     * @param ze the zip entry whose input stream is to be retrieved.
+     * @return an input stream to the zip entry.
+     * @throws IOException if the input stream cannot be opened.
+     */
+    public InputStream getInputStream(ZipEntry ze) throws IOException
+    {
+        int cen = getOffset(ze);
+        InputStream is = new ByteBufferInputStream(getData(cen));
+        if (getShort(cen + 10) == ZipEntry.STORED)
+        {
+            return is;
+        }
+        return new MappedInflaterInputStream(is,
+            (int) Math.min(Math.max(getInt(cen + 20), 64), 8192));
+    }
+
+    /**
+     * Returns the content of the specified zip entry. Stored entries are
+     * returned as a read-only slice of the mapping without copying; deflated
+     * entries are inflated into a new array of the exact size. The returned
+     * buffer remains valid after the zip file is closed.
+     * @param ze the zip entry whose content is to be retrieved.
+     * @return the content of the zip entry.
+     * @throws IOException if the content cannot be read.
+     */
+    public ByteBuffer getBuffer(ZipEntry ze) throws IOException
+    {
+        int cen = getOffset(ze);
+        ByteBuffer data = getData(cen);
+        if (getShort(cen + 10) == ZipEntry.STORED)
+        {
+            return data.asReadOnlyBuffer();
+        }
+        return ByteBuffer.wrap(inflate(cen, data));
+    }
+
+    /**
+     * Returns the content of the specified zip entry as a byte array, which
+     * is the only array allocated to read it.
+     * @param ze the zip entry whose content is to be retrieved.
+     * @return the content of the zip entry.
+     * @throws IOException if the content cannot be read.
+     */
+    public byte[] getBytes(ZipEntry ze) throws IOException
+    {
+        int cen = getOffset(ze);
+        ByteBuffer data = getData(cen);
+        if (getShort(cen + 10) == ZipEntry.STORED)
+        {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            return bytes;
+        }
+        return inflate(cen, data);
+    }
+
+    /**
+     * Closes the zip file. The mapping itself is released once it is no
+     * longer referenced, since buffers and streams handed out by this zip
+     * file may still read from it.
+     */
+    public void close()
+    {
+        m_closed = true;
+    }
+
+    public String toString()
+    {
+        return m_file.getPath();
+    }
+
+    private void ensureOpen()
+    {
+        if (m_closed)
+        {
+            throw new IllegalStateException("Zip file is closed: " + m_file);
+        }
+    }
+
+    private int getOffset(ZipEntry ze) throws IOException
+    {
+        ensureOpen();
+
+        if ((ze instanceof MappedZipEntry) && (((MappedZipEntry) ze).m_owner == this))
+        {
+            return ((MappedZipEntry) ze).m_cen;
+        }
+        int cen = findEntry(ze.getName().getBytes(StandardCharsets.UTF_8));
+        if (cen < 0)
+        {
+            throw new ZipException("Entry not found: " + ze.getName());
+        }
+        return cen;
+    }
+
+    private int findEntry(byte[] name)
+    {
+        int hash = hash(name);
+        long key = (long) hash << 32;
+
+        // Find the first index entry with the hash of the name.
+        int low = 0;
+        int high = m_count;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (m_index.get(mid) < key)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+
+        for (int i = low; i < m_count; i++)
+        {
+            long entry = m_index.get(i);
+            if ((int) (entry >>> 32) != hash)
+            {
+                break;
+            }
+            int cen = (int) entry;
+            if (nameEquals(cen, name))
+            {
+                return cen;
+            }
+        }
+        return -1;
+    }
+
+    private boolean nameEquals(int cen, byte[] name)
+    {
+        if (getShort(cen + 28) != name.length)
+        {
+            return false;
+        }
+        int offset = cen + CENHDR;
+        for (int i = 0; i < name.length; i++)
+        {
+            if (m_buffer.get(offset + i) != name[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String getName(int cen)
+    {
+        byte[] name = new byte[getShort(cen + 28)];
+        for (int i = 0; i < name.length; i++)
+        {
+            name[i] = m_buffer.get(cen + CENHDR + i);
+        }
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    private boolean isDirectory(int cen)
+    {
+        int length = getShort(cen + 28);
+        return (length > 0) && (m_buffer.get(cen + CENHDR + length - 1) == '/');
+    }
+
+    private int nextEntry(int cen)
+    {
+        return cen + CENHDR + getShort(cen + 28) + getShort(cen + 30) + getShort(cen + 32);
+    }
+
+    private ByteBuffer getData(int cen) throws IOException
+    {
+        if ((getShort(cen + 8) & 1) != 0)
+        {
+            throw new ZipException("Encrypted entries are not supported: " + getName(cen));
+        }
+        int method = getShort(cen + 10);
+        if ((method != ZipEntry.STORED) && (method != ZipEntry.DEFLATED))
+        {
+            throw new ZipException("Unsupported compression method " + method
+                + " for entry: " + getName(cen));
+        }
+        long loc = m_base + getInt(cen + 42);
+        if ((loc + LOCHDR > m_cenStart) || (m_buffer.getInt((int) loc) != LOCSIG))
+        {
+            throw new ZipException("Invalid local header for entry: " + getName(cen));
+        }
+        long start = loc + LOCHDR + getShort((int) loc + 26) + getShort((int) loc + 28);
+        long end = start + getInt(cen + 20);
+        if (end > m_cenStart)
+        {
+            throw new ZipException("Invalid entry size for entry: " + getName(cen));
+        }
+        ByteBuffer data = m_buffer.duplicate();
+        data.limit((int) end).position((int) start);
+        return data.slice();
+    }
+
+    private byte[] inflate(int cen, ByteBuffer data) throws IOException
+    {
+        long size = getInt(cen + 24);
+        if (size > Integer.MAX_VALUE - 8)
+        {
+            throw new ZipException("Entry too large: " + getName(cen));
+        }
+        byte[] bytes = new byte[(int) size];
+        byte[] input = new byte[Math.min(Math.max(data.remaining(), 1), 8192)];
+        Inflater inflater = new Inflater(true);
+        try
+        {
+            int offset = 0;
+            boolean eof = false;
+            while (!inflater.finished() && (offset < bytes.length))
+            {
+                if (inflater.needsInput())
+                {
+                    if (eof)
+                    {
+                        throw new EOFException("Unexpected end of entry: " + getName(cen));
+                    }
+                    int length = Math.min(input.length, data.remaining());
+                    if (length == 0)
+                    {
+                        // An inflater without zlib header needs an extra byte.
+                        input[0] = 0;
+                        length = 1;
+                        eof = true;
+                    }
+                    else
+                    {
+                        data.get(input, 0, length);
+                    }
+                    inflater.setInput(input, 0, length);
+                }
+                offset += inflater.inflate(bytes, offset, bytes.length - offset);
+                if (inflater.needsDictionary())
+                {
+                    throw new ZipException("Invalid deflated entry: " + getName(cen));
+                }
+            }
+            if (offset != bytes.length)
+            {
+                throw new ZipException("Invalid entry size for entry: " + getName(cen));
+            }
+            return bytes;
+        }
+        catch (DataFormatException ex)
+        {
+            throw new ZipException("Invalid deflated entry " + getName(cen)
+                + ": " + ex.getMessage());
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+    private int getShort(int offset)
+    {
+        return m_buffer.getShort(offset) & 0xFFFF;
+    }
+
+    private long getInt(int offset)
+    {
+        return m_buffer.getInt(offset) & 0xFFFFFFFFL;
+    }
+
+    private static int findEnd(ByteBuffer buffer) throws ZipException
+    {
+        int min = Math.max(buffer.limit() - ENDHDR - MAX_COMMENT, 0);
+        for (int end = buffer.limit() - ENDHDR; end >= min; end--)
+        {
+            if ((buffer.getInt(end) == ENDSIG)
+                && (end + ENDHDR + (buffer.getShort(end + 20) & 0xFFFF) == buffer.limit()))
+            {
+                return end;
+            }
+        }
+        throw new ZipException("Not a zip file");
+    }
+
+    private static int hash(ByteBuffer buffer, int offset, int length)
+    {
+        int hash = 0;
+        for (int i = 0; i < length; i++)
+        {
+            hash = 31 * hash + buffer.get(offset + i);
+        }
+        return hash;
+    }
+
+    private static int hash(byte[] bytes)
+    {
+        int hash = 0;
+        for (int i = 0; i < bytes.length; i++)
+        {
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    private static long dosToJavaTime(long time)
+    {
+        return new GregorianCalendar(
+            (int) (((time >> 25) & 0x7f) + 1980),
+            (int) (((time >> 21) & 0x0f) - 1),
+            (int) ((time >> 16) & 0x1f),
+            (int) ((time >> 11) & 0x1f),
+            (int) ((time >> 5) & 0x3f),
+            (int) ((time << 1) & 0x3e)).getTimeInMillis();
+    }
+
+    /**
+     * A zip entry that remembers the offset of its central directory header.
+     */
+    private class MappedZipEntry extends ZipEntry
+    {
+        private final MappedZipFile m_owner = MappedZipFile.this;
+        private final int m_cen;
+
+        MappedZipEntry(String name, int cen)
+        {
+            super(name);
+            m_cen = cen;
+            setMethod(getShort(cen + 10));
+            setCrc(getInt(cen + 16));
+            setCompressedSize(getInt(cen + 20));
+            setSize(getInt(cen + 24));
+        }
+
+        @Override
+        public long getTime()
+        {
+            return dosToJavaTime(getInt(m_cen + 12));
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_buffer.hasRemaining() ? (m_buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length)
+        {
+            if (length == 0)
+            {
+                return 0;
+            }
+            if (!m_buffer.hasRemaining())
+            {
+                return -1;
+            }
+            length = Math.min(length, m_buffer.remaining());
+            m_buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long n)
+        {
+            int skipped = (int) Math.max(Math.min(n, m_buffer.remaining()), 0);
+            m_buffer.position(m_buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_buffer.remaining();
+        }
+    }
+
+    private static class MappedInflaterInputStream extends InflaterInputStream
+    {
+        private boolean m_eof;
+        private boolean m_closed;
+
+        MappedInflaterInputStream(InputStream is, int size)
+        {
+            super(is, new Inflater(true), size);
+        }
+
+        @Override
+        protected void fill() throws IOException
+        {
+            if (m_eof)
+            {
+                throw new EOFException("Unexpected end of ZLIB input stream");
+            }
+            len = in.read(buf, 0, buf.length);
+            if (len == -1)
+            {
+                // An inflater without zlib header needs an extra byte.
+                buf[0] = 0;
+                len = 1;
+                m_eof = true;
+            }
+            inf.setInput(buf, 0, len);
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!m_closed)
+            {
+                m_closed = true;
+                inf.end();
+                super.close();
+            }
+        }
+    }
+}
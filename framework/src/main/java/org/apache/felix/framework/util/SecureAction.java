@@ -41,6 +41,7 @@ import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
@@ -778,6 +779,49 @@ public class SecureAction
         }
     }
 
+    @SuppressWarnings("unchecked")
+    public MappedByteBuffer mapFile(File file) throws IOException
+    {
+        if (System.getSecurityManager() != null)
+        {
+            try
+            {
+                Actions actions = (Actions) m_actions.get();
+                actions.set(Actions.MAP_FILE_ACTION, file);
+                return (MappedByteBuffer) AccessController.doPrivileged(actions, m_acc);
+            }
+            catch (PrivilegedActionException ex)
+            {
+                if (ex.getException() instanceof IOException)
+                {
+                    throw (IOException) ex.getException();
+                }
+                throw (RuntimeException) ex.getException();
+            }
+        }
+        else
+        {
+            return _mapFile(file);
+        }
+    }
+
+    private static MappedByteBuffer _mapFile(File file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try
+        {
+            if (channel.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("File too large to be mapped: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
     public ZipFile openZipFile(File file) throws IOException
     {
         if (System.getSecurityManager() != null)
@@ -1839,6 +1883,7 @@ public class SecureAction
         public static final int GET_FILE_CHANNEL_ACTION = 61;
         private static final int GET_INPUT_ACTION = 62;
         private static final int GET_OUTPUT_ACTION = 63;
+        private static final int MAP_FILE_ACTION = 64;
 
         private int m_action = -1;
         private Object m_arg1 = null;
@@ -2112,6 +2157,8 @@ public class SecureAction
                     return Files.newInputStream(((File) arg1).toPath());
                 case GET_OUTPUT_ACTION:
                     return Files.newOutputStream(((File) arg1).toPath());
+                case MAP_FILE_ACTION:
+                    return _mapFile((File) arg1);
             }
 
             return null;
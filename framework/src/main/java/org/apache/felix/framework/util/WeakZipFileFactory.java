@@ -52,6 +52,7 @@ public class WeakZipFileFactory
     private final List<WeakZipFile> m_openFiles = new ArrayList<WeakZipFile>();
     private final Lock m_globalMutex = new ReentrantLock();
     private final int m_limit;
+    private final ClassDataCache m_classDataCache;
 
     /**
      * Constructs a weak zip file factory with the specified file limit. A limit
@@ -59,12 +60,34 @@ public class WeakZipFileFactory
      * @param limit maximum number of open zip files at any given time.
      */
     public WeakZipFileFactory(int limit)
+    {
+        this(limit, null);
+    }
+
+    /**
+     * Constructs a weak zip file factory with the specified file limit and
+     * class data cache. A limit of zero signifies no limit.
+     * @param limit maximum number of open zip files at any given time.
+     * @param classDataCache the cache of inflated class files used by the
+     *        contents of the created zip files or <tt>null</tt>.
+     */
+    public WeakZipFileFactory(int limit, ClassDataCache classDataCache)
     {
         if (limit < 0)
         {
             throw new IllegalArgumentException("Limit must be non-negative.");
         }
         m_limit = limit;
+        m_classDataCache = classDataCache;
+    }
+
+    /**
+     * Returns the cache of inflated class files of this factory.
+     * @return the class data cache or <tt>null</tt> if it is disabled.
+     */
+    public ClassDataCache getClassDataCache()
+    {
+        return m_classDataCache;
     }
 
     /**
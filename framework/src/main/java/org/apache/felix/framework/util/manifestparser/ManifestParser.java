@@ -73,7 +73,18 @@ public class ManifestParser
     private volatile List<NativeLibraryClause> m_libraryClauses;
     private volatile boolean m_libraryHeadersOptional = false;
 
-    private static final Map<Object, WeakReference<Object>> objectCache = new WeakHashMap<>();
+    // Values shared across revisions, split into stripes so that manifests
+    // can be parsed concurrently without contending on a single lock.
+    private static final int OBJECT_CACHE_STRIPES = 16;
+    private static final List<Map<Object, WeakReference<Object>>> objectCache =
+        new ArrayList<>(OBJECT_CACHE_STRIPES);
+    static
+    {
+        for (int i = 0; i < OBJECT_CACHE_STRIPES; i++)
+        {
+            objectCache.add(new WeakHashMap<>());
+        }
+    }
     private static final Function<Object, Object> cache = (foo) ->
     {
         if (foo instanceof String)
@@ -82,9 +93,12 @@ public class ManifestParser
         }
         else if (foo != null)
         {
-            synchronized (objectCache)
+            int hash = foo.hashCode();
+            Map<Object, WeakReference<Object>> stripe =
+                objectCache.get((hash ^ (hash >>> 16)) & (OBJECT_CACHE_STRIPES - 1));
+            synchronized (stripe)
             {
-                WeakReference<Object> ref = objectCache.get(foo);
+                WeakReference<Object> ref = stripe.get(foo);
                 if (ref != null)
                 {
                     Object refValue = ref.get();
@@ -93,7 +107,7 @@ public class ManifestParser
                         return refValue;
                     }
                 }
-                objectCache.put(foo, new WeakReference<>(foo));
+                stripe.put(foo, new WeakReference<>(foo));
             }
         }
         return foo;
@@ -144,6 +144,11 @@ public class BundleCapabilityImpl implements BundleCapability
         return !m_mandatory.isEmpty() && m_mandatory.contains(name);
     }
 
+    public boolean hasMandatoryAttributes()
+    {
+        return !m_mandatory.isEmpty();
+    }
+
     public List<String> getUses()
     {
         return m_uses;
@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+
+public class BundleBatchTest extends TestCase
+{
+    private File tempDir;
+    private Framework felix;
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, new File(tempDir, "cache").getPath());
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+
+        // Record bundle events as symbolic-name:type.
+        felix.getBundleContext().addBundleListener(new SynchronousBundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                synchronized (events)
+                {
+                    events.add(event.getBundle().getSymbolicName() + ":" + event.getType());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        felix.stop();
+        felix.waitForStop(10000);
+        felix = null;
+
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    public void testBatchRefreshesAndRestartsOnce() throws Exception
+    {
+        Bundle provider = install("provider", "Export-Package: p;version=1.0\n");
+        List<Bundle> consumers = new ArrayList<Bundle>();
+        for (int i = 0; i < 3; i++)
+        {
+            consumers.add(install("consumer" + i, "Import-Package: p\n"));
+        }
+        provider.start();
+        for (Bundle consumer : consumers)
+        {
+            consumer.start();
+        }
+        events.clear();
+
+        final List<FrameworkEvent> refreshed = new ArrayList<FrameworkEvent>();
+        BundleBatch batch = felix.adapt(BundleBatch.class);
+        batch.update(provider, jar("provider", "Export-Package: p;version=2.0\n"));
+        batch.update(consumers.get(0), jar("consumer0", "Import-Package: p;version=2.0\n"));
+        batch.install("batch:installed", jar("installed", "Import-Package: p;version=2.0\n"));
+        List<Bundle> bundles = batch.commit(new FrameworkListener()
+        {
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                refreshed.add(event);
+            }
+        });
+
+        assertEquals(3, bundles.size());
+        assertSame(provider, bundles.get(0));
+        assertSame(consumers.get(0), bundles.get(1));
+        assertEquals("installed", bundles.get(2).getSymbolicName());
+        assertEquals(1, refreshed.size());
+        assertEquals(FrameworkEvent.PACKAGES_REFRESHED, refreshed.get(0).getType());
+
+        // All bundles were resolved against the new provider revision and
+        // the previously active ones were restarted.
+        assertEquals("p;version=2.0", provider.getHeaders().get(Constants.EXPORT_PACKAGE));
+        assertEquals(Bundle.ACTIVE, provider.getState());
+        for (Bundle consumer : consumers)
+        {
+            assertEquals(Bundle.ACTIVE, consumer.getState());
+        }
+        assertEquals(Bundle.RESOLVED, bundles.get(2).getState());
+
+        // The update and install events come first and together, and every
+        // consumer was stopped and started exactly once.
+        assertEquals("provider:" + BundleEvent.STOPPING, events.get(0));
+        int updated = events.indexOf("provider:" + BundleEvent.UPDATED);
+        int installed = events.indexOf("installed:" + BundleEvent.INSTALLED);
+        int resolved = events.indexOf("installed:" + BundleEvent.RESOLVED);
+        assertTrue(events.toString(), (updated >= 0) && (updated < installed));
+        assertTrue(events.toString(), installed < resolved);
+        for (Bundle consumer : consumers)
+        {
+            assertEquals(events.toString(), 1,
+                count(consumer.getSymbolicName() + ":" + BundleEvent.STOPPED));
+            assertEquals(events.toString(), 1,
+                count(consumer.getSymbolicName() + ":" + BundleEvent.STARTED));
+        }
+        assertEquals(events.toString(), 1, count("provider:" + BundleEvent.STARTED));
+    }
+
+    public void testBatchStopsAtFailure() throws Exception
+    {
+        Bundle removed = install("removed", "");
+        removed.uninstall();
+
+        BundleBatch batch = felix.adapt(BundleBatch.class);
+        batch.install("batch:first", jar("first", ""));
+        batch.update(removed, null);
+        batch.install("batch:skipped", jar("skipped", ""));
+        try
+        {
+            batch.commit();
+            fail("Updating an uninstalled bundle must fail");
+        }
+        catch (IllegalStateException ex)
+        {
+            // Expected.
+        }
+
+        // The operation before the failure was applied and resolved.
+        Bundle first = felix.getBundleContext().getBundle("batch:first");
+        assertNotNull(first);
+        assertEquals(Bundle.RESOLVED, first.getState());
+        assertNull(felix.getBundleContext().getBundle("batch:skipped"));
+
+        try
+        {
+            batch.commit();
+            fail("A batch can only be committed once");
+        }
+        catch (IllegalStateException ex)
+        {
+            // Expected.
+        }
+    }
+
+    public void testBatchRejectsBundlesOfOtherFrameworks() throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, new File(tempDir, "other").getPath());
+        Framework other = new Felix(params);
+        other.init();
+        try
+        {
+            Bundle bundle = other.getBundleContext().installBundle(
+                createBundle("other", "").toURI().toString());
+            BundleBatch batch = felix.adapt(BundleBatch.class);
+            try
+            {
+                batch.update(bundle, null);
+                fail("Bundles of another framework must be rejected");
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // Expected.
+            }
+            try
+            {
+                batch.update(felix, null);
+                fail("The system bundle must be rejected");
+            }
+            catch (IllegalArgumentException ex)
+            {
+                // Expected.
+            }
+        }
+        finally
+        {
+            other.stop();
+            other.waitForStop(10000);
+        }
+    }
+
+    private int count(String event)
+    {
+        int count = 0;
+        for (String e : events)
+        {
+            if (e.equals(event))
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Bundle install(String name, String headers) throws Exception
+    {
+        return felix.getBundleContext().installBundle(
+            createBundle(name, headers).toURI().toString());
+    }
+
+    private FileInputStream jar(String name, String headers) throws IOException
+    {
+        return new FileInputStream(createBundle(name, headers));
+    }
+
+    private File createBundle(String name, String headers) throws IOException
+    {
+        String manifest = "Bundle-SymbolicName: " + name + "\n"
+            + "Bundle-ManifestVersion: 2\n" + headers;
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -19,13 +19,18 @@
 package org.apache.felix.framework;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
 import org.easymock.EasyMock;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
 import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -137,6 +142,232 @@ public class EventDispatcherTest extends TestCase
         assertTrue(calledHooks.contains(eh2));
     }
 
+    public void testFireServiceEventToIndexedListeners() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+        final Bundle b2 = getMockBundle();
+        final Bundle b3 = getMockBundle();
+        final Bundle b4 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener stringListener = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, stringListener,
+            FrameworkUtil.createFilter("(&(objectClass=java.lang.String)(foo=bar))"));
+
+        ServiceListener integerListener = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b2.getBundleContext(), ServiceListener.class, integerListener,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+
+        ServiceListener unfilteredListener = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b3.getBundleContext(), ServiceListener.class, unfilteredListener, null);
+
+        ServiceListener orListener = new ServiceListener()
+        {
+            public void serviceChanged(ServiceEvent arg0)
+            {
+                fired.add(this);
+            }
+        };
+        ed.addListener(b4.getBundleContext(), ServiceListener.class, orListener,
+            FrameworkUtil.createFilter("(|(objectClass=java.lang.Integer)(objectClass=java.lang.String))"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String"
+            }).anyTimes();
+        EasyMock.expect(sr.getProperty("foo")).andReturn("bar").anyTimes();
+        for (Bundle b : new Bundle[] { b1, b2, b3, b4 })
+        {
+            sr.isAssignableTo(b, String.class.getName());
+            EasyMock.expectLastCall().andReturn(Boolean.TRUE).anyTimes();
+        }
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(3, fired.size());
+        assertTrue(fired.contains(stringListener));
+        assertTrue(fired.contains(unfilteredListener));
+        assertTrue(fired.contains(orListener));
+
+        // Updating the filter must update the dispatch table.
+        fired.clear();
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, stringListener,
+            FrameworkUtil.createFilter("(objectClass=java.lang.Integer)"));
+        ed.removeListener(b4.getBundleContext(), ServiceListener.class, orListener);
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(Collections.singletonList(unfilteredListener), fired);
+    }
+
+    public void testFireServiceEventInRegistrationOrder() throws Exception
+    {
+        final Bundle b1 = getMockBundle();
+
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+        EventDispatcher ed = new EventDispatcher(logger, registry);
+
+        final List fired = Collections.synchronizedList(new ArrayList());
+        ServiceListener[] listeners = new ServiceListener[4];
+        for (int i = 0; i < listeners.length; i++)
+        {
+            listeners[i] = new ServiceListener()
+            {
+                public void serviceChanged(ServiceEvent arg0)
+                {
+                    fired.add(this);
+                }
+            };
+        }
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, listeners[0],
+            new FilterImpl("(objectClass=java.lang.String)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, listeners[1], null);
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, listeners[2],
+            FrameworkUtil.createFilter("(objectClass=java.lang.String)"));
+        ed.addListener(b1.getBundleContext(), ServiceListener.class, listeners[3],
+            new FilterImpl("(service.id=*)"));
+
+        ServiceReference sr = EasyMock.createNiceMock(ServiceReference.class);
+        EasyMock.expect(sr.getProperty(Constants.OBJECTCLASS)).andReturn(new String[]
+            {
+                "java.lang.String"
+            }).anyTimes();
+        EasyMock.expect(sr.getProperty(Constants.SERVICE_ID)).andReturn(1L).anyTimes();
+        EasyMock.expect(sr.getPropertyKeys()).andReturn(new String[]
+            {
+                Constants.OBJECTCLASS, Constants.SERVICE_ID
+            }).anyTimes();
+        sr.isAssignableTo(b1, String.class.getName());
+        EasyMock.expectLastCall().andReturn(Boolean.TRUE).anyTimes();
+        EasyMock.replay(new Object[]
+            {
+                sr
+            });
+
+        ed.fireServiceEvent(new ServiceEvent(ServiceEvent.REGISTERED, sr), null, null);
+        assertEquals(Arrays.asList(listeners), fired);
+    }
+
+    public void testSlowBundleListenerOnlyDelaysItsOwnContext() throws Exception
+    {
+        Logger logger = new Logger();
+        ServiceRegistry registry = new ServiceRegistry(logger, null);
+
+        long shared = deliverWithSlowListener(new EventDispatcher(logger, registry));
+        long perContext = deliverWithSlowListener(new EventDispatcher(logger, registry, 4, false));
+
+        // With the shared thread the fast listener has to wait for most of the
+        // slow deliveries, with per context queues it does not.
+        assertTrue("Shared: " + shared + "ms, per context: " + perContext + "ms",
+            perContext < shared);
+        assertTrue(perContext < (EVENT_COUNT - 1) * SLOW_LISTENER_MILLIS);
+    }
+
+    private static final int EVENT_COUNT = 10;
+    private static final int SLOW_LISTENER_MILLIS = 50;
+
+    private long deliverWithSlowListener(EventDispatcher ed) throws Exception
+    {
+        final Bundle slowBundle = getMockBundle();
+        final Bundle fastBundle = getMockBundle();
+        List<BundleEvent> fired = new ArrayList<BundleEvent>();
+        final List<BundleEvent> slowEvents =
+            Collections.synchronizedList(new ArrayList<BundleEvent>());
+        final List<BundleEvent> fastEvents =
+            Collections.synchronizedList(new ArrayList<BundleEvent>());
+        long elapsed;
+
+        final CountDownLatch slowLatch = new CountDownLatch(EVENT_COUNT);
+        final CountDownLatch fastLatch = new CountDownLatch(EVENT_COUNT);
+
+        ed.startDispatching();
+        try
+        {
+            BundleListener slow = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    try
+                    {
+                        Thread.sleep(SLOW_LISTENER_MILLIS);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    slowEvents.add(event);
+                    slowLatch.countDown();
+                }
+            };
+            ed.addListener(slowBundle.getBundleContext(), BundleListener.class, slow, null);
+
+            BundleListener fast = new BundleListener()
+            {
+                public void bundleChanged(BundleEvent event)
+                {
+                    fastEvents.add(event);
+                    fastLatch.countDown();
+                }
+            };
+            ed.addListener(fastBundle.getBundleContext(), BundleListener.class, fast, null);
+
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < EVENT_COUNT; i++)
+            {
+                BundleEvent event = new BundleEvent(BundleEvent.INSTALLED, slowBundle);
+                fired.add(event);
+                ed.fireBundleEvent(event, null);
+            }
+            assertTrue(fastLatch.await(EVENT_COUNT * SLOW_LISTENER_MILLIS * 10, TimeUnit.MILLISECONDS));
+            elapsed = System.currentTimeMillis() - start;
+            assertTrue(slowLatch.await(EVENT_COUNT * SLOW_LISTENER_MILLIS * 10, TimeUnit.MILLISECONDS));
+        }
+        finally
+        {
+            ed.stopDispatching();
+        }
+
+        // Events must be delivered in order to every listener.
+        assertEquals(fired, fastEvents);
+        assertEquals(fired, slowEvents);
+        assertEquals(0, ed.getQueueDepth());
+
+        Map<BundleContext, EventDispatcher.DeliveryStatistics> stats = ed.getDeliveryStatistics();
+        if (!stats.isEmpty())
+        {
+            assertEquals(EVENT_COUNT, stats.get(fastBundle.getBundleContext()).getDeliveredCount());
+            assertEquals(EVENT_COUNT, stats.get(slowBundle.getBundleContext()).getDeliveredCount());
+            assertTrue(stats.get(slowBundle.getBundleContext()).getMaxDeliveryNanos()
+                >= TimeUnit.MILLISECONDS.toNanos(SLOW_LISTENER_MILLIS));
+        }
+        return elapsed;
+    }
+
     private Bundle getMockBundle()
     {
         BundleContext bc = EasyMock.createNiceMock(BundleContext.class);
@@ -0,0 +1,133 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.resource.Capability;
+
+/**
+ * Measures filter matching against 1000 registered services with String,
+ * Long and Version properties. The {@code serviceLookup} benchmark queries
+ * the registry with a filter, the {@code trackerMatch} benchmark matches a
+ * tracker style filter against every service reference, as a service
+ * tracker does for each service event, and the {@code dictionaryMatch}
+ * benchmark matches a filter against a dictionary. Run with
+ * {@code java -cp <test classpath> org.apache.felix.framework.FilterBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark
+{
+    private static final int SERVICES = 1000;
+    private static final String LOOKUP_FILTER =
+        "(&(port>=8000)(port<=8100)(version>=1.2))";
+    private static final String TRACKER_FILTER =
+        "(&(objectClass=java.lang.Runnable)(name=service500)(version=1.5.0))";
+
+    private ServiceRegistry m_registry;
+    private ServiceReference<?>[] m_refs;
+    private Dictionary<String, Object> m_dict;
+
+    @Setup
+    public void setUp()
+    {
+        m_registry = new ServiceRegistry(null, null);
+        Bundle bundle = Mockito.mock(Bundle.class);
+        m_refs = new ServiceReference<?>[SERVICES];
+        for (int i = 0; i < SERVICES; i++)
+        {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("name", "service" + i);
+            props.put("port", Long.valueOf(7500 + i));
+            props.put("version", new Version(1, i % 10, 0));
+            m_refs[i] = m_registry.registerService(
+                bundle, new String[] { Runnable.class.getName() },
+                new Runnable()
+                {
+                    public void run()
+                    {
+                    }
+                }, props).getReference();
+        }
+        m_dict = new Hashtable<String, Object>();
+        m_dict.put(Constants.OBJECTCLASS, new String[] { Runnable.class.getName() });
+        m_dict.put("name", "service500");
+        m_dict.put("version", new Version(1, 5, 0));
+    }
+
+    @Benchmark
+    public Collection<Capability> serviceLookup() throws Exception
+    {
+        return m_registry.getServiceReferences(
+            Runnable.class.getName(), FilterImpl.parseShared(LOOKUP_FILTER));
+    }
+
+    @Benchmark
+    public int trackerMatch() throws Exception
+    {
+        Filter filter = new FilterImpl(TRACKER_FILTER);
+        int matches = 0;
+        for (ServiceReference<?> ref : m_refs)
+        {
+            if (filter.match(ref))
+            {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Benchmark
+    public boolean dictionaryMatch() throws Exception
+    {
+        return new FilterImpl(TRACKER_FILTER).match(m_dict);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+            .include(FilterBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+public class MinimalRefreshTest extends TestCase
+{
+    private static final String EXTENDER = "Provide-Capability: test.extender;test.extender=x\n";
+
+    private File tempDir;
+    private Framework felix;
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        tempDir = File.createTempFile("felix-temp", ".dir");
+        assertTrue("precondition", tempDir.delete());
+        assertTrue("precondition", tempDir.mkdirs());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, new File(tempDir, "cache").getPath());
+        params.put(FelixConstants.REFRESH_MINIMAL_PROP, "true");
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+
+        // Record bundle events as symbolic-name:type.
+        felix.getBundleContext().addBundleListener(new SynchronousBundleListener()
+        {
+            public void bundleChanged(BundleEvent event)
+            {
+                synchronized (events)
+                {
+                    events.add(event.getBundle().getSymbolicName() + ":" + event.getType());
+                }
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        felix.stop();
+        felix.waitForStop(10000);
+        felix = null;
+
+        deleteDir(tempDir);
+        tempDir = null;
+    }
+
+    public void testUnchangedCapabilitiesAreRewired() throws Exception
+    {
+        Bundle provider = install("provider", EXTENDER + "Export-Package: p\n");
+        Bundle extended = install("extended",
+            "Require-Capability: test.extender;filter:=\"(test.extender=x)\"\n");
+        Bundle importer = install("importer", "Import-Package: p\n");
+        provider.start();
+        extended.start();
+        importer.start();
+        events.clear();
+
+        provider.update(jar("provider", EXTENDER + "Export-Package: p\n"));
+        refresh(provider);
+
+        // The bundle that only requires the unchanged capability was moved
+        // to the new revision without being stopped.
+        assertEquals(Bundle.ACTIVE, extended.getState());
+        assertFalse(events.toString(), events.contains("extended:" + BundleEvent.STOPPED));
+        BundleRevision revision = provider.adapt(BundleRevision.class);
+        List<BundleWire> wires = extended.adapt(BundleWiring.class)
+            .getRequiredWires("test.extender");
+        assertEquals(1, wires.size());
+        assertSame(revision, wires.get(0).getProvider());
+        assertSame(revision.getWiring().getCapabilities("test.extender").get(0),
+            wires.get(0).getCapability());
+        assertEquals(wires, revision.getWiring().getProvidedWires("test.extender"));
+
+        // The importer uses classes of the provider, so it is refreshed.
+        assertEquals(Bundle.ACTIVE, importer.getState());
+        assertTrue(events.toString(), events.contains("importer:" + BundleEvent.STOPPED));
+        assertSame(revision, importer.adapt(BundleWiring.class)
+            .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE).get(0).getProvider());
+        assertEquals(Bundle.ACTIVE, provider.getState());
+    }
+
+    public void testChangedCapabilitiesAreRefreshed() throws Exception
+    {
+        Bundle provider = install("provider", EXTENDER);
+        Bundle extended = install("extended",
+            "Require-Capability: test.extender;filter:=\"(test.extender=*)\"\n");
+        provider.start();
+        extended.start();
+        events.clear();
+
+        provider.update(jar("provider", "Provide-Capability: test.extender;test.extender=y\n"));
+        refresh(provider);
+
+        assertEquals(Bundle.ACTIVE, extended.getState());
+        assertTrue(events.toString(), events.contains("extended:" + BundleEvent.STOPPED));
+        assertSame(provider.adapt(BundleRevision.class), extended.adapt(BundleWiring.class)
+            .getRequiredWires("test.extender").get(0).getProvider());
+    }
+
+    public void testCapabilitiesWithUsesAreRefreshed() throws Exception
+    {
+        String headers = "Provide-Capability: test.extender;test.extender=x;uses:=p\n"
+            + "Export-Package: p\n";
+        Bundle provider = install("provider", headers);
+        Bundle extended = install("extended",
+            "Require-Capability: test.extender;filter:=\"(test.extender=x)\"\n");
+        provider.start();
+        extended.start();
+        events.clear();
+
+        provider.update(jar("provider", headers));
+        refresh(provider);
+
+        // The capability constrains the class space of its requirers, so
+        // they are resolved again instead of being moved.
+        assertEquals(Bundle.ACTIVE, extended.getState());
+        assertTrue(events.toString(), events.contains("extended:" + BundleEvent.STOPPED));
+        assertSame(provider.adapt(BundleRevision.class), extended.adapt(BundleWiring.class)
+            .getRequiredWires("test.extender").get(0).getProvider());
+    }
+
+    private void refresh(Bundle bundle) throws InterruptedException
+    {
+        final CountDownLatch latch = new CountDownLatch(1);
+        felix.adapt(FrameworkWiring.class).refreshBundles(
+            Collections.singletonList(bundle), new FrameworkListener()
+            {
+                public void frameworkEvent(FrameworkEvent event)
+                {
+                    latch.countDown();
+                }
+            });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    private Bundle install(String name, String headers) throws Exception
+    {
+        return felix.getBundleContext().installBundle(
+            createBundle(name, headers).toURI().toString());
+    }
+
+    private FileInputStream jar(String name, String headers) throws IOException
+    {
+        return new FileInputStream(createBundle(name, headers));
+    }
+
+    private File createBundle(String name, String headers) throws IOException
+    {
+        String manifest = "Bundle-SymbolicName: " + name + "\n"
+            + "Bundle-ManifestVersion: 2\n" + headers;
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.cache.BundleCache;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+
+public class ParallelCacheReloadTest extends TestCase
+{
+    private static final int BUNDLES = 20;
+
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            felix = null;
+        }
+
+        deleteDir(cacheDir);
+        cacheDir = null;
+    }
+
+    public void testCachedBundlesReloadInParallel() throws Exception
+    {
+        felix = createFramework();
+        felix.start();
+
+        // A chain of bundles, each importing the package of its predecessor.
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < BUNDLES; i++)
+        {
+            String mf = "Bundle-SymbolicName: chain" + i + "\n"
+                + "Bundle-Version: 1.0." + i + "\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Export-Package: pkg" + i + ";version=1.0\n"
+                + ((i > 0) ? "Import-Package: pkg" + (i - 1) + "\n" : "");
+            Bundle bundle = felix.getBundleContext().installBundle(
+                createBundle(mf, cacheDir).toURI().toString());
+            if (i % 2 == 0)
+            {
+                bundle.start();
+            }
+            expected.add(describe(bundle));
+        }
+        // One bundle that was uninstalled before the restart.
+        felix.getBundleContext().installBundle(
+            createBundle("Bundle-SymbolicName: removed\nBundle-ManifestVersion: 2\n",
+                cacheDir).toURI().toString()).uninstall();
+
+        felix.stop();
+        felix.waitForStop(10000);
+
+        felix = createFramework();
+        felix.start();
+
+        List<String> actual = new ArrayList<String>();
+        Bundle[] bundles = felix.getBundleContext().getBundles();
+        for (int i = 1; i < bundles.length; i++)
+        {
+            actual.add(describe(bundles[i]));
+        }
+        assertEquals(expected, actual);
+
+        // The reloaded revisions resolve against each other.
+        Bundle last = bundles[bundles.length - 1];
+        last.start();
+        List<BundleWire> wires = last.adapt(BundleWiring.class)
+            .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+        assertEquals(1, wires.size());
+        assertEquals(bundles[bundles.length - 2], wires.get(0).getProvider().getBundle());
+    }
+
+    private Framework createFramework() throws Exception
+    {
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(BundleCache.CACHE_RELOAD_PARALLELISM_PROP, "4");
+
+        Framework framework = new Felix(params);
+        framework.init();
+        return framework;
+    }
+
+    private static String describe(Bundle bundle)
+    {
+        return bundle.getBundleId() + ":" + bundle.getSymbolicName() + ":"
+            + bundle.getVersion() + ":" + bundle.getHeaders().get(Constants.EXPORT_PACKAGE)
+            + ":" + ((bundle.getState() == Bundle.ACTIVE) ? "active" : "inactive");
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.startlevel.BundleStartLevel;
+import org.osgi.framework.startlevel.FrameworkStartLevel;
+
+public class ParallelStartLevelTest extends TestCase
+{
+    public static final int DELAY = 500;
+
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(FelixConstants.STARTLEVEL_PARALLELISM_PROP, "4");
+
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        felix.stop();
+        felix.waitForStop(10000);
+        felix = null;
+
+        deleteDir(cacheDir);
+        cacheDir = null;
+    }
+
+    public void testStartLevelBundlesStartConcurrently() throws Exception
+    {
+        List<Bundle> level2 = new ArrayList<Bundle>();
+        for (int i = 0; i < 4; i++)
+        {
+            level2.add(installBundle("level2.bundle" + i, 2));
+        }
+        Bundle level3 = installBundle("level3.bundle", 3);
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        long t0 = System.currentTimeMillis();
+        felix.adapt(FrameworkStartLevel.class).setStartLevel(3, new FrameworkListener()
+        {
+            @Override
+            public void frameworkEvent(FrameworkEvent event)
+            {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10 * DELAY, TimeUnit.MILLISECONDS));
+        long t1 = System.currentTimeMillis();
+
+        // The four bundles of level 2 run their activators concurrently,
+        // followed by the bundle of level 3.
+        assertTrue("Took " + (t1 - t0) + " ms", (t1 - t0) < 4 * DELAY);
+
+        long level2End = 0;
+        for (Bundle bundle : level2)
+        {
+            assertEquals(Bundle.ACTIVE, bundle.getState());
+            assertTrue(System.getProperty("thread." + bundle.getSymbolicName())
+                .startsWith(FrameworkStartLevelImpl.THREAD_NAME + "-Worker-"));
+            level2End = Math.max(level2End,
+                Long.parseLong(System.getProperty("end." + bundle.getSymbolicName())));
+        }
+        assertEquals(Bundle.ACTIVE, level3.getState());
+        assertTrue(Long.parseLong(System.getProperty("start." + level3.getSymbolicName())) >= level2End);
+    }
+
+    private Bundle installBundle(String symbolicName, int startLevel) throws Exception
+    {
+        String mf = "Bundle-SymbolicName: " + symbolicName + "\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n";
+        Bundle bundle = felix.getBundleContext().installBundle(
+            createBundle(mf, cacheDir).toURI().toString());
+        bundle.adapt(BundleStartLevel.class).setStartLevel(startLevel);
+        bundle.start();
+        return bundle;
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        public void start(BundleContext context) throws Exception
+        {
+            String name = context.getBundle().getSymbolicName();
+            System.setProperty("start." + name, Long.toString(System.nanoTime()));
+            System.setProperty("thread." + name, Thread.currentThread().getName());
+            Thread.sleep(DELAY);
+            System.setProperty("end." + name, Long.toString(System.nanoTime()));
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.apache.felix.framework.util.MyHashMap;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.framework.wiring.BundleWire;
+import org.osgi.framework.wiring.BundleWiring;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+public class ResolutionCacheTest extends TestCase
+{
+    private File m_cacheDir;
+    private Map<String, String> m_params;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        m_cacheDir = File.createTempFile("felix-cache", ".dir");
+        m_cacheDir.delete();
+        m_cacheDir.mkdirs();
+
+        m_params = new MyHashMap<String, String>();
+        m_params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        m_params.put(Constants.FRAMEWORK_STORAGE, m_cacheDir.getPath());
+        m_params.put(FelixConstants.RESOLVER_CACHE, "true");
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        deleteDir(m_cacheDir);
+    }
+
+    public void testWiringIsRestoredAfterRestart() throws Exception
+    {
+        File bundleAFile = createBundle("Bundle-SymbolicName: A\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.a;version=1.0.0\n");
+        File bundleA2File = createBundle("Bundle-SymbolicName: A2\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: org.foo.a;version=2.0.0\n");
+        File bundleBFile = createBundle("Bundle-SymbolicName: B\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.foo.a;version=\"[1,2)\", org.osgi.framework\n"
+            + "Export-Package: org.foo.b\n");
+        File fragmentFile = createBundle("Bundle-SymbolicName: F\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Fragment-Host: B\n"
+            + "Export-Package: org.foo.f\n");
+        File bundleCFile = createBundle("Bundle-SymbolicName: C\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Require-Bundle: B\n"
+            + "Import-Package: org.foo.f\n");
+
+        Felix felix = new Felix(m_params);
+        felix.init();
+        felix.start();
+        List<String> wiring;
+        try
+        {
+            felix.getBundleContext().installBundle(bundleAFile.toURI().toString());
+            felix.getBundleContext().installBundle(bundleA2File.toURI().toString());
+            felix.getBundleContext().installBundle(bundleBFile.toURI().toString());
+            felix.getBundleContext().installBundle(fragmentFile.toURI().toString());
+            felix.getBundleContext().installBundle(bundleCFile.toURI().toString()).start();
+            wiring = describeWiring(felix);
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+
+        File cacheFile = new File(new File(m_cacheDir, "bundle0"), "resolution.cache");
+        assertTrue(cacheFile.isFile());
+
+        felix = new Felix(m_params);
+        felix.init();
+        try
+        {
+            List<BundleRevision> revisions = getRevisions(felix);
+            ResolutionCache cache = ResolutionCache.load(cacheFile, revisions);
+            assertNotNull(cache);
+
+            BundleRevision c = findBundle(felix, "C").adapt(BundleRevision.class);
+            Map<Resource, List<Wire>> wireMap = cache.getWireMap(
+                Collections.singleton(c));
+            assertNotNull(wireMap);
+            assertEquals(4, wireMap.size());
+
+            // A different set of installed revisions must not match.
+            revisions.remove(findBundle(felix, "A2").adapt(BundleRevision.class));
+            assertNull(ResolutionCache.load(cacheFile, revisions));
+
+            felix.start();
+            findBundle(felix, "C").start();
+            assertEquals(wiring, describeWiring(felix));
+            assertNull(findBundle(felix, "A2").adapt(BundleWiring.class));
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+    }
+
+    public void testNotStoredUnlessEnabled() throws Exception
+    {
+        m_params.remove(FelixConstants.RESOLVER_CACHE);
+        File bundleFile = createBundle("Bundle-SymbolicName: B\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n");
+
+        Felix felix = new Felix(m_params);
+        felix.init();
+        felix.start();
+        try
+        {
+            felix.getBundleContext().installBundle(bundleFile.toURI().toString()).start();
+        }
+        finally
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+        }
+
+        assertFalse(new File(new File(m_cacheDir, "bundle0"), "resolution.cache").exists());
+    }
+
+    private static List<BundleRevision> getRevisions(Felix felix)
+    {
+        List<BundleRevision> revisions = new ArrayList<BundleRevision>();
+        for (Bundle b : felix.getBundleContext().getBundles())
+        {
+            revisions.add(b.adapt(BundleRevision.class));
+        }
+        return revisions;
+    }
+
+    private static Bundle findBundle(Felix felix, String bsn)
+    {
+        for (Bundle b : felix.getBundleContext().getBundles())
+        {
+            if (bsn.equals(b.getSymbolicName()))
+            {
+                return b;
+            }
+        }
+        fail("Bundle " + bsn + " not found");
+        return null;
+    }
+
+    private static List<String> describeWiring(Felix felix)
+    {
+        List<String> result = new ArrayList<String>();
+        for (Bundle b : felix.getBundleContext().getBundles())
+        {
+            BundleWiring wiring = b.adapt(BundleWiring.class);
+            if ((b.getBundleId() == 0) || (wiring == null))
+            {
+                continue;
+            }
+            for (BundleWire wire : wiring.getRequiredWires(null))
+            {
+                result.add(b.getSymbolicName() + " -> "
+                    + wire.getProvider().getSymbolicName() + " "
+                    + wire.getCapability().getAttributes().get(
+                        wire.getCapability().getNamespace()));
+            }
+        }
+        return result;
+    }
+
+    private File createBundle(String manifest) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_cacheDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+}
@@ -19,6 +19,7 @@
 package org.apache.felix.framework;
 
 import junit.framework.TestCase;
+import org.apache.felix.framework.util.FelixConstants;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.launch.Framework;
@@ -31,6 +32,7 @@ import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import org.apache.felix.framework.util.MyHashMap;
@@ -276,6 +278,95 @@ public class ResolveTest extends TestCase
         assertEquals(requiredWires.get(1).getProvider().getBundle(), ho);
     }
 
+    public void testResolveWithThreadPoolExecutor() throws Exception
+    {
+        resolveChain("threadpool");
+    }
+
+    public void testResolveWithForkJoinExecutor() throws Exception
+    {
+        resolveChain("forkjoin");
+    }
+
+    public void testResolveWithVirtualThreadExecutor() throws Exception
+    {
+        // Falls back to a fork/join pool where virtual threads are missing.
+        resolveChain("virtual");
+    }
+
+    private void resolveChain(String executor) throws Exception
+    {
+        felix.stop();
+        felix.waitForStop(10000);
+
+        Map<String,String> params = new MyHashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT);
+        params.put(FelixConstants.RESOLVER_PARALLELISM, "4");
+        params.put(FelixConstants.RESOLVER_EXECUTOR, executor);
+        felix = new Felix(params);
+        felix.init();
+        felix.start();
+
+        Bundle[] bundles = new Bundle[20];
+        for (int i = 0; i < bundles.length; i++)
+        {
+            String mf = "Bundle-SymbolicName: chain" + i + "\n"
+                + "Bundle-Version: 1.0.0\n"
+                + "Bundle-ManifestVersion: 2\n"
+                + "Export-Package: chain" + i
+                + ((i > 0) ? ";uses:=chain" + (i - 1) + "\nImport-Package: chain" + (i - 1) : "")
+                + "\n";
+            bundles[i] = felix.getBundleContext().installBundle(createBundle(mf).toURI().toASCIIString());
+        }
+
+        assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(Arrays.asList(bundles)));
+
+        for (int i = 1; i < bundles.length; i++)
+        {
+            List<BundleWire> requiredWires = bundles[i].adapt(BundleWiring.class)
+                .getRequiredWires(BundleRevision.PACKAGE_NAMESPACE);
+            assertEquals(1, requiredWires.size());
+            assertEquals(bundles[i - 1], requiredWires.get(0).getProvider().getBundle());
+        }
+
+        felix.stop();
+        felix.waitForStop(10000);
+        assertResolverThreadsStopped();
+
+        // The threads are created again when the framework is restarted.
+        felix.init();
+        felix.start();
+        assertTrue(felix.adapt(FrameworkWiring.class).resolveBundles(null));
+        assertNotNull(felix.getBundleContext().getBundle(bundles.length).adapt(BundleWiring.class));
+
+        felix.stop();
+        felix.waitForStop(10000);
+        assertResolverThreadsStopped();
+    }
+
+    private static void assertResolverThreadsStopped() throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (true)
+        {
+            boolean alive = false;
+            for (Thread thread : Thread.getAllStackTraces().keySet())
+            {
+                if (thread.getName().startsWith("FelixResolver-"))
+                {
+                    alive = true;
+                }
+            }
+            if (!alive)
+            {
+                return;
+            }
+            assertTrue("Resolver threads still running", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
     private File createBundle(String manifest) throws IOException
     {
         File f = File.createTempFile("felix-bundle", ".jar", tempDir);
@@ -30,6 +30,7 @@ import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import org.apache.felix.framework.util.MyHashMap;
 import java.util.List;
 import java.util.Map;
@@ -40,7 +41,13 @@ import java.util.zip.ZipEntry;
 import junit.framework.TestCase;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 import org.osgi.framework.launch.Framework;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWiring;
 
 public class ResourceLoadingTest extends TestCase
@@ -223,6 +230,112 @@ public class ResourceLoadingTest extends TestCase
         assertNotNull(urlClassLoader.getResource("ej2.txt"));
     }
 
+    public void testNotFoundResourceIsCached() throws Exception
+    {
+        Bundle importer = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "DynamicImport-Package: dyn.*\n", null).toURI().toASCIIString());
+        importer.start();
+
+        String name = "other/pkg/res.txt";
+        BundleWiringImpl.LookupStatistics stats =
+            ((BundleWiringImpl) importer.adapt(BundleWiring.class)).getLookupStatistics();
+        assertNull(importer.getResource(name));
+        assertEquals(0, stats.getNotFoundHits());
+        assertEquals(1, stats.getNotFoundMisses());
+        assertNull(importer.getResource(name));
+        assertEquals(1, stats.getNotFoundHits());
+        assertEquals(1, stats.getNotFoundMisses());
+
+        felix.stop();
+        felix.waitForStop(10000);
+    }
+
+    public void testDynamicImportSucceedsOnceExporterResolves() throws Exception
+    {
+        // Keep the exporter from resolving without changing any revision.
+        ServiceRegistration<ResolverHookFactory> hookReg =
+            felix.getBundleContext().registerService(ResolverHookFactory.class,
+                new ResolverHookFactory()
+                {
+                    public ResolverHook begin(Collection<BundleRevision> triggers)
+                    {
+                        return new ResolverHook()
+                        {
+                            public void filterResolvable(Collection<BundleRevision> candidates)
+                            {
+                                for (Iterator<BundleRevision> it = candidates.iterator(); it.hasNext();)
+                                {
+                                    if ("exporter".equals(it.next().getSymbolicName()))
+                                    {
+                                        it.remove();
+                                    }
+                                }
+                            }
+
+                            public void filterSingletonCollisions(
+                                BundleCapability singleton, Collection<BundleCapability> candidates)
+                            {
+                            }
+
+                            public void filterMatches(
+                                BundleRequirement requirement, Collection<BundleCapability> candidates)
+                            {
+                            }
+
+                            public void end()
+                            {
+                            }
+                        };
+                    }
+                }, null);
+
+        String name = "dyn/pkg/res.txt";
+        Bundle exporter = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: exporter\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Export-Package: dyn.pkg\n", name).toURI().toASCIIString());
+        Bundle importer = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: importer\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "DynamicImport-Package: dyn.*\n", null).toURI().toASCIIString());
+        importer.start();
+
+        BundleWiringImpl.LookupStatistics stats =
+            ((BundleWiringImpl) importer.adapt(BundleWiring.class)).getLookupStatistics();
+        assertNull(importer.getResource(name));
+        assertNull(importer.getResource(name));
+        assertEquals(Bundle.INSTALLED, exporter.getState());
+        assertEquals(0, stats.getNotFoundHits());
+        assertEquals(0, stats.getNotFoundMisses());
+
+        // A dynamically imported package is found once its exporter may
+        // resolve, although no revision was added or removed.
+        hookReg.unregister();
+        assertNotNull(importer.getResource(name));
+        assertEquals(Bundle.RESOLVED, exporter.getState());
+
+        felix.stop();
+        felix.waitForStop(10000);
+    }
+
+    private File createBundle(String manifest, String entry) throws IOException
+    {
+        File bundleFile = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(bundleFile), mf);
+        if (entry != null)
+        {
+            os.putNextEntry(new ZipEntry(entry));
+            os.write("This is a Test".getBytes());
+        }
+        os.close();
+        return bundleFile;
+    }
+
     ClassLoader createClassLoader(Bundle bundle) {
         List<URL> urls = new ArrayList<URL>();
         Collection<String> resources = bundle.adapt(BundleWiring.class).listResources("/", "*.jar", BundleWiring.LISTRESOURCES_LOCAL);
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Measures a getService()/ungetService() pair on a singleton service with
+ * 64 concurrent threads, each acting as its own client bundle. The
+ * {@code held} benchmark keeps the service obtained between calls, so the
+ * pair is served from the cached usage count; the {@code cold} benchmark
+ * lets the usage count drop to zero on every unget, which takes the full
+ * lookup path with thread marking and service holder handling. Run with
+ * {@code java -cp <test classpath> org.apache.felix.framework.ServiceRegistryBenchmark}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class ServiceRegistryBenchmark
+{
+    @State(Scope.Benchmark)
+    public static class Registry
+    {
+        ServiceRegistry m_registry;
+        ServiceReference<Object> m_ref;
+
+        @Setup
+        @SuppressWarnings("unchecked")
+        public void setUp()
+        {
+            m_registry = new ServiceRegistry(null, null);
+            m_ref = (ServiceReference<Object>) m_registry.registerService(
+                Mockito.mock(Bundle.class), new String[] { Runnable.class.getName() },
+                new Runnable()
+                {
+                    public void run()
+                    {
+                    }
+                }, null).getReference();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client
+    {
+        Bundle m_held;
+        Bundle m_cold;
+
+        @Setup
+        public void setUp(Registry registry)
+        {
+            m_held = Mockito.mock(Bundle.class);
+            m_cold = Mockito.mock(Bundle.class);
+            registry.m_registry.getService(m_held, registry.m_ref, false);
+        }
+
+        @TearDown
+        public void tearDown(Registry registry)
+        {
+            registry.m_registry.ungetServices(m_held);
+            registry.m_registry.ungetServices(m_cold);
+        }
+    }
+
+    @Benchmark
+    public Object held(Registry registry, Client client)
+    {
+        Object svc = registry.m_registry.getService(client.m_held, registry.m_ref, false);
+        registry.m_registry.ungetService(client.m_held, registry.m_ref, null);
+        return svc;
+    }
+
+    @Benchmark
+    public Object cold(Registry registry, Client client)
+    {
+        Object svc = registry.m_registry.getService(client.m_cold, registry.m_ref, false);
+        registry.m_registry.ungetService(client.m_cold, registry.m_ref, null);
+        return svc;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+            .include(ServiceRegistryBenchmark.class.getSimpleName()).build()).run();
+    }
+}
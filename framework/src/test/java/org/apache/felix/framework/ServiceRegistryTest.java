@@ -366,6 +366,45 @@ public class ServiceRegistryTest extends TestCase
         assertEquals("Unregistration should have no effect", 0, sr.getHookRegistry().getHooks(ListenerHook.class).size());
     }
 
+    public void testRankedServiceReferences()
+    {
+        Bundle b = Mockito.mock(Bundle.class);
+        ServiceRegistry sr = new ServiceRegistry(new Logger(), null);
+
+        ServiceRegistration reg1 = sr.registerService(b, new String [] {String.class.getName()}, "s1", null);
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(org.osgi.framework.Constants.SERVICE_RANKING, 10);
+        ServiceRegistration reg2 = sr.registerService(b,
+            new String [] {String.class.getName(), CharSequence.class.getName()}, "s2", props);
+        ServiceRegistration reg3 = sr.registerService(b, new String [] {String.class.getName()}, "s3", null);
+
+        assertEquals(Arrays.asList(reg2.getReference(), reg1.getReference(), reg3.getReference()),
+            Arrays.asList(sr.getRankedServiceReferences(String.class.getName())));
+        assertEquals(Arrays.asList(reg2.getReference()),
+            Arrays.asList(sr.getRankedServiceReferences(CharSequence.class.getName())));
+        assertEquals(0, sr.getRankedServiceReferences(Runnable.class.getName()).length);
+        assertEquals(Arrays.asList(reg2.getReference(), reg1.getReference(), reg3.getReference()),
+            new ArrayList<Object>(sr.getServiceReferences(String.class.getName(), null)));
+
+        // Changing the ranking moves the service.
+        props.put(org.osgi.framework.Constants.SERVICE_RANKING, -1);
+        reg2.setProperties(props);
+        assertEquals(Arrays.asList(reg1.getReference(), reg3.getReference(), reg2.getReference()),
+            Arrays.asList(sr.getRankedServiceReferences(String.class.getName())));
+        props.put(org.osgi.framework.Constants.SERVICE_RANKING, 5);
+        reg3.setProperties(props);
+        assertEquals(Arrays.asList(reg3.getReference(), reg1.getReference(), reg2.getReference()),
+            Arrays.asList(sr.getRankedServiceReferences(String.class.getName())));
+
+        sr.unregisterService(b, reg3);
+        assertEquals(Arrays.asList(reg1.getReference(), reg2.getReference()),
+            Arrays.asList(sr.getRankedServiceReferences(String.class.getName())));
+        sr.unregisterService(b, reg2);
+        assertEquals(0, sr.getRankedServiceReferences(CharSequence.class.getName()).length);
+        sr.unregisterService(b, reg1);
+        assertEquals(0, sr.getRankedServiceReferences(String.class.getName()).length);
+    }
+
     @SuppressWarnings("unchecked")
     public void testGetService()
     {
@@ -1275,6 +1314,41 @@ public class ServiceRegistryTest extends TestCase
         assertThat(sr.getServicesInUse(clientBundle), nullValue());
     }
 
+    @SuppressWarnings("unchecked")
+    public void testCachedServiceUsageCounts() throws Exception
+    {
+        ServiceRegistry sr = new ServiceRegistry(null, null);
+        Bundle regBundle = Mockito.mock(Bundle.class);
+
+        ServiceReference<String> ref = registerService(sr, regBundle, "hi");
+
+        final Bundle clientBundle = Mockito.mock(Bundle.class);
+        assertThat(sr.getService(clientBundle, ref, false), is("hi"));
+        assertThat(sr.getService(clientBundle, ref, false), is("hi"));
+        assertThat(sr.getService(clientBundle, ref, false), is("hi"));
+
+        final ConcurrentMap<Bundle, UsageCount[]> inUseMap =
+                (ConcurrentMap<Bundle, UsageCount[]>) getPrivateField(sr, "m_inUseMap");
+        UsageCount[] uca = inUseMap.get(clientBundle);
+        assertEquals(1, uca.length);
+        assertEquals(3, uca[0].m_count.get());
+
+        assertThat(sr.ungetService(clientBundle, ref, null), is(true));
+        assertThat(sr.ungetService(clientBundle, ref, null), is(true));
+        assertEquals(1, uca[0].m_count.get());
+        assertThat(sr.getUsingBundles(ref), is(new Bundle[]{clientBundle}));
+
+        assertThat(sr.ungetService(clientBundle, ref, null), is(true));
+        assertThat(sr.getUsingBundles(ref), nullValue());
+        assertNull(uca[0].m_svcHolderRef.get());
+
+        assertThat(sr.getService(clientBundle, ref, false), is("hi"));
+        assertThat(sr.getService(clientBundle, ref, false), is("hi"));
+        sr.unregisterService(regBundle, ((ServiceReferenceImpl) ref).getRegistration());
+        assertNull(sr.getService(clientBundle, ref, false));
+        assertNull(inUseMap.get(clientBundle));
+    }
+
     public void testPrototypeService() throws Exception
     {
         ServiceRegistry sr = new ServiceRegistry(null, null);
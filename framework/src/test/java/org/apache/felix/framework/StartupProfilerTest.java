@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.util.FelixConstants;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+
+public class StartupProfilerTest extends TestCase
+{
+    private File cacheDir;
+    private Framework felix;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cacheDir = File.createTempFile("felix-cache", ".dir");
+        assertTrue("precondition", cacheDir.delete());
+        assertTrue("precondition", cacheDir.mkdirs());
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        super.tearDown();
+
+        if (felix != null)
+        {
+            felix.stop();
+            felix.waitForStop(10000);
+            felix = null;
+        }
+
+        deleteDir(cacheDir);
+        cacheDir = null;
+    }
+
+    public void testHistogram()
+    {
+        StartupProfiler profiler = new StartupProfiler(2);
+        for (int i = 1; i <= 100; i++)
+        {
+            profiler.record("op", null, System.nanoTime(), i * 1000L);
+        }
+        profiler.count("counter", null, 3);
+        profiler.count("counter", null, 4);
+
+        StartupProfiler.Histogram histogram = profiler.getHistogram("op");
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050 * 1000L, histogram.getTotalNanos());
+        assertEquals(100 * 1000L, histogram.getMaxNanos());
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 + " ns", (p50 >= 50 * 1000L) && (p50 < 2 * 50 * 1000L));
+        assertEquals(100 * 1000L, histogram.getPercentileNanos(100));
+        assertNull(profiler.getHistogram("missing"));
+        assertEquals(7, profiler.getCount("counter"));
+        assertEquals(0, profiler.getCount("missing"));
+    }
+
+    public void testTraceIsValidJson() throws Exception
+    {
+        StartupProfiler profiler = new StartupProfiler(2);
+        profiler.record("op", "bundle \"quoted\"\n", System.nanoTime(), 1500);
+        profiler.record("op", null, System.nanoTime(), 2500);
+        // Exceeds the event limit, so it is only added to the histogram.
+        profiler.record("op", null, System.nanoTime(), 3500);
+        profiler.count("counter", null, 5);
+
+        StringWriter writer = new StringWriter();
+        profiler.writeTrace(writer);
+        String trace = writer.toString();
+
+        assertTrue(trace, trace.startsWith("{\"traceEvents\":["));
+        assertTrue(trace, trace.contains("\"name\":\"bundle \\\"quoted\\\"\\u000a\""));
+        assertTrue(trace, trace.contains("\"dur\":1.500"));
+        assertTrue(trace, trace.contains("\"dur\":2.500"));
+        assertFalse(trace, trace.contains("\"dur\":3.500"));
+        assertTrue(trace, trace.contains("\"thread_name\""));
+        assertTrue(trace, trace.contains("\"otherData\":{\"counter\":5}"));
+        assertEquals(3, profiler.getHistogram("op").getCount());
+    }
+
+    public void testLoggerCountsUsesConstraintViolations()
+    {
+        StartupProfiler profiler = new StartupProfiler(2);
+        Logger logger = new Logger();
+        logger.setInstrumentation(profiler);
+        logger.logUsesConstraintViolation(null, null);
+        logger.logUsesConstraintViolation(null, null);
+        assertEquals(2, profiler.getCount(FrameworkInstrumentation.RESOLVE_USES_VIOLATIONS));
+    }
+
+    public void testFrameworkRecordsStartup() throws Exception
+    {
+        File traceFile = new File(cacheDir, "trace.json");
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, new File(cacheDir, "cache").getPath());
+        params.put(FelixConstants.INSTRUMENTATION_PROP, "true");
+        params.put(FelixConstants.INSTRUMENTATION_TRACE_PROP, traceFile.getPath());
+
+        felix = new Felix(params);
+        felix.init();
+        Bundle bundle = felix.getBundleContext().installBundle(createBundle(
+            "Bundle-SymbolicName: profiled\n"
+            + "Bundle-ManifestVersion: 2\n"
+            + "Import-Package: org.osgi.framework\n", cacheDir).toURI().toString());
+        bundle.start();
+        felix.start();
+
+        assertEquals(Bundle.ACTIVE, bundle.getState());
+        StartupProfiler profiler = (StartupProfiler) ((Felix) felix).getInstrumentation();
+        assertEquals(1, profiler.getHistogram(FrameworkInstrumentation.CACHE_RELOAD).getCount());
+        assertTrue(profiler.getHistogram(FrameworkInstrumentation.RESOLVE).getCount() > 0);
+        assertEquals(0, profiler.getCount(FrameworkInstrumentation.RESOLVE_USES_VIOLATIONS));
+        assertEquals(1, profiler.getHistogram(FrameworkInstrumentation.ACTIVATOR_START).getCount());
+        assertTrue(profiler.getHistogram(FrameworkInstrumentation.CLASS_LOAD).getCount() > 0);
+        assertTrue(profiler.getHistogram(FrameworkInstrumentation.ACTIVATOR_START).getMaxNanos()
+            >= TestBundleActivator.DELAY * 1000000L);
+
+        // The trace is written once the framework has started.
+        String trace = new String(Files.readAllBytes(traceFile.toPath()), "UTF-8");
+        assertTrue(trace, trace.contains("\"cat\":\"" + FrameworkInstrumentation.ACTIVATOR_START + "\""));
+        assertTrue(trace, trace.contains("profiled"));
+    }
+
+    public void testNoInstrumentationByDefault() throws Exception
+    {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(Constants.FRAMEWORK_STORAGE, new File(cacheDir, "cache").getPath());
+
+        felix = new Felix(params);
+        felix.init();
+
+        assertSame(FrameworkInstrumentation.NOOP, ((Felix) felix).getInstrumentation());
+    }
+
+    private static File createBundle(String manifest, File tempDir) throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", tempDir);
+
+        Manifest mf = new Manifest(new ByteArrayInputStream(manifest.getBytes("utf-8")));
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_ACTIVATOR, TestBundleActivator.class.getName());
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+
+        String path = TestBundleActivator.class.getName().replace('.', '/') + ".class";
+        os.putNextEntry(new ZipEntry(path));
+
+        InputStream is = TestBundleActivator.class.getClassLoader().getResourceAsStream(path);
+        byte[] b = new byte[is.available()];
+        is.read(b);
+        is.close();
+        os.write(b);
+
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root) throws IOException
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        assertTrue(root.delete());
+    }
+
+    public static class TestBundleActivator implements BundleActivator
+    {
+        static final int DELAY = 50;
+
+        public void start(BundleContext context) throws Exception
+        {
+            Thread.sleep(DELAY);
+        }
+
+        public void stop(BundleContext context) throws Exception
+        {
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.service.url.AbstractURLStreamHandlerService;
+import org.osgi.service.url.URLConstants;
+import org.osgi.service.url.URLStreamHandlerService;
+
+/**
+ * Measures URL handling through the framework's URL handlers with 8
+ * concurrent threads. The {@code bundleResource} benchmark reads a bundle
+ * resource through the URL returned by {@code Bundle.getEntry()}, the
+ * {@code bundleResourceFromString} benchmark first creates the same URL from
+ * its string form, which makes the JVM use the stream handler of the URL
+ * handlers, and the {@code customProtocol} benchmark opens a connection for
+ * a protocol that is provided by a stream handler service. Run with
+ * {@code java -cp <test classpath> org.apache.felix.framework.URLHandlersBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class URLHandlersBenchmark
+{
+    private File m_tempDir;
+    private Framework m_felix;
+    private URL m_entry;
+    private String m_entrySpec;
+    private URL m_custom;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        m_tempDir = File.createTempFile("felix-temp", ".dir");
+        m_tempDir.delete();
+        m_tempDir.mkdirs();
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_SYSTEMPACKAGES,
+            "org.osgi.framework; version=1.4.0");
+        params.put(Constants.FRAMEWORK_STORAGE, new File(m_tempDir, "cache").getPath());
+        m_felix = new Felix(params);
+        m_felix.init();
+        m_felix.start();
+
+        Bundle bundle = m_felix.getBundleContext().installBundle(
+            createBundle().toURI().toString());
+        m_entry = bundle.getEntry("resource.txt");
+        m_entrySpec = m_entry.toExternalForm();
+
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(URLConstants.URL_HANDLER_PROTOCOL, "felixbench");
+        m_felix.getBundleContext().registerService(URLStreamHandlerService.class,
+            new AbstractURLStreamHandlerService()
+            {
+                @Override
+                public URLConnection openConnection(URL u)
+                {
+                    return new URLConnection(u)
+                    {
+                        @Override
+                        public void connect()
+                        {
+                        }
+                    };
+                }
+            }, props);
+        m_custom = new URL("felixbench:resource");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception
+    {
+        m_felix.stop();
+        m_felix.waitForStop(10000);
+        deleteDir(m_tempDir);
+    }
+
+    @Benchmark
+    public int bundleResource() throws IOException
+    {
+        return read(m_entry);
+    }
+
+    @Benchmark
+    public int bundleResourceFromString() throws IOException
+    {
+        return read(new URL(m_entrySpec));
+    }
+
+    @Benchmark
+    public Object customProtocol() throws IOException
+    {
+        return m_custom.openConnection();
+    }
+
+    private static int read(URL url) throws IOException
+    {
+        InputStream is = url.openStream();
+        try
+        {
+            return is.read();
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private File createBundle() throws IOException
+    {
+        File f = File.createTempFile("felix-bundle", ".jar", m_tempDir);
+        Manifest mf = new Manifest();
+        mf.getMainAttributes().putValue("Manifest-Version", "1.0");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        mf.getMainAttributes().putValue(Constants.BUNDLE_SYMBOLICNAME, "url.bench");
+        JarOutputStream os = new JarOutputStream(new FileOutputStream(f), mf);
+        os.putNextEntry(new ZipEntry("resource.txt"));
+        os.write("resource".getBytes("UTF-8"));
+        os.closeEntry();
+        os.close();
+        return f;
+    }
+
+    private static void deleteDir(File root)
+    {
+        if (root.isDirectory())
+        {
+            for (File file : root.listFiles())
+            {
+                deleteDir(file);
+            }
+        }
+        root.delete();
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+            .include(URLHandlersBenchmark.class.getSimpleName()).build()).run();
+    }
+}
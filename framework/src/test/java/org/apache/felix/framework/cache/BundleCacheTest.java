@@ -20,6 +20,7 @@ package org.apache.felix.framework.cache;
 
 import junit.framework.TestCase;
 import org.apache.felix.framework.Logger;
+import org.apache.felix.framework.util.ClassDataCache;
 import org.osgi.framework.Constants;
 
 import java.io.File;
@@ -177,6 +178,155 @@ public class BundleCacheTest extends TestCase
         testBundle("bla", jarFile);
     }
 
+    public void testMappedJar() throws Exception
+    {
+        useMappedCache();
+        testBundle(jarFile.toURI().toURL().toString(), null);
+    }
+
+    public void testMappedJarReference() throws Exception
+    {
+        useMappedCache();
+        testBundle("reference:" + jarFile.toURI().toURL().toString(), null);
+    }
+
+    public void testOnlyCacheOwnedJarIsMapped() throws Exception
+    {
+        Map<String, String> config = new HashMap<String, String>();
+        config.put(BundleCache.CACHE_MAPPED_PROP, "true");
+        Logger logger = new Logger();
+
+        File copy = new File(new File(cacheDir, "embedded"), jarFile.getName());
+        assertTrue("precondition", copy.getParentFile().mkdirs());
+        BundleCache.copyStreamToFile(new FileInputStream(jarFile), copy);
+        JarContent.openMappedZipFile(logger, config, cacheDir, copy).close();
+
+        assertNull(JarContent.openMappedZipFile(logger, config, cacheDir, jarFile));
+        assertNull(JarContent.openMappedZipFile(logger, null, cacheDir, copy));
+    }
+
+    public void testClassDataCache() throws Exception
+    {
+        useCache("felix-cache-classdata", BundleCache.CACHE_CLASSDATA_PROP);
+
+        byte[] classBytes = new byte[4096];
+        Arrays.fill(classBytes, (byte) 42);
+        File classJar = new File(filesDir, "classes.jar");
+        createClassJar(classJar, classBytes);
+
+        BundleArchive archive = cache.create(2, 1, classJar.toURI().toURL().toString(), null, null);
+        assertTrue(Arrays.equals(classBytes,
+            archive.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+
+        File cached = findCachedClass("bundle2");
+        assertEquals(classBytes.length, cached.length());
+
+        // Subsequent reads are served from the cache.
+        long modified = cached.lastModified();
+        assertTrue(Arrays.equals(classBytes,
+            archive.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+        assertEquals(modified, cached.lastModified());
+
+        // A corrupt cached copy is ignored.
+        createFile(cached.getParentFile(), cached.getName(), new byte[classBytes.length]);
+        assertTrue(Arrays.equals(classBytes,
+            archive.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+
+        // A new revision with an identical class file shares the copy, while
+        // a changed class file gets its own.
+        archive.revise(classJar.toURI().toURL().toString(), null);
+        assertTrue(Arrays.equals(classBytes,
+            archive.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+        assertEquals(cached, findCachedClass("bundle2"));
+        byte[] changedBytes = new byte[4096];
+        Arrays.fill(changedBytes, (byte) 43);
+        createClassJar(classJar, changedBytes);
+        archive.revise(classJar.toURI().toURL().toString(), null);
+        assertTrue(Arrays.equals(changedBytes,
+            archive.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+        archive.purge();
+        assertTrue(cached.isFile());
+
+        // Another archive with an identical class file does not share its copy.
+        BundleArchive other = cache.create(3, 1, classJar.toURI().toURL().toString(), null, null);
+        assertTrue(Arrays.equals(changedBytes,
+            other.getCurrentRevision().getContent().getEntryAsBytes("foo/Bar.class")));
+        assertTrue(findCachedClass("bundle3").isFile());
+    }
+
+    public void testClassDataCachePrune() throws Exception
+    {
+        useCache("felix-cache-classdata", BundleCache.CACHE_CLASSDATA_PROP);
+
+        File classDataDir = new File(cacheDir, "classdata");
+        File bundleDir = new File(cacheDir, "bundle2");
+        assertTrue("precondition", bundleDir.mkdir());
+        File old = new File(classDataDir, "bundle2/aa/old");
+        createFile(classDataDir, "bundle2/aa/old", new byte[1024]);
+        assertTrue(old.setLastModified(System.currentTimeMillis() - 60000));
+        File recent = new File(classDataDir, "bundle2/bb/recent");
+        createFile(classDataDir, "bundle2/bb/recent", new byte[1024]);
+        File tmp = new File(classDataDir, "bundle2/bb/recent.tmp");
+        createFile(classDataDir, "bundle2/bb/recent.tmp", new byte[1]);
+        File orphan = new File(classDataDir, "bundle3/aa/orphan");
+        createFile(classDataDir, "bundle3/aa/orphan", new byte[1]);
+
+        ClassDataCache classData = new ClassDataCache(new Logger(), classDataDir);
+        classData.prune(4096);
+        assertTrue(old.isFile());
+        assertTrue(recent.isFile());
+        assertFalse(tmp.exists());
+        assertFalse(orphan.exists());
+        assertFalse(new File(classDataDir, "bundle3").exists());
+
+        classData.prune(1024);
+        assertFalse(old.exists());
+        assertTrue(recent.isFile());
+    }
+
+    private void createClassJar(File classJar, byte[] classBytes) throws IOException
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "v1");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(classJar), manifest);
+        output.putNextEntry(new ZipEntry("foo/Bar.class"));
+        output.write(classBytes);
+        output.closeEntry();
+        output.close();
+    }
+
+    private File findCachedClass(String bundleDir)
+    {
+        File[] shards = new File(new File(cacheDir, "classdata"), bundleDir).listFiles();
+        assertNotNull(shards);
+        assertEquals(1, shards.length);
+        File[] cached = shards[0].listFiles();
+        assertEquals(1, cached.length);
+        return cached[0];
+    }
+
+    private void useMappedCache() throws Exception
+    {
+        useCache("felix-cache-mapped", BundleCache.CACHE_MAPPED_PROP);
+    }
+
+    private void useCache(String dirName, String prop) throws Exception
+    {
+        cache.delete();
+        cacheDir = new File(tempDir, dirName);
+        assertTrue("precondition", cacheDir.mkdir());
+
+        Map<String, String> params = new HashMap<String, String>();
+        params.put(Constants.FRAMEWORK_STORAGE, cacheDir.getPath());
+        params.put(prop, "true");
+
+        cache = new BundleCache(new Logger(){
+            @Override
+            protected void doLog(int level, String msg, Throwable throwable) {
+            }
+        }, params);
+    }
+
     private BundleArchive testBundle(String location, File file) throws Exception
     {
         BundleArchive archive = cache.create(1, 1, location, file != null ? new FileInputStream(file) : null, null);
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+/**
+ * Measures package requirement matching against a synthetic repository of
+ * 50k package capabilities (1000 packages with 50 versions each), with and
+ * without the version range index. Run with
+ * {@code java -cp <test classpath> org.apache.felix.framework.capabilityset.CapabilitySetBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CapabilitySetBenchmark
+{
+    private static final int PACKAGES = 1000;
+    private static final int VERSIONS = 50;
+
+    private CapabilitySet m_nameIndexed;
+    private CapabilitySet m_rangeIndexed;
+    private SimpleFilter m_rangeFilter;
+    private SimpleFilter m_exactFilter;
+
+    @Setup
+    public void setUp()
+    {
+        List<String> indices = Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE);
+        m_nameIndexed = new CapabilitySet(indices, true);
+        m_rangeIndexed = new CapabilitySet(indices, BundleCapabilityImpl.VERSION_ATTR, true);
+        for (int pkg = 0; pkg < PACKAGES; pkg++)
+        {
+            for (int v = 0; v < VERSIONS; v++)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put(BundleRevision.PACKAGE_NAMESPACE, "org.example.pkg" + pkg);
+                attrs.put(BundleCapabilityImpl.VERSION_ATTR, new Version(v / 10, v % 10, 0));
+                BundleCapabilityImpl cap = new BundleCapabilityImpl(
+                    null, BundleRevision.PACKAGE_NAMESPACE,
+                    Collections.<String, String>emptyMap(), attrs);
+                m_nameIndexed.addCapability(cap);
+                m_rangeIndexed.addCapability(cap);
+            }
+        }
+        m_rangeFilter = SimpleFilter.parse(
+            "(&(osgi.wiring.package=org.example.pkg500)(version>=1.2)(!(version>=2)))");
+        m_exactFilter = SimpleFilter.parse(
+            "(&(osgi.wiring.package=org.example.pkg500)(version=3.3))");
+    }
+
+    @Benchmark
+    public Set<Capability> rangeWithNameIndex()
+    {
+        return m_nameIndexed.match(m_rangeFilter, true);
+    }
+
+    @Benchmark
+    public Set<Capability> rangeWithRangeIndex()
+    {
+        return m_rangeIndexed.match(m_rangeFilter, true);
+    }
+
+    @Benchmark
+    public Set<Capability> exactVersionWithNameIndex()
+    {
+        return m_nameIndexed.match(m_exactFilter, true);
+    }
+
+    @Benchmark
+    public Set<Capability> exactVersionWithRangeIndex()
+    {
+        return m_rangeIndexed.match(m_exactFilter, true);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        new Runner(new OptionsBuilder()
+            .include(CapabilitySetBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
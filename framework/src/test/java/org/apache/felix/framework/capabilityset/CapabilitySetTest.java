@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.capabilityset;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.felix.framework.wiring.BundleCapabilityImpl;
+import org.osgi.framework.Version;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRevision;
+import org.osgi.resource.Capability;
+
+public class CapabilitySetTest extends TestCase
+{
+    private static final String[] FILTERS = {
+        "(osgi.wiring.package=pkg3)",
+        "(&(osgi.wiring.package=pkg3)(version>=1.2))",
+        "(&(osgi.wiring.package=pkg3)(version>=1.2)(!(version>=2)))",
+        "(&(osgi.wiring.package=pkg3)(version<=1.1))",
+        "(&(osgi.wiring.package=pkg3)(!(version<=1.1)))",
+        "(&(osgi.wiring.package=pkg3)(version=1.3))",
+        "(&(osgi.wiring.package=pkg3)(version=[1.1,2.0\\)))",
+        "(&(osgi.wiring.package=pkg3)(version>=2)(version<=1))",
+        "(&(osgi.wiring.package=pkg3)(version>=1)(!(version>=2))(foo=bar))",
+        "(&(version>=1.2)(osgi.wiring.package=pkg3))",
+        "(&(osgi.wiring.package=missing)(version>=1.2))",
+        "(&(version>=1.2)(!(version>=2)))",
+        "(|(osgi.wiring.package=pkg1)(osgi.wiring.package=pkg2))"
+    };
+
+    public void testRangeIndexMatchesLikeScan()
+    {
+        List<String> indices = Collections.singletonList(BundleRevision.PACKAGE_NAMESPACE);
+        CapabilitySet indexed = new CapabilitySet(indices, "version", true);
+        List<BundleCapability> caps = new ArrayList<BundleCapability>();
+        for (int pkg = 0; pkg < 5; pkg++)
+        {
+            for (int minor = 0; minor < 6; minor++)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put(BundleRevision.PACKAGE_NAMESPACE, "pkg" + pkg);
+                attrs.put("version", new Version(1, minor, 0));
+                if (minor % 2 == 0)
+                {
+                    attrs.put("foo", "bar");
+                }
+                caps.add(createCapability(attrs));
+            }
+            // Capabilities whose version cannot be sorted.
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            attrs.put(BundleRevision.PACKAGE_NAMESPACE, "pkg" + pkg);
+            caps.add(createCapability(attrs));
+            attrs = new HashMap<String, Object>();
+            attrs.put(BundleRevision.PACKAGE_NAMESPACE, "pkg" + pkg);
+            attrs.put("version", "1.4.0");
+            caps.add(createCapability(attrs));
+        }
+        for (BundleCapability cap : caps)
+        {
+            indexed.addCapability(cap);
+        }
+
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, scan(caps, sf), indexed.match(sf, false));
+        }
+
+        // Removed capabilities must no longer be found through the range index.
+        for (int i = 0; i < caps.size(); i += 2)
+        {
+            indexed.removeCapability(caps.get(i));
+        }
+        List<BundleCapability> remaining = new ArrayList<BundleCapability>();
+        for (int i = 1; i < caps.size(); i += 2)
+        {
+            remaining.add(caps.get(i));
+        }
+        for (String filter : FILTERS)
+        {
+            SimpleFilter sf = SimpleFilter.parse(filter);
+            assertEquals(filter, scan(remaining, sf), indexed.match(sf, false));
+        }
+    }
+
+    private static Set<Capability> scan(List<BundleCapability> caps, SimpleFilter sf)
+    {
+        Set<Capability> matches = new HashSet<Capability>();
+        for (BundleCapability cap : caps)
+        {
+            if (CapabilitySet.matches(cap, sf))
+            {
+                matches.add(cap);
+            }
+        }
+        return matches;
+    }
+
+    public void testSharedFilterCoercesPerType()
+    {
+        // The same filter is matched against values of different types,
+        // the operand is coerced and cached separately for each of them.
+        SimpleFilter sf = SimpleFilter.parse("(value>=10)");
+        Object[][] values = {
+            { Long.valueOf(10), true }, { Long.valueOf(9), false },
+            { Integer.valueOf(11), true }, { Integer.valueOf(9), false },
+            { "2", true }, { new Version(10, 0, 0), true },
+            { new Version(9, 0, 0), false },
+            { new long[] { 1, 20 }, true }, { new int[] { 1, 2 }, false }
+        };
+        for (int i = 0; i < 2; i++)
+        {
+            for (Object[] value : values)
+            {
+                Map<String, Object> attrs = new HashMap<String, Object>();
+                attrs.put("value", value[0]);
+                assertEquals(String.valueOf(value[0]), value[1],
+                    CapabilitySet.matches(createCapability(attrs), sf));
+            }
+        }
+
+        sf = SimpleFilter.parse("(value=[1.0,2.0\\))");
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("value", new Version(1, 5, 0));
+        assertTrue(CapabilitySet.matches(createCapability(attrs), sf));
+        assertTrue(CapabilitySet.matches(createCapability(attrs), sf));
+        attrs.put("value", Long.valueOf(1));
+        assertFalse(CapabilitySet.matches(createCapability(attrs), sf));
+        assertFalse(CapabilitySet.matches(createCapability(attrs), sf));
+    }
+
+    public void testBundleTypesAreNotCached() throws Exception
+    {
+        SimpleFilter sf = SimpleFilter.parse("(value=foo)");
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put("value", Long.valueOf(1));
+        assertFalse(CapabilitySet.matches(createCapability(attrs), sf));
+        assertNotNull(sf.getCoercedValue(Long.class));
+
+        // A type defined by another class loader, like a bundle, must not
+        // be kept reachable by the shared filter.
+        URLClassLoader loader = new URLClassLoader(new URL[] {
+            Token.class.getProtectionDomain().getCodeSource().getLocation() }, null);
+        Class<?> type = loader.loadClass(Token.class.getName());
+        assertNotSame(Token.class, type);
+        attrs.put("value", type.getConstructor(String.class).newInstance("foo"));
+        assertTrue(CapabilitySet.matches(createCapability(attrs), sf));
+        attrs.put("value", type.getConstructor(String.class).newInstance("bar"));
+        assertFalse(CapabilitySet.matches(createCapability(attrs), sf));
+        assertNull(sf.getCoercedValue(type));
+        loader.close();
+    }
+
+    public static class Token
+    {
+        private final String m_value;
+
+        public Token(String value)
+        {
+            m_value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return (obj instanceof Token) && ((Token) obj).m_value.equals(m_value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_value.hashCode();
+        }
+    }
+
+    private static BundleCapability createCapability(Map<String, Object> attrs)
+    {
+        return new BundleCapabilityImpl(null, BundleRevision.PACKAGE_NAMESPACE,
+            Collections.<String, String>emptyMap(), attrs);
+    }
+}
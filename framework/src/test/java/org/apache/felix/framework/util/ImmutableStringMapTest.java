@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Constants;
+
+public class ImmutableStringMapTest extends TestCase
+{
+    public void testCaseInsensitiveLookup()
+    {
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder();
+        builder.put("objectClass", "a");
+        builder.put("Service.Ranking", Integer.valueOf(5));
+        ImmutableStringMap map = builder.build();
+
+        assertEquals(2, map.size());
+        assertEquals("a", map.get("OBJECTCLASS"));
+        assertEquals("a", map.get("objectclass"));
+        assertEquals(Integer.valueOf(5), map.get("service.ranking"));
+        assertTrue(map.containsKey("SERVICE.RANKING"));
+        assertFalse(map.containsKey("service.rankin"));
+        assertNull(map.get("missing"));
+        assertNull(map.get(Integer.valueOf(1)));
+    }
+
+    public void testNonAsciiKeys()
+    {
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder();
+        // Kelvin sign, which folds to an ASCII 'k'.
+        builder.put("\u212Aey", "kelvin");
+        builder.put("Ärger", "umlaut");
+        ImmutableStringMap map = builder.build();
+
+        assertEquals("kelvin", map.get("key"));
+        assertEquals("kelvin", map.get("KEY"));
+        assertEquals("umlaut", map.get("äRGER"));
+        assertEquals(StringComparator.COMPARATOR.compare("\u212Aey", "KEY"), 0);
+    }
+
+    public void testBuilderReplacesKeysDifferingInCase()
+    {
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder(1);
+        assertNull(builder.put("key", "v1"));
+        assertEquals("v1", builder.put("KEY", "v2"));
+        assertEquals("v2", builder.get("Key"));
+        assertNull(builder.get("other"));
+        ImmutableStringMap map = builder.build();
+
+        assertEquals(1, map.size());
+        assertEquals("key", map.keySet().iterator().next());
+        assertEquals("v2", map.get("kEy"));
+
+        // The built map is not affected by further changes to the builder.
+        builder.put("other", "v3");
+        assertEquals(1, map.size());
+        assertEquals(2, builder.build().size());
+    }
+
+    public void testInsertionOrderAndEquality()
+    {
+        Map<String, Object> source = new HashMap<String, Object>();
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder();
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 100; i++)
+        {
+            String key = "prop" + (99 - i);
+            keys.add(key);
+            builder.put(key, Integer.valueOf(i));
+            source.put(key, Integer.valueOf(i));
+        }
+        ImmutableStringMap map = builder.build();
+
+        assertEquals(keys, new ArrayList<String>(map.keySet()));
+        assertEquals(source, map);
+        assertEquals(map, source);
+        assertEquals(source.hashCode(), map.hashCode());
+        assertEquals(map, ImmutableStringMap.copyOf(source));
+        for (String key : keys)
+        {
+            assertEquals(source.get(key), map.get(key.toUpperCase()));
+        }
+    }
+
+    public void testCopyOf()
+    {
+        StringMap headers = new StringMap();
+        headers.put(Constants.BUNDLE_SYMBOLICNAME, "test");
+        headers.put(Constants.BUNDLE_VERSION, "1.0.0");
+        ImmutableStringMap map = ImmutableStringMap.copyOf(headers);
+
+        assertEquals(headers, map);
+        assertEquals("test", map.get("bundle-symbolicname"));
+        assertSame(map, ImmutableStringMap.copyOf(map));
+        assertNull(ImmutableStringMap.copyOf(null));
+        assertTrue(ImmutableStringMap.copyOf(new HashMap<String, Object>()).isEmpty());
+    }
+
+    public void testCommonKeysAreInterned()
+    {
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder();
+        builder.put(new String(Constants.SERVICE_ID), Long.valueOf(1));
+        ImmutableStringMap map = builder.build();
+
+        assertSame(Constants.SERVICE_ID, map.keySet().iterator().next());
+    }
+
+    public void testImmutable()
+    {
+        ImmutableStringMap.Builder builder = new ImmutableStringMap.Builder();
+        builder.put("key", "value");
+        ImmutableStringMap map = builder.build();
+
+        for (Runnable mutator : Arrays.<Runnable>asList(
+            new Runnable()
+            {
+                public void run()
+                {
+                    map.put("other", "value");
+                }
+            },
+            new Runnable()
+            {
+                public void run()
+                {
+                    map.remove("key");
+                }
+            },
+            new Runnable()
+            {
+                public void run()
+                {
+                    map.clear();
+                }
+            },
+            new Runnable()
+            {
+                public void run()
+                {
+                    map.entrySet().iterator().next().setValue("other");
+                }
+            }))
+        {
+            try
+            {
+                mutator.run();
+                fail("Expected the map to be immutable");
+            }
+            catch (UnsupportedOperationException ex)
+            {
+                // Expected
+            }
+        }
+        assertEquals("value", map.get("key"));
+    }
+}
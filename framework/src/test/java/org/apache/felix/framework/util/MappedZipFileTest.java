@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+
+public class MappedZipFileTest extends TestCase
+{
+    private File tmpZip;
+    private byte[] contentBytes;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+
+        // Create a reasonably big compressible content.
+        contentBytes = new byte[16384];
+        for (int i = 0; i < contentBytes.length; i++)
+        {
+            contentBytes[i] = (byte) ((i % 65) + 65);
+        }
+
+        tmpZip = File.createTempFile("felix.test", ".zip");
+        tmpZip.deleteOnExit();
+        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(tmpZip));
+        zos.putNextEntry(new ZipEntry("dir/"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("dir/deflated.txt"));
+        zos.write(contentBytes);
+        zos.closeEntry();
+        ZipEntry stored = new ZipEntry("dir/stored.txt");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setSize(contentBytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(contentBytes);
+        stored.setCrc(crc.getValue());
+        zos.putNextEntry(stored);
+        zos.write(contentBytes);
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("empty.txt"));
+        zos.closeEntry();
+        zos.putNextEntry(new ZipEntry("äö/file.txt"));
+        zos.write(contentBytes, 0, 10);
+        zos.closeEntry();
+        zos.close();
+    }
+
+    public void testEntries() throws Exception
+    {
+        MappedZipFile mapped = new MappedZipFile(tmpZip);
+        ZipFile zipFile = new ZipFile(tmpZip);
+        try
+        {
+            assertEquals(zipFile.size(), mapped.size());
+
+            List<String> expected = new ArrayList<String>();
+            for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements();)
+            {
+                expected.add(e.nextElement().getName());
+            }
+            assertEquals(expected, Collections.list(mapped.names()));
+
+            for (String name : expected)
+            {
+                ZipEntry ze = mapped.getEntry(name);
+                ZipEntry zipEntry = zipFile.getEntry(name);
+                assertNotNull(name, ze);
+                assertEquals(name, zipEntry.getName(), ze.getName());
+                assertEquals(name, zipEntry.getSize(), ze.getSize());
+                assertEquals(name, zipEntry.getMethod(), ze.getMethod());
+                assertEquals(name, zipEntry.getCrc(), ze.getCrc());
+                assertEquals(name, zipEntry.isDirectory(), ze.isDirectory());
+                assertTrue(name, Math.abs(zipEntry.getTime() - ze.getTime()) < 2000);
+
+                byte[] bytes = read(zipFile.getInputStream(zipEntry));
+                assertTrue(name, Arrays.equals(bytes, mapped.getBytes(ze)));
+                assertTrue(name, Arrays.equals(bytes, read(mapped.getInputStream(ze))));
+                ByteBuffer buffer = mapped.getBuffer(ze);
+                byte[] bufferBytes = new byte[buffer.remaining()];
+                buffer.get(bufferBytes);
+                assertTrue(name, Arrays.equals(bytes, bufferBytes));
+            }
+
+            // Directories are also found without a trailing slash.
+            assertEquals("dir/", mapped.getEntry("dir").getName());
+            assertNull(mapped.getEntry("missing"));
+            assertNull(mapped.getEntry("dir/missing"));
+        }
+        finally
+        {
+            zipFile.close();
+            mapped.close();
+        }
+    }
+
+    public void testStoredEntryIsNotCopied() throws Exception
+    {
+        MappedZipFile mapped = new MappedZipFile(tmpZip);
+        ByteBuffer stored = mapped.getBuffer(mapped.getEntry("dir/stored.txt"));
+        assertTrue(stored.isReadOnly());
+        assertTrue(stored.isDirect());
+        assertEquals(contentBytes.length, stored.remaining());
+
+        ByteBuffer deflated = mapped.getBuffer(mapped.getEntry("dir/deflated.txt"));
+        assertTrue(deflated.hasArray());
+        assertEquals(contentBytes.length, deflated.array().length);
+
+        mapped.close();
+
+        // Buffers handed out before closing remain readable.
+        assertEquals(contentBytes[0], stored.get(0));
+        try
+        {
+            mapped.getEntry("dir/stored.txt");
+            fail("Closed zip file must not be used.");
+        }
+        catch (IllegalStateException ex)
+        {
+            // Expected
+        }
+    }
+
+    public void testNotAZipFile() throws Exception
+    {
+        File file = File.createTempFile("felix.test", ".txt");
+        file.deleteOnExit();
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(contentBytes);
+        os.close();
+        try
+        {
+            new MappedZipFile(file);
+            fail("Expected an exception for a file that is not a zip file.");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+
+    private static byte[] read(InputStream is) throws IOException
+    {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        for (int len = is.read(buffer); len != -1; len = is.read(buffer))
+        {
+            baos.write(buffer, 0, len);
+        }
+        is.close();
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.framework.util;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Constants;
+
+/**
+ * Compares {@link StringMap} with {@link ImmutableStringMap} for typical
+ * service property maps with eight entries. The benchmarks measure case
+ * insensitive lookups of a framework property, a custom property and a
+ * missing property. Before running the benchmarks, {@code main} prints the
+ * heap retained by {@value #FOOTPRINT_MAPS} maps of each kind. Run with
+ * {@code java -cp <test classpath> org.apache.felix.framework.util.PropertyMapBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PropertyMapBenchmark
+{
+    static final int FOOTPRINT_MAPS = 200000;
+
+    private Map<String, Object> m_stringMap;
+    private Map<String, Object> m_immutableMap;
+
+    @Setup
+    public void setUp()
+    {
+        m_stringMap = createStringMap();
+        m_immutableMap = createImmutableMap();
+    }
+
+    @Benchmark
+    public Object stringMapGet()
+    {
+        return lookup(m_stringMap);
+    }
+
+    @Benchmark
+    public Object immutableMapGet()
+    {
+        return lookup(m_immutableMap);
+    }
+
+    private static Object lookup(Map<String, Object> map)
+    {
+        Object o1 = map.get("service.ranking");
+        Object o2 = map.get("Component.Name");
+        Object o3 = map.get("missing.property");
+        return (o1 != null) ? ((o2 != null) ? o2 : o3) : o3;
+    }
+
+    static Map<String, Object> createStringMap()
+    {
+        Map<String, Object> map = new StringMap();
+        fill(map);
+        return map;
+    }
+
+    static Map<String, Object> createImmutableMap()
+    {
+        Map<String, Object> map = new StringMap();
+        fill(map);
+        return ImmutableStringMap.copyOf(map);
+    }
+
+    // Values are shared between maps, so only the map structures differ.
+    private static final Object[] VALUES = {
+        new String[] { Runnable.class.getName() }, Long.valueOf(1),
+        Long.valueOf(2), "singleton", Integer.valueOf(10), "component",
+        "pid", Boolean.TRUE
+    };
+
+    private static void fill(Map<String, Object> map)
+    {
+        map.put(Constants.OBJECTCLASS, VALUES[0]);
+        map.put(Constants.SERVICE_ID, VALUES[1]);
+        map.put(Constants.SERVICE_BUNDLEID, VALUES[2]);
+        map.put(Constants.SERVICE_SCOPE, VALUES[3]);
+        map.put(Constants.SERVICE_RANKING, VALUES[4]);
+        map.put("component.name", VALUES[5]);
+        map.put(Constants.SERVICE_PID, VALUES[6]);
+        map.put("exported", VALUES[7]);
+    }
+
+    private static long retainedBytes(boolean immutable)
+    {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Object[] maps = new Object[FOOTPRINT_MAPS];
+        System.gc();
+        long before = memory.getHeapMemoryUsage().getUsed();
+        for (int i = 0; i < maps.length; i++)
+        {
+            maps[i] = immutable ? createImmutableMap() : createStringMap();
+        }
+        System.gc();
+        long after = memory.getHeapMemoryUsage().getUsed();
+        if (maps[maps.length - 1] == null)
+        {
+            throw new IllegalStateException();
+        }
+        return after - before;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        // Measure twice and keep the second result, to reduce noise from
+        // class loading and JIT compilation.
+        for (int run = 0; run < 2; run++)
+        {
+            long stringMap = retainedBytes(false);
+            long immutableMap = retainedBytes(true);
+            if (run == 1)
+            {
+                System.out.println("StringMap:          "
+                    + (stringMap / FOOTPRINT_MAPS) + " bytes per map");
+                System.out.println("ImmutableStringMap: "
+                    + (immutableMap / FOOTPRINT_MAPS) + " bytes per map");
+            }
+        }
+        new Runner(new OptionsBuilder()
+            .include(PropertyMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
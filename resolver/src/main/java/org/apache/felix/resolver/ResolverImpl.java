@@ -45,6 +45,11 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // Package spaces of already resolved resources, keyed by resource and
+    // only valid as long as the resolve context reports the same wiring.
+    private final Map<Resource, ResolvedPackages> m_resolvedPackages =
+        new HashMap<Resource, ResolvedPackages>();
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -1129,6 +1134,11 @@ public class ResolverImpl implements Resolver
     {
         final EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
 
+        // The package space of a resolved resource only depends on its
+        // wiring and the wirings of its providers, so it can be reused
+        // from previous calculations instead of being computed again.
+        final Map<Resource, ResolvedPackages> resolvedPackages = getResolvedPackages(session);
+
         // Parallel compute wire candidates
         final Map<Resource, List<WireCandidate>> allWireCandidates = new ConcurrentHashMap<Resource, List<WireCandidate>>();
         {
@@ -1142,7 +1152,10 @@ public class ResolverImpl implements Resolver
                 }
                 public void run()
                 {
-                    List<WireCandidate> wireCandidates = getWireCandidates(session, allCandidates, resource);
+                    ResolvedPackages resolved = resolvedPackages.get(resource);
+                    List<WireCandidate> wireCandidates = (resolved != null)
+                        ? resolved.m_wireCandidates
+                        : getWireCandidates(session, allCandidates, resource);
                     allWireCandidates.put(resource, wireCandidates);
                     for (WireCandidate w : wireCandidates)
                     {
@@ -1169,6 +1182,12 @@ public class ResolverImpl implements Resolver
         final OpenHashMap<Resource, Packages> allPackages = new OpenHashMap<Resource, Packages>(allCandidates.getNbResources());
         for (final Resource resource : allWireCandidates.keySet())
         {
+            ResolvedPackages resolved = resolvedPackages.get(resource);
+            if (resolved != null)
+            {
+                allPackages.put(resource, resolved.m_packages);
+                continue;
+            }
             final Packages packages = new Packages(resource);
             allPackages.put(resource, packages);
             executor.execute(new Runnable()
@@ -1185,6 +1204,10 @@ public class ResolverImpl implements Resolver
         // Parallel compute package lists
         for (final Resource resource : allWireCandidates.keySet())
         {
+            if (resolvedPackages.containsKey(resource))
+            {
+                continue;
+            }
             executor.execute(new Runnable()
             {
                 public void run()
@@ -1203,7 +1226,8 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (!packages.m_requiredPkgs.isEmpty())
+            if (!packages.m_requiredPkgs.isEmpty()
+                && !resolvedPackages.containsKey(resource))
             {
                 getPackageSourcesInternal(session, allPackages, resource, packages);
             }
@@ -1214,7 +1238,8 @@ public class ResolverImpl implements Resolver
         {
             final Resource resource = entry.getKey();
             final Packages packages = entry.getValue();
-            if (packages.m_sources.isEmpty())
+            if (packages.m_sources.isEmpty()
+                && !resolvedPackages.containsKey(resource))
             {
                 executor.execute(new Runnable()
                 {
@@ -1227,6 +1252,10 @@ public class ResolverImpl implements Resolver
         }
         executor.await();
 
+        // Remember the package spaces of resolved resources for later
+        // calculations; uses constraints are never added to them below.
+        addResolvedPackages(session, allWireCandidates, allPackages, resolvedPackages);
+
         // Parallel compute uses
         for (final Resource resource : allWireCandidates.keySet())
         {
@@ -1243,6 +1272,59 @@ public class ResolverImpl implements Resolver
         return allPackages;
     }
 
+    private Map<Resource, ResolvedPackages> getResolvedPackages(ResolveSession session)
+    {
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        Resource dynamicHost = session.getDynamicHost();
+        synchronized (m_resolvedPackages)
+        {
+            Map<Resource, ResolvedPackages> result =
+                new HashMap<Resource, ResolvedPackages>(m_resolvedPackages.size());
+            for (Iterator<ResolvedPackages> it = m_resolvedPackages.values().iterator(); it.hasNext();)
+            {
+                ResolvedPackages resolved = it.next();
+                // Discard package spaces of resources that have been
+                // unresolved or refreshed since they were calculated.
+                if (wirings.get(resolved.m_resource) != resolved.m_wiring)
+                {
+                    it.remove();
+                }
+                // The package space of a dynamically importing resource
+                // is extended with the dynamic import, so do not share it.
+                else if (!resolved.m_resource.equals(dynamicHost))
+                {
+                    result.put(resolved.m_resource, resolved);
+                }
+            }
+            return result;
+        }
+    }
+
+    private void addResolvedPackages(
+        ResolveSession session,
+        Map<Resource, List<WireCandidate>> allWireCandidates,
+        Map<Resource, Packages> allPackages,
+        Map<Resource, ResolvedPackages> resolvedPackages)
+    {
+        Map<Resource, Wiring> wirings = session.getContext().getWirings();
+        Resource dynamicHost = session.getDynamicHost();
+        synchronized (m_resolvedPackages)
+        {
+            for (Map.Entry<Resource, List<WireCandidate>> entry : allWireCandidates.entrySet())
+            {
+                Resource resource = entry.getKey();
+                Wiring wiring = wirings.get(resource);
+                if ((wiring != null)
+                    && !resource.equals(dynamicHost)
+                    && !resolvedPackages.containsKey(resource))
+                {
+                    m_resolvedPackages.put(resource, new ResolvedPackages(
+                        resource, wiring, entry.getValue(), allPackages.get(resource)));
+                }
+            }
+        }
+    }
+
     private static List<String> parseUses(String s) {
         int nb = 1;
         int l = s.length();
@@ -2113,6 +2195,24 @@ public class ResolverImpl implements Resolver
         }
     }
 
+    private static final class ResolvedPackages
+    {
+        public final Resource m_resource;
+        public final Wiring m_wiring;
+        public final List<WireCandidate> m_wireCandidates;
+        public final Packages m_packages;
+
+        public ResolvedPackages(
+            Resource resource, Wiring wiring,
+            List<WireCandidate> wireCandidates, Packages packages)
+        {
+            m_resource = resource;
+            m_wiring = wiring;
+            m_wireCandidates = wireCandidates;
+            m_packages = packages;
+        }
+    }
+
     public static class Packages
     {
         public final OpenHashMap<String, Blame> m_exportedPkgs;
@@ -2471,7 +2571,7 @@ public class ResolverImpl implements Resolver
     private static class EnhancedExecutor
     {
         private final Executor executor;
-        private final Queue<Future<Void>> awaiting = new ConcurrentLinkedQueue<Future<Void>>();
+        private final Queue<FutureTask<Void>> awaiting = new ConcurrentLinkedQueue<FutureTask<Void>>();
         private final AtomicReference<Throwable> throwable = new AtomicReference<Throwable>();
 
         public EnhancedExecutor(Executor executor)
@@ -2512,11 +2612,15 @@ public class ResolverImpl implements Resolver
 
         public void await()
         {
-            Future<Void> awaitTask;
+            FutureTask<Void> awaitTask;
             while (throwable.get() == null && (awaitTask = awaiting.poll()) != null)
             {
                 if (!awaitTask.isDone() && !awaitTask.isCancelled())
                 {
+                    // Help with the remaining work instead of blocking: run the
+                    // task on this thread unless a worker already picked it up,
+                    // in which case the worker will skip it later on.
+                    awaitTask.run();
                     try
                     {
                         awaitTask.get();
@@ -0,0 +1,248 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.resolver.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.felix.resolver.Logger;
+import org.apache.felix.resolver.ResolverImpl;
+import org.apache.felix.resolver.test.util.GenericCapability;
+import org.apache.felix.resolver.test.util.GenericRequirement;
+import org.apache.felix.resolver.test.util.ResolveContextImpl;
+import org.apache.felix.resolver.test.util.ResourceImpl;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.osgi.framework.namespace.PackageNamespace;
+import org.osgi.resource.Capability;
+import org.osgi.resource.Namespace;
+import org.osgi.resource.Requirement;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+import org.osgi.resource.Wiring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Resolves a single new resource against a set of already resolved
+ * resources, which lets the resolver reuse the package spaces it
+ * calculated for the resolved resources in previous resolve operations.
+ */
+public class IncrementalResolutionTest {
+
+    @Test
+    public void testIncrementalResolution() throws Exception {
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1);
+
+        // A chain of resources each importing the package of its
+        // predecessor and exporting a package that uses it.
+        Map<String, List<Capability>> exporters = new HashMap<String, List<Capability>>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < 20; i++) {
+            ResourceImpl res = new ResourceImpl("chain" + i);
+            if (i > 0) {
+                addImport(res, "pkg" + (i - 1), exporters, candMap);
+            }
+            addExport(res, "pkg" + i, (i > 0) ? "pkg" + (i - 1) : null, exporters);
+            resources.add(res);
+        }
+        // An alternative provider of the first package.
+        ResourceImpl alt = new ResourceImpl("alt");
+        addExport(alt, "pkg0", null, exporters);
+        resources.add(alt);
+
+        Map<Resource, Wiring> wirings = resolveAll(resolver, resources, candMap);
+
+        // The new resource prefers the alternative provider of the first
+        // package, which violates the uses constraint of the last package.
+        ResourceImpl res = new ResourceImpl("new");
+        addImport(res, "pkg19", exporters, candMap);
+        Requirement pkg0Req = addImport(res, "pkg0", exporters, candMap);
+        Collections.reverse(candMap.get(pkg0Req));
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource>singletonList(res), Collections.<Resource>emptyList());
+
+        Map<Resource, List<Wire>> expected =
+            new ResolverImpl(new Logger(Logger.LOG_DEBUG), 1).resolve(rci);
+        for (int i = 0; i < 3; i++) {
+            Map<Resource, List<Wire>> wireMap = resolver.resolve(rci);
+            assertEquals(expected, wireMap);
+            for (Wire wire : wireMap.get(res)) {
+                if (wire.getRequirement() == pkg0Req) {
+                    assertSame(resources.get(0), wire.getProvider());
+                }
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testIncrementalResolutionSpeed() throws Exception {
+        Random random = new Random(1);
+        Map<String, List<Capability>> exporters = new HashMap<String, List<Capability>>();
+        Map<Requirement, List<Capability>> candMap = new HashMap<Requirement, List<Capability>>();
+        List<Resource> resources = new ArrayList<Resource>();
+        for (int i = 0; i < 1000; i++) {
+            ResourceImpl res = new ResourceImpl("bundle" + i);
+            StringBuilder uses = new StringBuilder();
+            for (int j = 0; i > 0 && j < 5; j++) {
+                String pkg = "pkg" + random.nextInt(i);
+                addImport(res, pkg, exporters, candMap);
+                uses.append(j > 0 ? "," : "").append(pkg);
+            }
+            addExport(res, "pkg" + i, (uses.length() > 0) ? uses.toString() : null, exporters);
+            resources.add(res);
+        }
+
+        ResolverImpl resolver = new ResolverImpl(new Logger(Logger.LOG_INFO));
+        Map<Resource, Wiring> wirings = resolveAll(resolver, resources, candMap);
+
+        ResourceImpl res = new ResourceImpl("new");
+        for (int j = 0; j < 10; j++) {
+            addImport(res, "pkg" + (999 - j * 10), exporters, candMap);
+        }
+        ResolveContextImpl rci = new ResolveContextImpl(wirings, candMap,
+            Collections.<Resource>singletonList(res), Collections.<Resource>emptyList());
+
+        System.out.println("Warming up...");
+        for (int i = 0; i < 20; i++) {
+            resolver.resolve(rci);
+            new ResolverImpl(new Logger(Logger.LOG_INFO)).resolve(rci);
+        }
+
+        System.out.println("Running...");
+        long cold = 0;
+        long warm = 0;
+        for (int i = 0; i < 100; i++) {
+            long t0 = System.nanoTime();
+            new ResolverImpl(new Logger(Logger.LOG_INFO)).resolve(rci);
+            long t1 = System.nanoTime();
+            resolver.resolve(rci);
+            long t2 = System.nanoTime();
+            cold += t1 - t0;
+            warm += t2 - t1;
+        }
+        System.out.println("    Cold:   " + String.format("%7.2f", cold * 1E-8) + " ms");
+        System.out.println("    Warm:   " + String.format("%7.2f", warm * 1E-8) + " ms");
+    }
+
+    private static Map<Resource, Wiring> resolveAll(
+            ResolverImpl resolver, List<Resource> resources,
+            Map<Requirement, List<Capability>> candMap) throws Exception {
+        Map<Resource, List<Wire>> wireMap = resolver.resolve(new ResolveContextImpl(
+            Collections.<Resource, Wiring>emptyMap(), candMap,
+            resources, Collections.<Resource>emptyList()));
+        assertEquals(resources.size(), wireMap.size());
+
+        Map<Resource, List<Wire>> providedWires = new HashMap<Resource, List<Wire>>();
+        for (Resource resource : resources) {
+            providedWires.put(resource, new ArrayList<Wire>());
+        }
+        for (List<Wire> wires : wireMap.values()) {
+            for (Wire wire : wires) {
+                providedWires.get(wire.getProvider()).add(wire);
+            }
+        }
+        Map<Resource, Wiring> wirings = new HashMap<Resource, Wiring>();
+        for (Resource resource : resources) {
+            wirings.put(resource, new SimpleWiring(
+                resource, wireMap.get(resource), providedWires.get(resource)));
+        }
+        return wirings;
+    }
+
+    private static void addExport(
+            ResourceImpl res, String pkg, String uses,
+            Map<String, List<Capability>> exporters) {
+        GenericCapability cap = new GenericCapability(res, PackageNamespace.PACKAGE_NAMESPACE);
+        cap.addAttribute(PackageNamespace.PACKAGE_NAMESPACE, pkg);
+        if (uses != null) {
+            cap.addDirective(Namespace.CAPABILITY_USES_DIRECTIVE, uses);
+        }
+        res.addCapability(cap);
+        List<Capability> caps = exporters.get(pkg);
+        if (caps == null) {
+            caps = new ArrayList<Capability>();
+            exporters.put(pkg, caps);
+        }
+        caps.add(cap);
+    }
+
+    private static Requirement addImport(
+            ResourceImpl res, String pkg, Map<String, List<Capability>> exporters,
+            Map<Requirement, List<Capability>> candMap) {
+        GenericRequirement req = new GenericRequirement(res, PackageNamespace.PACKAGE_NAMESPACE);
+        req.addDirective(Namespace.REQUIREMENT_FILTER_DIRECTIVE,
+            "(" + PackageNamespace.PACKAGE_NAMESPACE + "=" + pkg + ")");
+        res.addRequirement(req);
+        candMap.put(req, new ArrayList<Capability>(exporters.get(pkg)));
+        return req;
+    }
+
+    private static class SimpleWiring implements Wiring {
+        private final Resource resource;
+        private final List<Wire> requiredWires;
+        private final List<Wire> providedWires;
+
+        SimpleWiring(Resource resource, List<Wire> requiredWires, List<Wire> providedWires) {
+            this.resource = resource;
+            this.requiredWires = requiredWires;
+            this.providedWires = providedWires;
+        }
+
+        public List<Capability> getResourceCapabilities(String namespace) {
+            return resource.getCapabilities(namespace);
+        }
+
+        public List<Requirement> getResourceRequirements(String namespace) {
+            return resource.getRequirements(namespace);
+        }
+
+        public List<Wire> getProvidedResourceWires(String namespace) {
+            return filter(providedWires, namespace);
+        }
+
+        public List<Wire> getRequiredResourceWires(String namespace) {
+            return filter(requiredWires, namespace);
+        }
+
+        public Resource getResource() {
+            return resource;
+        }
+
+        private static List<Wire> filter(List<Wire> wires, String namespace) {
+            if (namespace == null) {
+                return wires;
+            }
+            List<Wire> result = new ArrayList<Wire>();
+            for (Wire wire : wires) {
+                if (namespace.equals(wire.getCapability().getNamespace())) {
+                    result.add(wire);
+                }
+            }
+            return result;
+        }
+    }
+}
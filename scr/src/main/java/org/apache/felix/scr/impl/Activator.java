@@ -18,24 +18,13 @@
  */
 package org.apache.felix.scr.impl;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -47,8 +36,7 @@ import org.apache.felix.scr.impl.logger.ScrLoggerFactory;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
-import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
-import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+import org.apache.felix.scr.impl.metadata.ComponentMetadataStore;
 import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
 import org.apache.felix.scr.impl.runtime.ServiceComponentRuntimeImpl;
 import org.osgi.framework.Bundle;
@@ -102,7 +90,7 @@ public class Activator extends AbstractExtender
 
     private ComponentCommands m_componentCommands;
 
-    private ConcurrentMap<Long, List<ComponentMetadata>> m_componentMetadataStore;
+    private ComponentMetadataStore m_componentMetadataStore;
 
     public Activator()
     {
@@ -222,10 +210,9 @@ public class Activator extends AbstractExtender
             null, m_bundle.getVersion().toString() );
 
         // create and start the component actor
-        m_componentActor = new ComponentActorThread( this.logger );
-        Thread t = new Thread( m_componentActor, "SCR Component Actor" );
-        t.setDaemon( true );
-        t.start();
+        m_componentActor = new ComponentActorThread( this.logger, m_configuration.actorThreads(),
+            m_configuration.actorVirtualThreads() );
+        m_componentActor.start();
 
         super.doStart();
 
@@ -260,122 +247,51 @@ public class Activator extends AbstractExtender
         }
     }
 
-    private static ConcurrentMap<Long, List<ComponentMetadata>> load(
-        BundleContext context,
+    private static ComponentMetadataStore load(BundleContext context,
         ScrLogger logger, boolean loadFromCache)
     {
+        if (!loadFromCache)
+        {
+            return new ComponentMetadataStore();
+        }
         try
         {
-            ConcurrentMap<Long, List<ComponentMetadata>> result = new ConcurrentHashMap<>();
-            if (!loadFromCache)
-            {
-                return result;
-            }
-            BundleContext systemContext = context.getBundle(
-                Constants.SYSTEM_BUNDLE_LOCATION).getBundleContext();
-
-            File store = context.getDataFile("componentMetadataStore");
-            if (store.isFile())
-            {
-                try (DataInputStream in = new DataInputStream(
-                    new BufferedInputStream(new FileInputStream(store))))
-                {
-                    MetaDataReader metaDataReader = new MetaDataReader();
-                    if (!metaDataReader.isVersionSupported(in))
-                    {
-                        // the stored version is not compatible
-                        return result;
-                    }
-                    int numStrings = in.readInt();
-                    for (int i = 0; i < numStrings; i++)
-                    {
-                        metaDataReader.readIndexedString(in);
-                    }
-                    int numBundles = in.readInt();
-                    for (int i = 0; i < numBundles; i++)
-                    {
-                        // Read all the components for the ID even if the bundle does not exist;
-                        long bundleId = in.readLong();
-                        int numComponents = in.readInt();
-                        long lastModified = in.readLong();
-                        List<ComponentMetadata> components = new ArrayList<>(
-                            numComponents);
-                        for (int j = 0; j < numComponents; j++)
-                        {
-                            components.add(ComponentMetadata.load(in, metaDataReader));
-                        }
-                        // Check with system context by ID to avoid hooks hiding;
-                        Bundle b = systemContext.getBundle(bundleId);
-                        if (b != null)
-                        {
-                            if (lastModified == b.getLastModified())
-                            {
-                                result.put(bundleId, components);
-                            }
-                        }
-                    }
-                }
-                catch (IOException e)
-                {
-                    logger.log(Level.WARN,
-                        "Error loading component metadata cache.", e);
-                }
-            }
-            return result;
+            // only the index is read here, the metadata of a bundle is read
+            // when its components are loaded
+            return ComponentMetadataStore.load(
+                context.getDataFile("componentMetadataStore"));
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARN,
+                "Error loading component metadata cache.", e);
         }
         catch (RuntimeException re)
         {
             // avoid failing all of SCR start on cache load bug
             logger.log(Level.ERROR,
                 "Error loading component metadata cache.", re);
-            return new ConcurrentHashMap<>();
         }
-
+        return new ComponentMetadataStore();
     }
 
-    private static void store(Map<Long, List<ComponentMetadata>> componentsMap,
+    private static void store(ComponentMetadataStore componentMetadataStore,
         BundleContext context, ScrLogger logger, boolean storeCache)
     {
         if (!storeCache)
         {
             return;
         }
+        File store = context.getDataFile("componentMetadataStore");
+        if (store == null)
+        {
+            return;
+        }
         BundleContext systemContext = context.getBundle(
             Constants.SYSTEM_BUNDLE_LOCATION).getBundleContext();
-        File store = context.getDataFile("componentMetadataStore");
-        try (DataOutputStream out = new DataOutputStream(
-            new BufferedOutputStream(new FileOutputStream(store))))
+        try
         {
-            MetaDataWriter metaDataWriter = new MetaDataWriter();
-            metaDataWriter.writeVersion(out);
-
-            Set<String> allStrings = new HashSet<>();
-            for (List<ComponentMetadata> components : componentsMap.values())
-            {
-                for (ComponentMetadata component : components)
-                {
-                    component.collectStrings(allStrings);
-                }
-            }
-            // remove possible null
-            allStrings.remove(null);
-            out.writeInt(allStrings.size());
-            for (String s : allStrings)
-            {
-                metaDataWriter.writeIndexedString(s, out);
-            }
-            out.writeInt(componentsMap.size());
-            for (Entry<Long, List<ComponentMetadata>> entry : componentsMap.entrySet())
-            {
-                out.writeLong(entry.getKey());
-                out.writeInt(entry.getValue().size());
-                Bundle b = systemContext.getBundle(entry.getKey());
-                out.writeLong(b == null ? -1 : b.getLastModified());
-                for (ComponentMetadata component : entry.getValue())
-                {
-                    component.store(out, metaDataWriter);
-                }
-            }
+            componentMetadataStore.store(store, systemContext);
         }
         catch (IOException e)
         {
@@ -511,7 +427,16 @@ public class Activator extends AbstractExtender
     private void loadComponents(Bundle bundle)
     {
         final Long bundleId = bundle.getBundleId();
-        List<ComponentMetadata> cached = m_componentMetadataStore.get(bundleId);
+        List<ComponentMetadata> cached = null;
+        try
+        {
+            cached = m_componentMetadataStore.get(bundleId, bundle.getLastModified());
+        }
+        catch (IOException e)
+        {
+            logger.log(Level.WARN,
+                "Error loading cached component metadata of {0}.", e, bundle);
+        }
         if (cached != null && cached.isEmpty())
         {
             // Cached that there are no components for this bundle.
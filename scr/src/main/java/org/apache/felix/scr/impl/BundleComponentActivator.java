@@ -46,6 +46,7 @@ import org.apache.felix.scr.impl.manager.ComponentHolder;
 import org.apache.felix.scr.impl.manager.DependencyManager;
 import org.apache.felix.scr.impl.manager.ExtendedServiceEvent;
 import org.apache.felix.scr.impl.manager.ExtendedServiceListener;
+import org.apache.felix.scr.impl.manager.ReactivationBatch;
 import org.apache.felix.scr.impl.manager.RegionConfigurationSupport;
 import org.apache.felix.scr.impl.manager.ScrConfiguration;
 import org.apache.felix.scr.impl.metadata.ComponentMetadata;
@@ -99,40 +100,44 @@ public class BundleComponentActivator implements ComponentActivator
 
     private static class ListenerInfo implements ServiceListener
     {
-        List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = new ArrayList<>();
+        // copied on write, so events are forwarded without locking
+        volatile List<ExtendedServiceListener<ExtendedServiceEvent>> listeners = new ArrayList<>();
 
         @Override
         public void serviceChanged(ServiceEvent event)
         {
             ExtendedServiceEvent extEvent = new ExtendedServiceEvent(event);
-            List<ExtendedServiceListener<ExtendedServiceEvent>> listeners;
-            synchronized ( this )
+            // components deactivated by events delivered while this event is
+            // delivered are activated together with the ones of this event
+            ReactivationBatch batch = ReactivationBatch.enter();
+            try
             {
-                listeners = this.listeners;
-            }
+                for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : listeners)
+                {
+                    forwardTo.serviceChanged( extEvent );
+                }
 
-            for ( ExtendedServiceListener<ExtendedServiceEvent> forwardTo : listeners)
-            {
-                forwardTo.serviceChanged( extEvent );
+                extEvent.activateManagers();
             }
-
-            if ( extEvent != null )
+            finally
             {
-                extEvent.activateManagers();
+                batch.exit();
             }
         }
 
         public synchronized void add(ExtendedServiceListener<ExtendedServiceEvent> listener)
         {
-            listeners = new ArrayList<>(listeners);
-            listeners.add(listener);
+            List<ExtendedServiceListener<ExtendedServiceEvent>> copy = new ArrayList<>(listeners);
+            copy.add(listener);
+            listeners = copy;
         }
 
         public synchronized boolean remove(ExtendedServiceListener<ExtendedServiceEvent> listener)
         {
-            listeners = new ArrayList<>(listeners);
-            listeners.remove(listener);
-            return listeners.isEmpty();
+            List<ExtendedServiceListener<ExtendedServiceEvent>> copy = new ArrayList<>(listeners);
+            copy.remove(listener);
+            listeners = copy;
+            return copy.isEmpty();
         }
     }
 
@@ -672,19 +677,22 @@ public class BundleComponentActivator implements ComponentActivator
     /**
      * Schedules the given <code>task</code> for asynchrounous execution or
      * synchronously runs the task if the thread is not running. If this instance
-     * is {@link #isActive() not active}, the task is not executed.
+     * is {@link #isActive() not active}, the task is not executed. Tasks
+     * scheduled with the same <code>key</code> are executed in order, one after
+     * another.
      *
+     * @param key The key of the task, usually the component manager it acts upon
      * @param task The component task to execute
      */
     @Override
-    public void schedule(Runnable task)
+    public void schedule(Object key, Runnable task)
     {
         if ( isActive() )
         {
             ComponentActorThread cat = m_componentActor;
             if ( cat != null )
             {
-                cat.schedule( task );
+                cat.schedule( key, task );
             }
             else
             {
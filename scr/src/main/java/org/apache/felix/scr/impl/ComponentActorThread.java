@@ -19,64 +19,146 @@
 package org.apache.felix.scr.impl;
 
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.felix.scr.impl.logger.InternalLogger.Level;
 import org.apache.felix.scr.impl.logger.ScrLogger;
 
 
 /**
- * The <code>ComponentActorThread</code> is the thread used to act upon registered
- * components of the service component runtime.
+ * The <code>ComponentActorThread</code> runs the tasks scheduled to act upon
+ * registered components of the service component runtime on one or more
+ * actor threads.
+ * <p>
+ * Every task is scheduled with a key, usually the component manager it acts
+ * upon. Tasks with the same key are run one after another in the order they
+ * were scheduled, while tasks with different keys may run concurrently if more
+ * than one actor thread is configured. With a single actor thread all tasks
+ * are run in the order they were scheduled.
  */
-class ComponentActorThread implements Runnable
+class ComponentActorThread
 {
 
-    // sentinel task to terminate this thread
-    private static final Runnable TERMINATION_TASK = new Runnable()
-    {
-        @Override
-        public void run()
-        {
-        }
+    // key of the tasks scheduled without a key, which are run one after another
+    private static final Object UNKEYED = new Object();
 
+    private final ScrLogger logger;
 
-        @Override
-        public String toString()
-        {
-            return "Component Actor Terminator";
-        }
-    };
+    private final int threadCount;
 
-    // the queue of Runnable instances  to be run
-    private final LinkedList<Runnable> tasks = new LinkedList<>();
+    private final boolean virtualThreads;
 
-    private final ScrLogger logger;
+    // the queue of tasks to be run, guarded by itself
+    private final LinkedList<Task> tasks = new LinkedList<>();
+
+    // the keys of the tasks currently running
+    private final Set<Object> runningKeys = new HashSet<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    // the number of tasks queued or running
+    private int pending;
+
+    private boolean terminated;
 
 
     ComponentActorThread( final ScrLogger log )
+    {
+        this( log, 1, false );
+    }
+
+
+    ComponentActorThread( final ScrLogger log, final int threadCount, final boolean virtualThreads )
     {
         logger = log;
+        this.threadCount = Math.max( 1, threadCount );
+        this.virtualThreads = virtualThreads;
+    }
+
+
+    // starts the actor threads
+    void start()
+    {
+        ThreadFactory factory = virtualThreads ? createVirtualThreadFactory() : null;
+        synchronized ( tasks )
+        {
+            for ( int i = 0; i < threadCount; i++ )
+            {
+                Runnable worker = new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        ComponentActorThread.this.run();
+                    }
+                };
+                String name = threadCount == 1 ? "SCR Component Actor" : "SCR Component Actor " + i;
+                Thread t;
+                if ( factory != null )
+                {
+                    t = factory.newThread( worker );
+                    t.setName( name );
+                }
+                else
+                {
+                    t = new Thread( worker, name );
+                    t.setDaemon( true );
+                }
+                threads.add( t );
+                t.start();
+            }
+        }
     }
 
 
-    // waits on Runnable instances coming into the queue. As instances come
-    // in, this method calls the Runnable.run method, logs any exception
-    // happening and keeps on waiting for the next Runnable. If the Runnable
-    // taken from the queue is this thread instance itself, the thread
-    // terminates.
-    @Override
-    public void run()
+    // waits on tasks coming into the queue. As tasks come in, this method
+    // takes the first one whose key is not currently being acted upon by
+    // another actor thread, calls its Runnable.run method, logs any exception
+    // happening as well as the time the task waited and ran, and keeps on
+    // waiting for the next task. The thread terminates once the actor is
+    // terminated and no tasks are left.
+    private void run()
     {
         logger.log(Level.DEBUG, "Starting ComponentActorThread", null);
 
         for ( ;; )
         {
-            final Runnable task;
+            final Task task;
             synchronized ( tasks )
             {
-                while ( tasks.isEmpty() )
+                for ( ;; )
                 {
+                    Task next = null;
+                    for ( Iterator<Task> i = tasks.iterator(); i.hasNext(); )
+                    {
+                        Task candidate = i.next();
+                        if ( !runningKeys.contains( candidate.key ) )
+                        {
+                            i.remove();
+                            next = candidate;
+                            break;
+                        }
+                    }
+                    if ( next != null )
+                    {
+                        task = next;
+                        runningKeys.add( task.key );
+                        break;
+                    }
+                    if ( terminated && pending == 0 )
+                    {
+                        logger.log(Level.DEBUG, "Shutting down ComponentActorThread",
+                            null);
+                        return;
+                    }
+
                     boolean interrupted = Thread.interrupted();
                     try
                     {
@@ -95,33 +177,34 @@ class ComponentActorThread implements Runnable
                         }
                     }
                 }
-
-                task = tasks.removeFirst();
             }
 
+            long start = System.nanoTime();
             try
             {
-                // return if the task is this thread itself
-                if ( task == TERMINATION_TASK )
-                {
-                    logger.log(Level.DEBUG, "Shutting down ComponentActorThread",
-                        null);
-                    return;
-                }
-
-                // otherwise execute the task, log any issues
-                logger.log(Level.DEBUG, "Running task: " + task, null);
-                task.run();
+                // execute the task, log any issues
+                logger.log(Level.DEBUG, "Running task: " + task.runnable, null);
+                task.runnable.run();
             }
             catch ( Throwable t )
             {
-                logger.log(Level.ERROR, "Unexpected problem executing task " + task,
+                logger.log(Level.ERROR, "Unexpected problem executing task " + task.runnable,
                     t);
             }
             finally
             {
+                long end = System.nanoTime();
+                if ( logger.isLogEnabled( Level.DEBUG ) )
+                {
+                    logger.log(Level.DEBUG,
+                        "Task [{0}] waited {1} ms in the queue and ran for {2} ms", null,
+                        task.runnable, TimeUnit.NANOSECONDS.toMillis( start - task.scheduled ),
+                        TimeUnit.NANOSECONDS.toMillis( end - start ));
+                }
                 synchronized ( tasks )
                 {
+                    runningKeys.remove( task.key );
+                    pending--;
                     tasks.notifyAll();
                 }
             }
@@ -129,14 +212,12 @@ class ComponentActorThread implements Runnable
     }
 
 
-    // cause this thread to terminate by adding this thread to the end
-    // of the queue
+    // cause the actor threads to terminate once all queued tasks have run
     void terminate()
     {
-        schedule( TERMINATION_TASK );
         synchronized ( tasks )
         {
-            while ( !tasks.isEmpty() )
+            while ( pending > 0 )
             {
                 boolean interrupted = Thread.interrupted();
                 try
@@ -157,23 +238,70 @@ class ComponentActorThread implements Runnable
                     }
                 }
             }
+            terminated = true;
+            threads.clear();
+            tasks.notifyAll();
         }
     }
 
 
     // queue the given runnable to be run as soon as possible
     void schedule( Runnable task )
+    {
+        schedule( null, task );
+    }
+
+
+    // queue the given runnable to be run as soon as possible after the
+    // tasks previously scheduled with the same key
+    void schedule( Object key, Runnable task )
     {
         synchronized ( tasks )
         {
             // append to the task queue
-            tasks.add( task );
+            tasks.add( new Task( key == null ? UNKEYED : key, task ) );
+            pending++;
 
             logger.log(Level.DEBUG, "Adding task [{0}] as #{1} in the queue", null,
                     task, tasks.size());
 
-            // notify the waiting thread
+            // notify the waiting threads
             tasks.notifyAll();
         }
     }
+
+
+    // creates a factory of virtual threads if the platform supports them
+    private ThreadFactory createVirtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod( "ofVirtual" ).invoke( null );
+            return ( ThreadFactory ) Class.forName( "java.lang.Thread$Builder" )
+                .getMethod( "factory" ).invoke( builder );
+        }
+        catch ( Exception e )
+        {
+            logger.log(Level.WARN,
+                "Virtual threads are not supported, using platform threads for the component actor", null);
+            return null;
+        }
+    }
+
+
+    private static final class Task
+    {
+        final Object key;
+
+        final Runnable runnable;
+
+        final long scheduled = System.nanoTime();
+
+
+        Task( final Object key, final Runnable runnable )
+        {
+            this.key = key;
+            this.runnable = runnable;
+        }
+    }
 }
@@ -25,6 +25,7 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -565,32 +566,49 @@ public class ComponentRegistry
         final List<Entry<?, ?>> dependencyManagers = m_missingDependencies.remove( serviceReference );
         if ( dependencyManagers != null )
         {
-
-            Runnable runnable = new Runnable()
+            // schedule one task per component, keyed by its component manager,
+            // so that late binding stays ordered with its enable and disable tasks
+            Map<Object, List<Entry<?, ?>>> byComponent = new LinkedHashMap<>();
+            for ( Entry<?, ?> entry : dependencyManagers )
             {
-
-                @Override
-                @SuppressWarnings("unchecked")
-                public void run()
+                Object key = entry.getDm().getComponentManager();
+                List<Entry<?, ?>> entries = byComponent.get( key );
+                if ( entries == null )
+                {
+                    entries = new ArrayList<>();
+                    byComponent.put( key, entries );
+                }
+                entries.add( entry );
+            }
+            for ( Map.Entry<Object, List<Entry<?, ?>>> component : byComponent.entrySet() )
+            {
+                final List<Entry<?, ?>> componentDependencyManagers = component.getValue();
+                Runnable runnable = new Runnable()
                 {
-                    for ( Entry<?, ?> entry : dependencyManagers )
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public void run()
                     {
-                        ((DependencyManager<?, T>)entry.getDm()).invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
+                        for ( Entry<?, ?> entry : componentDependencyManagers )
+                        {
+                            ((DependencyManager<?, T>)entry.getDm()).invokeBindMethodLate( serviceReference, entry.getTrackingCount() );
+                        }
+                        m_logger.log(Level.DEBUG,
+                            "Ran {0} asynchronously", null, this);
                     }
-                    m_logger.log(Level.DEBUG,
-                        "Ran {0} asynchronously", null, this);
-                }
 
-                @Override
-                public String toString()
-                {
-                    return "Late binding task of reference " + serviceReference + " for dependencyManagers " + dependencyManagers;
-                }
+                    @Override
+                    public String toString()
+                    {
+                        return "Late binding task of reference " + serviceReference + " for dependencyManagers " + componentDependencyManagers;
+                    }
 
-            } ;
-            m_logger.log(Level.DEBUG,
-                "Scheduling runnable {0} asynchronously", null, runnable);
-            actor.schedule( runnable );
+                } ;
+                m_logger.log(Level.DEBUG,
+                    "Scheduling runnable {0} asynchronously", null, runnable);
+                actor.schedule( component.getKey(), runnable );
+            }
         }
     }
 
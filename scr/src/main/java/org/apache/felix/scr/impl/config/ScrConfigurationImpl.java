@@ -83,6 +83,10 @@ public class ScrConfigurationImpl implements ScrConfiguration
 
     private boolean cacheMetadata;
 
+    private int actorThreads = DEFAULT_ACTOR_THREADS;
+
+    private boolean actorVirtualThreads;
+
     private boolean isLogEnabled;
 
     private boolean isLogExtensionEnabled;
@@ -182,6 +186,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = DEFAULT_SERVICE_CHANGECOUNT_TIMEOUT_MILLISECONDS;
                         newGlobalExtender = false;
                         cacheMetadata = false;
+                        actorThreads = DEFAULT_ACTOR_THREADS;
+                        actorVirtualThreads = false;
                         isLogEnabled = true;
                         isLogExtensionEnabled = false;
                     }
@@ -196,6 +202,8 @@ public class ScrConfigurationImpl implements ScrConfiguration
                         serviceChangecountTimeout = getServiceChangecountTimeout();
                         newGlobalExtender = getDefaultGlobalExtender();
                         cacheMetadata = getDefaultCacheMetadata();
+                        actorThreads = getDefaultActorThreads();
+                        actorVirtualThreads = getDefaultActorVirtualThreads();
                         isLogEnabled = getDefaultLogEnabled();
                         isLogExtensionEnabled = getDefaultLogExtension();
                     }
@@ -218,6 +226,9 @@ public class ScrConfigurationImpl implements ScrConfiguration
                 newGlobalExtender = VALUE_TRUE.equalsIgnoreCase( String.valueOf( config.get( PROP_GLOBAL_EXTENDER) ) );
                 cacheMetadata = VALUE_TRUE.equalsIgnoreCase(
                     String.valueOf(config.get(PROP_CACHE_METADATA)));
+                actorThreads = getActorThreads( config.get( PROP_ACTOR_THREADS ) );
+                actorVirtualThreads = VALUE_TRUE.equalsIgnoreCase(
+                    String.valueOf(config.get(PROP_ACTOR_VIRTUAL_THREADS)));
                 isLogEnabled = checkIfLogEnabled(config);
                 isLogExtensionEnabled = VALUE_TRUE.equalsIgnoreCase(String.valueOf(config.get(PROP_LOG_EXTENSION)));
             }
@@ -296,6 +307,18 @@ public class ScrConfigurationImpl implements ScrConfiguration
         return serviceChangecountTimeout;
     }
 
+    @Override
+    public int actorThreads()
+    {
+        return actorThreads;
+    }
+
+    @Override
+    public boolean actorVirtualThreads()
+    {
+        return actorVirtualThreads;
+    }
+
     private boolean getDefaultFactoryEnabled()
     {
         return VALUE_TRUE.equals( bundleContext.getProperty( PROP_FACTORY_ENABLED ) );
@@ -359,6 +382,37 @@ public class ScrConfigurationImpl implements ScrConfiguration
             bundleContext.getProperty(PROP_CACHE_METADATA));
     }
 
+    private int getDefaultActorThreads()
+    {
+        return getActorThreads( bundleContext.getProperty( PROP_ACTOR_THREADS ) );
+    }
+
+    private boolean getDefaultActorVirtualThreads()
+    {
+        return VALUE_TRUE.equalsIgnoreCase(
+            bundleContext.getProperty(PROP_ACTOR_VIRTUAL_THREADS));
+    }
+
+    private int getActorThreads(final Object threadsObject)
+    {
+        if ( threadsObject instanceof Number )
+        {
+            return Math.max( 1, ((Number) threadsObject).intValue() );
+        }
+        if ( threadsObject != null )
+        {
+            try
+            {
+                return Math.max( 1, Integer.parseInt( threadsObject.toString().trim() ) );
+            }
+            catch ( NumberFormatException nfe )
+            {
+                // fall back to the default
+            }
+        }
+        return DEFAULT_ACTOR_THREADS;
+    }
+
     private Level getLogLevel(final Object levelObject)
     {
         if ( levelObject != null )
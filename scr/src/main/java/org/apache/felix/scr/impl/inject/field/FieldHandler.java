@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.inject.field;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Modifier;
@@ -50,6 +53,12 @@ import org.osgi.framework.BundleContext;
  */
 public class FieldHandler
 {
+    /** Type of the field setter handle. */
+    private static final MethodType SETTER_TYPE = MethodType.methodType( void.class, Object.class, Object.class );
+
+    /** Type of the field getter handle. */
+    private static final MethodType GETTER_TYPE = MethodType.methodType( Object.class, Object.class );
+
     /** The reference metadata. */
     private final ReferenceMetadata metadata;
 
@@ -59,6 +68,12 @@ public class FieldHandler
     /** The field used for the injection. */
     private volatile Field field;
 
+    /** Handle setting the field or {@code null} to use reflection. */
+    private volatile MethodHandle setter;
+
+    /** Handle getting the field or {@code null} to use reflection. */
+    private volatile MethodHandle getter;
+
     /** Value type. */
     private volatile ValueType valueType;
 
@@ -321,34 +336,57 @@ public class FieldHandler
     private void setFieldValue(final Object componentInstance, final Object value)
     throws InvocationTargetException
     {
+        final MethodHandle setter = this.setter;
         try
         {
-            field.set(componentInstance, value);
-        }
-        catch ( final IllegalArgumentException iae )
-        {
-            throw new InvocationTargetException(iae);
+            if ( setter != null )
+            {
+                setter.invokeExact(componentInstance, value);
+            }
+            else
+            {
+                field.set(componentInstance, value);
+            }
         }
-        catch ( final IllegalAccessException iae )
+        catch ( final Throwable t )
         {
-            throw new InvocationTargetException(iae);
+            throw new InvocationTargetException(t);
         }
     }
 
     private Object getFieldValue(final Object componentInstance)
     throws InvocationTargetException
     {
+        final MethodHandle getter = this.getter;
         try
         {
+            if ( getter != null )
+            {
+                return (Object) getter.invokeExact(componentInstance);
+            }
             return field.get(componentInstance);
         }
-        catch ( final IllegalArgumentException iae )
+        catch ( final Throwable t )
+        {
+            throw new InvocationTargetException(t);
+        }
+    }
+
+    /**
+     * Creates the handles setting and getting the field, falling back to
+     * reflection if the field cannot be accessed through a handle.
+     */
+    private void createFieldHandles(final Field field)
+    {
+        try
         {
-            throw new InvocationTargetException(iae);
+            setter = MethodHandles.lookup().unreflectSetter(field).asType(SETTER_TYPE);
+            getter = MethodHandles.lookup().unreflectGetter(field).asType(GETTER_TYPE);
         }
         catch ( final IllegalAccessException iae )
         {
-            throw new InvocationTargetException(iae);
+            setter = null;
+            getter = null;
         }
     }
 
@@ -466,6 +504,8 @@ public class FieldHandler
         if (result == null)
         {
             field = null;
+            setter = null;
+            getter = null;
             valueType = null;
             state = NotFound.INSTANCE;
             // TODO - will component really fail?
@@ -481,6 +521,7 @@ public class FieldHandler
             }
             else
             {
+                createFieldHandles(result.field);
                 valueType = ValueUtils.getReferenceValueType(componentClass, metadata,
                     result.field.getType(), result.field, logger);
             }
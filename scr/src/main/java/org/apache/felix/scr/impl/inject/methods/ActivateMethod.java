@@ -255,40 +255,52 @@ public class ActivateMethod extends BaseMethod<ActivatorParameter, Object> imple
     @Override
     protected Object[] getParameters( Method method, ActivatorParameter rawParameter )
     {
-        final Class<?>[] parameterTypes = method.getParameterTypes();
-        final ActivatorParameter ap = rawParameter;
+        final Class<?>[] parameterTypes = getParameterTypes();
         final Object[] param = new Object[parameterTypes.length];
         for ( int i = 0; i < param.length; i++ )
         {
-            if ( parameterTypes[i] == ClassUtils.COMPONENT_CONTEXT_CLASS )
-            {
-                param[i] = ap.getComponentContext();
-            }
-            else if ( parameterTypes[i] == ClassUtils.BUNDLE_CONTEXT_CLASS )
-            {
-                param[i] = ap.getComponentContext().getBundleContext();
-            }
-            else if ( parameterTypes[i] == ClassUtils.MAP_CLASS )
-            {
-                // note: getProperties() returns a ReadOnlyDictionary which is a Map
-                param[i] = ap.getComponentContext().getProperties();
-            }
-            else if ( parameterTypes[i] == ClassUtils.INTEGER_CLASS || parameterTypes[i] == Integer.TYPE )
-            {
-                param[i] = ap.getReason();
-            }
-            else
-            {
-                param[i] = Annotations.toObject(parameterTypes[i],
-                    ap.getComponentContext().getPropertiesMap(),
-                    ap.getComponentContext().getBundleContext().getBundle(), m_supportsInterfaces);
-            }
+            param[i] = getParameter( parameterTypes[i], rawParameter );
         }
 
         return param;
     }
 
 
+    @Override
+    protected Object getParameter( Method method, ActivatorParameter rawParameter )
+    {
+        return getParameter( getParameterTypes()[0], rawParameter );
+    }
+
+
+    private Object getParameter( final Class<?> parameterType, final ActivatorParameter ap )
+    {
+        if ( parameterType == ClassUtils.COMPONENT_CONTEXT_CLASS )
+        {
+            return ap.getComponentContext();
+        }
+        else if ( parameterType == ClassUtils.BUNDLE_CONTEXT_CLASS )
+        {
+            return ap.getComponentContext().getBundleContext();
+        }
+        else if ( parameterType == ClassUtils.MAP_CLASS )
+        {
+            // note: getProperties() returns a ReadOnlyDictionary which is a Map
+            return ap.getComponentContext().getProperties();
+        }
+        else if ( parameterType == ClassUtils.INTEGER_CLASS || parameterType == Integer.TYPE )
+        {
+            return ap.getReason();
+        }
+        else
+        {
+            return Annotations.toObject(parameterType,
+                ap.getComponentContext().getPropertiesMap(),
+                ap.getComponentContext().getBundleContext().getBundle(), m_supportsInterfaces);
+        }
+    }
+
+
     @Override
     protected String getMethodNamePrefix()
     {
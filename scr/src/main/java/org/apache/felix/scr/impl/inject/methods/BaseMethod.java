@@ -19,6 +19,9 @@
 package org.apache.felix.scr.impl.inject.methods;
 
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
@@ -41,6 +44,16 @@ import org.apache.felix.scr.impl.metadata.DSVersion;
 public abstract class BaseMethod<P extends BaseParameter, T>
 {
 
+    private static final Object[] NO_PARAMETERS = new Object[0];
+
+    // type of the handle of methods taking one parameter
+    private static final MethodType SINGLE_PARAMETER_TYPE = MethodType.methodType( Object.class,
+        Object.class, Object.class );
+
+    // type of the handle of methods taking any other number of parameters
+    private static final MethodType SPREAD_PARAMETERS_TYPE = MethodType.methodType( Object.class,
+        Object.class, Object[].class );
+
     private final DSVersion dsVersion;
     private final boolean configurableServiceProperties;
 
@@ -49,6 +62,11 @@ public abstract class BaseMethod<P extends BaseParameter, T>
 
     private volatile Method m_method;
 
+    // the method adapted to SINGLE_PARAMETER_TYPE or SPREAD_PARAMETERS_TYPE
+    private volatile MethodHandle m_methodHandle;
+
+    private volatile Class<?>[] m_parameterTypes;
+
     private final boolean m_methodRequired;
 
     private volatile State m_state;
@@ -101,6 +119,15 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return m_componentClass;
     }
 
+    /**
+     * Returns the parameter types of the resolved method, which must not be
+     * modified.
+     */
+    protected final Class<?>[] getParameterTypes()
+    {
+        return m_parameterTypes;
+    }
+
     protected abstract void setTypes(T types);
 
     synchronized void setMethod(MethodInfo<T> methodInfo, ComponentLogger logger)
@@ -110,6 +137,8 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         if (m_method != null)
         {
             setTypes(methodInfo.getTypes());
+            m_parameterTypes = m_method.getParameterTypes();
+            m_methodHandle = createMethodHandle( m_method, logger );
             m_state = Resolved.INSTANCE;
             logger.log(Level.DEBUG, "Found {0} method: {1}", null,
                     getMethodNamePrefix(), m_method );
@@ -226,62 +255,103 @@ public abstract class BaseMethod<P extends BaseParameter, T>
         return result;
     }
 
+    /**
+     * Returns a handle invoking the given method, adapted to take the
+     * component instance and either the single parameter of the method or an
+     * array of its parameters and to return an <code>Object</code>, or
+     * <code>null</code> if the method cannot be accessed.
+     */
+    private MethodHandle createMethodHandle( final Method method, final ComponentLogger logger )
+    {
+        try
+        {
+            MethodHandle handle = MethodHandles.lookup().unreflect( method );
+            if ( method.getParameterTypes().length == 1 )
+            {
+                return handle.asType( SINGLE_PARAMETER_TYPE );
+            }
+            return handle.asSpreader( Object[].class, method.getParameterTypes().length )
+                .asType( SPREAD_PARAMETERS_TYPE );
+        }
+        catch ( IllegalAccessException ex )
+        {
+            // 112.3.1 If the method is not is not declared protected or
+            // public, SCR must log an error message with the log service,
+            // if present, and ignore the method
+            logger.log(Level.DEBUG, "Method {0} cannot be called", ex,
+                    getMethodName() );
+            return null;
+        }
+    }
+
     private MethodResult invokeMethod(final Object componentInstance, final P rawParameter )
             throws InvocationTargetException
     {
         final ComponentLogger logger = rawParameter.getComponentContext().getLogger();
+        final MethodHandle handle = m_methodHandle;
+        if ( componentInstance == null )
+        {
+            logger.log(Level.WARN,
+                "Method {0}: {1} cannot be called on null object",
+                    null,
+                            getMethodNamePrefix(), getMethodName() );
+            // assume success
+            return MethodResult.VOID;
+        }
+        if ( handle == null )
+        {
+            // assume success if the method is not accessible
+            return MethodResult.VOID;
+        }
+
+        // methods taking one parameter are invoked without a parameter array
+        final boolean single = m_parameterTypes.length == 1;
+        final Object param;
+        final Object[] params;
         try
         {
-            if ( componentInstance != null )
+            if ( single )
             {
-                final Object[] params = getParameters(m_method, rawParameter);
-                if (logger.isLogEnabled(Level.DEBUG))
-                {
-                    logger.log(Level.DEBUG, "invoking {0}: {1}: parameters {2}", null,
-                        getMethodNamePrefix(),
-                            getMethodName(), Arrays.asList(getParametersForLogging(params)));
-                }
-                @SuppressWarnings("unchecked")
-                final Map<String, Object> result = (Map<String, Object>) m_method.invoke(
-                    componentInstance, params);
-                logger.log(Level.DEBUG, "invoked {0}: {1}", null,
-                        getMethodNamePrefix(), getMethodName() );
-                return new MethodResult((m_method.getReturnType() != Void.TYPE), result);
+                param = getParameter( m_method, rawParameter );
+                params = null;
             }
             else
             {
-                rawParameter.getComponentContext().getLogger().log(Level.WARN,
-                    "Method {0}: {1} cannot be called on null object",
-                        null,
-                                getMethodNamePrefix(), getMethodName() );
+                param = null;
+                params = m_parameterTypes.length == 0 ? NO_PARAMETERS : getParameters( m_method, rawParameter );
             }
         }
         catch ( IllegalStateException ise )
         {
-            rawParameter.getComponentContext().getLogger().log(Level.DEBUG,
-                ise.getMessage(), null);
+            logger.log(Level.DEBUG, ise.getMessage(), null);
             return null;
         }
-        catch ( IllegalAccessException ex )
+
+        if (logger.isLogEnabled(Level.DEBUG))
         {
-            // 112.3.1 If the method is not is not declared protected or
-            // public, SCR must log an error message with the log service,
-            // if present, and ignore the method
-            rawParameter.getComponentContext().getLogger().log(Level.DEBUG,
-                "Method {0} cannot be called", ex,
-                    getMethodName() );
+            logger.log(Level.DEBUG, "invoking {0}: {1}: parameters {2}", null,
+                getMethodNamePrefix(),
+                    getMethodName(), Arrays.asList(getParametersForLogging(single ? new Object[] { param } : params)));
         }
-        catch ( InvocationTargetException ex )
+        final Object result;
+        try
         {
-            throw ex;
+            result = single ? (Object) handle.invokeExact( componentInstance, param )
+                : (Object) handle.invokeExact( componentInstance, params );
         }
         catch ( Throwable t )
         {
             throw new InvocationTargetException( t );
         }
-
-        // assume success (also if the method is not available or accessible)
-        return MethodResult.VOID;
+        logger.log(Level.DEBUG, "invoked {0}: {1}", null,
+                getMethodNamePrefix(), getMethodName() );
+        if ( result == null )
+        {
+            return m_method.getReturnType() != Void.TYPE ? new MethodResult( true, null ) : MethodResult.VOID;
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> map = (Map<String, Object>) result;
+        return new MethodResult(true, map);
     }
 
     protected boolean returnValue()
@@ -301,6 +371,22 @@ public abstract class BaseMethod<P extends BaseParameter, T>
      */
     protected abstract Object[] getParameters( Method method, P rawParameter );
 
+    /**
+     * Returns the single parameter of a <code>method</code> taking one
+     * parameter, created from the <code>rawParameter</code>. This
+     * implementation returns the first element of the
+     * {@link #getParameters(Method, BaseParameter) parameter array}.
+     * @param method
+     * @param rawParameter
+     * @return
+     * @throws IllegalStateException If the required parameter cannot be
+     *      extracted from the <code>rawParameter</code>
+     */
+    protected Object getParameter( Method method, P rawParameter )
+    {
+        return getParameters( method, rawParameter )[0];
+    }
+
 
     protected String getMethodNamePrefix()
     {
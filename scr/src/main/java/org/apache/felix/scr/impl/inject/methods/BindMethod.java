@@ -683,17 +683,25 @@ implements org.apache.felix.scr.impl.inject.ReferenceMethod
     {
         ScrComponentContext key = bp.getComponentContext();
         Object[] result = new Object[ m_paramTypes.size()];
+        Class<?>[] parameterTypes = getParameterTypes();
         RefPair<?, ?> refPair = bp.getRefPair();
         int i = 0;
         for ( ValueUtils.ValueType pt: m_paramTypes )
         {
             result[i] = ValueUtils.getValue(getComponentClass().getName(), pt,
-                method.getParameterTypes()[i], key, refPair, null);
+                parameterTypes[i], key, refPair, null);
             i++;
         }
         return result;
     }
 
+    @Override
+    protected Object getParameter( Method method, BindParameters bp )
+    {
+        return ValueUtils.getValue(getComponentClass().getName(), m_paramTypes.get(0),
+            getParameterTypes()[0], bp.getComponentContext(), bp.getRefPair(), null);
+    }
+
 
     @Override
     protected String getMethodNamePrefix()
@@ -34,7 +34,7 @@ public interface ComponentActivator extends ExtendedServiceListenerContext<Exten
 
     ScrConfiguration getConfiguration();
 
-    void schedule(Runnable runnable);
+    void schedule(Object key, Runnable runnable);
 
     long registerComponentId(AbstractComponentManager<?> sAbstractComponentManager);
 
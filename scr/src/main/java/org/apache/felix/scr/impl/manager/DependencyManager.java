@@ -1580,13 +1580,12 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
      */
     int size()
     {
-        AtomicInteger trackingCount = new AtomicInteger();
         final ServiceTracker<T, RefPair<S, T>, ExtendedServiceEvent> tracker = m_tracker;
         if (tracker == null)
         {
             return 0;
         }
-        return m_tracker.getTracked(null, trackingCount).size();
+        return tracker.getServiceCount();
     }
 
     private ServiceReference<?>[] getFrameworkServiceReferences(String targetFilter)
@@ -1714,8 +1713,7 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         final ServiceTracker<T, RefPair<S, T>, ExtendedServiceEvent> tracker = m_tracker;
         if (tracker != null)
         {
-            AtomicInteger trackingCount = new AtomicInteger();
-            return tracker.getTracked(null, trackingCount).get(serviceReference);
+            return tracker.getService(serviceReference);
         }
         return null;
     }
@@ -1797,6 +1795,11 @@ public class DependencyManager<S, T> implements ReferenceManager<S, T>
         return m_dependencyMetadata;
     }
 
+    public AbstractComponentManager<S> getComponentManager()
+    {
+        return m_componentManager;
+    }
+
     /**
      * Returns <code>true</code> if this dependency manager is satisfied, that
      * is if either the dependency is optional or the number of services
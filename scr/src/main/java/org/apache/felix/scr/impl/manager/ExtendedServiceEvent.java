@@ -53,11 +53,22 @@ public class ExtendedServiceEvent extends ServiceEvent
             : managers;
     }
 
+    /**
+     * Activates the component managers deactivated while delivering this
+     * event. If this event is delivered while another change is processed,
+     * the managers are activated together with the managers deactivated by
+     * that change.
+     */
     public void activateManagers()
     {
-        for (AbstractComponentManager<?> manager : getManagers())
+        ReactivationBatch batch = ReactivationBatch.enter();
+        try
         {
-            manager.activateInternal();
+            batch.addAll(getManagers());
+        }
+        finally
+        {
+            batch.exit();
         }
     }
 
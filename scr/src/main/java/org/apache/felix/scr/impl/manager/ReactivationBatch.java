@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+
+/**
+ * Collects the component managers which have to be activated again after
+ * they were deactivated because of a change of a static reference or of
+ * their configuration.
+ * <p>
+ * Deactivating a component unregisters its services, which synchronously
+ * deactivates the components referencing them and so on. Instead of
+ * activating each of these components again as soon as the service event
+ * which deactivated it has been delivered, while the components it depends
+ * on may still be deactivated, all components deactivated by the same
+ * change are collected in the batch of the current thread. When the
+ * outermost batch is exited, the collected components are activated once,
+ * components providing services before the components referencing them.
+ */
+public final class ReactivationBatch
+{
+    private static final ThreadLocal<ReactivationBatch> CURRENT = new ThreadLocal<>();
+
+    private final Set<AbstractComponentManager<?>> m_pending = new LinkedHashSet<>();
+
+    private int m_depth;
+
+    private ReactivationBatch()
+    {
+    }
+
+    /**
+     * Enters the batch of the current thread, creating it if this is the
+     * outermost call. Each call must be followed by a call to {@link #exit()}.
+     *
+     * @return The batch of the current thread
+     */
+    public static ReactivationBatch enter()
+    {
+        ReactivationBatch batch = CURRENT.get();
+        if (batch == null)
+        {
+            batch = new ReactivationBatch();
+            CURRENT.set(batch);
+        }
+        batch.m_depth++;
+        return batch;
+    }
+
+    /**
+     * Adds a component manager to be activated when the outermost batch is
+     * exited.
+     */
+    public void add(AbstractComponentManager<?> manager)
+    {
+        m_pending.add(manager);
+    }
+
+    /**
+     * Adds component managers to be activated when the outermost batch is
+     * exited.
+     */
+    public void addAll(Collection<AbstractComponentManager<?>> managers)
+    {
+        m_pending.addAll(managers);
+    }
+
+    /**
+     * Exits the batch. If this is the outermost batch the collected component
+     * managers are activated. Components deactivated while doing so are added
+     * to this batch and activated afterwards.
+     */
+    public void exit()
+    {
+        if (--m_depth > 0)
+        {
+            return;
+        }
+        // activations below are nested in this batch
+        m_depth++;
+        try
+        {
+            while (!m_pending.isEmpty())
+            {
+                List<AbstractComponentManager<?>> managers = sort(m_pending);
+                m_pending.clear();
+                for (AbstractComponentManager<?> manager : managers)
+                {
+                    manager.activateInternal();
+                }
+            }
+        }
+        finally
+        {
+            m_pending.clear();
+            m_depth = 0;
+            CURRENT.remove();
+        }
+    }
+
+    /**
+     * Orders the given component managers such that the managers providing a
+     * service come before the managers referencing that service. Managers
+     * which do not depend on each other, including managers with circular
+     * references, keep their order.
+     */
+    static List<AbstractComponentManager<?>> sort(Collection<AbstractComponentManager<?>> managers)
+    {
+        List<AbstractComponentManager<?>> sorted = new ArrayList<>(managers.size());
+        if (managers.size() < 2)
+        {
+            sorted.addAll(managers);
+            return sorted;
+        }
+        Map<String, List<AbstractComponentManager<?>>> providers = new HashMap<>();
+        for (AbstractComponentManager<?> manager : managers)
+        {
+            ServiceMetadata serviceMetadata = manager.getComponentMetadata().getServiceMetadata();
+            if (serviceMetadata == null || serviceMetadata.getProvides() == null)
+            {
+                continue;
+            }
+            for (String service : serviceMetadata.getProvides())
+            {
+                List<AbstractComponentManager<?>> list = providers.get(service);
+                if (list == null)
+                {
+                    list = new ArrayList<>(1);
+                    providers.put(service, list);
+                }
+                list.add(manager);
+            }
+        }
+        if (providers.isEmpty())
+        {
+            sorted.addAll(managers);
+            return sorted;
+        }
+
+        Set<AbstractComponentManager<?>> pending = Collections.newSetFromMap(
+            new IdentityHashMap<AbstractComponentManager<?>, Boolean>());
+        pending.addAll(managers);
+        List<AbstractComponentManager<?>> remaining = new ArrayList<>(managers);
+        while (!remaining.isEmpty())
+        {
+            boolean progress = false;
+            for (Iterator<AbstractComponentManager<?>> i = remaining.iterator(); i.hasNext();)
+            {
+                AbstractComponentManager<?> manager = i.next();
+                if (!referencesPending(manager, providers, pending))
+                {
+                    sorted.add(manager);
+                    pending.remove(manager);
+                    i.remove();
+                    progress = true;
+                }
+            }
+            if (!progress)
+            {
+                // circular references
+                sorted.addAll(remaining);
+                break;
+            }
+        }
+        return sorted;
+    }
+
+    private static boolean referencesPending(AbstractComponentManager<?> manager,
+        Map<String, List<AbstractComponentManager<?>>> providers,
+        Set<AbstractComponentManager<?>> pending)
+    {
+        ComponentMetadata metadata = manager.getComponentMetadata();
+        for (ReferenceMetadata reference : metadata.getDependencies())
+        {
+            List<AbstractComponentManager<?>> list = providers.get(reference.getInterface());
+            if (list == null)
+            {
+                continue;
+            }
+            for (AbstractComponentManager<?> provider : list)
+            {
+                if (provider != manager && pending.contains(provider))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
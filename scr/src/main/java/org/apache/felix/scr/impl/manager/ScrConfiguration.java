@@ -68,7 +68,13 @@ public interface ScrConfiguration extends LogConfiguration
     String PROP_SERVICE_CHANGECOUNT_TIMEOUT = "ds.service.changecount.timeout";
 
     String PROP_CACHE_METADATA = "ds.cache.metadata";
-    
+
+    String PROP_ACTOR_THREADS = "ds.actor.threads";
+
+    String PROP_ACTOR_VIRTUAL_THREADS = "ds.actor.virtual.threads";
+
+    int DEFAULT_ACTOR_THREADS = 1;
+
 
     boolean isFactoryEnabled();
 
@@ -94,4 +100,19 @@ public interface ScrConfiguration extends LogConfiguration
 
     boolean cacheMetadata();
 
+    /**
+     * Returns the number of threads running the asynchronous component
+     * tasks. Tasks acting upon the same component are always run one after
+     * another.
+     * @since 2.2
+     */
+    int actorThreads();
+
+    /**
+     * Returns whether the asynchronous component tasks are run on virtual
+     * threads, if the platform supports them.
+     * @since 2.2
+     */
+    boolean actorVirtualThreads();
+
 }
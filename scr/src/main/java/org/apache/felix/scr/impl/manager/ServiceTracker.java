@@ -19,6 +19,7 @@ package org.apache.felix.scr.impl.manager;
 import java.lang.reflect.Array;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -560,16 +561,16 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
 	 * @return A {@code SortedMap} with the {@code ServiceReference}s and
 	 *         service objects for all services being tracked by this
 	 *         {@code ServiceTracker}. If no services are being tracked, then
-	 *         the returned map is empty.
+	 *         the returned map is empty. The returned map must not be
+	 *         modified.
 	 * @since 1.5
      * @param activate
      * @param trackingCount
      */
 	public SortedMap<ServiceReference<S>, T> getTracked( Boolean activate, AtomicInteger trackingCount ) {
-		SortedMap<ServiceReference<S>, T> map = new TreeMap<ServiceReference<S>, T>(Collections.reverseOrder());
 		final Tracked t = tracked();
 		if (t == null) { /* if ServiceTracker is not open */
-			return map;
+			return Collections.emptySortedMap();
 		}
 		synchronized (t) {
             if ( activate != null )
@@ -577,7 +578,7 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
                 active = activate;
             }
             trackingCount.set( t.getTrackingCount() );
-            return t.copyEntries(map);
+            return t.getSorted();
 		}
 	}
 
@@ -709,6 +710,17 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
          */
         private final Map<S, T> tracked;
 
+        /**
+         * The tracked items and customized objects in reverse natural order,
+         * that is the highest ranked service first. The map is not modified
+         * once published, each change of the tracked items replaces it by an
+         * updated copy, so it can be handed out to readers without copying.
+         * It is {@code null} if it has to be rebuilt from {@link #tracked}.
+         *
+         * @GuardedBy this
+         */
+        private volatile SortedArrayMap<S, T> sorted;
+
         /**
          * Modification count. This field is initialized to zero and incremented by
          * modified.
@@ -887,6 +899,7 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
                     if (DEBUG) {
                         System.out.println("AbstractTracked.track[modified]: " + item); //$NON-NLS-1$
                     }
+                    sorted = null; /* the ranking may have changed */
                     trackingCount = modified(); /* increment modification count */
                 }
             }
@@ -934,6 +947,7 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
                          * callback
                          */
                         tracked.put( item, object );
+                        updateSorted( item, object, true );
                         trackingCount = modified(); /* increment modification count */
                         serviceCount = tracked.size();
                         notifyAll(); /* notify any waiters */
@@ -1003,6 +1017,7 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
                 if (object == null) { /* are we actually tracking the item */
                     return;
                 }
+                updateSorted( item, object, false );
                 trackingCount = modified(); /* increment modification count */
             }
             if (DEBUG) {
@@ -1104,6 +1119,43 @@ public class ServiceTracker<S, T, U extends ServiceEvent> {
             return map;
         }
 
+        /**
+         * Returns the tracked items and customized objects in reverse natural
+         * order. The returned map must not be modified.
+         *
+         * @return The sorted tracked items.
+         * @GuardedBy this
+         */
+        SortedMap<S, T> getSorted() {
+            SortedArrayMap<S, T> map = sorted;
+            if (map == null) {
+                @SuppressWarnings("unchecked")
+                Comparator<S> comparator = (Comparator<S>) Collections.reverseOrder();
+                map = sorted = SortedArrayMap.of(comparator, tracked);
+            }
+            return map;
+        }
+
+        /**
+         * Applies the addition or removal of an item to the sorted copy of the
+         * tracked items. The copy is only kept up to date once it has been
+         * read.
+         *
+         * @GuardedBy this
+         */
+        private void updateSorted(final S item, final T object, final boolean add) {
+            final SortedArrayMap<S, T> map = sorted;
+            if (map == null) {
+                return;
+            }
+            final SortedArrayMap<S, T> copy = add ? map.with(item, object) : map.without(item);
+            /*
+             * if the order of the items changed without a modified event the
+             * copy may not match, rebuild it on the next read
+             */
+            sorted = (copy.size() == tracked.size()) ? copy : null;
+        }
+
         /**
          * Call the specific customizer adding method. This method must not be
          * called while synchronized on this object.
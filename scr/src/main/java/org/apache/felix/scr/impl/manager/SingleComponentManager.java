@@ -737,19 +737,29 @@ public class SingleComponentManager<S> extends AbstractComponentManager<S> imple
                     releaseActivationWriteeLock(  );
                     //we have already determined that modify cannot be called. Therefore factory instances must be disposed.
                     boolean dispose = m_factoryInstance;
-                    deactivateInternal( reason, dispose, dispose );
-                    if ( !dispose )
+                    // activate this component and the components deactivated
+                    // along with it once, in the order of their references
+                    ReactivationBatch batch = ReactivationBatch.enter();
+                    try
                     {
-                        obtainActivationWriteLock();
-                        try
+                        deactivateInternal( reason, dispose, dispose );
+                        if ( !dispose )
                         {
-                            updateTargets(getProperties());
+                            obtainActivationWriteLock();
+                            try
+                            {
+                                updateTargets(getProperties());
+                            }
+                            finally
+                            {
+                                releaseActivationWriteeLock();
+                            }
+                            batch.add( this );
                         }
-                        finally
-                        {
-                            releaseActivationWriteeLock();
-                        }
-                        activateInternal();
+                    }
+                    finally
+                    {
+                        batch.exit();
                     }
                 }
             }
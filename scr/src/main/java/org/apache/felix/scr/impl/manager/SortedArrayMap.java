@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.SortedMap;
+
+/**
+ * An immutable {@code SortedMap} backed by sorted arrays of keys and values.
+ * Adding or removing an entry creates a new map by copying the arrays, which
+ * is a single array copy instead of the allocation of a tree node for each
+ * entry. Looking up entries is a binary search and iterating the values does
+ * not create entry objects. Sub maps are views on a range of the arrays.
+ */
+final class SortedArrayMap<K, V> extends AbstractMap<K, V> implements SortedMap<K, V>
+{
+    private final Comparator<? super K> m_comparator;
+
+    private final Object[] m_keys;
+
+    private final Object[] m_values;
+
+    private final int m_from;
+
+    private final int m_to;
+
+    private SortedArrayMap(Comparator<? super K> comparator, Object[] keys, Object[] values, int from, int to)
+    {
+        m_comparator = comparator;
+        m_keys = keys;
+        m_values = values;
+        m_from = from;
+        m_to = to;
+    }
+
+    /**
+     * Creates a map with the entries of the given map sorted with the given
+     * comparator.
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> SortedArrayMap<K, V> of(final Comparator<? super K> comparator, final Map<K, V> map)
+    {
+        Map.Entry<K, V>[] entries = map.entrySet().toArray(new Map.Entry[map.size()]);
+        Arrays.sort(entries, new Comparator<Map.Entry<K, V>>()
+        {
+            @Override
+            public int compare(Map.Entry<K, V> e1, Map.Entry<K, V> e2)
+            {
+                return comparator.compare(e1.getKey(), e2.getKey());
+            }
+        });
+        Object[] keys = new Object[entries.length];
+        Object[] values = new Object[entries.length];
+        for (int i = 0; i < entries.length; i++)
+        {
+            keys[i] = entries[i].getKey();
+            values[i] = entries[i].getValue();
+        }
+        return new SortedArrayMap<>(comparator, keys, values, 0, keys.length);
+    }
+
+    /**
+     * Returns a map with the given entry added or replaced.
+     */
+    SortedArrayMap<K, V> with(final K key, final V value)
+    {
+        int index = lowerBound(key);
+        boolean replace = index < m_to && compare(m_keys[index], key) == 0;
+        int size = size() + (replace ? 0 : 1);
+        Object[] keys = new Object[size];
+        Object[] values = new Object[size];
+        int head = index - m_from;
+        int tail = m_to - index - (replace ? 1 : 0);
+        System.arraycopy(m_keys, m_from, keys, 0, head);
+        System.arraycopy(m_values, m_from, values, 0, head);
+        keys[head] = key;
+        values[head] = value;
+        System.arraycopy(m_keys, m_to - tail, keys, head + 1, tail);
+        System.arraycopy(m_values, m_to - tail, values, head + 1, tail);
+        return new SortedArrayMap<>(m_comparator, keys, values, 0, size);
+    }
+
+    /**
+     * Returns a map without the entry of the given key or this map if it has
+     * no entry for the key.
+     */
+    SortedArrayMap<K, V> without(final Object key)
+    {
+        int index = indexOf(key);
+        if (index < 0)
+        {
+            return this;
+        }
+        int size = size() - 1;
+        Object[] keys = new Object[size];
+        Object[] values = new Object[size];
+        int head = index - m_from;
+        System.arraycopy(m_keys, m_from, keys, 0, head);
+        System.arraycopy(m_values, m_from, values, 0, head);
+        System.arraycopy(m_keys, index + 1, keys, head, size - head);
+        System.arraycopy(m_values, index + 1, values, head, size - head);
+        return new SortedArrayMap<>(m_comparator, keys, values, 0, size);
+    }
+
+    @Override
+    public int size()
+    {
+        return m_to - m_from;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return m_to == m_from;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V get(Object key)
+    {
+        int index = indexOf(key);
+        return index < 0 ? null : (V) m_values[index];
+    }
+
+    @Override
+    public Comparator<? super K> comparator()
+    {
+        return m_comparator;
+    }
+
+    @Override
+    public SortedMap<K, V> subMap(K fromKey, K toKey)
+    {
+        if (compare(fromKey, toKey) > 0)
+        {
+            throw new IllegalArgumentException("fromKey > toKey");
+        }
+        return new SortedArrayMap<>(m_comparator, m_keys, m_values, lowerBound(fromKey), lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> headMap(K toKey)
+    {
+        return new SortedArrayMap<>(m_comparator, m_keys, m_values, m_from, lowerBound(toKey));
+    }
+
+    @Override
+    public SortedMap<K, V> tailMap(K fromKey)
+    {
+        return new SortedArrayMap<>(m_comparator, m_keys, m_values, lowerBound(fromKey), m_to);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K firstKey()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return (K) m_keys[m_from];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public K lastKey()
+    {
+        if (isEmpty())
+        {
+            throw new NoSuchElementException();
+        }
+        return (K) m_keys[m_to - 1];
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Collection<V> values()
+    {
+        List<?> values = Arrays.asList(m_values).subList(m_from, m_to);
+        return Collections.unmodifiableList((List<V>) values);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>()
+        {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                return new Iterator<Map.Entry<K, V>>()
+                {
+                    private int m_index = m_from;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return m_index < m_to;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Map.Entry<K, V> next()
+                    {
+                        if (m_index >= m_to)
+                        {
+                            throw new NoSuchElementException();
+                        }
+                        int index = m_index++;
+                        return new AbstractMap.SimpleImmutableEntry<>((K) m_keys[index], (V) m_values[index]);
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size()
+            {
+                return SortedArrayMap.this.size();
+            }
+        };
+    }
+
+    private int indexOf(Object key)
+    {
+        int index = lowerBound(key);
+        return index < m_to && compare(m_keys[index], key) == 0 ? index : -1;
+    }
+
+    // the first index whose key is not less than the given key
+    private int lowerBound(Object key)
+    {
+        int low = m_from;
+        int high = m_to;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            if (compare(m_keys[mid], key) < 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object k1, Object k2)
+    {
+        return m_comparator.compare((K) k1, (K) k2);
+    }
+}
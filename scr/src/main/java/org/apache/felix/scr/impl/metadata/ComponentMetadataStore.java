@@ -0,0 +1,467 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.metadata;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataReader;
+import org.apache.felix.scr.impl.metadata.MetadataStoreHelper.MetaDataWriter;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+/**
+ * The component metadata of the bundles, which is persisted in an indexed
+ * file. The file starts with an index of segments keyed by bundle id and
+ * last modified time of the bundle, followed by the segments, each holding
+ * the string table and the component metadata of one bundle. Only the index
+ * is read when the store is loaded, the segment of a bundle is read and
+ * parsed when the components of the bundle are loaded. The file is opened
+ * for each read and neither mapped nor kept open, so that it can be replaced
+ * or deleted at any time. A segment is not read if the file changed since
+ * the store was loaded. When the store is written, the segments of unchanged
+ * bundles are copied from the previous file as they are and the file is not
+ * written at all if nothing changed.
+ */
+public class ComponentMetadataStore
+{
+    // The version of the indexed store format. If the stored file is not this
+    // version then the store is ignored
+    static final int FORMAT_VERSION = 2;
+
+    // format version, metadata version and number of segments
+    private static final int HEADER_SIZE = 12;
+
+    // bundle id, last modified time, offset and length of a segment
+    private static final int INDEX_ENTRY_SIZE = 28;
+
+    // the loaded file and its attributes when it was loaded, or null
+    private final File m_file;
+
+    private final BasicFileAttributes m_attributes;
+
+    private final Map<Long, Segment> m_segments;
+
+    private final ConcurrentMap<Long, List<ComponentMetadata>> m_components = new ConcurrentHashMap<>();
+
+    // bundles whose metadata has been put or removed since the store was loaded
+    private final Set<Long> m_changed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+    /**
+     * Creates an empty store.
+     */
+    public ComponentMetadataStore()
+    {
+        this(null, null, Collections.<Long, Segment> emptyMap());
+    }
+
+    private ComponentMetadataStore(File file, BasicFileAttributes attributes,
+        Map<Long, Segment> segments)
+    {
+        m_file = file;
+        m_attributes = attributes;
+        m_segments = segments;
+    }
+
+    /**
+     * Loads the index of the given store file. The store is empty if the file
+     * does not exist or has an unsupported version.
+     *
+     * @param file The store file
+     * @return The store
+     * @throws IOException If the file cannot be read or is corrupt
+     */
+    public static ComponentMetadataStore load(File file) throws IOException
+    {
+        if (file == null || !file.isFile())
+        {
+            return new ComponentMetadataStore();
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class);
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (size < HEADER_SIZE || !read(channel, header, 0)
+                || header.getInt(0) != FORMAT_VERSION
+                || header.getInt(4) != MetadataStoreHelper.STORE_VERSION)
+            {
+                // the stored version is not compatible
+                return new ComponentMetadataStore();
+            }
+            int count = header.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > size)
+            {
+                throw new IOException("Corrupt component metadata store index: " + file);
+            }
+            ByteBuffer index = ByteBuffer.allocate(count * INDEX_ENTRY_SIZE);
+            if (!read(channel, index, HEADER_SIZE))
+            {
+                throw new IOException("Corrupt component metadata store index: " + file);
+            }
+            Map<Long, Segment> segments = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++)
+            {
+                int entry = i * INDEX_ENTRY_SIZE;
+                Segment segment = new Segment(index.getLong(entry + 8),
+                    index.getLong(entry + 16), index.getInt(entry + 24));
+                if (segment.m_offset < 0 || segment.m_length < 0
+                    || segment.m_offset + segment.m_length > size)
+                {
+                    throw new IOException("Corrupt component metadata store index: " + file);
+                }
+                segments.put(index.getLong(entry), segment);
+            }
+            return new ComponentMetadataStore(file, attributes, segments);
+        }
+    }
+
+    /**
+     * Returns the component metadata of the given bundle, reading it from the
+     * store file if it has not been read yet.
+     *
+     * @param bundleId The id of the bundle
+     * @param lastModified The last modified time of the bundle, the stored
+     *      metadata is only returned if it was stored for the same time
+     * @return The component metadata, which is empty if the bundle has no
+     *      components, or <code>null</code> if the metadata is not known
+     * @throws IOException If the stored metadata cannot be read
+     */
+    public List<ComponentMetadata> get(long bundleId, long lastModified) throws IOException
+    {
+        Long key = bundleId;
+        List<ComponentMetadata> components = m_components.get(key);
+        if (components != null)
+        {
+            return components;
+        }
+        Segment segment = m_segments.get(key);
+        if (segment == null || segment.m_lastModified != lastModified
+            || m_changed.contains(key))
+        {
+            return null;
+        }
+        components = read(segment);
+        List<ComponentMetadata> previous = m_components.putIfAbsent(key, components);
+        if (previous != null)
+        {
+            return previous;
+        }
+        if (m_changed.contains(key))
+        {
+            // removed while being read
+            m_components.remove(key, components);
+            return null;
+        }
+        return components;
+    }
+
+    /**
+     * Sets the component metadata of the given bundle.
+     *
+     * @param bundleId The id of the bundle
+     * @param components The component metadata, which is empty if the bundle
+     *      has no components
+     */
+    public void put(long bundleId, List<ComponentMetadata> components)
+    {
+        m_changed.add(bundleId);
+        m_components.put(bundleId, components);
+    }
+
+    /**
+     * Removes the component metadata of the given bundle, for example because
+     * the bundle has been updated or uninstalled.
+     *
+     * @param bundleId The id of the bundle
+     */
+    public void remove(long bundleId)
+    {
+        m_changed.add(bundleId);
+        m_components.remove(bundleId);
+    }
+
+    /**
+     * Writes this store to the given file if it changed. Metadata of bundles
+     * which do no longer exist or were modified is dropped.
+     *
+     * @param file The store file
+     * @param systemContext The system bundle context used to find the bundles
+     * @throws IOException If the file cannot be written
+     */
+    public void store(File file, BundleContext systemContext) throws IOException
+    {
+        Map<Long, Object> segments = new LinkedHashMap<>();
+        boolean changed = m_file == null;
+        for (Entry<Long, Segment> entry : m_segments.entrySet())
+        {
+            Bundle b = systemContext.getBundle(entry.getKey());
+            ByteBuffer segment = null;
+            if (!m_changed.contains(entry.getKey()) && b != null
+                && b.getLastModified() == entry.getValue().m_lastModified)
+            {
+                // copy the segment before the file is replaced, it is dropped
+                // if the file changed since it was loaded
+                try
+                {
+                    segment = readSegment(entry.getValue());
+                }
+                catch (IOException e)
+                {
+                    segment = null;
+                }
+            }
+            if (segment != null)
+            {
+                segments.put(entry.getKey(), segment);
+            }
+            else
+            {
+                changed = true;
+            }
+        }
+        for (Entry<Long, List<ComponentMetadata>> entry : m_components.entrySet())
+        {
+            if (m_changed.contains(entry.getKey())
+                && systemContext.getBundle(entry.getKey()) != null)
+            {
+                segments.put(entry.getKey(), entry.getValue());
+                changed = true;
+            }
+        }
+        if (!changed && file.isFile())
+        {
+            return;
+        }
+
+        // write the segments first to know their offsets
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(data);
+        long[] lastModified = new long[segments.size()];
+        int[] offsets = new int[segments.size()];
+        int[] lengths = new int[segments.size()];
+        int dataOffset = HEADER_SIZE + segments.size() * INDEX_ENTRY_SIZE;
+        int i = 0;
+        for (Entry<Long, Object> entry : segments.entrySet())
+        {
+            offsets[i] = dataOffset + data.size();
+            if (entry.getValue() instanceof ByteBuffer)
+            {
+                lastModified[i] = m_segments.get(entry.getKey()).m_lastModified;
+                ByteBuffer segment = (ByteBuffer) entry.getValue();
+                dataOut.write(segment.array(), 0, segment.limit());
+            }
+            else
+            {
+                @SuppressWarnings("unchecked")
+                List<ComponentMetadata> components = (List<ComponentMetadata>) entry.getValue();
+                lastModified[i] = systemContext.getBundle(entry.getKey()).getLastModified();
+                write(components, dataOut);
+            }
+            lengths[i] = dataOffset + data.size() - offsets[i];
+            i++;
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+            Files.newOutputStream(tmp.toPath())))
+        {
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(MetadataStoreHelper.STORE_VERSION);
+            out.writeInt(segments.size());
+            i = 0;
+            for (Long bundleId : segments.keySet())
+            {
+                out.writeLong(bundleId);
+                out.writeLong(lastModified[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(lengths[i]);
+                i++;
+            }
+            data.writeTo(out);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<ComponentMetadata> read(Segment segment) throws IOException
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(new ByteBufferInputStream(readSegment(segment)));
+            MetaDataReader metaDataReader = new MetaDataReader();
+            int numStrings = in.readInt();
+            for (int i = 0; i < numStrings; i++)
+            {
+                metaDataReader.readIndexedString(in);
+            }
+            int numComponents = in.readInt();
+            List<ComponentMetadata> components = new ArrayList<>(numComponents);
+            for (int i = 0; i < numComponents; i++)
+            {
+                components.add(ComponentMetadata.load(in, metaDataReader));
+            }
+            return components;
+        }
+        catch (RuntimeException e)
+        {
+            throw new IOException("Corrupt component metadata store segment", e);
+        }
+    }
+
+    private static void write(List<ComponentMetadata> components, DataOutputStream out)
+        throws IOException
+    {
+        MetaDataWriter metaDataWriter = new MetaDataWriter();
+        Set<String> strings = new HashSet<>();
+        for (ComponentMetadata component : components)
+        {
+            component.collectStrings(strings);
+        }
+        // remove possible null
+        strings.remove(null);
+        out.writeInt(strings.size());
+        for (String s : strings)
+        {
+            metaDataWriter.writeIndexedString(s, out);
+        }
+        out.writeInt(components.size());
+        for (ComponentMetadata component : components)
+        {
+            component.store(out, metaDataWriter);
+        }
+    }
+
+    private ByteBuffer readSegment(Segment segment) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(m_file.toPath(), StandardOpenOption.READ))
+        {
+            // the file is opened before its attributes are compared, so that
+            // it cannot be replaced after the comparison
+            BasicFileAttributes attributes = Files.readAttributes(m_file.toPath(),
+                BasicFileAttributes.class);
+            if (attributes.size() != m_attributes.size()
+                || !attributes.lastModifiedTime().equals(m_attributes.lastModifiedTime())
+                || !Objects.equals(attributes.fileKey(), m_attributes.fileKey()))
+            {
+                throw new IOException("Component metadata store changed since it was loaded: " + m_file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(segment.m_length);
+            if (!read(channel, buffer, segment.m_offset))
+            {
+                throw new EOFException("Truncated component metadata store: " + m_file);
+            }
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads the channel from the given position until the buffer is full.
+     * The buffer is flipped for reading afterwards.
+     *
+     * @return <code>false</code> if the end of the channel was reached first
+     */
+    private static boolean read(FileChannel channel, ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int count = channel.read(buffer, position);
+            if (count < 0)
+            {
+                return false;
+            }
+            position += count;
+        }
+        buffer.flip();
+        return true;
+    }
+
+    private static final class Segment
+    {
+        final long m_lastModified;
+        final long m_offset;
+        final int m_length;
+
+        Segment(long lastModified, long offset, int length)
+        {
+            m_lastModified = lastModified;
+            m_offset = offset;
+            m_length = length;
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer)
+        {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return m_buffer.hasRemaining() ? m_buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+        {
+            if (!m_buffer.hasRemaining())
+            {
+                return -1;
+            }
+            int count = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available()
+        {
+            return m_buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+
+import junit.framework.TestCase;
+
+
+public class ComponentActorThreadTest extends TestCase
+{
+
+    public void test_single_thread_runs_tasks_in_order()
+    {
+        final ComponentActorThread actor = new ComponentActorThread( new MockScrLogger() );
+        actor.start();
+
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            actor.schedule( i % 2 == 0 ? "a" : "b", record( order, i ) );
+        }
+        actor.terminate();
+
+        assertEquals( 100, order.size() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), order.get( i ) );
+        }
+    }
+
+
+    public void test_tasks_with_same_key_run_serially()
+    {
+        final ComponentActorThread actor = new ComponentActorThread( new MockScrLogger(), 4, false );
+        actor.start();
+
+        final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicBoolean overlapped = new AtomicBoolean();
+        for ( int i = 0; i < 200; i++ )
+        {
+            final Runnable record = record( order, i );
+            actor.schedule( "component", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if ( active.incrementAndGet() != 1 )
+                    {
+                        overlapped.set( true );
+                    }
+                    record.run();
+                    active.decrementAndGet();
+                }
+            } );
+        }
+        actor.terminate();
+
+        assertFalse( overlapped.get() );
+        assertEquals( 200, order.size() );
+        for ( int i = 0; i < 200; i++ )
+        {
+            assertEquals( Integer.valueOf( i ), order.get( i ) );
+        }
+    }
+
+
+    public void test_slow_task_does_not_block_other_components() throws InterruptedException
+    {
+        final ComponentActorThread actor = new ComponentActorThread( new MockScrLogger(), 2, false );
+        actor.start();
+
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final CountDownLatch otherRan = new CountDownLatch( 1 );
+        final AtomicBoolean overtook = new AtomicBoolean();
+        actor.schedule( "slow", await( release ) );
+        actor.schedule( "slow", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                overtook.set( release.getCount() != 0 );
+            }
+        } );
+        actor.schedule( "other", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                otherRan.countDown();
+            }
+        } );
+
+        try
+        {
+            assertTrue( otherRan.await( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            release.countDown();
+            actor.terminate();
+        }
+        assertFalse( overtook.get() );
+    }
+
+
+    private static Runnable record( final List<Integer> order, final int i )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                order.add( i );
+            }
+        };
+    }
+
+
+    private static Runnable await( final CountDownLatch latch )
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    latch.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl;
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.felix.scr.impl.logger.MockScrLogger;
+import org.apache.felix.scr.impl.manager.AbstractComponentManager;
+import org.apache.felix.scr.impl.manager.DependencyManager;
+import org.mockito.Mockito;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.ComponentConstants;
+
+import junit.framework.TestCase;
+
+
+public class ComponentRegistryTest extends TestCase
+{
+
+    @SuppressWarnings("unchecked")
+    public void test_late_binding_is_keyed_by_component_manager()
+    {
+        final ComponentRegistry registry = new ComponentRegistry( null, new MockScrLogger() );
+
+        final ServiceReference<Object> ref = Mockito.mock( ServiceReference.class );
+        Mockito.when( ref.getProperty( ComponentConstants.COMPONENT_NAME ) ).thenReturn( "target" );
+        Mockito.when( ref.getProperty( ComponentConstants.COMPONENT_ID ) ).thenReturn( 1L );
+
+        final AbstractComponentManager<Object> cm1 = Mockito.mock( AbstractComponentManager.class );
+        final AbstractComponentManager<Object> cm2 = Mockito.mock( AbstractComponentManager.class );
+        final DependencyManager<Object, Object> dm1a = dependencyManager( cm1 );
+        final DependencyManager<Object, Object> dm1b = dependencyManager( cm1 );
+        final DependencyManager<Object, Object> dm2 = dependencyManager( cm2 );
+        registry.registerMissingDependency( dm1a, ref, 1 );
+        registry.registerMissingDependency( dm2, ref, 2 );
+        registry.registerMissingDependency( dm1b, ref, 3 );
+
+        final List<Object> keys = new ArrayList<>();
+        final List<Runnable> tasks = new ArrayList<>();
+        final ComponentActorThread actor = new ComponentActorThread( new MockScrLogger() )
+        {
+            @Override
+            void schedule( Object key, Runnable task )
+            {
+                keys.add( key );
+                tasks.add( task );
+            }
+        };
+        registry.missingServicePresent( ref, actor );
+
+        assertEquals( 2, keys.size() );
+        assertSame( cm1, keys.get( 0 ) );
+        assertSame( cm2, keys.get( 1 ) );
+
+        tasks.get( 0 ).run();
+        Mockito.verify( dm1a ).invokeBindMethodLate( ref, 1 );
+        Mockito.verify( dm1b ).invokeBindMethodLate( ref, 3 );
+        Mockito.verify( dm2, Mockito.never() ).invokeBindMethodLate( ref, 2 );
+
+        tasks.get( 1 ).run();
+        Mockito.verify( dm2 ).invokeBindMethodLate( ref, 2 );
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static DependencyManager<Object, Object> dependencyManager( AbstractComponentManager<Object> cm )
+    {
+        final DependencyManager<Object, Object> dm = Mockito.mock( DependencyManager.class );
+        Mockito.when( dm.getComponentManager() ).thenReturn( cm );
+        return dm;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.inject.methods;
+
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.felix.scr.impl.MockBundle;
+import org.apache.felix.scr.impl.inject.BindParameters;
+import org.apache.felix.scr.impl.inject.internal.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.logger.ComponentLogger;
+import org.apache.felix.scr.impl.logger.MockComponentLogger;
+import org.apache.felix.scr.impl.manager.ComponentActivator;
+import org.apache.felix.scr.impl.manager.ComponentContainer;
+import org.apache.felix.scr.impl.manager.ComponentContextImpl;
+import org.apache.felix.scr.impl.manager.SingleComponentManager;
+import org.apache.felix.scr.impl.manager.SingleRefPair;
+import org.apache.felix.scr.impl.manager.components.FakeService;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * Measures binding and unbinding 10k dynamic references through bind and
+ * unbind methods taking the service object, as well as the service object
+ * and the service properties. Run with
+ * {@code java -cp <test classpath> org.apache.felix.scr.impl.inject.methods.BindMethodBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BindMethodBenchmark
+{
+
+    private static final int REFERENCES = 10000;
+
+    private Component m_component;
+    private BindParameters[] m_parameters;
+    private BindMethod m_bind;
+    private BindMethod m_unbind;
+    private BindMethod m_bindWithProperties;
+    private BindMethod m_unbindWithProperties;
+
+
+    @Setup
+    public void setUp()
+    {
+        final ComponentActivator activator = Mockito.mock( ComponentActivator.class );
+        final ComponentMetadata metadata = new ComponentMetadata( DSVersion.DS13 );
+        metadata.setName( "benchmark" );
+        metadata.setImplementationClassName( Component.class.getName() );
+        metadata.validate();
+        final ComponentLogger logger = new MockComponentLogger()
+        {
+            @Override
+            public boolean isLogEnabled( Level level )
+            {
+                return false;
+            }
+        };
+        ComponentContainer<Object> container = new ComponentContainer<Object>()
+        {
+
+            @Override
+            public ComponentActivator getActivator()
+            {
+                return activator;
+            }
+
+            @Override
+            public ComponentMetadata getComponentMetadata()
+            {
+                return metadata;
+            }
+
+            @Override
+            public void disposed( SingleComponentManager<Object> component )
+            {
+            }
+
+            @Override
+            public ComponentLogger getLogger()
+            {
+                return logger;
+            }
+        };
+        SingleComponentManager<Object> icm = new SingleComponentManager<>( container,
+            new ComponentMethodsImpl<>() );
+        ComponentContextImpl<Object> cc = new ComponentContextImpl<>( icm, new MockBundle(), null );
+
+        BundleContext context = Mockito.mock( BundleContext.class );
+        m_parameters = new BindParameters[REFERENCES];
+        for ( int i = 0; i < REFERENCES; i++ )
+        {
+            ServiceReference<FakeService> ref = new Reference( i );
+            Mockito.when( context.getService( ref ) ).thenReturn( Mockito.mock( FakeService.class ) );
+            SingleRefPair<Object, FakeService> refPair = new SingleRefPair<>( ref );
+            m_parameters[i] = new BindParameters( cc, refPair );
+        }
+
+        m_component = new Component();
+        m_bind = new BindMethod( "bind", Component.class, FakeService.class.getName(), DSVersion.DS13, false );
+        m_unbind = new BindMethod( "unbind", Component.class, FakeService.class.getName(), DSVersion.DS13, false );
+        m_bindWithProperties = new BindMethod( "bindWithProperties", Component.class,
+            FakeService.class.getName(), DSVersion.DS13, false );
+        m_unbindWithProperties = new BindMethod( "unbindWithProperties", Component.class,
+            FakeService.class.getName(), DSVersion.DS13, false );
+        for ( BindParameters bp : m_parameters )
+        {
+            m_bind.getServiceObject( bp, context );
+        }
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(2 * REFERENCES)
+    public int bindService()
+    {
+        for ( BindParameters bp : m_parameters )
+        {
+            m_bind.invoke( m_component, bp, null );
+        }
+        for ( BindParameters bp : m_parameters )
+        {
+            m_unbind.invoke( m_component, bp, null );
+        }
+        return m_component.m_bound;
+    }
+
+
+    @Benchmark
+    @OperationsPerInvocation(2 * REFERENCES)
+    public int bindServiceWithProperties()
+    {
+        for ( BindParameters bp : m_parameters )
+        {
+            m_bindWithProperties.invoke( m_component, bp, null );
+        }
+        for ( BindParameters bp : m_parameters )
+        {
+            m_unbindWithProperties.invoke( m_component, bp, null );
+        }
+        return m_component.m_bound;
+    }
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        new Runner( new OptionsBuilder().include( BindMethodBenchmark.class.getSimpleName() ).build() ).run();
+    }
+
+
+    // a plain service reference, since mocked ones would dominate the measurement
+    private static final class Reference implements ServiceReference<FakeService>
+    {
+
+        private final Long m_id;
+
+
+        Reference( final long id )
+        {
+            m_id = Long.valueOf( id );
+        }
+
+
+        @Override
+        public Object getProperty( String key )
+        {
+            return Constants.SERVICE_ID.equals( key ) ? m_id : null;
+        }
+
+
+        @Override
+        public String[] getPropertyKeys()
+        {
+            return new String[] { Constants.SERVICE_ID };
+        }
+
+
+        @Override
+        public Bundle getBundle()
+        {
+            return null;
+        }
+
+
+        @Override
+        public Bundle[] getUsingBundles()
+        {
+            return null;
+        }
+
+
+        @Override
+        public boolean isAssignableTo( Bundle bundle, String className )
+        {
+            return true;
+        }
+
+
+        @Override
+        public int compareTo( Object reference )
+        {
+            return m_id.compareTo( ( ( Reference ) reference ).m_id );
+        }
+
+
+        @Override
+        public Dictionary<String, Object> getProperties()
+        {
+            Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put( Constants.SERVICE_ID, m_id );
+            return properties;
+        }
+
+
+        @Override
+        public <A> A adapt( Class<A> type )
+        {
+            return null;
+        }
+    }
+
+
+    public static class Component
+    {
+
+        int m_bound;
+
+
+        public void bind( FakeService service )
+        {
+            m_bound++;
+        }
+
+
+        public void unbind( FakeService service )
+        {
+            m_bound--;
+        }
+
+
+        public void bindWithProperties( FakeService service, Map<String, Object> properties )
+        {
+            m_bound++;
+        }
+
+
+        public void unbindWithProperties( FakeService service, Map<String, Object> properties )
+        {
+            m_bound--;
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.felix.scr.impl.inject.internal.ComponentMethodsImpl;
+import org.apache.felix.scr.impl.logger.ComponentLogger;
+import org.apache.felix.scr.impl.manager.AbstractComponentManager.State;
+import org.apache.felix.scr.impl.metadata.ComponentMetadata;
+import org.apache.felix.scr.impl.metadata.DSVersion;
+import org.apache.felix.scr.impl.metadata.ReferenceMetadata;
+import org.apache.felix.scr.impl.metadata.ServiceMetadata;
+import org.mockito.Mockito;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+
+import junit.framework.TestCase;
+
+public class ReactivationBatchTest extends TestCase
+{
+
+    private final List<String> m_activations = new ArrayList<String>();
+
+    public void test_activations_per_change()
+    {
+        final TestManager a = newManager( "a", null );
+        final TestManager b = newManager( "b", null );
+        final TestManager c = newManager( "c", null );
+
+        // a change deactivates a, which deactivates b and c through nested
+        // service events, c twice through two of its references
+        final ReactivationBatch batch = ReactivationBatch.enter();
+        try
+        {
+            batch.add( a );
+            final ReactivationBatch nested = ReactivationBatch.enter();
+            assertSame( batch, nested );
+            try
+            {
+                nested.addAll( Arrays.<AbstractComponentManager<?>> asList( b, c ) );
+            }
+            finally
+            {
+                nested.exit();
+            }
+            batch.add( c );
+            assertTrue( "Nested batch must not activate", m_activations.isEmpty() );
+        }
+        finally
+        {
+            batch.exit();
+        }
+        assertEquals( Arrays.asList( "a", "b", "c" ), m_activations );
+
+        // the batch is gone once exited
+        m_activations.clear();
+        final ExtendedServiceEvent event = new ExtendedServiceEvent( ServiceEvent.UNREGISTERING,
+            Mockito.mock( ServiceReference.class ) );
+        event.addComponentManager( a );
+        event.activateManagers();
+        assertEquals( Arrays.asList( "a" ), m_activations );
+    }
+
+    public void test_activation_deactivating_another_component()
+    {
+        final TestManager b = newManager( "b", null );
+        final TestManager a = newManager( "a", b );
+
+        final ReactivationBatch batch = ReactivationBatch.enter();
+        try
+        {
+            batch.add( a );
+            batch.add( b );
+        }
+        finally
+        {
+            batch.exit();
+        }
+        // b was deactivated again by the activation of a
+        assertEquals( Arrays.asList( "a", "b", "b" ), m_activations );
+    }
+
+    public void test_sort()
+    {
+        final TestManager c = newManager( "c", null, "b.B", "c.C" );
+        final TestManager b = newManager( "b", null, "a.A", "b.B" );
+        final TestManager a = newManager( "a", null, null, "a.A" );
+        final TestManager d = newManager( "d", null, "x.X", null );
+        assertEquals( Arrays.asList( d, a, b, c ),
+            ReactivationBatch.sort( Arrays.<AbstractComponentManager<?>> asList( c, b, d, a ) ) );
+
+        // circular references keep their order
+        final TestManager e = newManager( "e", null, "f.F", "e.E" );
+        final TestManager f = newManager( "f", null, "e.E", "f.F" );
+        assertEquals( Arrays.asList( a, f, e ),
+            ReactivationBatch.sort( Arrays.<AbstractComponentManager<?>> asList( f, e, a ) ) );
+    }
+
+    private TestManager newManager( final String name, final TestManager cascade )
+    {
+        final TestManager manager = newManager( name, cascade, null, null );
+        manager.setState( manager.getState(), State.unsatisfiedReference );
+        return manager;
+    }
+
+    @SuppressWarnings("unchecked")
+    private TestManager newManager( final String name, final TestManager cascade, final String reference,
+        final String service )
+    {
+        final ComponentMetadata cm = new ComponentMetadata( DSVersion.DS13 );
+        cm.setName( name );
+        cm.setImplementationClassName( "foo.bar.SomeClass" );
+        if ( reference != null )
+        {
+            final ReferenceMetadata rm = new ReferenceMetadata();
+            rm.setName( reference );
+            rm.setInterface( reference );
+            cm.addDependency( rm );
+        }
+        if ( service != null )
+        {
+            final ServiceMetadata sm = new ServiceMetadata();
+            sm.addProvide( service );
+            cm.setService( sm );
+        }
+        cm.validate();
+
+        final ComponentActivator activator = Mockito.mock( ComponentActivator.class );
+        Mockito.when( activator.isActive() ).thenReturn( true );
+        final ComponentContainer<Object> container = Mockito.mock( ComponentContainer.class );
+        Mockito.when( container.getComponentMetadata() ).thenReturn( cm );
+        Mockito.when( container.getActivator() ).thenReturn( activator );
+        Mockito.when( container.getLogger() ).thenReturn( Mockito.mock( ComponentLogger.class ) );
+        return new TestManager( container, name, cascade );
+    }
+
+    private class TestManager extends SingleComponentManager<Object>
+    {
+        private final String m_name;
+
+        private final TestManager m_cascade;
+
+        TestManager( final ComponentContainer<Object> container, final String name, final TestManager cascade )
+        {
+            super( container, new ComponentMethodsImpl<Object>() );
+            m_name = name;
+            m_cascade = cascade;
+        }
+
+        @Override
+        boolean getServiceInternal( ServiceRegistration<Object> serviceRegistration )
+        {
+            // count the activation, the state stays unsatisfied
+            m_activations.add( m_name );
+            if ( m_cascade != null )
+            {
+                final ReactivationBatch batch = ReactivationBatch.enter();
+                try
+                {
+                    batch.add( m_cascade );
+                }
+                finally
+                {
+                    batch.exit();
+                }
+            }
+            return true;
+        }
+    }
+}
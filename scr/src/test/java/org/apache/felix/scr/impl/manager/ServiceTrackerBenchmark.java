@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mockito.Mockito;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+
+
+/**
+ * Churns 1000 services against the trackers of 100 components. Each
+ * operation unregisters one service and registers a replacement, and the
+ * customizer of every tracker looks up the service count and the best
+ * service like a dynamic reference does. Run with
+ * {@code java -cp <test classpath> org.apache.felix.scr.impl.manager.ServiceTrackerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceTrackerBenchmark
+{
+
+    private static final int SERVICES = 1000;
+
+    private static final int COMPONENTS = 100;
+
+    private final List<ExtendedServiceListener<ServiceEvent>> m_listeners = new ArrayList<>();
+
+    private Reference[] m_references;
+
+    private long m_nextId;
+
+    private int m_next;
+
+
+    @Setup
+    public void setUp()
+    {
+        BundleContext context = Mockito.mock( BundleContext.class );
+        ExtendedServiceListenerContext<ServiceEvent> listenerContext = new ExtendedServiceListenerContext<ServiceEvent>()
+        {
+
+            @Override
+            public void addServiceListener( String serviceFilterString, ExtendedServiceListener<ServiceEvent> listener )
+            {
+                m_listeners.add( listener );
+            }
+
+
+            @Override
+            public void removeServiceListener( String serviceFilterString, ExtendedServiceListener<ServiceEvent> listener )
+            {
+                m_listeners.remove( listener );
+            }
+        };
+        for ( int i = 0; i < COMPONENTS; i++ )
+        {
+            Customizer customizer = new Customizer();
+            ServiceTracker<Object, Reference, ServiceEvent> tracker = new ServiceTracker<>( context, customizer, true,
+                listenerContext, "(objectClass=benchmark)", null );
+            customizer.m_tracker = tracker;
+            tracker.open( new AtomicInteger() );
+        }
+        m_references = new Reference[SERVICES];
+        for ( int i = 0; i < SERVICES; i++ )
+        {
+            m_references[i] = register();
+        }
+    }
+
+
+    @Benchmark
+    public int churn()
+    {
+        int i = m_next++ % SERVICES;
+        fire( ServiceEvent.UNREGISTERING, m_references[i] );
+        m_references[i] = register();
+        return i;
+    }
+
+
+    private Reference register()
+    {
+        Reference reference = new Reference( m_nextId++ );
+        fire( ServiceEvent.REGISTERED, reference );
+        return reference;
+    }
+
+
+    private void fire( int type, Reference reference )
+    {
+        ServiceEvent event = new ServiceEvent( type, reference );
+        for ( ExtendedServiceListener<ServiceEvent> listener : m_listeners )
+        {
+            listener.serviceChanged( event );
+        }
+    }
+
+
+    public static void main( String[] args ) throws Exception
+    {
+        new Runner( new OptionsBuilder().include( ServiceTrackerBenchmark.class.getSimpleName() ).build() ).run();
+    }
+
+
+    private static final class Customizer implements ServiceTrackerCustomizer<Object, Reference, ServiceEvent>
+    {
+
+        ServiceTracker<Object, Reference, ServiceEvent> m_tracker;
+
+        Reference m_best;
+
+        int m_count;
+
+
+        @Override
+        public Reference addingService( ServiceReference<Object> reference )
+        {
+            return ( Reference ) reference;
+        }
+
+
+        @Override
+        public void addedService( ServiceReference<Object> reference, Reference service, int trackingCount,
+            int serviceCount, ServiceEvent event )
+        {
+            update();
+        }
+
+
+        @Override
+        public void modifiedService( ServiceReference<Object> reference, Reference service, int trackingCount,
+            ServiceEvent event )
+        {
+            update();
+        }
+
+
+        @Override
+        public void removedService( ServiceReference<Object> reference, Reference service, int trackingCount,
+            ServiceEvent event )
+        {
+            update();
+        }
+
+
+        private void update()
+        {
+            m_count = m_tracker.getServiceCount();
+            SortedMap<ServiceReference<Object>, Reference> tracked = m_tracker.getTracked( null, new AtomicInteger() );
+            m_best = tracked.isEmpty() ? null : tracked.values().iterator().next();
+        }
+    }
+
+
+    // a plain service reference, since mocked ones would dominate the measurement
+    private static final class Reference implements ServiceReference<Object>
+    {
+
+        private final Long m_id;
+
+        private final Integer m_ranking;
+
+
+        Reference( final long id )
+        {
+            m_id = Long.valueOf( id );
+            m_ranking = Integer.valueOf( ( int ) ( id % 10 ) );
+        }
+
+
+        @Override
+        public Object getProperty( String key )
+        {
+            if ( Constants.SERVICE_ID.equals( key ) )
+            {
+                return m_id;
+            }
+            return Constants.SERVICE_RANKING.equals( key ) ? m_ranking : null;
+        }
+
+
+        @Override
+        public String[] getPropertyKeys()
+        {
+            return new String[] { Constants.SERVICE_ID, Constants.SERVICE_RANKING };
+        }
+
+
+        @Override
+        public Bundle getBundle()
+        {
+            return null;
+        }
+
+
+        @Override
+        public Bundle[] getUsingBundles()
+        {
+            return null;
+        }
+
+
+        @Override
+        public boolean isAssignableTo( Bundle bundle, String className )
+        {
+            return true;
+        }
+
+
+        @Override
+        public int compareTo( Object reference )
+        {
+            // higher ranking first, then lower service id
+            Reference other = ( Reference ) reference;
+            int result = m_ranking.compareTo( other.m_ranking );
+            return result != 0 ? result : other.m_id.compareTo( m_id );
+        }
+
+
+        @Override
+        public Dictionary<String, Object> getProperties()
+        {
+            Hashtable<String, Object> properties = new Hashtable<>();
+            properties.put( Constants.SERVICE_ID, m_id );
+            properties.put( Constants.SERVICE_RANKING, m_ranking );
+            return properties;
+        }
+
+
+        @Override
+        public <A> A adapt( Class<A> type )
+        {
+            return null;
+        }
+    }
+}
@@ -87,7 +87,7 @@ public class SingleComponentManagerTest
         }
 
         @Override
-        public void schedule(Runnable runnable)
+        public void schedule(Object key, Runnable runnable)
         {
             // TODO Auto-generated method stub
 
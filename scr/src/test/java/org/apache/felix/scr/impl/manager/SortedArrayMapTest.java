@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.manager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class SortedArrayMapTest extends TestCase
+{
+
+    private final Comparator<Integer> m_comparator = Collections.reverseOrder();
+
+    public void test_of()
+    {
+        final Map<Integer, String> map = new HashMap<Integer, String>();
+        map.put( 1, "one" );
+        map.put( 3, "three" );
+        map.put( 2, "two" );
+        final SortedArrayMap<Integer, String> sorted = SortedArrayMap.of( m_comparator, map );
+        assertEquals( 3, sorted.size() );
+        assertEquals( Arrays.asList( 3, 2, 1 ), new ArrayList<Integer>( sorted.keySet() ) );
+        assertEquals( Arrays.asList( "three", "two", "one" ), new ArrayList<String>( sorted.values() ) );
+        assertEquals( Integer.valueOf( 3 ), sorted.firstKey() );
+        assertEquals( Integer.valueOf( 1 ), sorted.lastKey() );
+        assertEquals( "two", sorted.get( 2 ) );
+        assertNull( sorted.get( 4 ) );
+        assertEquals( map, sorted );
+    }
+
+    public void test_withAndWithout()
+    {
+        final Random random = new Random( 1 );
+        final TreeMap<Integer, String> expected = new TreeMap<Integer, String>( m_comparator );
+        SortedArrayMap<Integer, String> sorted = SortedArrayMap.of( m_comparator, expected );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            final Integer key = random.nextInt( 100 );
+            final SortedArrayMap<Integer, String> previous = sorted;
+            final int previousSize = previous.size();
+            if ( random.nextBoolean() )
+            {
+                expected.put( key, "v" + i );
+                sorted = sorted.with( key, "v" + i );
+            }
+            else
+            {
+                expected.remove( key );
+                sorted = sorted.without( key );
+            }
+            assertEquals( expected, sorted );
+            assertEquals( new ArrayList<Integer>( expected.keySet() ), new ArrayList<Integer>( sorted.keySet() ) );
+            assertEquals( new ArrayList<String>( expected.values() ), new ArrayList<String>( sorted.values() ) );
+            // the previous map is not modified
+            assertEquals( previousSize, previous.size() );
+        }
+    }
+
+    public void test_subMaps()
+    {
+        final TreeMap<Integer, String> expected = new TreeMap<Integer, String>( m_comparator );
+        for ( int i = 0; i < 10; i++ )
+        {
+            expected.put( i * 2, "v" + i );
+        }
+        final SortedArrayMap<Integer, String> sorted = SortedArrayMap.of( m_comparator, expected );
+        assertEquals( expected.headMap( 9 ), sorted.headMap( 9 ) );
+        assertEquals( expected.headMap( 8 ), sorted.headMap( 8 ) );
+        assertEquals( expected.tailMap( 9 ), sorted.tailMap( 9 ) );
+        assertEquals( expected.subMap( 15, 4 ), sorted.subMap( 15, 4 ) );
+        assertEquals( expected.subMap( 15, 4 ).firstKey(), sorted.subMap( 15, 4 ).firstKey() );
+        assertTrue( sorted.subMap( 5, 5 ).isEmpty() );
+        try
+        {
+            sorted.values().clear();
+            fail( "values must not be modifiable" );
+        }
+        catch ( UnsupportedOperationException e )
+        {
+            // expected
+        }
+    }
+}
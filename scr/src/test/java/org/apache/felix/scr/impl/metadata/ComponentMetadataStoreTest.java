@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.felix.scr.impl.metadata;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.mockito.Mockito;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+
+public class ComponentMetadataStoreTest extends ComponentBase
+{
+    private File m_file;
+
+    private BundleContext m_systemContext;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        m_file = File.createTempFile("componentMetadataStore", ".bin");
+        m_file.delete();
+        m_systemContext = Mockito.mock(BundleContext.class);
+        addBundle(1, 100);
+        addBundle(2, 200);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        m_file.delete();
+        super.tearDown();
+    }
+
+    public void testStoreAndLoad() throws Exception
+    {
+        List<ComponentMetadata> metadata = readValidMetadata();
+        ComponentMetadataStore store = new ComponentMetadataStore();
+        store.put(1, metadata);
+        store.put(2, Collections.<ComponentMetadata> emptyList());
+        store.store(m_file, m_systemContext);
+
+        ComponentMetadataStore loaded = ComponentMetadataStore.load(m_file);
+        List<ComponentMetadata> cached = loaded.get(1, 100);
+        assertEquals(1, cached.size());
+        assertEquals(metadata.get(0).getName(), cached.get(0).getName());
+        assertEquals(metadata.get(0).getImplementationClassName(),
+            cached.get(0).getImplementationClassName());
+        assertSame(cached, loaded.get(1, 100));
+        assertTrue(loaded.get(2, 200).isEmpty());
+        assertNull(loaded.get(3, 300));
+    }
+
+    public void testModifiedBundle() throws Exception
+    {
+        ComponentMetadataStore store = new ComponentMetadataStore();
+        store.put(1, readValidMetadata());
+        store.store(m_file, m_systemContext);
+
+        assertNull(ComponentMetadataStore.load(m_file).get(1, 101));
+
+        // the bundle was updated while the framework was down
+        addBundle(1, 101);
+        ComponentMetadataStore loaded = ComponentMetadataStore.load(m_file);
+        loaded.store(m_file, m_systemContext);
+        assertNull(ComponentMetadataStore.load(m_file).get(1, 101));
+    }
+
+    public void testIncrementalStore() throws Exception
+    {
+        ComponentMetadataStore store = new ComponentMetadataStore();
+        store.put(1, readValidMetadata());
+        store.put(2, readValidMetadata());
+        store.store(m_file, m_systemContext);
+        long lastModified = m_file.lastModified();
+        byte[] content = Files.readAllBytes(m_file.toPath());
+
+        // unchanged store is not written
+        ComponentMetadataStore loaded = ComponentMetadataStore.load(m_file);
+        loaded.get(1, 100);
+        loaded.store(m_file, m_systemContext);
+        assertEquals(lastModified, m_file.lastModified());
+
+        // removed bundle is dropped, the other segment is kept as is
+        loaded.remove(2);
+        assertNull(loaded.get(2, 200));
+        loaded.store(m_file, m_systemContext);
+        assertTrue(Files.readAllBytes(m_file.toPath()).length < content.length);
+
+        loaded = ComponentMetadataStore.load(m_file);
+        assertEquals(1, loaded.get(1, 100).size());
+        assertNull(loaded.get(2, 200));
+    }
+
+    public void testSegmentsAreReadOnDemand() throws Exception
+    {
+        ComponentMetadataStore store = new ComponentMetadataStore();
+        store.put(1, readValidMetadata());
+        store.put(2, readValidMetadata());
+        store.store(m_file, m_systemContext);
+
+        // only the index is read on load, the file is not kept open
+        ComponentMetadataStore loaded = ComponentMetadataStore.load(m_file);
+        assertEquals(1, loaded.get(1, 100).size());
+        assertTrue(m_file.delete());
+        assertEquals(1, loaded.get(1, 100).size());
+        try
+        {
+            loaded.get(2, 200);
+            fail("Segment of a deleted store must not be read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+    }
+
+    public void testChangedFileIsNotRead() throws Exception
+    {
+        ComponentMetadataStore store = new ComponentMetadataStore();
+        store.put(1, readValidMetadata());
+        store.put(2, readValidMetadata());
+        store.store(m_file, m_systemContext);
+        ComponentMetadataStore loaded = ComponentMetadataStore.load(m_file);
+
+        // the file is replaced while the store is in use
+        store = new ComponentMetadataStore();
+        store.put(2, readValidMetadata());
+        store.store(m_file, m_systemContext);
+        try
+        {
+            loaded.get(1, 100);
+            fail("Segment of a replaced store must not be read");
+        }
+        catch (IOException e)
+        {
+            // expected
+        }
+
+        // segments that cannot be read any more are dropped when storing
+        loaded.put(2, Collections.<ComponentMetadata> emptyList());
+        loaded.store(m_file, m_systemContext);
+        loaded = ComponentMetadataStore.load(m_file);
+        assertNull(loaded.get(1, 100));
+        assertTrue(loaded.get(2, 200).isEmpty());
+    }
+
+    public void testUnsupportedVersion() throws Exception
+    {
+        Files.write(m_file.toPath(), new byte[] { 0, 0, 0, 1, 0, 0, 0, 1 });
+        assertNull(ComponentMetadataStore.load(m_file).get(1, 100));
+    }
+
+    private List<ComponentMetadata> readValidMetadata() throws Exception
+    {
+        List<ComponentMetadata> metadata = readMetadata("/components_13.xml");
+        for (ComponentMetadata cm : metadata)
+        {
+            cm.validate();
+        }
+        return metadata;
+    }
+
+    private void addBundle(long bundleId, long lastModified) throws IOException
+    {
+        Bundle bundle = Mockito.mock(Bundle.class);
+        Mockito.when(bundle.getBundleId()).thenReturn(bundleId);
+        Mockito.when(bundle.getLastModified()).thenReturn(lastModified);
+        Mockito.when(m_systemContext.getBundle(bundleId)).thenReturn(bundle);
+    }
+}